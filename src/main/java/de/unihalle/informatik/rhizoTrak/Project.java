@@ -128,10 +128,12 @@ import de.unihalle.informatik.rhizoTrak.display.Stack;
 import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.display.YesNoDialog;
 import de.unihalle.informatik.rhizoTrak.display.ZDisplayable;
+import de.unihalle.informatik.rhizoTrak.persistence.ChangeJournal;
 import de.unihalle.informatik.rhizoTrak.persistence.DBLoader;
 import de.unihalle.informatik.rhizoTrak.persistence.DBObject;
 import de.unihalle.informatik.rhizoTrak.persistence.FSLoader;
 import de.unihalle.informatik.rhizoTrak.persistence.Loader;
+import de.unihalle.informatik.rhizoTrak.persistence.TreelinePager;
 import de.unihalle.informatik.rhizoTrak.persistence.XMLOptions;
 import de.unihalle.informatik.rhizoTrak.plugin.TPlugIn;
 import de.unihalle.informatik.rhizoTrak.tree.DNDTree;
@@ -352,6 +354,25 @@ public class Project extends DBObject {
 
 	private ScheduledFuture<?> autosaving = null;
 
+	private ChangeJournal journal = null;
+
+	/** The journal of the edits since the project was last saved, see {@link ChangeJournal}. */
+	synchronized public ChangeJournal getChangeJournal() {
+		if (null == journal) journal = new ChangeJournal(this);
+		return journal;
+	}
+
+	private TreelinePager pager = null;
+
+	/** The pager of the treeline nodes if the project was opened from a large snapshot, else null; see {@link TreelinePager}. */
+	public TreelinePager getTreelinePager() {
+		return pager;
+	}
+
+	public void setTreelinePager(final TreelinePager pager) {
+		this.pager = pager;
+	}
+
 	private void restartAutosaving() {
 		// cancel current autosaving if it's running
 		if (null != autosaving) try {
@@ -365,6 +386,8 @@ public class Project extends DBObject {
 			public void run() {
 				try {
 					if (loader.hasChanges()) {
+						// append the edits to the journal, unless it has grown too large or there are edits it does not record
+						if (!loader.hasUnjournaledChanges() && getChangeJournal().canFlush() && getChangeJournal().flush()) return;
 						Bureaucrat.createAndStart(new Worker.Task("auto-saving") {
 							@Override
 							public void exec() {
@@ -757,6 +780,9 @@ public class Project extends DBObject {
 		Utils.log2("start addon loader ...");
 		project.getRhizoMain().getRhizoIO().addonLoader(new File(loader.getProjectXMLPath()), project);
 
+		// apply the edits journaled after the project was last saved, if rhizoTrak was not closed properly
+		ChangeJournal.replay(project);
+
 		// open any stored displays
 		if (open_displays) {
 			final Bureaucrat burro = Display.openLater();
@@ -920,7 +946,8 @@ public class Project extends DBObject {
 		if (null == loader) {
 			return true;
 		}
-		if (loader.hasChanges() && !getBooleanProperty("no_shutdown_hook")) { // DBLoader always returns false
+		final boolean recovered = null != journal && journal.isRecovered();
+		if ((loader.hasChanges() || recovered) && !getBooleanProperty("no_shutdown_hook")) { // DBLoader always returns false
 			if (ControlWindow.isGUIEnabled()) {
 				final YesNoDialog yn = ControlWindow.makeYesNoDialog("rhizoTrak", "There are unsaved changes in project " + title + ". Save them?");
 				if (yn.yesPressed()) {
@@ -944,7 +971,13 @@ public class Project extends DBObject {
 		try {
 			if (null != autosaving) autosaving.cancel(true);
 		} catch (Throwable t) {}
+		// closed properly: the journal is either saved into the project file or its edits are not wanted
+		if (null != journal) journal.discard();
 		al_open_projects.remove(this);
+		if (null != pager) {
+			pager.close();
+			pager = null;
+		}
 		// flush all memory
 		if (null != loader) { // the last project is destroyed twice for some reason, if several are open. This is a PATCH
 			loader.destroy(); // and disconnect
@@ -1418,16 +1451,17 @@ public class Project extends DBObject {
 			sb_body.append(in).append('\t').append(e.getKey()).append("=\"").append(e.getValue()).append("\"\n");
 		}
 		sb_body.append(in).append(">\n");
+		Utils.writeAndClear(writer, sb_body);
 		// 3 - export ProjectTree abstract hierarchy (skip the root since it wraps the project itself)
 		project_tree.getExpandedStates(options.expanded_states);
 		if (null != root_pt.getChildren()) {
 			final String in2 = in + "\t";
 			for (final ProjectThing pt : root_pt.getChildren()) {
-				pt.exportXML(sb_body, in2, options);
+				pt.exportXML(writer, sb_body, in2, options); // streamed element by element
 			}
 		}
 		sb_body.append(in).append("</project>\n");
-		writer.write(sb_body.toString());
+		Utils.writeAndClear(writer, sb_body);
 	}
 
 	/** Export a complete DTD listing to export the project as XML. */
@@ -47,11 +47,9 @@
 
 package de.unihalle.informatik.rhizoTrak.addon;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JFrame;
@@ -61,8 +59,6 @@ import javax.swing.SwingUtilities;
 import de.unihalle.informatik.rhizoTrak.display.Connector;
 import de.unihalle.informatik.rhizoTrak.display.Display;
 import de.unihalle.informatik.rhizoTrak.display.Displayable;
-import de.unihalle.informatik.rhizoTrak.display.Layer;
-import de.unihalle.informatik.rhizoTrak.display.LayerSet;
 import de.unihalle.informatik.rhizoTrak.display.Node;
 import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.display.addonGui.PreferencesTabbedPane;
@@ -121,41 +117,17 @@ public class RhizoColVis
 
 	/**
 	 * Updates the color for all treelines and repaints them.
+	 * Nodes look up their color in the status palette of the project configuration at paint time,
+	 * thus only the palette is invalidated and no node is touched.
 	 * @author Axel
 	 */
 	public void applyCorrespondingColor() 
 	{
-		Display display = Display.getFront();
-		Layer currentLayer = display.getLayer();
-		LayerSet currentLayerSet = currentLayer.getParent();
-
-		// get treelines of current layerset
-		ArrayList<Displayable> trees = currentLayerSet.get(Treeline.class);
-                ArrayList<Displayable> connectors = currentLayerSet.get(Connector.class);
-                trees.addAll(connectors);
-		boolean repaint = false;
-		for (Displayable cObj : trees) 
-		{			
-			Treeline ctree = (Treeline) cObj;
-			if(ctree.getRoot() == null || ctree.getRoot().getSubtreeNodes() == null) continue;
-			
-			for (Node<Float> cnode : ctree.getRoot().getSubtreeNodes())
-			{
-				byte currentConfi = cnode.getConfidence();
-				Color newColor = rhizoMain.getProjectConfig().getColorForStatus(currentConfi);
-
+		rhizoMain.getProjectConfig().invalidateStatusPalette();
 
-				if (cnode.getColor()==null || !cnode.getColor().equals(newColor))
-				{
-					cnode.setColor(newColor);
-					repaint = true;
-				}
-			}			
-		}
-		if(repaint)
-		{
-			Display.repaint(currentLayer);		
-		}
+		Display display = Display.getFront();
+		if (null == display) return;
+		Display.repaint(display.getLayer());
 	}
 	
 	/**
@@ -61,10 +61,8 @@ import java.util.HashSet;
 import java.util.List;
 
 import javax.swing.*;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 
 import de.unihalle.informatik.rhizoTrak.Project;
 import de.unihalle.informatik.rhizoTrak.display.addonGui.RhizoShortcutManager;
@@ -87,6 +85,7 @@ import de.unihalle.informatik.rhizoTrak.display.LayerSet;
 import de.unihalle.informatik.rhizoTrak.display.Node;
 import de.unihalle.informatik.rhizoTrak.display.RhizoAddons;
 import de.unihalle.informatik.rhizoTrak.display.Treeline;
+import de.unihalle.informatik.rhizoTrak.persistence.ProjectSnapshot;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
 
@@ -118,6 +117,8 @@ public class RhizoIO {
 	
 	public void addonLoader( File file, Project project) {
 			String filenameWoExtension = removeProjectfileExtension( file.getAbsolutePath());
+			long start = System.currentTimeMillis();
+			long jaxbStart = RhizoJAXB.getContextCreationMillis();
 
 			// load user settings 
 			Utils.log2("loading user settings...");
@@ -154,6 +155,10 @@ public class RhizoIO {
 				Utils.log2("done");
 			}
                          
+			Utils.log2( "loaded rhizotrak data in " + (System.currentTimeMillis() - start) + " ms, " +
+					(RhizoJAXB.getContextCreationMillis() - jaxbStart) + " ms to create JAXB contexts" +
+					(RhizoJAXB.isCacheEnabled() ? "" : " (cache disabled)"));
+
 			//lock all images
 			RhizoAddons.lockAllImagesInAllProjects();
 	    	
@@ -172,10 +177,7 @@ public class RhizoIO {
 		}
 
 		try {
-			JAXBContext context = JAXBContext.newInstance(GlobalSettings.class);
-			Unmarshaller um = context.createUnmarshaller();
-
-			GlobalSettings gs = (GlobalSettings) um.unmarshal(userSettingsFile);
+			GlobalSettings gs = RhizoJAXB.unmarshal( GlobalSettings.class, userSettingsFile, RhizoJAXB.SETTINGS_SCHEMA);
 
 			// get global status list
 			for ( GlobalStatus status : gs.getGlobalStatusList().getGlobalStatus() ) {
@@ -319,9 +321,7 @@ public class RhizoIO {
 		try {
 			
 			// try RhizoTrakProjectConfig.xsd, i.e. current version
-			JAXBContext context = JAXBContext.newInstance(RhizoTrakProjectConfig.class);
-			Unmarshaller um = context.createUnmarshaller();
-			RhizoTrakProjectConfig config = (RhizoTrakProjectConfig) um.unmarshal(configFile);
+			RhizoTrakProjectConfig config = RhizoJAXB.unmarshal( RhizoTrakProjectConfig.class, configFile, RhizoJAXB.PROJECTCONFIG_SCHEMA);
 			List<de.unihalle.informatik.rhizoTrak.xsd.config.RhizoTrakProjectConfig.StatusList.Status> sl = config.getStatusList().getStatus();
 
 			for(int i = 0; i < sl.size(); i++) {
@@ -343,9 +343,7 @@ public class RhizoIO {
 		} catch (JAXBException e) {    
 			try {
 				// try old version: config.xsd
-				JAXBContext context = JAXBContext.newInstance(Config.class);
-				Unmarshaller um = context.createUnmarshaller();
-				Config config = (Config) um.unmarshal(configFile);
+				Config config = RhizoJAXB.unmarshal( Config.class, configFile, RhizoJAXB.CONFIG_SCHEMA);
 				List<Status> sl = config.getStatusList().getStatus();
 
 				for(int i = 0; i < sl.size(); i++) {
@@ -588,9 +586,7 @@ public class RhizoIO {
 		RhizoTrakProject xmlProject = null;
 		try {	
 			// try RhizoTrakProject.xsd, i.e. current version
-			JAXBContext context = JAXBContext.newInstance(RhizoTrakProject.class);
-			Unmarshaller um = context.createUnmarshaller();
-			xmlProject = (RhizoTrakProject) um.unmarshal(projectFile);
+			xmlProject = RhizoJAXB.unmarshal( RhizoTrakProject.class, projectFile, RhizoJAXB.PROJECT_SCHEMA);
 		} catch (JAXBException e) {    
 			Utils.showMessage( "cannot parse config file " + projectFile.getPath() + ": using default settings");
 
@@ -672,8 +668,8 @@ public class RhizoIO {
 	/**
 	 * Main method project configuration and connector data
 	 * 
-	 * @param file - The project save file. It is assume that the filename ends with <code>.xml</code> or
-	 * <code>.xml.gz</code>
+	 * @param file - The project save file. It is assume that the filename ends with <code>.xml</code>,
+	 * <code>.xml.gz</code> or {@link ProjectSnapshot#EXTENSION}
 	 * 
 	 * @author Axel
 	 */
@@ -695,9 +691,7 @@ public class RhizoIO {
 		File configFile = new File(filename);
 
 		try {
-			JAXBContext context = JAXBContext.newInstance(RhizoTrakProjectConfig.class);
-                        Marshaller m = context.createMarshaller();
-                        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+			Marshaller m = RhizoJAXB.getMarshaller( RhizoTrakProjectConfig.class);
 	        
             de.unihalle.informatik.rhizoTrak.xsd.config.RhizoTrakProjectConfig.StatusList jaxbStatusList = 
                         		new de.unihalle.informatik.rhizoTrak.xsd.config.RhizoTrakProjectConfig.StatusList();
@@ -740,9 +734,7 @@ public class RhizoIO {
 		try {
 			if(!userSettingsFile.getParentFile().exists()) userSettingsFile.getParentFile().mkdirs();
 
-			JAXBContext context = JAXBContext.newInstance(GlobalSettings.class);
-			Marshaller m = context.createMarshaller();
-			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+			Marshaller m = RhizoJAXB.getMarshaller( GlobalSettings.class);
    
 	        GlobalStatusList gsl = new GlobalStatusList();
 	        for ( RhizoStatusLabel sl : rhizoMain.getProjectConfig().getAllStatusLabel() ) {
@@ -933,9 +925,7 @@ public class RhizoIO {
     	
     	File configFile = new File(filename);
     	try {
-    		JAXBContext context = JAXBContext.newInstance(RhizoTrakProject.class);
-    		Marshaller m = context.createMarshaller();
-    		m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+    		Marshaller m = RhizoJAXB.getMarshaller( RhizoTrakProject.class);
     		
     		m.marshal(xmlProject, configFile);
     	} catch (Exception e) {
@@ -944,6 +934,9 @@ public class RhizoIO {
     		return false;
     	}
 
+    	// keep image hashes computed during this session for the next one
+    	RhizoImageHashCache.save();
+
     	return success;
     }
 	
@@ -975,6 +968,8 @@ public class RhizoIO {
 			filenameWoExtension = filename.substring(0, filename.length()-4);
 		} else if ( filename.endsWith( ".xml.gz") ) {
 			filenameWoExtension = filename.substring(0, filename.length()-7);
+		} else if ( ProjectSnapshot.isSnapshotPath( filename) ) {
+			filenameWoExtension = filename.substring(0, filename.length()-ProjectSnapshot.EXTENSION.length());
 		} else {
 			filenameWoExtension = filename;
 			Utils.showMessage( "rhizoTrak", "Warning: can not construct correct filenames for .con and .cfg files. Using " +
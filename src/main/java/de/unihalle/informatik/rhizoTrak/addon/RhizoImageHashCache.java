@@ -0,0 +1,219 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.addon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Persistent cache of SHA-256 hashes of layer images.
+ * <p>
+ * Entries are keyed by the absolute path of the image file and are only valid as long as
+ * size and modification time of the file are unchanged, so a modified image is rehashed.
+ * The cache is stored next to the user settings and shared by all projects.
+ *
+ * @author posch
+ */
+public class RhizoImageHashCache {
+
+	/**
+	 * file the cache is persisted to
+	 */
+	public static final File cacheFile = new File( RhizoIO.userSettingsFile.getParentFile(), "imageHashes.txt");
+
+	/**
+	 * size of the buffer used to stream image files through the digest
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static final Map<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+
+	private static volatile boolean loaded = false;
+
+	private static volatile boolean dirty = false;
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final String hash;
+
+		Entry( long size, long lastModified, String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+
+	private RhizoImageHashCache() {}
+
+	/** Return the SHA-256 hash of the file <code>pathString</code> as upper case hex string.
+	 * The hash is only computed if the file is not cached or has changed since it was hashed.
+	 *
+	 * @param pathString
+	 * @return the hash or the empty string if the file cannot be read
+	 */
+	public static String getHash( String pathString) {
+		if ( pathString == null ) return "";
+		if ( ! loaded ) load();
+
+		File file = new File( pathString).getAbsoluteFile();
+		if ( ! file.isFile() ) {
+			Utils.log2("unable to create sha-256 code for path" + pathString);
+			return "";
+		}
+		String key = file.getPath();
+		long size = file.length();
+		long lastModified = file.lastModified();
+
+		Entry entry = entries.get( key);
+		if ( entry != null && entry.size == size && entry.lastModified == lastModified )
+			return entry.hash;
+
+		String hash = digest( file);
+		if ( hash.isEmpty() ) return hash;
+
+		entries.put( key, new Entry( size, lastModified, hash));
+		dirty = true;
+		return hash;
+	}
+
+	/** Compute the SHA-256 hash of <code>file</code> streaming its content through the digest.
+	 *
+	 * @param file
+	 * @return the hash as upper case hex string or the empty string on failure
+	 */
+	static String digest( File file) {
+		try ( FileInputStream in = new FileInputStream( file);
+				FileChannel channel = in.getChannel() ) {
+			MessageDigest dige = MessageDigest.getInstance("SHA-256");
+			ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( BUFFER_SIZE, Math.max( 1, channel.size())));
+			while ( channel.read( buffer) != -1 ) {
+				buffer.flip();
+				dige.update( buffer);
+				buffer.clear();
+			}
+			StringBuilder sb = new StringBuilder( 64);
+			for ( byte b : dige.digest() ) {
+				sb.append( String.format("%02X", b));
+			}
+			return sb.toString();
+		} catch ( NoSuchAlgorithmException | IOException e ) {
+			Utils.log2("unable to create sha-256 code for path" + file.getPath());
+			return "";
+		}
+	}
+
+	/** Read the persisted cache, only done once
+	 */
+	private static synchronized void load() {
+		if ( loaded ) return;
+		loaded = true;
+		if ( ! cacheFile.exists() ) return;
+
+		try ( BufferedReader reader = new BufferedReader( new FileReader( cacheFile)) ) {
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				// hash, size, last modified, path; the path may contain tabs, so it has to be the last field
+				String[] fields = line.split( "\t", 4);
+				if ( fields.length != 4 ) continue;
+				try {
+					entries.putIfAbsent( fields[3], new Entry( Long.parseLong( fields[1]), Long.parseLong( fields[2]), fields[0]));
+				} catch ( NumberFormatException e ) {
+					// skip corrupt line
+				}
+			}
+		} catch ( IOException e ) {
+			Utils.log2( "cannot read image hash cache " + cacheFile.getPath());
+		}
+	}
+
+	/** Write the cache to disk if new hashes have been computed since the last save.
+	 * Entries for image files which do no longer exist are dropped.
+	 *
+	 * @return false if writing failed
+	 */
+	public static synchronized boolean save() {
+		if ( ! dirty ) return true;
+		// hashes added while writing mark the cache dirty again
+		dirty = false;
+
+		if ( ! cacheFile.getParentFile().exists() ) cacheFile.getParentFile().mkdirs();
+		File tmpFile = new File( cacheFile.getPath() + ".tmp");
+		try ( BufferedWriter writer = new BufferedWriter( new FileWriter( tmpFile)) ) {
+			for ( Map.Entry<String,Entry> e : entries.entrySet() ) {
+				if ( ! new File( e.getKey()).exists() ) continue;
+				Entry entry = e.getValue();
+				writer.write( entry.hash + "\t" + entry.size + "\t" + entry.lastModified + "\t" + e.getKey());
+				writer.newLine();
+			}
+		} catch ( IOException e ) {
+			Utils.log2( "cannot write image hash cache " + cacheFile.getPath());
+			dirty = true;
+			return false;
+		}
+
+		if ( ( cacheFile.exists() && ! cacheFile.delete() ) || ! tmpFile.renameTo( cacheFile) ) {
+			Utils.log2( "cannot write image hash cache " + cacheFile.getPath());
+			dirty = true;
+			return false;
+		}
+		return true;
+	}
+}
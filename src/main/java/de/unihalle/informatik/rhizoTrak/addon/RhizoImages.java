@@ -47,11 +47,19 @@
 
 package de.unihalle.informatik.rhizoTrak.addon;
 
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -64,8 +72,15 @@ import de.unihalle.informatik.rhizoTrak.display.Layer;
 import de.unihalle.informatik.rhizoTrak.display.LayerSet;
 import de.unihalle.informatik.rhizoTrak.display.Patch;
 import de.unihalle.informatik.rhizoTrak.display.addonGui.ImageImport;
+import de.unihalle.informatik.rhizoTrak.io.ImageFileHeader;
+import de.unihalle.informatik.rhizoTrak.parallel.Process;
 import de.unihalle.informatik.rhizoTrak.persistence.Loader;
+import de.unihalle.informatik.rhizoTrak.utils.Bureaucrat;
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
+import de.unihalle.informatik.rhizoTrak.utils.Worker;
+import ij.ImagePlus;
+import ij.io.Opener;
 
 public class RhizoImages
 {
@@ -122,61 +137,202 @@ public class RhizoImages
 		return currentPath.toString();
 	}
 	
+	/**
+	 * Adds the images as new layers, one image per layer, see {@link #importImages(File[])}
+	 * @param files - array of image files
+	 * @author Axel
+	 */
 	public static void addLayerAndImage(File[] files) {
-		List<Double> final_targets = new ArrayList<Double>();
-		int number_of_images_to_import = files.length;
-		List<Double> existing_but_empty = findTargetLayers(true,number_of_images_to_import);
-		
+		importImages(files);
+	}
+
+	/**
+	 * Import many images at once, one image per layer, in a background task:
+	 * the image file headers are read in parallel, all needed layers are created up front,
+	 * the patches are created from the header metadata without opening the images (except for
+	 * 16 and 32-bit images, whose display range must be computed from their pixels),
+	 * the buckets of each new layer are built once after its patch has been added,
+	 * and the mipmaps of all patches are generated afterwards by the mipmap pipeline of the loader.
+	 * Progress and throughput are reported in the status bar and the log.
+	 *
+	 * @param files - array of image files
+	 * @return the task doing the import, or null if there is no front display
+	 */
+	public static Bureaucrat importImages(final File[] files) {
+		final Layer front = Display.getFrontLayer();
+		if (null == front || null == files || 0 == files.length) return null;
+		final LayerSet parent = front.getParent();
+		final Project project = parent.getProject();
+		return Bureaucrat.createAndStart(new Worker.Task("Importing images") { public void exec() {
+			final long t0 = System.currentTimeMillis();
+			final ExecutorService exec = Utils.newFixedThreadPool(Process.NUM_PROCESSORS, "image-import");
+			try {
+				final List<Patch> patches = importImages(files, parent, exec);
+				if (null == patches || patches.isEmpty()) return;
+				final long t1 = System.currentTimeMillis();
+				Utils.log("Imported " + patches.size() + " images in " + (t1 - t0) + " ms ("
+						+ Utils.cutNumber(patches.size() * 1000.0 / Math.max(1, t1 - t0), 1) + " images/s), generating mipmaps in the background");
+				// the pipeline reports its own throughput when done
+				project.getLoader().regenerateMipMaps(patches);
+			} catch (InterruptedException ie) {
+				Utils.log("Image import interrupted");
+			} catch (Exception e) {
+				IJError.print(e);
+			} finally {
+				exec.shutdownNow();
+				Utils.showProgress(1);
+				for ( Display display : Display.getDisplays()) {
+					display.updateFrameTitle();
+				}
+			}
+		}}, project);
+	}
+
+	private static List<Patch> importImages(final File[] files, final LayerSet parent, final ExecutorService exec) throws InterruptedException, ExecutionException {
+		final Project project = parent.getProject();
+		final Loader loader = project.getLoader();
+
+		// 1 - read all headers in parallel, so that no layers are created for images that cannot be imported
+		Utils.showStatus("Reading image headers ...");
+		final List<Future<ImageFileHeader>> headerFutures = new ArrayList<Future<ImageFileHeader>>(files.length);
+		for (final File file : files) {
+			headerFutures.add(exec.submit(new Callable<ImageFileHeader>() {
+				public ImageFileHeader call() {
+					return ImageFileHeader.read(file.getPath());
+				}
+			}));
+		}
+		final List<File> readable = new ArrayList<File>(files.length);
+		final List<ImageFileHeader> headers = new ArrayList<ImageFileHeader>(files.length);
+		for (int i = 0; i < files.length; i++) {
+			final ImageFileHeader header = headerFutures.get(i).get();
+			if (null == header || !header.isSupportedType() || 0 == header.width || 0 == header.height) {
+				Utils.log("Can't import " + files[i].getPath() + ": not a readable image");
+				continue;
+			}
+			readable.add(files[i]);
+			headers.add(header);
+		}
+		if (readable.isEmpty()) return null;
+
+		// 2 - find or create all target layers
+		final int number_of_images_to_import = readable.size();
+		final List<Double> final_targets = new ArrayList<Double>();
+		final List<Double> existing_but_empty = findTargetLayers(true, number_of_images_to_import);
+
 		//check if we have empty layers and if so ask the user if we should use them
-		if(existing_but_empty.size()>0) {
-			if(Utils.checkYN("Found empty layers. Should these be filled first?")) {
-				final_targets.addAll(existing_but_empty);
+		if (existing_but_empty.size() > 0) {
+			if (Utils.checkYN("Found empty layers. Should these be filled first?")) {
+				final_targets.addAll(existing_but_empty.subList(0, Math.min(existing_but_empty.size(), number_of_images_to_import)));
 			}
 		}
-		
-		//check if we have a sufficient number of empty layers
-		if(!(existing_but_empty.size()>=number_of_images_to_import)) {
-			//no, so we need more targets
-			int missing = number_of_images_to_import-final_targets.size();
-			List<Double> new_empty_layer_targets = findTargetLayers(false,missing);
-			//as the target z's are non existing layer position we have to create the layers
-			addLayerIfNeeded(new_empty_layer_targets);
-			//now we can add them to our final target list
+		final HashSet<Layer> new_layers = new HashSet<Layer>();
+		if (final_targets.size() < number_of_images_to_import) {
+			final List<Double> new_empty_layer_targets = findTargetLayers(false, number_of_images_to_import - final_targets.size());
+			new_layers.addAll(addLayerIfNeeded(new_empty_layer_targets));
 			final_targets.addAll(new_empty_layer_targets);
 		}
-		//if nothing went terribly wrong we should have enough targets and layers by now
-		//lets fill them
-		LayerSet parent = Display.getFrontLayer().getParent();
-		Project project = parent.getProject();
-		Loader loader = project.getLoader();
-		for (File file : files)
-		{
-			Layer currentLayer =parent.getLayer(final_targets.get(0)); 
-			loader.importImage(currentLayer, 0, 0, file.getPath(), true);
-			final_targets.remove(0);
+
+		// 3 - create the patches from the headers, and add them without updating buckets nor displays
+		final List<Patch> patches = new ArrayList<Patch>(number_of_images_to_import);
+		final List<Layer> layers = new ArrayList<Layer>(number_of_images_to_import);
+		final Rectangle bounds = new Rectangle(0, 0, (int)Math.ceil(parent.getLayerWidth()), (int)Math.ceil(parent.getLayerHeight()));
+		final long t0 = System.currentTimeMillis();
+		for (int i = 0; i < number_of_images_to_import; i++) {
+			if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+			final File file = readable.get(i);
+			final ImageFileHeader header = headers.get(i);
+			final Layer layer = parent.getLayer(final_targets.get(i));
+			final String path = file.getPath().replace('\\', '/');
+
+			if (header.n_images > 1) {
+				// a stack: let the loader import it the usual way
+				loader.importImage(layer, 0, 0, path, true);
+				continue;
+			}
+
+			double min = 0, max = 255;
+			ImagePlus imp = null;
+			if (ImagePlus.GRAY16 == header.type || ImagePlus.GRAY32 == header.type) {
+				// the display range is that of the pixel values, as when opening the image
+				imp = loader.openImagePlus(path);
+				if (null == imp) {
+					Utils.log("Can't import " + path + ": cannot open the image");
+					continue;
+				}
+				min = imp.getProcessor().getMin();
+				max = imp.getProcessor().getMax();
+			}
+
+			final Patch patch = new Patch(project, file.getName(), header.width, header.height, header.width, header.height,
+					header.type, 1.0f, Color.yellow, false, min, max, new AffineTransform(), path);
+			if (null != imp) loader.cacheImagePlus(patch.getId(), imp);
+			synchronized (layer) {
+				layer.add(patch, false);
+				//actyc: lock all new imported images
+				patch.setLocked(true);
+			}
+			bounds.add(patch.getBoundingBox(null));
+			patches.add(patch);
+			layers.add(layer);
+
+			if (0 == (i % 64)) {
+				final long elapsed = Math.max(1, System.currentTimeMillis() - t0);
+				Utils.showProgress((i + 1) / (double)number_of_images_to_import);
+				Utils.showStatus("Importing images: " + (i + 1) + "/" + number_of_images_to_import
+						+ " (" + Utils.cutNumber((i + 1) * 1000.0 / elapsed, 1) + " images/s)");
+			}
 		}
-		
-		for ( Display display : Display.getDisplays()) {
-			display.updateFrameTitle();
+
+		// 4 - the image hash of each layer, reading the files in parallel
+		final List<Future<RhizoLayerInfo>> infoFutures = new ArrayList<Future<RhizoLayerInfo>>(layers.size());
+		for (final Layer layer : layers) {
+			infoFutures.add(exec.submit(new Callable<RhizoLayerInfo>() {
+				public RhizoLayerInfo call() {
+					//actyc: calculate and set image hash
+					return new RhizoLayerInfo(layer, null);
+				}
+			}));
 		}
+		final RhizoMain rhizoMain = project.getRhizoMain();
+		for (int i = 0; i < layers.size(); i++) {
+			rhizoMain.setLayerInfo(layers.get(i), infoFutures.get(i).get());
+		}
+
+		// 5 - enlarge the layer set if needed, which rebuilds all buckets, or else build the buckets of the new layers once
+		if (bounds.width > parent.getLayerWidth() || bounds.height > parent.getLayerHeight()) {
+			parent.setDimensions(bounds.width, bounds.height, LayerSet.NORTHWEST);
+		} else {
+			for (final Layer layer : new_layers) layer.recreateBuckets();
+			for (final Layer layer : layers) {
+				if (!new_layers.contains(layer)) layer.checkBuckets();
+			}
+			Display.update(parent);
+		}
+		Display.updateLayerScroller(parent);
+
+		return patches;
 	}
-	
+
 	/**
 	 * create a layer at the target-z-level if its not already exists
 	 * @param targets - List of layer-z position as targets
+	 * @return the new layers, whose buckets are left to be built by the caller
 	 * @author Axel
 	 */
-	private static void addLayerIfNeeded(List<Double> targets) {
+	private static List<Layer> addLayerIfNeeded(List<Double> targets) {
 		LayerSet parent = Display.getFrontLayer().getParent();
 		Project project = parent.getProject();
+		List<Layer> created = new ArrayList<Layer>();
 		for (Double target : targets) {
 			if(parent.getLayer(target)==null) {
 				final Layer layer = new Layer(project, target, 1, parent);
 				parent.add(layer);
-				layer.recreateBuckets();
 				layer.updateLayerTree();
+				created.add(layer);
 			}
-		}	
+		}
+		return created;
 	}
 	
 	/**
@@ -240,4 +396,76 @@ public class RhizoImages
         
     	imageLoaderFrame.dispose();
     }
+
+	/**
+	 * Benchmark of the per image work of {@link #importImages(File[])} before mipmap generation:
+	 * reading the image file headers in parallel, versus opening each image as the
+	 * single image import does.
+	 * <p>
+	 * Usage: <code>RhizoImages folder [-n max_images] [-threads n] [-open]</code>,
+	 * where <code>-open</code> also times opening all images with ImageJ.
+	 * </p>
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: RhizoImages folder [-n max_images] [-threads n] [-open]");
+			return;
+		}
+		int n = Integer.MAX_VALUE;
+		int threads = Process.NUM_PROCESSORS;
+		boolean open = false;
+		for (int i = 1; i < args.length; i++) {
+			if ("-n".equals(args[i])) n = Integer.parseInt(args[++i]);
+			else if ("-threads".equals(args[i])) threads = Integer.parseInt(args[++i]);
+			else if ("-open".equals(args[i])) open = true;
+		}
+		final List<File> files = new ArrayList<File>();
+		final File[] all = new File(args[0]).listFiles();
+		if (null != all) {
+			for (final File f : all) {
+				final String name = f.getName().toLowerCase();
+				if (f.isFile() && (name.endsWith(".tif") || name.endsWith(".tiff") || name.endsWith(".png")
+						|| name.endsWith(".jpg") || name.endsWith(".jpeg"))) files.add(f);
+				if (files.size() >= n) break;
+			}
+		}
+		System.out.println(files.size() + " images, " + threads + " threads");
+		if (files.isEmpty()) return;
+
+		final ExecutorService exec = Utils.newFixedThreadPool(threads, "image-import-benchmark");
+		try {
+			for (int round = 0; round < 2; round++) {
+				// the first round reads from the file system, the second one hits the header cache
+				final long t0 = System.nanoTime();
+				final List<Future<ImageFileHeader>> fus = new ArrayList<Future<ImageFileHeader>>(files.size());
+				for (final File f : files) {
+					fus.add(exec.submit(new Callable<ImageFileHeader>() {
+						public ImageFileHeader call() {
+							return ImageFileHeader.read(f.getPath());
+						}
+					}));
+				}
+				long pixels = 0;
+				for (final Future<ImageFileHeader> fu : fus) {
+					final ImageFileHeader h = fu.get();
+					if (null != h) pixels += (long)h.width * h.height;
+				}
+				final double ms = (System.nanoTime() - t0) / 1000000.0;
+				System.out.println((0 == round ? "headers:        " : "headers, cached:") + " " + Utils.cutNumber(ms, 1) + " ms, "
+						+ Utils.cutNumber(files.size() * 1000.0 / ms, 1) + " images/s, " + (pixels / 1000000) + " Mpixels");
+			}
+			if (open) {
+				final long t0 = System.nanoTime();
+				for (final File f : files) {
+					final ImagePlus imp = new Opener().openImage(f.getPath());
+					if (null != imp) imp.flush();
+				}
+				final double ms = (System.nanoTime() - t0) / 1000000.0;
+				System.out.println("open, serial:    " + Utils.cutNumber(ms, 1) + " ms, "
+						+ Utils.cutNumber(files.size() * 1000.0 / ms, 1) + " images/s");
+			}
+		} finally {
+			exec.shutdown();
+		}
+	}
 }
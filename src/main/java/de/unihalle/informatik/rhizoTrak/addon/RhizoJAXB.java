@@ -0,0 +1,250 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.addon;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Shared JAXB infrastructure for the rhizoTrak specific files (RSML, settings, configuration and project).
+ * <p>
+ * A <code>JAXBContext</code> is created only once per bound class, as creating it dominates the time to read
+ * or write these small files. <code>Marshaller</code>s and <code>Unmarshaller</code>s are not thread safe, 
+ * so one instance per thread and bound class is kept. Compiled <code>Schema</code>s for the XSDs
+ * in <code>/schemas</code> are cached as well.
+ * <p>
+ * Caching may be switched off with the system property <code>rhizoTrak.jaxbCache=false</code>
+ * to measure its effect, see {@link #getContextCreationMillis()}. 
+ * Unmarshallers validate against the schema if the system property <code>rhizoTrak.validateXml=true</code> is set.
+ * 
+ * @author posch
+ *
+ */
+public class RhizoJAXB {
+
+	/**
+	 * schemas of the rhizoTrak specific files as class path resources
+	 */
+	public static final String SETTINGS_SCHEMA = "/schemas/config/settings.xsd";
+	public static final String PROJECTCONFIG_SCHEMA = "/schemas/config/RhizoTrakProjectConfig.xsd";
+	public static final String CONFIG_SCHEMA = "/schemas/config/config.xsd";
+	public static final String PROJECT_SCHEMA = "/schemas/config/RhizoTrakProject.xsd";
+	public static final String RSML_SCHEMA = "/schemas/rsml/rsml.xsd";
+
+	private static final boolean cacheEnabled = ! "false".equalsIgnoreCase( System.getProperty( "rhizoTrak.jaxbCache"));
+
+	private static final boolean validate = "true".equalsIgnoreCase( System.getProperty( "rhizoTrak.validateXml"));
+
+	private static final ConcurrentHashMap<Class<?>,JAXBContext> contexts = new ConcurrentHashMap<Class<?>,JAXBContext>();
+
+	private static final ConcurrentHashMap<String,Schema> schemas = new ConcurrentHashMap<String,Schema>();
+
+	private static final ConcurrentHashMap<Class<?>,ThreadLocal<Marshaller>> marshallers = 
+			new ConcurrentHashMap<Class<?>,ThreadLocal<Marshaller>>();
+
+	private static final ConcurrentHashMap<Class<?>,ThreadLocal<Unmarshaller>> unmarshallers = 
+			new ConcurrentHashMap<Class<?>,ThreadLocal<Unmarshaller>>();
+
+	/**
+	 * accumulated time spent to create contexts and schemas
+	 */
+	private static final AtomicLong creationNanos = new AtomicLong();
+
+	private RhizoJAXB() {}
+
+	/** Return the context for <code>boundClass</code>, which is created on first use.
+	 * 
+	 * @param boundClass
+	 * @return
+	 * @throws JAXBException
+	 */
+	public static JAXBContext getContext( Class<?> boundClass) throws JAXBException {
+		JAXBContext context = cacheEnabled ? contexts.get( boundClass) : null;
+		if ( context == null ) {
+			long start = System.nanoTime();
+			context = JAXBContext.newInstance( boundClass);
+			creationNanos.addAndGet( System.nanoTime() - start);
+			if ( cacheEnabled ) {
+				JAXBContext previous = contexts.putIfAbsent( boundClass, context);
+				if ( previous != null )
+					context = previous;
+			}
+		}
+		return context;
+	}
+
+	/** Return a marshaller for <code>boundClass</code> creating formatted output. 
+	 * The marshaller is confined to the calling thread and must not be handed to other threads.
+	 * 
+	 * @param boundClass
+	 * @return
+	 * @throws JAXBException
+	 */
+	public static Marshaller getMarshaller( Class<?> boundClass) throws JAXBException {
+		ThreadLocal<Marshaller> threadMarshaller = threadLocal( marshallers, boundClass);
+		Marshaller m = threadMarshaller.get();
+		if ( m == null ) {
+			m = getContext( boundClass).createMarshaller();
+			m.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, true);
+			if ( cacheEnabled )
+				threadMarshaller.set( m);
+		}
+		return m;
+	}
+
+	/** Return an unmarshaller for <code>boundClass</code>, confined to the calling thread.
+	 * If validation is requested, <code>schemaResource</code> is used for validation if not null.
+	 * 
+	 * @param boundClass
+	 * @param schemaResource class path resource of the schema, may be null
+	 * @return
+	 * @throws JAXBException
+	 */
+	public static Unmarshaller getUnmarshaller( Class<?> boundClass, String schemaResource) throws JAXBException {
+		ThreadLocal<Unmarshaller> threadUnmarshaller = threadLocal( unmarshallers, boundClass);
+		Unmarshaller um = threadUnmarshaller.get();
+		if ( um == null ) {
+			um = getContext( boundClass).createUnmarshaller();
+			if ( cacheEnabled )
+				threadUnmarshaller.set( um);
+		}
+		um.setSchema( validate && schemaResource != null ? getSchema( schemaResource) : null);
+		return um;
+	}
+
+	/** Marshal <code>obj</code> to <code>file</code> as formatted xml
+	 * 
+	 * @param obj
+	 * @param file
+	 * @throws JAXBException
+	 */
+	public static void marshal( Object obj, File file) throws JAXBException {
+		getMarshaller( obj.getClass()).marshal( obj, file);
+	}
+
+	/** Unmarshal <code>file</code> which has to hold an instance of <code>boundClass</code>
+	 * 
+	 * @param boundClass
+	 * @param file
+	 * @param schemaResource class path resource of the schema used for validation, may be null
+	 * @return
+	 * @throws JAXBException
+	 */
+	public static <T> T unmarshal( Class<T> boundClass, File file, String schemaResource) throws JAXBException {
+		Object obj = getUnmarshaller( boundClass, schemaResource).unmarshal( file);
+		if ( ! boundClass.isInstance( obj) )
+			throw new JAXBException( file.getPath() + " does not contain a " + boundClass.getSimpleName());
+		return boundClass.cast( obj);
+	}
+
+	/** Return the compiled schema for the class path resource <code>schemaResource</code>
+	 * 
+	 * @param schemaResource
+	 * @return the schema, or null if it can not be compiled
+	 */
+	public static Schema getSchema( String schemaResource) {
+		Schema schema = schemas.get( schemaResource);
+		if ( schema == null ) {
+			URL url = RhizoJAXB.class.getResource( schemaResource);
+			if ( url == null ) {
+				Utils.log2( "RhizoJAXB: schema " + schemaResource + " not found");
+				return null;
+			}
+			long start = System.nanoTime();
+			try {
+				schema = SchemaFactory.newInstance( XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema( url);
+			} catch (SAXException e) {
+				Utils.log2( "RhizoJAXB: cannot compile schema " + schemaResource + ": " + e.getMessage());
+				return null;
+			}
+			creationNanos.addAndGet( System.nanoTime() - start);
+			Schema previous = schemas.putIfAbsent( schemaResource, schema);
+			if ( previous != null )
+				schema = previous;
+		}
+		return schema;
+	}
+
+	/**
+	 * @return the time spent so far to create JAXB contexts and compile schemas in milli seconds
+	 */
+	public static long getContextCreationMillis() {
+		return creationNanos.get() / 1000000L;
+	}
+
+	/**
+	 * @return true if contexts and (un)marshallers are cached
+	 */
+	public static boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	private static <T> ThreadLocal<T> threadLocal( ConcurrentHashMap<Class<?>,ThreadLocal<T>> map, Class<?> boundClass) {
+		ThreadLocal<T> threadLocal = map.get( boundClass);
+		if ( threadLocal == null ) {
+			threadLocal = new ThreadLocal<T>();
+			ThreadLocal<T> previous = map.putIfAbsent( boundClass, threadLocal);
+			if ( previous != null )
+				threadLocal = previous;
+		}
+		return threadLocal;
+	}
+}
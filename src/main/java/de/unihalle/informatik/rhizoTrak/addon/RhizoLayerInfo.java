@@ -47,6 +47,7 @@
 
 package de.unihalle.informatik.rhizoTrak.addon;
 
+import java.io.File;
 import java.util.HashMap;
 
 import de.unihalle.informatik.rhizoTrak.display.Layer;
@@ -69,7 +70,7 @@ public class RhizoLayerInfo {
 	Layer layer;
 	
 	/**
-	 * The JAXM rsml object for this layer
+	 * The JAXM rsml object for this layer, without its scene after import to keep just the metadata
 	 */
 	Rsml rsml;
 	
@@ -87,6 +88,12 @@ public class RhizoLayerInfo {
 	 * map RSML (top level) roots to their plant as read from RSML file
 	 */
 	HashMap<RootType,Scene.Plant> rootPlantMap = new HashMap<RootType,Scene.Plant>();	
+
+	/**
+	 * hash of the geometry of the RSML (top level) roots as read from RSML file,
+	 * whose points are dropped once converted to treelines
+	 */
+	HashMap<RootType,Long> rootGeometryHashMap = new HashMap<RootType,Long>();
 	
 	public RhizoLayerInfo( Layer layer, Rsml rsml) {
 		this.layer = layer;
@@ -110,6 +117,18 @@ public class RhizoLayerInfo {
 		return rootPlantMap.get( root);
 	}
 
+	public void setGeometryHash( RootType root, Long hash) {
+		rootGeometryHashMap.put( root, hash);
+	}
+
+	/**
+	 * @param root
+	 * @return the hash of the geometry <code>root</code> was read with, null if unknown
+	 */
+	public Long getGeometryHash( RootType root) {
+		return rootGeometryHashMap.get( root);
+	}
+
 	/**
 	 * @return the rsml
 	 */
@@ -124,6 +143,7 @@ public class RhizoLayerInfo {
 		this.rsml = rsml;
 		this.treelineRootMap = new HashMap<Treeline,RootType>();
 		this.rootPlantMap = new HashMap<RootType,Scene.Plant>();	
+		this.rootGeometryHashMap = new HashMap<RootType,Long>();
 
 	}
 	
@@ -138,14 +158,16 @@ public class RhizoLayerInfo {
 	}
 	
 	
-	/** update the SHA256 hash for the layer, if a image is found for this layer
+	/** update the SHA256 hash for the layer, if a image is found for this layer.
+	 * The hash is taken from the {@link RhizoImageHashCache}, so the image is only read if it has changed.
 	 * @return true if SHA256 hash has been updated
 	 */
 	public boolean updateImageHash(){
 		if(layer.getPatches(false)==null || layer.getPatches(false).size() < 1) return false;
 		Patch patch = layer.getPatches(false).get(0);
-		if(patch.getImagePlus()==null) return false;
-		this.imageHash = RhizoUtils.calculateSHA256(patch.getFilePath());
+		String path = patch.getFilePath();
+		if(path == null || ! new File(path).isFile()) return false;
+		this.imageHash = RhizoImageHashCache.getHash(path);
     	return true;
 	}
 }
@@ -66,6 +66,7 @@ import de.unihalle.informatik.rhizoTrak.display.Patch;
 import de.unihalle.informatik.rhizoTrak.display.RhizoAddons;
 import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
+import de.unihalle.informatik.rhizoTrak.io.ImageFileHeader;
 import de.unihalle.informatik.rhizoTrak.tree.DNDTree;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectTree;
@@ -102,18 +103,21 @@ public class RhizoLineMapToTreeline
 			return; // add warning message
 		}
 		
-		// get image names
+		// get image names, from the header of the image file if possible
 		List<Patch> patches = layerSet.getAll(Patch.class);
-		ImagePlus imagePlus = null;
-		if(!patches.isEmpty()) 
-		{	
-			imagePlus = patches.get(0).getImagePlus();
-		}
-			
 		String[] imageNames = new String[layers.size()];
-		if(null != imagePlus) 
+		if(!patches.isEmpty()) 
 		{	
-			imageNames = imagePlus.getImageStack().getSliceLabels();
+			ImageFileHeader header = ImageFileHeader.read(patches.get(0).getImageFilePath());
+			if(null != header)
+			{
+				if(null != header.slice_labels) imageNames = header.slice_labels;
+			}
+			else
+			{
+				ImagePlus imagePlus = patches.get(0).getImagePlus();
+				if(null != imagePlus) imageNames = imagePlus.getImageStack().getSliceLabels();
+			}
 		}
 		
 		
@@ -167,7 +171,7 @@ public class RhizoLineMapToTreeline
 		{
 			MTBXMLRootImageAnnotationType rootSet = MTBXMLRootImageAnnotationType.Factory.newInstance();
 				
-			rootSet.setImagename(imageNames[layerIndex]);
+			rootSet.setImagename(layerIndex < imageNames.length ? imageNames[layerIndex] : null);
 			rootSet.setRootSetID(layerIndex);
 
 			// get treeline (now existing)
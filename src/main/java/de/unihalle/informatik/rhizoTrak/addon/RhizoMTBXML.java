@@ -246,8 +246,20 @@ public class RhizoMTBXML
 
 		xmlRoot.setRootID(rootId);
 		
-		Set<Node<Float>> treelineNodes = treeline.getNodesAt(currentLayer);
-		List<Node<Float>> nodes = new ArrayList<Node<Float>>(treelineNodes);
+		// the root and nodes of one reading, the nodes may be paged out meanwhile otherwise
+		Node<Float> treelineRoot;
+		List<Node<Float>> nodes;
+		treeline.pinNodes();
+		try
+		{
+			treelineRoot = treeline.getRoot();
+			Set<Node<Float>> treelineNodes = treeline.getNodesAt(currentLayer);
+			nodes = new ArrayList<Node<Float>>(treelineNodes);
+		}
+		finally
+		{
+			treeline.unpinNodes();
+		}
 
 		xmlRoot.setStartSegmentID(0);
 		
@@ -269,7 +281,7 @@ public class RhizoMTBXML
 				MTBXMLRootSegmentType rootSegment = MTBXMLRootSegmentType.Factory.newInstance();
 				rootSegment.setRootID(xmlRoot.getRootID());
 				rootSegment.setSegmentID(i); 
-				if(n.getParent().equals(treeline.getRoot()))
+				if(n.getParent().equals(treelineRoot))
 				{
 					 rootSegment.setParentID(-1);
 					 xmlRoot.setStartSegmentID(i);
@@ -0,0 +1,184 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.addon;
+
+import java.util.Arrays;
+
+/** Scan-line rasterizer for root segments into a byte mask.
+ * <p>
+ * A segment with a start and end radius is drawn as the union of the circles at its
+ * end points and the quadrilateral connecting them, i.e. the same shape as drawn by
+ * the MiToBo <code>Drawing</code> utilities. Each shape is convex, so for each row
+ * the pixels covered are computed as intervals and filled without testing single pixels.
+ * 
+ * @author posch
+ *
+ */
+final class RhizoMaskRasterizer {
+
+	private final int width;
+	private final int height;
+	private final byte[] pixels;
+
+	/**
+	 * bounds of the interval on the current row, reset for each shape
+	 */
+	private double xa, xb;
+
+	/** Create a rasterizer of the given size. <code>buffer</code> is reused if it has the
+	 * correct size and cleared, otherwise a new buffer is allocated.
+	 * 
+	 * @param buffer buffer to reuse, may be null
+	 * @param width
+	 * @param height
+	 */
+	RhizoMaskRasterizer( byte[] buffer, int width, int height) {
+		this.width = width;
+		this.height = height;
+		if ( buffer != null && buffer.length == width * height ) {
+			Arrays.fill( buffer, (byte) 0);
+			this.pixels = buffer;
+		} else {
+			this.pixels = new byte[width * height];
+		}
+	}
+
+	/**
+	 * @return the pixels of the mask in row major order
+	 */
+	byte[] getPixels() {
+		return pixels;
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	/** Fill the segment from <code>(x1,y1)</code> with radius <code>r1</code> to 
+	 * <code>(x2,y2)</code> with radius <code>r2</code>.
+	 */
+	void fillSegment( double x1, double y1, double r1, double x2, double y2, double r2, byte value) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double len = Math.sqrt( dx*dx + dy*dy);
+
+		// corners of the quadrilateral
+		double nx = 0, ny = 0;
+		if ( len > 0 ) {
+			nx = -dy / len;
+			ny = dx / len;
+		}
+		double ax = x1 + nx*r1, ay = y1 + ny*r1;
+		double bx = x2 + nx*r2, by = y2 + ny*r2;
+		double cx = x2 - nx*r2, cy = y2 - ny*r2;
+		double ex = x1 - nx*r1, ey = y1 - ny*r1;
+
+		int yStart = Math.max( 0, (int) Math.ceil( Math.min( y1 - r1, y2 - r2)));
+		int yEnd = Math.min( height - 1, (int) Math.floor( Math.max( y1 + r1, y2 + r2)));
+
+		for ( int y = yStart ; y <= yEnd ; y++ ) {
+			int offset = y * width;
+
+			resetInterval();
+			extendByCircle( x1, y1, r1, y);
+			fillInterval( offset, value);
+
+			resetInterval();
+			extendByCircle( x2, y2, r2, y);
+			fillInterval( offset, value);
+
+			if ( len > 0 ) {
+				resetInterval();
+				extendByEdge( ax, ay, bx, by, y);
+				extendByEdge( bx, by, cx, cy, y);
+				extendByEdge( cx, cy, ex, ey, y);
+				extendByEdge( ex, ey, ax, ay, y);
+				fillInterval( offset, value);
+			}
+		}
+	}
+
+	private void resetInterval() {
+		xa = Double.POSITIVE_INFINITY;
+		xb = Double.NEGATIVE_INFINITY;
+	}
+
+	private void extendByCircle( double x, double y, double r, int row) {
+		double d = row - y;
+		if ( d*d > r*r ) return;
+		double h = Math.sqrt( r*r - d*d);
+		xa = Math.min( xa, x - h);
+		xb = Math.max( xb, x + h);
+	}
+
+	/** Extend the interval by the intersection of the edge from <code>(x1,y1)</code> to <code>(x2,y2)</code> with <code>row</code>
+	 */
+	private void extendByEdge( double x1, double y1, double x2, double y2, int row) {
+		if ( (y1 - row) * (y2 - row) > 0 ) return;
+		if ( y1 == y2 ) {
+			xa = Math.min( xa, Math.min( x1, x2));
+			xb = Math.max( xb, Math.max( x1, x2));
+		} else {
+			double x = x1 + (row - y1) * (x2 - x1) / (y2 - y1);
+			xa = Math.min( xa, x);
+			xb = Math.max( xb, x);
+		}
+	}
+
+	private void fillInterval( int offset, byte value) {
+		if ( xa > xb ) return;
+		int from = Math.max( 0, (int) Math.ceil( xa));
+		int to = Math.min( width - 1, (int) Math.floor( xb));
+		if ( from <= to )
+			Arrays.fill( pixels, offset + from, offset + to + 1, value);
+	}
+}
@@ -153,6 +153,28 @@ public class RhizoProjectConfig {
 	 */
 	private HashMap<String,RhizoStatusLabel> statusLabelSet = new HashMap<String,RhizoStatusLabel>();
 	
+	/**
+	 * Colors of the status values representable as a node confidence byte, indexed by
+	 * <code>status &amp; 0xff</code>. Each color is resolved when first requested and the palette
+	 * is discarded whenever a status label or the mapping changes, so that nodes resolve their color at paint time.
+	 */
+	private volatile StatusPalette statusPalette = null;
+
+	/** The colors of one {@link #statusPaletteVersion}. */
+	private static final class StatusPalette {
+		final int version;
+		final Color[] colors = new Color[256];
+
+		StatusPalette( int version) {
+			this.version = version;
+		}
+	}
+	
+	/**
+	 * Incremented each time the status palette is invalidated
+	 */
+	private volatile int statusPaletteVersion = 0;
+	
 	/**
 	 * This status label is returned (instead of null) in case a request with invalid integer status value
 	 * or name is issued
@@ -252,6 +274,7 @@ public class RhizoProjectConfig {
 	 */
 	public void appendStatusLabelMapping( RhizoStatusLabel statusLabel) {
 		statusLabelMapping.add( statusLabel);
+		invalidateStatusPalette();
 		if(null != Display.getFront()) Display.getFront().getProject().getLoader().setChanged(true);
 	}
 
@@ -261,6 +284,7 @@ public class RhizoProjectConfig {
 	public void popStatusLabelMapping() {
 		if ( statusLabelMapping.size() > 0) {
 			statusLabelMapping.remove( statusLabelMapping.size()-1);
+			invalidateStatusPalette();
 			if(null != Display.getFront()) Display.getFront().getProject().getLoader().setChanged(true);
 		}
 	}
@@ -273,6 +297,7 @@ public class RhizoProjectConfig {
 	public boolean replaceStatusLabelMapping( int i, RhizoStatusLabel statusLabel) {
 		if ( i >= 0 && i < statusLabelMapping.size() ) {
 			statusLabelMapping.set( i, statusLabel);
+			invalidateStatusPalette();
 			if(null != Display.getFront()) Display.getFront().getProject().getLoader().setChanged(true);
 			return true;
 		} else {
@@ -293,6 +318,7 @@ public class RhizoProjectConfig {
 		if ( oldsl == null) {
 			statusLabelSet.put( sl.getName(), sl);
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 			return sl;
 		} else {
 			oldsl.setAbbrev(  sl.getAbbrev());
@@ -325,6 +351,7 @@ public class RhizoProjectConfig {
 			sl = new RhizoStatusLabel( this, name, abbrev, color, alpha, selectable);
 			statusLabelSet.put( name, sl);
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 		}
 		return sl;
 	}
@@ -349,6 +376,7 @@ public class RhizoProjectConfig {
 			sl = new RhizoStatusLabel( this, name, name.substring(1, 1), color, alpha, selectable);
 			statusLabelSet.put( name, sl);
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 		}
 		return sl;
 	}
@@ -373,6 +401,7 @@ public class RhizoProjectConfig {
 			sl = new RhizoStatusLabel( this, name, abbrev, color, alpha, DEFAULT_SELECTABLE);
 			statusLabelSet.put( name, sl);
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 		}
 		return sl;
 	}
@@ -395,6 +424,7 @@ public class RhizoProjectConfig {
 			sl = new RhizoStatusLabel( this, name, abbrev, color, DEFAULT_ALPHA, DEFAULT_SELECTABLE);
 			statusLabelSet.put( name, sl);
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 		}
 		return sl;
 	}
@@ -415,6 +445,7 @@ public class RhizoProjectConfig {
 			sl = new RhizoStatusLabel( this, name, abbrev, DEFAULT_STATUS_COLOR, DEFAULT_ALPHA, DEFAULT_SELECTABLE);
 			statusLabelSet.put( name, sl);
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 		}
 		return sl;
 	}
@@ -428,6 +459,7 @@ public class RhizoProjectConfig {
 	{
 		if(null != statusLabelSet.remove(name)) {
 			this.userSettingsChanged = true;
+			invalidateStatusPalette();
 			return true;
 		}
 		
@@ -547,22 +579,90 @@ public class RhizoProjectConfig {
 
 	 */
 	public Color getColorForStatus( int i) {
+		if ( i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE ) {
+			StatusPalette palette = statusPalette;
+			if ( palette == null || palette.version != statusPaletteVersion ) {
+				palette = getStatusPalette();
+			}
+			Color color = palette.colors[i & 0xff];
+			if ( color == null ) {
+				color = resolveStatusColor( palette, i);
+			}
+			return color;
+		}
+		
+		return resolveStatusColor( i);
+	}
+	
+	/** @return the status palette of the current version, a new and empty one if it was invalidated
+	 */
+	private synchronized StatusPalette getStatusPalette() {
+		StatusPalette palette = statusPalette;
+		if ( palette == null || palette.version != statusPaletteVersion ) {
+			palette = new StatusPalette( statusPaletteVersion);
+			statusPalette = palette;
+		}
+		return palette;
+	}
+	
+	/** Resolve the color of status <code>i</code> and store it in <code>palette</code>, warning once per palette
+	 *  if the status is not mapped.
+	 */
+	private synchronized Color resolveStatusColor( StatusPalette palette, int i) {
+		Color color = palette.colors[i & 0xff];
+		if ( color != null ) {
+			return color;
+		}
+		if ( i < 0 && ! fixedStatusLabelMap.containsKey( i) ) {
+			Utils.log( "WARNING: no status label for status " + i + ", using the color of " + INVALID_STATUS_LABEL.getName());
+		}
+		color = resolveStatusColor( i);
+		// do not fill a palette which was invalidated meanwhile
+		if ( palette.version == statusPaletteVersion ) {
+			palette.colors[i & 0xff] = color;
+		}
+		return color;
+	}
+	
+	/** @return the color of status <code>i</code> from the current status labels and mapping, 
+	 *  the color of <code>INVALID_STATUS_LABEL</code> if no label is found
+	 */
+	private Color resolveStatusColor( int i) {
+		RhizoStatusLabel sl = null;
 		if ( i >= 0 ) {
 			if ( i < sizeStatusLabelMapping() )
-				return makeColor( statusLabelMapping.get(i));
-			else {
-				return makeColor( statusLabelSet.get(  fixedStatusLabelMap.get( STATUS_UNDEFINED)));
-			}
+				sl = statusLabelMapping.get(i);
+			else
+				sl = getFixedStatusLabel( STATUS_UNDEFINED);
 		} else {
-			if ( fixedStatusLabelMap.containsKey( i) )
-				return makeColor( statusLabelSet.get( fixedStatusLabelMap.get(i)));
-			else  {
-				Utils.log( "WARNING:getStatusLabel( int i) returns null for " + i);
-				return makeColor( INVALID_STATUS_LABEL);
-			}
+			sl = getFixedStatusLabel( i);
 		}
+		return makeColor( null == sl ? INVALID_STATUS_LABEL : sl);
 	}
 	
+	/** @return the fixed status label for status <code>i</code>, or null if it does not exist
+	 */
+	private RhizoStatusLabel getFixedStatusLabel( int i) {
+		String name = fixedStatusLabelMap.get( i);
+		return null == name ? null : statusLabelSet.get( name);
+	}
+	
+	/**
+	 * Discard the status palette, it is rebuilt on the next color request.
+	 * Has to be called whenever the color or alpha of a status label or the mapping of status labels changes.
+	 */
+	public void invalidateStatusPalette() {
+		statusPaletteVersion++;
+		statusPalette = null;
+	}
+	
+	/**
+	 * @return the version of the status palette, which changes whenever the palette is invalidated
+	 */
+	public int getStatusPaletteVersion() {
+		return statusPaletteVersion;
+	}
+
 	/** Make a color object of class {@link java.awt.Color} including alpha from a status label
 	 * 
 	 * @param sl
@@ -587,6 +687,7 @@ public class RhizoProjectConfig {
 	 */
 	public void setDefaultUserStatusLabel() {
 		statusLabelMapping.clear();
+		invalidateStatusPalette();
 	
 		appendStatusLabelMapping( addStatusLabelToSet( "LIVING", "L"));
 		appendStatusLabelMapping( addStatusLabelToSet( "DEAD", "D"));
@@ -600,6 +701,7 @@ public class RhizoProjectConfig {
 	 */
 	public void clearStatusLabelMapping() {
 		statusLabelMapping.clear();
+		invalidateStatusPalette();
 	}
 
 	/**
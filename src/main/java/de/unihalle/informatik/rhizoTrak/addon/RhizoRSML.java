@@ -50,7 +50,14 @@ package de.unihalle.informatik.rhizoTrak.addon;
 import java.awt.GridLayout;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.file.Path;
@@ -65,6 +72,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
@@ -77,15 +87,16 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.xml.bind.JAXB;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.dom.DOMResult;
 
 import org.w3c.dom.Document;
@@ -102,6 +113,7 @@ import de.unihalle.informatik.rhizoTrak.display.RhizoAddons;
 import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
 import de.unihalle.informatik.rhizoTrak.display.addonGui.RSMLLoader;
+import de.unihalle.informatik.rhizoTrak.parallel.Process;
 import de.unihalle.informatik.rhizoTrak.persistence.Loader;
 import de.unihalle.informatik.rhizoTrak.tree.DNDTree;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
@@ -157,6 +169,11 @@ public class RhizoRSML
 
 	private static byte default_statuslabel = 0;
 
+	/**
+	 * Document used as factory for W3 elements, one per thread as DOM is not thread safe
+	 */
+	private static final ThreadLocal<Document> elementFactory = new ThreadLocal<Document>();
+
 	private RhizoMain rhizoMain;
 	
 	private File rsmlBaseDir = null;
@@ -283,7 +300,8 @@ public class RhizoRSML
 			
 			// write the layer
 			writeLayer( selectedFile, layer, this.rhizoMain.getLayerInfo( layer), unified);
-		}	
+		}
+		RhizoImageHashCache.save();
 	}
     
 	/** Write the <code>layer</code> as an RSML to <code>saveFile</code>.
@@ -293,7 +311,7 @@ public class RhizoRSML
 	 * @param rhizoLayerInfo 
 	 * @param unified 
 	 */
-	private void writeLayer(File saveFile, Layer layer, RhizoLayerInfo rhizoLayerInfo, boolean unified) {
+	void writeLayer(File saveFile, Layer layer, RhizoLayerInfo rhizoLayerInfo, boolean unified) {
 		Rsml rsml = null;
 		try {
 			File saveFileDirectory = saveFile.getParentFile();
@@ -306,13 +324,8 @@ public class RhizoRSML
 			return;
 		}
 
-		JAXBContext context;
 		try {
-			context = JAXBContext.newInstance(Rsml.class);
-			Marshaller m = context.createMarshaller();
-			m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			m.marshal( rsml, saveFile);
-
+			marshalRsml( rsml, saveFile);
 		} catch (JAXBException e) {
 			Utils.showMessage( "cannot write RSML to  " + saveFile.getPath());
 			e.printStackTrace();
@@ -321,6 +334,102 @@ public class RhizoRSML
 		Utils.log("Saved layer " + String.valueOf( RhizoUtils.getTimepointForLayer( layer)) + " to RSML file  - " + saveFile.getAbsolutePath());
 	}
 
+	/** Writes all layers of the project to RSML files without any user interaction.
+	 * <p>
+	 * The RSML data structures of the layers are created concurrently by at most <code>numThreads</code>
+	 * threads, and each is written to disk as soon as it is complete, i.e. only the layers currently 
+	 * processed are held in memory. The layer <code>t</code> is written to 
+	 * <code>outputDir/baseName-t.rsml</code>, existing files are overridden.
+	 * 
+	 * @param outputDir directory to write the RSML files to
+	 * @param baseName prefix of the filenames, if null the name of the project is used
+	 * @param unified
+	 * @param numThreads maximal number of layers processed in parallel, if less than one the number of processors is used
+	 * @return number of layers successfully written
+	 */
+	public int writeRSMLBatch( File outputDir, String baseName, boolean unified, int numThreads) {
+		Project project = this.rhizoMain.getProject();
+		projectName = rhizoMain.getXmlName() != null ? rhizoMain.getXmlName().replaceFirst(".xml\\z", "") : project.getTitle();
+		if ( baseName == null )
+			baseName = projectName;
+
+		if ( ! outputDir.isDirectory() && ! outputDir.mkdirs() ) {
+			Utils.log( "rhizoTrak", "WARNING: cannot create output directory " + outputDir.getAbsolutePath());
+			return 0;
+		}
+
+		// collect treelines and connectors only once for all layers
+		List<Treeline> allTreelines = RhizoUtils.getTreelinesBelowRootstacks( project, null);
+		if ( allTreelines == null) {
+			Utils.log( "rhizoTrak", "WARNING: no rootstacks found, nothing to write");
+			return 0;
+		}
+		final List<Connector> allConnectors = RhizoUtils.getConnectorsBelowRootstacks( project) != null ?
+				RhizoUtils.getConnectorsBelowRootstacks( project) : new LinkedList<Connector>();
+
+		final HashMap<Layer,List<Treeline>> layerTreelinesMap = new HashMap<Layer,List<Treeline>>();
+		for ( Treeline tl : allTreelines) {
+			List<Treeline> tlList = layerTreelinesMap.get( tl.getFirstLayer());
+			if ( tlList == null ) {
+				tlList = new LinkedList<Treeline>();
+				layerTreelinesMap.put( tl.getFirstLayer(), tlList);
+			}
+			tlList.add( tl);
+		}
+
+		// layer infos are held in an unsynchronized map and thus are fetched before going parallel
+		final List<Layer> layers = project.getRootLayerSet().getLayers();
+		final HashMap<Layer,RhizoLayerInfo> layerInfos = new HashMap<Layer,RhizoLayerInfo>();
+		for ( Layer layer : layers )
+			layerInfos.put( layer, this.rhizoMain.getLayerInfo( layer));
+
+		final ExecutorService exec = Utils.newFixedThreadPool( numThreads < 1 ? Process.NUM_PROCESSORS : numThreads, 
+				"RhizoRSML-writeBatch");
+		final LinkedList<Future<Boolean>> futures = new LinkedList<Future<Boolean>>();
+		int written = 0;
+		try {
+			for ( final Layer layer : layers ) {
+				final File saveFile = new File( outputDir, baseName + "-" + String.valueOf( RhizoUtils.getTimepointForLayer( layer)) + ".rsml");
+				final List<Treeline> treelinesInLayer = layerTreelinesMap.containsKey( layer) ? 
+						layerTreelinesMap.get( layer) : new LinkedList<Treeline>();
+
+				futures.add( exec.submit( new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						Rsml rsml = createRSML( layer, layerInfos.get( layer), unified, outputDir, treelinesInLayer, allConnectors);
+						marshalRsml( rsml, saveFile);
+						Utils.log2("Saved layer " + String.valueOf( RhizoUtils.getTimepointForLayer( layer)) + " to RSML file  - " + saveFile.getAbsolutePath());
+						return true;
+					}
+				}));
+			}
+
+			for ( Future<Boolean> future : futures ) {
+				try {
+					if ( future.get() )
+						written++;
+				} catch (Exception e) {
+					Utils.log( "rhizoTrak", "WARNING: cannot write RSML for a layer: " + e.getMessage());
+				}
+			}
+		} finally {
+			exec.shutdown();
+		}
+		RhizoImageHashCache.save();
+
+		return written;
+	}
+
+	/** Marshal <code>rsml</code> to <code>saveFile</code> using the shared RSML JAXB context.
+	 * 
+	 * @param rsml
+	 * @param saveFile
+	 * @throws JAXBException
+	 */
+	private static void marshalRsml( Rsml rsml, File saveFile) throws JAXBException {
+		RhizoJAXB.marshal( rsml, saveFile);
+	}
+
 	/** Create a RSML data structure for the current layer.
      * 
      * @param layer
@@ -329,8 +438,8 @@ public class RhizoRSML
      * @param saveFileDirectory
 	 * @return the rsml data structure or null, if no rootstacks are found
      */
-    private Rsml createRSML(Layer layer, RhizoLayerInfo rhizoLayerInfo, boolean unified, File saveFileDirectory) {
-    	Project project = Display.getFront().getProject();
+    Rsml createRSML(Layer layer, RhizoLayerInfo rhizoLayerInfo, boolean unified, File saveFileDirectory) {
+    	Project project = this.rhizoMain.getProject();
     	
 		// collect all treelines to write 
 		List<Treeline> allTreelinesInLayer;
@@ -343,17 +452,33 @@ public class RhizoRSML
 			return null;
 		}
 
-		// create hash map form treeline to connector
-		// if a treeline is contained in more than one connector an arbitray one is used
-		HashMap<Treeline,Connector> treelineConnectorMap = new HashMap<Treeline,Connector>();
-		
 		List<Connector> allConnectors = RhizoUtils.getConnectorsBelowRootstacks(project);
 		if ( allConnectors == null)
 			allConnectors = new LinkedList<Connector> ();
+
+		return createRSML( layer, rhizoLayerInfo, unified, saveFileDirectory, allTreelinesInLayer, allConnectors);
+    }
+
+	/** Create a RSML data structure for the current layer from the given treelines.
+	 * 
+	 * @param layer
+	 * @param rhizoLayerInfo
+	 * @param unified
+	 * @param saveFileDirectory
+	 * @param allTreelinesInLayer treelines to write
+	 * @param allConnectors all connectors of the project
+	 * @return the rsml data structure
+	 */
+    private Rsml createRSML(Layer layer, RhizoLayerInfo rhizoLayerInfo, boolean unified, File saveFileDirectory,
+    		List<Treeline> allTreelinesInLayer, List<Connector> allConnectors) {
+		// create hash map form treeline to connector
+		// if a treeline is contained in more than one connector an arbitray one is used
+		HashMap<Treeline,Connector> treelineConnectorMap = new HashMap<Treeline,Connector>();
+		HashSet<Treeline> treelinesInLayer = new HashSet<Treeline>( allTreelinesInLayer);
 		
-		for ( Treeline tl : allTreelinesInLayer) {
-			for ( Connector conn : allConnectors) {
-				if ( conn.getConTreelines().contains( tl) ) {
+		for ( Connector conn : allConnectors) {
+			for ( Treeline tl : conn.getConTreelines() ) {
+				if ( treelinesInLayer.contains( tl) ) {
 					treelineConnectorMap.put( tl,  conn);
 				}
 			}
@@ -388,9 +513,10 @@ public class RhizoRSML
 
     	scene.setProperties( pList);
 
-    	// now create the roots
+    	// now create the roots; the plants created for the plants read from RSML
+    	HashMap<Plant,Plant> exportedPlants = new HashMap<Plant,Plant>();
     	for ( Treeline tl : allTreelinesInLayer ) {
-    		Plant plant = createPlantForTreeline( tl, rhizoLayerInfo, treelineConnectorMap.get( tl), unified);
+    		Plant plant = createPlantForTreeline( tl, rhizoLayerInfo, treelineConnectorMap.get( tl), unified, exportedPlants);
     		if ( plant != null && ! scene.getPlant().contains( plant)) {
     			scene.getPlant().add( plant);
     		}
@@ -539,10 +665,23 @@ public class RhizoRSML
 	 * @param rhizoLayerInfo 
 	 * @param connector the tl is member of, null if treeline is not member of any treeline
 	 * @param unified 
+	 * @param exportedPlants the plants created so far for the plants read from RSML, which are not modified
 	 * @return the rsml plant or null, if the treeline has no root node
 	 *
 	 */
-	private Plant createPlantForTreeline(Treeline tl, RhizoLayerInfo rhizoLayerInfo, Connector connector, boolean unified) {
+	private Plant createPlantForTreeline(Treeline tl, RhizoLayerInfo rhizoLayerInfo, Connector connector, boolean unified,
+			HashMap<Plant,Plant> exportedPlants) {
+		// keep paged nodes in memory while converting
+		tl.pinNodes();
+		try {
+			return createPlantForPinnedTreeline( tl, rhizoLayerInfo, connector, unified, exportedPlants);
+		} finally {
+			tl.unpinNodes();
+		}
+	}
+
+	private Plant createPlantForPinnedTreeline(Treeline tl, RhizoLayerInfo rhizoLayerInfo, Connector connector, boolean unified,
+			HashMap<Plant,Plant> exportedPlants) {
 		if ( tl.getRoot() != null ) {
 			// create the JAXB root for the treeline
 			Node<Float> rootNode = tl.getRoot();
@@ -552,22 +691,27 @@ public class RhizoRSML
 			if ( rhizoLayerInfo != null && rhizoLayerInfo.getRootForTreeline(tl) != null) {
 				if ( debugWrite ) System.out.println( "createPlantForTreeline: found an old root");
 				RootType oldRoot = rhizoLayerInfo.getRootForTreeline(tl);
-				Plant plant = rhizoLayerInfo.getPlantForRoot(oldRoot);
+				Plant oldPlant = rhizoLayerInfo.getPlantForRoot(oldRoot);
+				Plant plant = exportedPlants.get( oldPlant);
+				if ( plant == null ) {
+					plant = copyPlantWithoutRoots( oldPlant);
+					exportedPlants.put( oldPlant, plant);
+				}
 				
-				if ( rootEquals( root, oldRoot) ) {
-					// geometry did not change: update diameter and status label in old JAXB root
-					updateFunctions( root, oldRoot);
+				Long oldHash = rhizoLayerInfo.getGeometryHash( oldRoot);
+				if ( oldHash != null && oldHash.equals( geometryHash( root)) ) {
+					// geometry did not change: keep everything of the old roots but the geometry, diameters and status labels
+					copyAllButGeometry( oldRoot, root);
 					if ( debugWrite ) System.out.println( "    unchanged geometry " + plant.getRoot().size() + " oldRoot " + oldRoot);
 				} else {
 					// geometry did change: use new JAXB root and copy everything possible from old one
-					if ( debugWrite )  System.out.println( "    changed geometry " + plant.getRoot().size() + "  oldRoot contained: " + plant.getRoot().contains(oldRoot));
+					if ( debugWrite )  System.out.println( "    changed geometry " + plant.getRoot().size());
 					root.setId( oldRoot.getId());
 					root.setLabel( oldRoot.getLabel());
 					root.setAccession( oldRoot.getAccession());
 					root.setAnnotations( oldRoot.getAnnotations());
-					plant.getRoot().remove( oldRoot);
-					plant.getRoot().add( root);
 				}
+				plant.getRoot().add( root);
 				
 				return plant;
 			} else {
@@ -583,111 +727,98 @@ public class RhizoRSML
 		}
 	}
 
-	/** Update the functions diameter and status labels in from <code>rosrcRootot</code> to <code>srcRoot</code>.
-	 * The roots are assumed to be recursively of equal geometry, i.e. they passed
-	 * {@link #rootEquals}
-	 *  Specifically: the function values are copied from 
-	 * @param srcRoot
-	 * @param srcRoot
+	/** @return a new plant with the label, id, properties and annotations of <code>plant</code>, but no roots
 	 */
-	private void updateFunctions(RootType srcRoot, RootType dstRoot) {
-		copyFunction( getFunctionByName( srcRoot, FUNCTION_NAME_DIAMETER), getFunctionByName( dstRoot, FUNCTION_NAME_DIAMETER));
-		copyFunction( getFunctionByName( srcRoot, FUNCTION_NAME_STATUSLABEL), getFunctionByName( dstRoot, FUNCTION_NAME_STATUSLABEL));
-		
-		List<RootType> srcChildList = srcRoot.getRoot();
-		List<RootType> dstChildList = dstRoot.getRoot();
-		for ( int i = 0 ; i < srcChildList.size() ; i++) {
-			updateFunctions( srcChildList.get( i), dstChildList.get( i));
-		}
+	private static Plant copyPlantWithoutRoots( Plant plant) {
+		Plant copy = new Plant();
+		copy.setId( plant.getId());
+		copy.setLabel( plant.getLabel());
+		copy.setProperties( plant.getProperties());
+		copy.setAnnotations( plant.getAnnotations());
+		return copy;
 	}
 
-	
-	/** Copy function <code>srcFunction</code> to <code>dstFunction</code>
-	 * assuming equal length
+	/** Copy everything but the polyline and the functions diameter and status labels from <code>srcRoot</code>
+	 * to <code>dstRoot</code>, recursively for the child roots.
+	 * The roots are assumed to be of equal geometry, i.e. of equal {@link #geometryHash}.
 	 * 
-	 * @param srcFunction
-	 * @param dstFunction
+	 * @param srcRoot a root as read from RSML and stripped by {@link #stripGeometry}
+	 * @param dstRoot a root created from a treeline
 	 */
-	private void copyFunction(Function srcFunction, Function dstFunction) {
-		// original xsd schema with sample values as attributes
-//		for ( int i = 0 ; i < srcFunction.getSample().size() ; i++) {
-//			dstFunction.getSample().set( i, srcFunction.getSample().get( i));
-//		}	
-		for ( int i = 0 ; i < srcFunction.getAny().size() ; i++) {
-			dstFunction.getAny().set( i, srcFunction.getAny().get( i));
-	}	
+	private static void copyAllButGeometry( RootType srcRoot, RootType dstRoot) {
+		dstRoot.setId( srcRoot.getId());
+		dstRoot.setLabel( srcRoot.getLabel());
+		dstRoot.setAccession( srcRoot.getAccession());
+		dstRoot.setAnnotations( srcRoot.getAnnotations());
+		if ( srcRoot.getProperties() != null )
+			dstRoot.setProperties( srcRoot.getProperties());
+		if ( srcRoot.getGeometry() != null && dstRoot.getGeometry() != null )
+			dstRoot.getGeometry().getAny().addAll( srcRoot.getGeometry().getAny());
+		if ( srcRoot.getFunctions() != null && dstRoot.getFunctions() != null )
+			dstRoot.getFunctions().getFunction().addAll( srcRoot.getFunctions().getFunction());
 
+		List<RootType> srcChildList = srcRoot.getRoot();
+		List<RootType> dstChildList = dstRoot.getRoot();
+		for ( int i = 0 ; i < srcChildList.size() ; i++) {
+			copyAllButGeometry( srcChildList.get( i), dstChildList.get( i));
+		}
 	}
 
-	/** Test if the geometry of the two roots is identical.
-	 * This recursively checks the child roots for equality
-	 * @param root1
-	 * @param root2
-	 * @return
+	/** Hash the geometry of a root, recursively including the child roots, so that roots read from RSML
+	 * need not keep their points to tell whether a treeline still has the geometry it was imported with.
+	 * 
+	 * @param root
+	 * @return the hash, or null if <code>root</code> or a child root has no polyline, which does not conform to the RSML specification
 	 */
-	private boolean rootEquals(RootType root1, RootType root2) {
-		if ( root1.getGeometry() == null || root2.getGeometry() == null) {
-			// not conforming to RSML specification
-			return false;
-		}
-		
-		Polyline polyline1 = root1.getGeometry().getPolyline();
-		Polyline polyline2 = root2.getGeometry().getPolyline();
-		
-		if ( polyline1 == null || polyline2 == null ) {
-			// not conforming to RSML specification
-			return false;
+	private static Long geometryHash( RootType root) {
+		if ( root.getGeometry() == null || root.getGeometry().getPolyline() == null || root.getRoot() == null) {
+			return null;
 		}
-		
-		List<RootType> childList1 = root1.getRoot();
-		List<RootType> childList2 = root2.getRoot();
 
-		if ( childList1 == null || childList2 == null) {
-			// not conforming to RSML specification
-			return false;
+		long hash = 17;
+		List<PointType> points = root.getGeometry().getPolyline().getPoint();
+		hash = 31 * hash + points.size();
+		for ( PointType point : points ) {
+			hash = 31 * hash + hashCoordinate( point.getX());
+			hash = 31 * hash + hashCoordinate( point.getY());
+			hash = 31 * hash + hashCoordinate( point.getZ());
 		}
 
-		if ( ! equalPolylines( polyline1, polyline2)) {
-			return false;
+		hash = 31 * hash + root.getRoot().size();
+		for ( RootType child : root.getRoot() ) {
+			Long childHash = geometryHash( child);
+			if ( childHash == null ) return null;
+			hash = 31 * hash + childHash;
 		}
-		
-		if ( childList1.size() != childList2.size()) {
-			return false;
-		}
-			
-		for ( int i = 0 ; i < childList1.size() ; i++) {
-			if ( ! rootEquals( childList1.get( i), childList2.get( i)) ) {
-				return false;
-			}
-		}
-		return true;
+		return hash;
 	}
 
-	/** Test the polylines for equal geometry
-	 * @param polyline1
-	 * @param polyline2
-	 * @return
+	/** @return a hash of <code>value</code> equal for equal numbers, regardless of their scale
 	 */
-	private boolean equalPolylines(Polyline polyline1, Polyline polyline2) {
-		if ( polyline1.getPoint().size() != polyline2.getPoint().size()) {
-			return false;
-		}
-			
-		for ( int i = 0 ; i < polyline1.getPoint().size() ; i++) {
-			PointType point1 = polyline1.getPoint().get(i);
-			PointType point2 = polyline2.getPoint().get(i);
-			if ( point1.getX().compareTo( point2.getX()) != 0 ||
-					point1.getY().compareTo( point2.getY()) != 0 ) {
-				return false;
-			} else if ( point1.getZ() == null &&  point2.getZ() == null) {
-				continue;
-			} else if (point1.getZ() == null ||  point2.getZ() == null ||
-					point1.getZ().compareTo( point2.getZ()) != 0) {
-				return false;
+	private static long hashCoordinate( BigDecimal value) {
+		if ( value == null ) return -1;
+		return Double.doubleToLongBits( value.doubleValue() + 0.0); // no -0.0
+	}
+
+	/** Remove the polyline and the functions diameter and status labels of <code>root</code> and its child roots,
+	 * which are recreated from the treeline on export, see {@link #copyAllButGeometry}.
+	 * 
+	 * @param root
+	 */
+	private static void stripGeometry( RootType root) {
+		if ( root.getGeometry() != null )
+			root.getGeometry().setPolyline( null);
+		if ( root.getFunctions() != null ) {
+			Iterator<Function> itr = root.getFunctions().getFunction().iterator();
+			while ( itr.hasNext() ) {
+				String name = itr.next().getName();
+				if ( FUNCTION_NAME_DIAMETER.equals( name) || FUNCTION_NAME_STATUSLABEL.equals( name) )
+					itr.remove();
 			}
 		}
-
-		return true;
+		for ( RootType child : root.getRoot() ) {
+			stripGeometry( child);
+		}
 	}
 
 	/** Create a rsml representation for the subtree of a treeline <code>tl</code> .
@@ -810,17 +941,21 @@ public class RhizoRSML
 	 * @return
 	 */
 	private Element createW3Element(String name) {		
-    	DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-    	documentBuilderFactory.setNamespaceAware(false);
-   
-    	try {
-    		DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-			org.w3c.dom.Document doc = documentBuilder.newDocument();
-	    	Element customElement = doc.createElement( name);
-	    	return customElement;
-		} catch (ParserConfigurationException e) {
-			throw new InternalError( "rhizoRSML: can not create W3 Element for " + name);
+		Document doc = elementFactory.get();
+		if ( doc == null ) {
+			// creating the document is expensive, so it is reused for all elements created by this thread
+			DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+			documentBuilderFactory.setNamespaceAware(false);
+
+			try {
+				DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+				doc = documentBuilder.newDocument();
+				elementFactory.set( doc);
+			} catch (ParserConfigurationException e) {
+				throw new InternalError( "rhizoRSML: can not create W3 Element for " + name);
+			}
 		}
+		return doc.createElement( name);
 	}
 
 	/** return a string id which represent the treeline <code>tl</code> in a RSML file.
@@ -976,19 +1111,12 @@ public class RhizoRSML
 	 * @author Posch
 	 */
 	public void readRSML(List<File> rsmlFiles, Layer firstLayer) {
+		final long startTime = System.currentTimeMillis();
+		resetPeakHeap();
 
-		List<Rsml> rsmls = new LinkedList<Rsml>();
-	
-		// parse all RSML files
-		for ( File rsmlFile : rsmlFiles ) {
-			try {
-				JAXBContext context = JAXBContext.newInstance( Rsml.class);
-				Unmarshaller um = context.createUnmarshaller();
-				rsmls.add( (Rsml) um.unmarshal( rsmlFile));
-			} catch (Exception e) {
-				throw new InternalError( "Cannot read RSML from " + rsmlFile.getName() + ".\nCancelling import.");
-			}
-		}
+		// scan the headers of all RSML files for the checks below;
+		// a file that cannot be read cancels the import before the project is changed
+		List<RsmlHeader> rsmls = scanRsmlHeaders( rsmlFiles);
 		
 		List<Layer> availableLayers = getAvailableLayers(firstLayer);
 
@@ -1007,7 +1135,7 @@ public class RhizoRSML
 		
 		for(int i = 0; i < rsmls.size(); i++)
 		{
-			HashMap<Integer, String> rsmlMap = getStatusLabelMappingFromScene(rsmls.get(i));
+			HashMap<Integer, String> rsmlMap = rsmls.get(i).statusLabelMapping;
 
 			if(null != rsmlMap && rsmlMap.size() > 0)
 			{
@@ -1082,19 +1210,19 @@ public class RhizoRSML
 		List<String> imageFilePaths = new ArrayList<String>();
 		for(int i = 0; i < rsmls.size(); i++)
 		{
-			Rsml rsml = rsmls.get(i);		
+			RsmlHeader rsml = rsmls.get(i);		
 			
-			if(null != rsml.getMetadata())
+			if(rsml.hasMetadata)
 			{
-				if(null == rsml.getMetadata().getImage())
+				if(!rsml.hasImage)
 				{
 					imageFilePaths.add(null);
 					imageInconsistencies.append("Image data is missing for file: " + rsmlFiles.get(i).getName() + "\n");
 					continue;
 				}
 				
-				String rsmlSHA256 = rsml.getMetadata().getImage().getSha256();
-				String path = rsml.getMetadata().getImage().getName();
+				String rsmlSHA256 = rsml.imageSha256;
+				String path = rsml.imageName;
 				
 				if(null == path)
 				{
@@ -1126,7 +1254,7 @@ public class RhizoRSML
 						}
 						else // search for image anyway and calculate the sha256
 						{
-							String rsmlSHA256calculated = RhizoUtils.calculateSHA256(imageFile.getAbsolutePath());
+							String rsmlSHA256calculated = RhizoImageHashCache.getHash(imageFile.getAbsolutePath());
 							
 							if(!layerInfo.getImageHash().equals(rsmlSHA256calculated))
 							{
@@ -1164,11 +1292,11 @@ public class RhizoRSML
 		
 		// check for unified in all files
 		boolean allUnified = true;
-		for(Rsml rsml: rsmls)
+		for(RsmlHeader rsml: rsmls)
 		{
-			if(null != rsml.getMetadata() && null != rsml.getMetadata().getTimeSequence())
+			if(rsml.hasMetadata && null != rsml.unified)
 			{
-				if(!rsml.getMetadata().getTimeSequence().isUnified())
+				if(!rsml.unified)
 				{
 					allUnified = false;
 					break;
@@ -1229,13 +1357,38 @@ public class RhizoRSML
 		// collect for each ID of a toplevel root/polyline the treeline object created for this ID
 		HashMap<String,List<Treeline>> topLevelIdTreelineListMap = new HashMap<String,List<Treeline>>();
 		
-		// loop over the RSML files
-		for ( int i = 0 ; i < rsmls.size() ; i++ ) {
-			Rsml rsml = rsmls.get( i);
-			Layer layer = availableLayers.get( i);
-			String imageFilePath = imageFilePaths.get(i);
-			
-			importRsmlToLayer( rsml, layer, imageFilePath, topLevelIdTreelineListMap);
+		// parse the RSML files in parallel and import them in order as soon as they are available;
+		// only a bounded number of parsed files is held in memory at any time, and only the
+		// metadata and the roots without their geometry are kept after import, see importRsmlToLayer
+		final int nproc = Process.NUM_PROCESSORS;
+		final ExecutorService exec = Utils.newFixedThreadPool( nproc, "RhizoRSML-read");
+		try {
+			final int ahead = Math.max( 2 * nproc, 4);
+			LinkedList<Future<Rsml>> futures = new LinkedList<Future<Rsml>>();
+			int nextToParse = 0;
+
+			// loop over the RSML files
+			for ( int i = 0 ; i < rsmlFiles.size() ; i++ ) {
+				while ( nextToParse < rsmlFiles.size() && futures.size() < ahead) {
+					futures.add( exec.submit( createUnmarshalTask( rsmlFiles.get( nextToParse))));
+					nextToParse++;
+				}
+
+				Rsml rsml;
+				try {
+					rsml = futures.removeFirst().get();
+				} catch (Exception e) {
+					// the header of the file was readable before the import started
+					Utils.log( "rhizoTrak", "Cannot read RSML from " + rsmlFiles.get( i).getName() + ", skipping file.");
+					continue;
+				}
+				Layer layer = availableLayers.get( i);
+				String imageFilePath = imageFilePaths.get(i);
+
+				importRsmlToLayer( rsml, layer, imageFilePath, topLevelIdTreelineListMap);
+			}
+		} finally {
+			exec.shutdownNow();
 		}
 		
 
@@ -1288,31 +1441,150 @@ public class RhizoRSML
 				}
 			}
 		}
-		
+
+		Runtime runtime = Runtime.getRuntime();
+		Utils.log2( "RSML import of " + rsmlFiles.size() + " files took " + (System.currentTimeMillis() - startTime) + " ms, peak heap " +
+				(getPeakHeap() >> 20) + " MB, " + ((runtime.totalMemory() - runtime.freeMemory()) >> 20) + " MB heap in use");
 	}
-	
+
+	/** Reset the peak usage of the heap memory pools, see {@link #getPeakHeap()}. */
+	private static void resetPeakHeap() {
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	/** @return the sum of the peak usage of the heap memory pools since {@link #resetPeakHeap()}, in bytes */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType() == MemoryType.HEAP && null != pool.getPeakUsage()) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/** Scan the headers of the RSML files in parallel.
+	 * 
+	 * @param rsmlFiles
+	 * @return the headers in the order of <code>rsmlFiles</code>
+	 * @throws InternalError if a file cannot be read
+	 */
+	private List<RsmlHeader> scanRsmlHeaders( List<File> rsmlFiles) {
+		final ExecutorService exec = Utils.newFixedThreadPool( Process.NUM_PROCESSORS, "RhizoRSML-scan");
+		try {
+			List<Future<RsmlHeader>> futures = new ArrayList<Future<RsmlHeader>>( rsmlFiles.size());
+			for ( final File rsmlFile : rsmlFiles ) {
+				futures.add( exec.submit( new Callable<RsmlHeader>() {
+					@Override
+					public RsmlHeader call() throws Exception {
+						return RsmlHeader.scan( rsmlFile);
+					}
+				}));
+			}
+
+			List<RsmlHeader> headers = new ArrayList<RsmlHeader>( rsmlFiles.size());
+			for ( int i = 0 ; i < rsmlFiles.size() ; i++ ) {
+				try {
+					headers.add( futures.get( i).get());
+				} catch (Exception e) {
+					throw new InternalError( "Cannot read RSML from " + rsmlFiles.get( i).getName() + ".\nCancelling import.");
+				}
+			}
+			return headers;
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
 	/**
-	 * Parses the status label mapping from a RSML file.
-	 * @param rsml 
-	 * @return A HashMap of the status label mapping or null if none is defined in the RSML file
+	 * @param rsmlFile
+	 * @return a task unmarshalling <code>rsmlFile</code> using the shared RSML JAXB context
 	 */
-	private HashMap<Integer, String> getStatusLabelMappingFromScene(Rsml rsml)
-	{
-		if(null == rsml.getScene() || null == rsml.getScene().getProperties() || null == rsml.getScene().getProperties().getAny()) return null;
-		
-		HashMap<Integer, String> map = new HashMap<Integer, String>();
-		
-		for(Element e: rsml.getScene().getProperties().getAny())
-		{
-			if(e.getAttributes().getLength() < 2 || !e.getNodeName().equals("statusLabelMapping")) continue;
-			
-			int b = Integer.parseInt(e.getAttribute("int"));
-			String s = e.getAttribute("value");
-			
-			map.put(b, s);
+	private static Callable<Rsml> createUnmarshalTask( final File rsmlFile) {
+		return new Callable<Rsml>() {
+			@Override
+			public Rsml call() throws Exception {
+				return RhizoJAXB.unmarshal( Rsml.class, rsmlFile, RhizoJAXB.RSML_SCHEMA);
+			}
+		};
+	}
+
+	/**
+	 * The information of a RSML file required to check it before import. 
+	 * It is read with a StAX parser which stops at the first plant, i.e. before
+	 * the geometry of the roots.
+	 */
+	private static class RsmlHeader {
+		
+		private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+		boolean hasMetadata = false;
+		boolean hasImage = false;
+		String imageName = null;
+		String imageSha256 = null;
+		/**
+		 * unified flag of the time sequence, null if there is no time sequence 
+		 */
+		Boolean unified = null;
+		/**
+		 * status label mapping defined in the properties of the scene, null if the scene has no properties
+		 */
+		HashMap<Integer,String> statusLabelMapping = null;
+
+		static RsmlHeader scan( File rsmlFile) throws IOException, XMLStreamException {
+			RsmlHeader header = new RsmlHeader();
+			InputStream in = new BufferedInputStream( new FileInputStream( rsmlFile));
+			XMLStreamReader reader = null;
+			try {
+				synchronized ( inputFactory) {
+					reader = inputFactory.createXMLStreamReader( in);
+				}
+				// local names of the currently open elements
+				LinkedList<String> path = new LinkedList<String>();
+				while ( reader.hasNext() ) {
+					int event = reader.next();
+					if ( event == XMLStreamConstants.START_ELEMENT ) {
+						String name = reader.getLocalName();
+						String parent = path.peekLast();
+						path.addLast( name);
+
+						if ( name.equals( "plant") ) {
+							// all required information precedes the plants
+							break;
+						} else if ( name.equals( "metadata") && path.size() == 2 ) {
+							header.hasMetadata = true;
+						} else if ( name.equals( "image") && "metadata".equals( parent) ) {
+							header.hasImage = true;
+						} else if ( name.equals( "name") && "image".equals( parent) ) {
+							header.imageName = reader.getElementText().trim();
+							path.removeLast();
+						} else if ( name.equals( "sha256") && "image".equals( parent) ) {
+							header.imageSha256 = reader.getElementText().trim();
+							path.removeLast();
+						} else if ( name.equals( "unified") && "time-sequence".equals( parent) ) {
+							String value = reader.getElementText().trim();
+							header.unified = value.equals( "true") || value.equals( "1");
+							path.removeLast();
+						} else if ( name.equals( "properties") && "scene".equals( parent) ) {
+							header.statusLabelMapping = new HashMap<Integer,String>();
+						} else if ( name.equals( "statusLabelMapping") && "properties".equals( parent) &&
+								header.statusLabelMapping != null && reader.getAttributeCount() >= 2 ) {
+							String intValue = reader.getAttributeValue( null, "int");
+							String value = reader.getAttributeValue( null, "value");
+							if ( intValue != null && value != null )
+								header.statusLabelMapping.put( Integer.parseInt( intValue), value);
+						}
+					} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+						path.removeLast();
+					}
+				}
+			} finally {
+				if ( reader != null )
+					reader.close();
+				in.close();
+			}
+			return header;
 		}
-		
-		return map;
 	}
 	
 	/**
@@ -1390,6 +1662,9 @@ public class RhizoRSML
 
 					Treeline tl = createTreelineForRoot( root, layer);
 					layerInfo.mapTreeline( tl , root);
+					// the treeline holds the geometry from now on
+					layerInfo.setGeometryHash( root, geometryHash( root));
+					stripGeometry( root);
 					List<Treeline> tlList = topLevelIdTreelineListMap.get( root.getId());
 					if ( tlList == null) {
 						tlList = new LinkedList<Treeline>();
@@ -1399,6 +1674,8 @@ public class RhizoRSML
 					tlList.add(tl);
 				}
 			}
+			// keep the metadata only, the plants and roots are referenced by the layer info
+			rsml.setScene( null);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -0,0 +1,162 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.addon;
+
+import java.io.File;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import de.unihalle.informatik.rhizoTrak.ControlWindow;
+import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.display.Layer;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+import de.unihalle.informatik.rhizoTrak.xsd.rsml.Rsml;
+
+/**
+ * Command line entry point to export all layers of a rhizoTrak project to RSML files
+ * without any user interaction.
+ * <p>
+ * Usage: <code>RhizoRSMLBatchExport project.xml outputDir [-unified] [-threads n] [-benchmark]</code>
+ * <p>
+ * With <code>-benchmark</code> the layers are additionally written one after the other
+ * the way the GUI did before the batch export existed, i.e. with a new JAXB context per layer, 
+ * and the layers per second of both variants are reported. The benchmark runs on the given
+ * project, no synthetic project is generated.
+ * 
+ * @author posch
+ *
+ */
+public class RhizoRSMLBatchExport {
+
+	private static final String USAGE = 
+			"usage: RhizoRSMLBatchExport project.xml outputDir [-unified] [-threads n] [-benchmark]";
+
+	public static void main( String[] args) {
+		if ( args.length < 2 ) {
+			System.err.println( USAGE);
+			System.exit( 1);
+		}
+
+		String projectPath = args[0];
+		File outputDir = new File( args[1]);
+		boolean unified = false;
+		boolean benchmark = false;
+		int numThreads = 0;
+
+		for ( int i = 2 ; i < args.length ; i++ ) {
+			if ( args[i].equals( "-unified") ) {
+				unified = true;
+			} else if ( args[i].equals( "-benchmark") ) {
+				benchmark = true;
+			} else if ( args[i].equals( "-threads") && i+1 < args.length ) {
+				numThreads = Integer.parseInt( args[++i]);
+			} else {
+				System.err.println( USAGE);
+				System.exit( 1);
+			}
+		}
+
+		ControlWindow.setGUIEnabled( false);
+		Project project = Project.openFSProject( projectPath, false);
+		if ( project == null ) {
+			System.err.println( "cannot open project " + projectPath);
+			System.exit( 1);
+		}
+
+		RhizoRSML rhizoRSML = project.getRhizoMain().getRhizoRSML();
+		int numLayers = project.getRootLayerSet().getLayers().size();
+
+		long start = System.currentTimeMillis();
+		int written = rhizoRSML.writeRSMLBatch( outputDir, null, unified, numThreads);
+		long batchTime = System.currentTimeMillis() - start;
+		Utils.log( "Wrote " + written + " of " + numLayers + " layers to " + outputDir.getAbsolutePath() +
+				" in " + batchTime + " ms (" + layersPerSecond( written, batchTime) + " layers/s)");
+
+		if ( benchmark ) {
+			File serialDir = new File( outputDir, "serial");
+			serialDir.mkdirs();
+			start = System.currentTimeMillis();
+			for ( Layer layer : project.getRootLayerSet().getLayers() ) {
+				writeLayerSerial( rhizoRSML, new File( serialDir, "layer-" + RhizoUtils.getTimepointForLayer( layer) + ".rsml"),
+						layer, project.getRhizoMain().getLayerInfo( layer), unified);
+			}
+			long serialTime = System.currentTimeMillis() - start;
+			Utils.log( "Serial export of " + numLayers + " layers took " + serialTime + " ms (" + 
+					layersPerSecond( numLayers, serialTime) + " layers/s)");
+		}
+
+		project.destroy();
+		System.exit( written == numLayers ? 0 : 1);
+	}
+
+	/** Write <code>layer</code> to <code>saveFile</code> as the serial export did before the JAXB context
+	 * was shared, i.e. creating the JAXB context and the marshaller anew for this layer.
+	 */
+	private static void writeLayerSerial( RhizoRSML rhizoRSML, File saveFile, Layer layer, RhizoLayerInfo rhizoLayerInfo, boolean unified) {
+		Rsml rsml = rhizoRSML.createRSML( layer, rhizoLayerInfo, unified, saveFile.getParentFile());
+		if ( rsml == null ) {
+			return;
+		}
+
+		try {
+			JAXBContext context = JAXBContext.newInstance( Rsml.class);
+			Marshaller m = context.createMarshaller();
+			m.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, true);
+			m.marshal( rsml, saveFile);
+		} catch (JAXBException e) {
+			Utils.log( "rhizoTrak", "WARNING: cannot write RSML to " + saveFile.getPath());
+			e.printStackTrace();
+		}
+	}
+
+	private static String layersPerSecond( int numLayers, long millis) {
+		return String.format( "%.1f", 1000.0 * numLayers / Math.max( 1, millis));
+	}
+}
@@ -82,6 +82,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.BoxLayout;
 import javax.swing.JComboBox;
@@ -96,13 +100,14 @@ import de.unihalle.informatik.rhizoTrak.Project;
 import de.unihalle.informatik.rhizoTrak.display.Connector;
 import de.unihalle.informatik.rhizoTrak.display.Display;
 import de.unihalle.informatik.rhizoTrak.display.Layer;
-import de.unihalle.informatik.rhizoTrak.display.LayerSet;
 import de.unihalle.informatik.rhizoTrak.display.Node;
 import de.unihalle.informatik.rhizoTrak.display.Patch;
 import de.unihalle.informatik.rhizoTrak.display.RhizoAddons;
 import de.unihalle.informatik.rhizoTrak.display.TreeEventListener;
 import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
+import de.unihalle.informatik.rhizoTrak.parallel.Process;
+import de.unihalle.informatik.rhizoTrak.io.ImageFileHeader;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
 import ij.ImagePlus;
@@ -129,6 +134,9 @@ public class RhizoStatistics {
 
 	private String outputUnit;
 
+	// if false, no dialogs are shown
+	private boolean interactive = true;
+
 	// Hash of all layers with treeline(s) to write to
 	// set in computeStatistics
 	private HashSet<Layer> allLayers = null;
@@ -223,148 +231,201 @@ public class RhizoStatistics {
 			if(ans == JOptionPane.NO_OPTION) return;
 		}
 
-		BufferedWriter bw = null;
-		try {
-			bw = new BufferedWriter(new FileWriter(saveFile));
-		} catch (IOException e) {
-			Utils.showMessage( "WriteStatistics can not open " + saveFile.getAbsolutePath());
-			return;
-		}
-
-		// compile all segments to write
+		// compile and write all segments
 		boolean statForAllLayers = outputLayers.equals( ALL_STRING);
-		List<Segment> allSegments;
-		if ( statForAllLayers ) {
-			allSegments = computeStatistics( Display.getFront().getProject(), null);
-		} else {
-			allSegments = computeStatistics( Display.getFront().getProject(), Display.getFront().getLayer());
-		}
-
-		if ( allSegments == null) {
-			try {
-				bw.close();
-				saveFile.delete();
-			} catch (IOException e) {
-			}
-			return;
-		}
-
-		// write
-		try {
-			if ( aggregatedStatistics ) {
-
-				RhizoProjectConfig config = rhizoMain.getProjectConfig();
+		writeStatistics( Display.getFront().getProject(), statForAllLayers ? null : Display.getFront().getLayer(),
+				saveFile, sep, this.outputUnit, aggregatedStatistics, true, 0);
+	}
 
-				// create arrays with lines for layers and columns for status labels
-				HashMap<Integer,Double[]> aggregatedLength = new HashMap<Integer, Double[]>();
-				HashMap<Integer,Double[]> aggregatedSurface = new HashMap<Integer, Double[]>();
-				HashMap<Integer,Double[]> aggregatedVolume = new HashMap<Integer, Double[]>();
+	/** Compute the statistics of all treelines below the rootstacks of <code>project</code> and write them
+	 * as csv to <code>saveFile</code>.
+	 * <p>
+	 * Segments are computed for the treelines in parallel and written in the order of the treelines
+	 * as soon as they are available, so the segments of the whole project are never held in memory
+	 * for segment output.
+	 *
+	 * @param project
+	 * @param currentLayer if null all layers are considered
+	 * @param saveFile
+	 * @param sep separator of the csv file
+	 * @param outputUnit one of <code>pixel</code>, <code>inch</code> or <code>mm</code>
+	 * @param aggregatedStatistics if true write the statistics aggregated per layer and status, otherwise per segment
+	 * @param interactive if false no dialogs are shown and pixel units are used if calibration is not valid for all layers
+	 * @param numThreads number of treelines processed in parallel, if less than one the number of processors is used
+	 * @return true on success
+	 */
+	public boolean writeStatistics( Project project, Layer currentLayer, File saveFile, String sep, String outputUnit,
+			boolean aggregatedStatistics, boolean interactive, int numThreads) {
+		long start = System.currentTimeMillis();
+		this.outputUnit = outputUnit;
+		this.interactive = interactive;
+		if ( numThreads < 1 )
+			numThreads = Process.NUM_PROCESSORS;
 
-				for ( Layer layer : this.allLayers) {
-					Double[] stats = new Double[config.sizeStatusLabelMapping()];
-					for ( int i = 0 ; i < stats.length ; i++ )
-						stats[i] = 0.0;
-					aggregatedLength.put( layer.getParent().indexOf(layer) + 1, stats);
+		List<Treeline> allTreelines = collectTreelines( project, currentLayer);
 
-					stats = new Double[config.sizeStatusLabelMapping()];
-					for ( int i = 0 ; i < stats.length ; i++ )
-						stats[i] = 0.0;
-					aggregatedSurface.put( layer.getParent().indexOf(layer) + 1, stats);
+		ExecutorService exec = Utils.newFixedThreadPool( numThreads, "RhizoStatistics");
+		try {
+			// collect calibration information for all layers
+			allCalibInfos = getCalibrationInfo( allLayers, exec);
+			if ( allCalibInfos == null)
+				return false;
 
-					stats = new Double[config.sizeStatusLabelMapping()];
-					for ( int i = 0 ; i < stats.length ; i++ )
-						stats[i] = 0.0;
-					aggregatedVolume.put( layer.getParent().indexOf(layer) + 1, stats);
+			BufferedWriter bw = null;
+			try {
+				bw = new BufferedWriter(new FileWriter(saveFile), 1 << 16);
+			} catch (IOException e) {
+				showMessage( "WriteStatistics can not open " + saveFile.getAbsolutePath());
+				return false;
+			}
 
+			boolean success = false;
+			try {
+				if ( aggregatedStatistics ) {
+					writeAggregatedStatistics( bw, sep, allTreelines, exec, numThreads);
+				} else {
+					writeSegmentStatistics( bw, sep, allTreelines, exec, numThreads);
 				}
-
-				// iterate over all segments and aggregate the segment length
-				for (Segment segment : allSegments) {
-					int layerID = segment.layerIndex;
-					int status = segment.status;
-					aggregatedLength.get( layerID)[ status] += segment.length;
-					aggregatedSurface.get( layerID)[ status] += segment.surfaceArea;
-					aggregatedVolume.get( layerID)[ status] += segment.volume;
+				success = true;
+			} catch (IOException e) {
+				showMessage( "WriteStatistics cannot write to " + saveFile.getAbsolutePath());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				showMessage( "internal error: " + cause.getMessage());
+				cause.printStackTrace();
+			} catch (InterruptedException e) {
+				Utils.log( "WriteStatistics interrupted");
+			} finally {
+				try {
+					bw.close();
+				} catch (IOException e) {
+					success = false;
 				}
+			}
 
-				// write header and one line per layer
-				bw.write( "experiment" + sep + "tube" + sep + "timepoint" + sep + "date" + sep + "layerID" +
-						sep + "length_" + this.outputUnit + sep + "surfaceArea_" + this.outputUnit + "^2" + sep + "volume_" + this.outputUnit + "^3" +
-						sep + "status" + sep + "statusName" + sep + "ImageWidth" + sep + "ImageHeight");
+			if ( ! success ) {
+				saveFile.delete();
+			} else {
+				Utils.log2( "Wrote statistics of " + allTreelines.size() + " treelines on " + allLayers.size() + " layers to " +
+						saveFile.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + " ms");
+			}
+			return success;
+		} finally {
+			exec.shutdownNow();
+		}
+	}
 
-				bw.newLine();
+	/** Write one line per segment
+	 */
+	private void writeSegmentStatistics( BufferedWriter bw, String sep, List<Treeline> allTreelines,
+			ExecutorService exec, int numThreads) throws IOException, InterruptedException, ExecutionException {
+		// write header
+		bw.write("experiment" + sep + "tube" + sep + "timepoint" + sep + "date" + sep + "rootID" + sep + "layerID" +sep + "segmentID" + sep + "parentID" +
+				sep + "x_start_pixel" + sep + "y_start_pixel" + sep + "x_end_pixel" + sep + "y_end_pixel" +
+				sep + "length_" + this.outputUnit + sep + "startDiameter_" + this.outputUnit + sep + "endDiameter_" + this.outputUnit +
+				sep + "surfaceArea_" + this.outputUnit + "^2" + sep + "volume_" + this.outputUnit + "^3" + sep + "children" + sep + "status" + sep + "statusName" + "\n");
 
-				List<Integer> sortedLayerIDs = new LinkedList<Integer>(aggregatedLength.keySet());
-				Collections.sort( sortedLayerIDs);
-				for ( int layerID : sortedLayerIDs) {
-					ImagePlusCalibrationInfo calibInfo = allCalibInfos.get( layerID);
-					String imageName = calibInfo.imagename;
-					String tube = RhizoUtils.getICAPTube( imageName);
-					String experiment = RhizoUtils.getICAPExperiment(imageName);
-					String timepoint = RhizoUtils.getICAPTimepoint(imageName);
-					String date = RhizoUtils.getICAPDate(imageName);
-					String width = RhizoUtils.NA_String;
-					String height =  RhizoUtils.NA_String;
-
-					if ( calibInfo != null && calibInfo.ip != null ) {
-						width = String.valueOf( calibInfo.ip.getWidth());
-						height = String.valueOf( calibInfo.ip.getHeight());
-					}
+		StringBuilder msg = new StringBuilder();
+		TreelineSegmentsIterator it = new TreelineSegmentsIterator( allTreelines, exec, numThreads, sep);
+		while ( it.hasNext() ) {
+			TreelineSegments tlSegments = it.next();
+			bw.write( tlSegments.lines);
+			msg.append( tlSegments.warning);
+		}
+		showWarnings( msg);
+	}
 
-					for ( int s = 0 ; s < config.sizeStatusLabelMapping(); s++ ) {
-						bw.write( experiment + sep + tube + sep + timepoint + sep + date + sep + Integer.toString( layerID) +
-								sep + aggregatedLength.get(layerID)[s] +
-								sep + aggregatedSurface.get(layerID)[s] +
-								sep + aggregatedVolume.get(layerID)[s] +
-								sep + s + sep + config.getStatusLabel( s).getName() +
-								sep + width + sep + height);
-						bw.newLine();
+	/** Write one line per layer and status
+	 */
+	private void writeAggregatedStatistics( BufferedWriter bw, String sep, List<Treeline> allTreelines,
+			ExecutorService exec, int numThreads) throws IOException, InterruptedException, ExecutionException {
+		RhizoProjectConfig config = rhizoMain.getProjectConfig();
+
+		// create arrays with lines for layers and columns for status labels
+		HashMap<Integer,double[]> aggregatedLength = new HashMap<Integer, double[]>();
+		HashMap<Integer,double[]> aggregatedSurface = new HashMap<Integer, double[]>();
+		HashMap<Integer,double[]> aggregatedVolume = new HashMap<Integer, double[]>();
+
+		for ( Layer layer : this.allLayers) {
+			int layerID = layer.getParent().indexOf(layer) + 1;
+			aggregatedLength.put( layerID, new double[config.sizeStatusLabelMapping()]);
+			aggregatedSurface.put( layerID, new double[config.sizeStatusLabelMapping()]);
+			aggregatedVolume.put( layerID, new double[config.sizeStatusLabelMapping()]);
+		}
 
-					}
-				}
+		// iterate over all segments and aggregate the segment length
+		StringBuilder msg = new StringBuilder();
+		TreelineSegmentsIterator it = new TreelineSegmentsIterator( allTreelines, exec, numThreads, null);
+		while ( it.hasNext() ) {
+			TreelineSegments tlSegments = it.next();
+			for (Segment segment : tlSegments.segments) {
+				int layerID = segment.layerIndex;
+				int status = segment.status;
+				aggregatedLength.get( layerID)[ status] += segment.length;
+				aggregatedSurface.get( layerID)[ status] += segment.surfaceArea;
+				aggregatedVolume.get( layerID)[ status] += segment.volume;
+			}
+			msg.append( tlSegments.warning);
+		}
 
-			} else {
-				// write header
-				bw.write("experiment" + sep + "tube" + sep + "timepoint" + sep + "date" + sep + "rootID" + sep + "layerID" +sep + "segmentID" + sep + "parentID" +
-						sep + "x_start_pixel" + sep + "y_start_pixel" + sep + "x_end_pixel" + sep + "y_end_pixel" +
-						sep + "length_" + this.outputUnit + sep + "startDiameter_" + this.outputUnit + sep + "endDiameter_" + this.outputUnit +
-						sep + "surfaceArea_" + this.outputUnit + "^2" + sep + "volume_" + this.outputUnit + "^3" + sep + "children" + sep + "status" + sep + "statusName" + "\n");
-				for (Segment segment : allSegments) {
-					bw.write(segment.getStatistics(sep));
-					bw.newLine();
-				}
+		// write header and one line per layer
+		bw.write( "experiment" + sep + "tube" + sep + "timepoint" + sep + "date" + sep + "layerID" +
+				sep + "length_" + this.outputUnit + sep + "surfaceArea_" + this.outputUnit + "^2" + sep + "volume_" + this.outputUnit + "^3" +
+				sep + "status" + sep + "statusName" + sep + "ImageWidth" + sep + "ImageHeight");
+
+		bw.newLine();
+
+		List<Integer> sortedLayerIDs = new LinkedList<Integer>(aggregatedLength.keySet());
+		Collections.sort( sortedLayerIDs);
+		for ( int layerID : sortedLayerIDs) {
+			ImagePlusCalibrationInfo calibInfo = allCalibInfos.get( layerID);
+			String imageName = calibInfo.imagename;
+			String tube = RhizoUtils.getICAPTube( imageName);
+			String experiment = RhizoUtils.getICAPExperiment(imageName);
+			String timepoint = RhizoUtils.getICAPTimepoint(imageName);
+			String date = RhizoUtils.getICAPDate(imageName);
+			String width = RhizoUtils.NA_String;
+			String height =  RhizoUtils.NA_String;
+
+			if ( calibInfo.hasImage() ) {
+				width = String.valueOf( calibInfo.width);
+				height = String.valueOf( calibInfo.height);
 			}
 
-			bw.close();
-		} catch (IOException e) {
-			Utils.showMessage( "WriteStatistics cannot write to " + saveFile.getAbsolutePath());
+			for ( int s = 0 ; s < config.sizeStatusLabelMapping(); s++ ) {
+				bw.write( experiment + sep + tube + sep + timepoint + sep + date + sep + Integer.toString( layerID) +
+						sep + aggregatedLength.get(layerID)[s] +
+						sep + aggregatedSurface.get(layerID)[s] +
+						sep + aggregatedVolume.get(layerID)[s] +
+						sep + s + sep + config.getStatusLabel( s).getName() +
+						sep + width + sep + height);
+				bw.newLine();
+
+			}
 		}
+		showWarnings( msg);
 	}
 
 	/**
 	 * @param project
 	 * @param currentLayer if null all layers are considered
 	 *
-	 * @return list of all <code>Segment</code>s to write, null on failure
+	 * @return list of all treelines to write, also sets <code>allLayers</code>
 	 */
-	private List<Segment> computeStatistics( Project project, Layer currentLayer) {
-		List<Segment> allSegments = new ArrayList<Segment>();
-
+	private List<Treeline> collectTreelines( Project project, Layer currentLayer) {
 		// all treelines below a rootstack
-		LinkedList<Treeline> allTreelines = new LinkedList<Treeline>();
-		// all connectors below a rootstack
-		LinkedList<Connector> allConnectors = new LinkedList<Connector>();
+		List<Treeline> allTreelines = new ArrayList<Treeline>();
+
+		// and collect treelines below all rootstacks
+		this.allLayers = new HashSet<Layer>(); // all layers we have a treeline in to write
 
 		// find all rootstacks
 		HashSet<ProjectThing> rootstackThings = RhizoUtils.getRootstacks( project);
 		if ( rootstackThings == null) {
-			Utils.showMessage( "WriteStatistics warning: no rootstack found");
-			return allSegments;
+			showMessage( "WriteStatistics warning: no rootstack found");
+			return allTreelines;
 		}
 
-		// and collect treelines and connectors below all rootstacks
-		this.allLayers = new HashSet<Layer>(); // all layers we have a treeline in to write
-
 		for ( ProjectThing rootstackThing :rootstackThings ) {
 			if ( debug)	System.out.println("rootstack " + rootstackThing.getId());
 			for ( ProjectThing pt : rootstackThing.findChildrenOfTypeR( Treeline.class)) {
@@ -379,106 +440,170 @@ public class RhizoStatistics {
 						allTreelines.add(tl);
 						allLayers.add( tl.getFirstLayer());
 					}
-				} else if ( tl.getClass().equals( Connector.class)) {
-					if ( debug)	System.out.println( "           as connector");
-
-					Connector conn = (Connector)tl;
-					allConnectors.add(conn);
 				}
 			}
 		}
 
-		// collect calibration information for all layers
-		allCalibInfos = getCalibrationInfo( allLayers);
-		if ( allCalibInfos == null)
-			return null;
+		return allTreelines;
+	}
 
-		// create all segments for these treelines to write to the csv file
-		// consider image bounds if patch has an associated image
-		StringBuilder msg = new StringBuilder();
+	/** Create all segments for the treeline <code>tl</code> to write to the csv file
+	 * considering image bounds if patch has an associated image.
+	 *
+	 * @param tl
+	 * @param sep if not null the csv lines for the segments are compiled and the segments are dropped
+	 * @return
+	 */
+	private TreelineSegments computeSegments( Treeline tl, String sep) {
+		TreelineSegments result = new TreelineSegments();
+		List<Segment> currentSegments = new ArrayList<Segment>();
+		Map<RadiusNode, Integer> parents = new HashMap<RadiusNode, Integer>();
+
+		if ( debug)	System.out.println( "segment to write " + tl.getId());
+		HashSet<Connector> connectorSet = new HashSet<>();
+		if ( tl.getTreeEventListener() != null ) {
+			for(TreeEventListener tel: tl.getTreeEventListener()) {
+				connectorSet.add(tel.getConnector());
+			}
+		}
+
+		if ( debug)	System.out.println( "got connset" + connectorSet);
+		long treelineID;
+		if ( connectorSet.size() == 0 ) {
+			if ( debug)	System.out.println( "no connector, use treeline ID");
+			treelineID = tl.getId();
+		} else {
+			if ( debug)	System.out.println( "no connector, use connector ID");
+			Iterator<Connector> itr = connectorSet.iterator();
+			treelineID = itr.next().getId();
+			if ( connectorSet.size() > 1 ) {
+				result.warning = "WriteStatitics warning: treeline " + tl.getId() + " has more than one connector\n";
+			}
+		}
+		if ( debug)	System.out.println( "Id " + treelineID);
+
+		// keep paged nodes in memory while collecting them
+		tl.pinNodes();
+		final Node<Float> rootNode;
+		final Collection<Node<Float>> allNodes;
 		try {
-			for ( Treeline tl : allTreelines)  {
+			rootNode = tl.getRoot();
+			allNodes = null == rootNode ? null : rootNode.getSubtreeNodes();
+		} finally {
+			tl.unpinNodes();
+		}
 
-				List<Segment> currentSegments = new ArrayList<Segment>();
-				Map<RadiusNode, Integer> parents = new HashMap<RadiusNode, Integer>();
+		if ( rootNode != null) {
+			int segmentID = 1;
 
-				if ( debug)	System.out.println( "segment to write " + tl.getId());
-				HashSet<Connector> connectorSet = new HashSet<>();
-				if ( tl.getTreeEventListener() != null ) {
-					for(TreeEventListener tel: tl.getTreeEventListener()) {
-						connectorSet.add(tel.getConnector());
+			for(Node<Float> node : allNodes) {
+				if(!node.equals(rootNode)) {
+					if ( debug)	{
+						System.out.println( "    create segment for node " + node.getConfidence() +
+								" patch " + RhizoAddons.getPatch(tl));
 					}
-				}
+					RadiusNode radiusNode = (RadiusNode) node;
+					RadiusNode radiusParentNode = (RadiusNode) node.getParent();
 
-				if ( debug)	System.out.println( "got connset" + connectorSet);
-				long treelineID;
-				if ( connectorSet.size() == 0 ) {
-					if ( debug)	System.out.println( "no connector, use treeline ID");
-					treelineID = tl.getId();
-				} else {
-					if ( debug)	System.out.println( "no connector, use connector ID");
-					Iterator<Connector> itr = connectorSet.iterator();
-					treelineID = itr.next().getId();
-					if ( connectorSet.size() > 1 ) {
-						msg.append( "WriteStatitics warning: treeline " + tl.getId() + " has more than one connector\n");
-					}
-				}
-				if ( debug)	System.out.println( "Id " + treelineID);
+					Segment currentSegment = new Segment(rhizoMain, tl, treelineID,
+							segmentID, radiusNode, radiusParentNode, this.outputUnit, (int) node.getConfidence());
 
-				if ( tl.getRoot() != null) {
-					int segmentID = 1;
-					Collection<Node<Float>> allNodes = tl.getRoot().getSubtreeNodes();
+					currentSegments.add(currentSegment);
+					parents.put(radiusNode, segmentID);
 
-					for(Node<Float> node : allNodes) {
-						if(!node.equals(tl.getRoot())) {
-							if ( debug)	{
-								System.out.println( "    create segment for node " + node.getConfidence() +
-										" patch " + RhizoAddons.getPatch(tl));
-							}
-							RadiusNode radiusNode = (RadiusNode) node;
-							RadiusNode radiusParentNode = (RadiusNode) node.getParent();
+					segmentID++;
 
-							Segment currentSegment = new Segment(rhizoMain, tl, treelineID,
-									segmentID, radiusNode, radiusParentNode, this.outputUnit, (int) node.getConfidence());
+					if(currentSegment.cohenSutherlandLineClipping())
+						result.segments.add(currentSegment);
+				}
+			}
 
-							currentSegments.add(currentSegment);
-							parents.put(radiusNode, segmentID);
+			for(Segment s: currentSegments){
 
-							segmentID++;
+				s.setParentID(null == parents.get(s.getParentNode()) ? -1 : parents.get(s.getParentNode()));
+			}
+		}
 
-							if(currentSegment.cohenSutherlandLineClipping())
-								allSegments.add(currentSegment);
-						}
-					}
+		if ( sep != null ) {
+			StringBuilder sb = new StringBuilder( 160 * result.segments.size());
+			for (Segment segment : result.segments) {
+				sb.append( segment.getStatistics(sep)).append( System.lineSeparator());
+			}
+			result.lines = sb.toString();
+			result.segments = Collections.emptyList();
+		}
 
-					for(Segment s: currentSegments){
+		if ( debug)	System.out.println( "created segments");
+		return result;
+	}
 
-						s.setParentID(null == parents.get(s.getParentNode()) ? -1 : parents.get(s.getParentNode()));
-					}
+	/** Segments of one treeline as computed by a worker thread
+	 */
+	private static class TreelineSegments {
+		List<Segment> segments = new ArrayList<Segment>();
+		String lines = "";
+		String warning = "";
+	}
 
+	/** Computes the segments of the treelines in parallel and delivers them in the order of the treelines.
+	 * Only a bounded number of treelines is computed ahead of the consumer.
+	 */
+	private class TreelineSegmentsIterator {
+		private final Iterator<Treeline> treelines;
+		private final ExecutorService exec;
+		private final int ahead;
+		private final String sep;
+		private final LinkedList<Future<TreelineSegments>> futures = new LinkedList<Future<TreelineSegments>>();
+
+		TreelineSegmentsIterator( List<Treeline> allTreelines, ExecutorService exec, int numThreads, String sep) {
+			this.treelines = allTreelines.iterator();
+			this.exec = exec;
+			this.ahead = Math.max( 4 * numThreads, 8);
+			this.sep = sep;
+		}
 
-				}
+		boolean hasNext() {
+			return treelines.hasNext() || ! futures.isEmpty();
+		}
 
-				if ( debug)	System.out.println( "created segments");
+		TreelineSegments next() throws InterruptedException, ExecutionException {
+			while ( treelines.hasNext() && futures.size() < ahead ) {
+				final Treeline tl = treelines.next();
+				futures.add( exec.submit( new Callable<TreelineSegments>() {
+					@Override
+					public TreelineSegments call() {
+						return computeSegments( tl, sep);
+					}
+				}));
 			}
-		} catch (Exception ex) {
-			Utils.showMessage( "rhizoTrak", "internal error: " + ex.getMessage());
-			ex.printStackTrace();
-			return null;
+			return futures.removeFirst().get();
 		}
+	}
+
+	private void showWarnings( StringBuilder msg) {
 		if ( msg.length() > 1 ) {
 			msg.insert(0, "WARNING Write experimental data\n \n");
-			Utils.showMessage( "rhizoTrak", new String( msg));
+			showMessage( new String( msg));
 		}
+	}
 
-		return allSegments;
+	/** Show a message to the user, or just log it if not interactive
+	 */
+	private void showMessage( String msg) {
+		if ( this.interactive ) {
+			Utils.showMessage( "rhizoTrak", msg);
+		} else {
+			Utils.log( msg);
+		}
 	}
 
-	/** get the calibration info for each layer from the ImageJ ImapePlus
+	/** get the calibration info for each layer from the header of the image file of the layer,
+	 * without loading the image
 	 * @param allLayers
+	 * @param exec used to read the image headers in parallel
 	 * @return
 	 */
-	private HashMap<Integer,ImagePlusCalibrationInfo> getCalibrationInfo( HashSet<Layer> allLayers) {
+	private HashMap<Integer,ImagePlusCalibrationInfo> getCalibrationInfo( HashSet<Layer> allLayers, ExecutorService exec) {
 		HashMap<Integer,ImagePlusCalibrationInfo> myAllCalibInfos  = new HashMap<Integer,ImagePlusCalibrationInfo>();
 		boolean haveAllPatches = true;
 
@@ -487,30 +612,41 @@ public class RhizoStatistics {
 
 			for ( Layer layer : allLayers) {
 				System.out.println( "layer = " + layer);
-//				System.out.println( "layerIndex " + (layer.getParent().indexOf(layer) + 1));
 			}
 		}
 
+		HashMap<Integer,Future<ImagePlusCalibrationInfo>> futures = new HashMap<Integer,Future<ImagePlusCalibrationInfo>>();
 		for ( Layer layer : allLayers) {
 			if ( layer == null ) continue;
 
 			int layerIndex = layer.getParent().indexOf(layer) + 1;
-			LayerSet layerSet = layer.getParent();
-			List<Patch> patches = layerSet.getAll(Patch.class);
-
-			boolean found = false;
-			for(Patch patch: patches) 	{
-				if(patch.getLayer() == layer) {
-					ImagePlus ip = patch.getImagePlus();
-					if (  ip != null  ) {
-						if ( debug ) System.out.println( "found layer " + layerIndex);
-						myAllCalibInfos.put( layerIndex, new ImagePlusCalibrationInfo(ip));
-						found = true;
-						break;
+			final List<Patch> patches = layer.getPatches( false);
+			futures.put( layerIndex, exec.submit( new Callable<ImagePlusCalibrationInfo>() {
+				@Override
+				public ImagePlusCalibrationInfo call() {
+					for ( Patch patch : patches ) {
+						ImagePlusCalibrationInfo calibInfo = readCalibrationInfo( patch);
+						if ( calibInfo != null )
+							return calibInfo;
 					}
+					return null;
 				}
+			}));
+		}
+
+		for ( Map.Entry<Integer,Future<ImagePlusCalibrationInfo>> entry : futures.entrySet() ) {
+			int layerIndex = entry.getKey();
+			ImagePlusCalibrationInfo calibInfo = null;
+			try {
+				calibInfo = entry.getValue().get();
+			} catch (InterruptedException | ExecutionException e) {
+				Utils.log2( "cannot read calibration for layer " + layerIndex + ": " + e.getMessage());
 			}
-			if ( ! found) {
+
+			if ( calibInfo != null ) {
+				if ( debug ) System.out.println( "found layer " + layerIndex);
+				myAllCalibInfos.put( layerIndex, calibInfo);
+			} else {
 				myAllCalibInfos.put( layerIndex, new ImagePlusCalibrationInfo());
 				if ( debug ) System.out.println( "found layer " + layerIndex + " without patch");
 
@@ -521,6 +657,18 @@ public class RhizoStatistics {
 		// if outputUnit != pixels check validity of calibration information
 		// known units and square pixels
 		if ( ! this.outputUnit.equals( "pixel")) {
+			if ( ! this.interactive ) {
+				// nobody to ask, fall back to pixel units
+				for ( ImagePlusCalibrationInfo calibInfo : myAllCalibInfos.values() ) {
+					if ( ! calibInfo.isValid() ) {
+						Utils.log( "WriteStatistics warning: no valid calibration for all layers, using pixel units");
+						this.outputUnit = "pixel";
+						break;
+					}
+				}
+				return myAllCalibInfos;
+			}
+
 			LinkedList<Integer> zValues = new LinkedList<Integer>();
 			zValues.addAll( myAllCalibInfos.keySet());
 			Collections.sort( zValues);
@@ -681,25 +829,63 @@ public class RhizoStatistics {
 		return myAllCalibInfos;
 	}
 
+	/** Read the calibration of the image of <code>patch</code>. Only the header of the image file is read,
+	 * the image is opened as <code>ImagePlus</code> only if the header cannot be read.
+	 *
+	 * @param patch
+	 * @return the calibration or null if the image cannot be read
+	 */
+	private ImagePlusCalibrationInfo readCalibrationInfo( Patch patch) {
+		String path = patch.getImageFilePath();
+		ImageFileHeader header = ImageFileHeader.read( path);
+		if ( header != null )
+			return new ImagePlusCalibrationInfo( new File( path).getName(), header);
+
+		Utils.log2( "cannot read the header of " + path + ", opening image");
+		ImagePlus ip = patch.getImagePlus();
+		if ( ip != null )
+			return new ImagePlusCalibrationInfo( ip);
+		return null;
+	}
+
 	class ImagePlusCalibrationInfo {
-		ImagePlus ip;
 		String imagename;
 		String xUnit;
 		String yUnit;
 		double pixelWidth;
 		double pixelHeight;
+		/**
+		 * size of the image, negative if no image is associated
+		 */
+		int width;
+		int height;
 
 		ImagePlusCalibrationInfo( ImagePlus ip) {
-			this.ip = ip;
 			this.imagename = ip.getTitle();
 			this.xUnit = ip.getCalibration().getXUnit();
 			this.yUnit = ip.getCalibration().getYUnit();
 			this.pixelWidth = ip.getCalibration().pixelWidth;
 			this.pixelHeight = ip.getCalibration().pixelHeight;
+			this.width = ip.getWidth();
+			this.height = ip.getHeight();
+		}
+
+		/** Calibration as read from the header of the image file, the unit is set like ImageJ does when
+		 * opening the image, i.e. a unit given in the ImageJ description of a TIFF file overrides the resolution unit.
+		 */
+		ImagePlusCalibrationInfo( String imagename, ImageFileHeader header) {
+			this.imagename = imagename;
+			this.width = header.width;
+			this.height = header.height;
+			this.pixelWidth = header.pixel_width;
+			this.pixelHeight = header.pixel_height;
+			this.xUnit = header.unit;
+			this.yUnit = header.unit;
 		}
 
 		public ImagePlusCalibrationInfo() {
-			this.ip = null;
+			this.width = -1;
+			this.height = -1;
 			this.imagename = "";
 			this.xUnit = "";
 			this.yUnit = "";
@@ -781,6 +967,13 @@ public class RhizoStatistics {
 			}
 		}
 
+		/**
+		 * @return true if an image is associated, i.e. the image extent is known
+		 */
+		boolean hasImage() {
+			return this.width >= 0 && this.height >= 0;
+		}
+
 		public String getImageName() {
 			return imagename;
 		}
@@ -1027,13 +1220,13 @@ public class RhizoStatistics {
 				throw new ExceptionInInitializerError( "can not find calibration information");
 
 			// we have no image extent and cannot clip therefore
-			if ( calibInfo.ip == null)
+			if ( ! calibInfo.hasImage() )
 				return true;
 
 			double xMin = 0;
 			double yMin = 0;
-			double xMax = calibInfo.ip.getWidth() - 1;
-			double yMax = calibInfo.ip.getHeight() - 1;
+			double xMax = calibInfo.width - 1;
+			double yMax = calibInfo.height - 1;
 
 			AffineTransform at = t.getAffineTransform();
 			Point2D p1 = at.transform(new Point2D.Float(parent.getX(), parent.getY()), null);
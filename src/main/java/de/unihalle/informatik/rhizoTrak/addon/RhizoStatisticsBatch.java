@@ -0,0 +1,121 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.addon;
+
+import java.io.File;
+
+import de.unihalle.informatik.rhizoTrak.ControlWindow;
+import de.unihalle.informatik.rhizoTrak.Project;
+
+/**
+ * Command line entry point to write the statistics of all layers of a rhizoTrak project 
+ * to a csv file without any user interaction.
+ * <p>
+ * Usage: <code>RhizoStatisticsBatch project.xml output.csv [-aggregated] [-unit pixel|inch|mm] [-sep tab|;|,|space] [-threads n]</code>
+ * <p>
+ * If not all layers have a valid calibration, pixel units are used.
+ * 
+ * @author posch
+ *
+ */
+public class RhizoStatisticsBatch {
+
+	private static final String USAGE = 
+			"usage: RhizoStatisticsBatch project.xml output.csv [-aggregated] [-unit pixel|inch|mm] [-sep tab|;|,|space] [-threads n]";
+
+	public static void main( String[] args) {
+		if ( args.length < 2 ) {
+			System.err.println( USAGE);
+			System.exit( 1);
+		}
+
+		String projectPath = args[0];
+		File outputFile = new File( args[1]);
+		boolean aggregated = false;
+		String unit = "pixel";
+		String sep = "\t";
+		int numThreads = 0;
+
+		for ( int i = 2 ; i < args.length ; i++ ) {
+			if ( args[i].equals( "-aggregated") ) {
+				aggregated = true;
+			} else if ( args[i].equals( "-unit") && i+1 < args.length ) {
+				unit = args[++i];
+				if ( ! unit.equals( "pixel") && ! unit.equals( "inch") && ! unit.equals( "mm") ) {
+					System.err.println( USAGE);
+					System.exit( 1);
+				}
+			} else if ( args[i].equals( "-sep") && i+1 < args.length ) {
+				sep = args[++i];
+				if ( sep.equals( "tab") ) {
+					sep = "\t";
+				} else if ( sep.equals( "space") ) {
+					sep = " ";
+				}
+			} else if ( args[i].equals( "-threads") && i+1 < args.length ) {
+				numThreads = Integer.parseInt( args[++i]);
+			} else {
+				System.err.println( USAGE);
+				System.exit( 1);
+			}
+		}
+
+		ControlWindow.setGUIEnabled( false);
+		Project project = Project.openFSProject( projectPath, false);
+		if ( project == null ) {
+			System.err.println( "cannot open project " + projectPath);
+			System.exit( 1);
+		}
+
+		boolean success = project.getRhizoMain().getRhizoStatistics().writeStatistics( 
+				project, null, outputFile, sep, unit, aggregated, false, numThreads);
+
+		project.destroy();
+		System.exit( success ? 0 : 1);
+	}
+}
@@ -56,7 +56,7 @@ import org.python.antlr.base.boolop;
  * A status label string with its abbreviation and so forth.
  * 
  * <b>NOTE</> if the value of a member change notify the  {@link #projectConfig} that its
- * user settings were changed
+ * user settings were changed and, for color and alpha, that its status palette is stale
  * </b>
  * 
  * @author posch
@@ -147,6 +147,7 @@ public class RhizoStatusLabel{
 				this.color.getBlue() != color.getBlue()) {
 			this.color = color;
 			this.projectConfig.setUserSettingsChanged();
+			this.projectConfig.invalidateStatusPalette();
 		}
 	}
 
@@ -164,6 +165,7 @@ public class RhizoStatusLabel{
 		 if ( this.alpha != alpha) {
 			 this.alpha = alpha;
 			 this.projectConfig.setUserSettingsChanged();
+			 this.projectConfig.invalidateStatusPalette();
 		 }
 	}
 
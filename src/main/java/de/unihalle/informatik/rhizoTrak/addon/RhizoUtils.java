@@ -58,12 +58,7 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
 import java.util.*;
 
 /**
@@ -340,9 +335,17 @@ public class RhizoUtils {
 					{
 						Treeline tl = (Treeline) pt.getObject();
 
-						for(Node<Float> n: tl.getRoot().getSubtreeNodes())
+						tl.pinNodes();
+						try
 						{
-							if(n.getConfidence() ==(byte) i) return true;
+							for(Node<Float> n: tl.getRoot().getSubtreeNodes())
+							{
+								if(n.getConfidence() ==(byte) i) return true;
+							}
+						}
+						finally
+						{
+							tl.unpinNodes();
 						}
 					}
 				}
@@ -353,6 +356,7 @@ public class RhizoUtils {
 		
 		public static void setSegmentsStatus(Project project, int i, byte confidence)
 		{
+			ArrayList<Treeline> changed = new ArrayList<Treeline>();
 			HashSet<ProjectThing> rootStackThings = RhizoUtils.getRootstacks(project);
 			if(null != rootStackThings)
 			{
@@ -361,14 +365,33 @@ public class RhizoUtils {
 					for(ProjectThing pt: rootStackThing.findChildrenOfTypeR(Treeline.class)) 
 					{
 						Treeline tl = (Treeline) pt.getObject();
+						boolean tlChanged = false;
 
-						for(Node<Float> n: tl.getRoot().getSubtreeNodes())
+						tl.pinNodes();
+						try
 						{
-							if(n.getConfidence() ==(byte) i) n.setConfidence(confidence);
+							for(Node<Float> n: tl.getRoot().getSubtreeNodes())
+							{
+								if(n.getConfidence() ==(byte) i) {
+									n.setConfidence(confidence);
+									tlChanged = true;
+								}
+							}
 						}
+						finally
+						{
+							tl.unpinNodes();
+						}
+						if(tlChanged) changed.add(tl);
 					}
 				}
 			}
+
+			// no undo step is made, so tell the change journal
+			if(!changed.isEmpty()) {
+				project.getChangeJournal().touched(changed);
+				project.getLoader().setJournaledChanges();
+			}
 		}
 
 		/** Print the project tree to stdout
@@ -486,27 +509,13 @@ public class RhizoUtils {
 		}
 		
 		/**		 
-		 * calculate the sha-hash of the image on the layer
+		 * calculate the sha-hash of the image on the layer, streaming the file through the digest.
+		 * Use {@link RhizoImageHashCache#getHash(String)} to avoid rehashing unchanged files.
 		 * @param pathString
 		 * @return
 		 */
 		public static String calculateSHA256(String pathString) {
-			String result="";
-			try {
-				Path path = Paths.get(pathString);
-				byte[] fileByteArray = Files.readAllBytes(path);
-				MessageDigest dige = MessageDigest.getInstance("SHA-256");
-				byte[] shaHash = dige.digest(fileByteArray);	
-				StringBuilder sb = new StringBuilder();
-				for (byte b : shaHash) {
-					sb.append(String.format("%02X", b));
-				}
-				result = sb.toString();
-
-			} catch (NoSuchAlgorithmException | IOException e) {
-				Utils.log2("unable to create sha-256 code for path"+pathString);
-			}
-			return result;
+			return RhizoImageHashCache.digest( new File( pathString));
 		}
 
 		/** Add the defined number of Displayables to the project, e.g. type='treeline'
@@ -72,16 +72,17 @@ package de.unihalle.informatik.rhizoTrak.addon;
 
 import de.unihalle.informatik.Alida.exceptions.ALDOperatorException;
 import de.unihalle.informatik.Alida.exceptions.ALDProcessingDAGException;
-import de.unihalle.informatik.MiToBo.apps.minirhizotron.utils.Drawing;
-import de.unihalle.informatik.MiToBo.apps.minirhizotron.utils.Drawing;
 import de.unihalle.informatik.MiToBo.core.datatypes.images.MTBImage;
 import de.unihalle.informatik.MiToBo.io.images.ImageWriterMTB;
 import de.unihalle.informatik.MiToBo.io.tools.FilePathManipulator;
-import de.unihalle.informatik.rhizoTrak.Project;
 import de.unihalle.informatik.rhizoTrak.display.*;
+import de.unihalle.informatik.rhizoTrak.io.ImageFileHeader;
+import de.unihalle.informatik.rhizoTrak.parallel.Process;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
 import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ByteProcessor;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -96,8 +97,13 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /** Write the annotaition as a binary image
  *
@@ -107,16 +113,14 @@ public class RhizoWriteBinary {
 	private final String ALL_STRING = "All layers";
 
 	/**
-	 * color for foreground pixels
+	 * value of foreground pixels
 	 */
-	final int fgColor = 0x0000ff;
+	final byte fgValue = (byte) 0xff;
 
 	private RhizoMain rhizoMain;
 
 	private boolean debug = false;
 
-	private MTBImage image;
-
 	public RhizoWriteBinary(RhizoMain rhizoMain) 	{
 		this.rhizoMain = rhizoMain;
 	}
@@ -176,24 +180,109 @@ public class RhizoWriteBinary {
 			Utils.showMessage( "WriteBinary warning: no rootstack found");
 			return;
 		}
-
+		HashMap<Layer,List<Treeline>> layerTreelinesMap = getTreelinesPerLayer( rootstackThings);
+		HashSet<RhizoStatusLabel> statusLabels = new HashSet<RhizoStatusLabel>( statusLabelsToWrite);
 
 		if ( drawAnnotationsAllLayers ) {
 			for ( Layer layer : rhizoMain.getProject().getRootLayerSet().getLayers() ) {
-				drawLayer( layer, rootstackThings, statusLabelsToWrite);
+				drawLayer( layer, layerTreelinesMap.get( layer), statusLabels);
 			}
 		} else {
-			drawLayer( Display.getFront().getLayer(), rootstackThings, statusLabelsToWrite);
+			Layer layer = Display.getFront().getLayer();
+			drawLayer( layer, layerTreelinesMap.get( layer), statusLabels);
 		}
 
 	}
 
+	/** Write binary images of the annotations of all layers to <code>outputDir</code> without user interaction.
+	 * The image of a layer is named after the image file of the layer with suffix <code>-binary.tif</code>.
+	 * Layers are processed in parallel, the size of the binary images is taken from the patches
+	 * or the image headers, so no image is loaded.
+	 * 
+	 * @param outputDir
+	 * @param statusLabelsToWrite status labels of segments to draw
+	 * @param numThreads maximal number of layers processed in parallel, if less than one the number of processors is used
+	 * @return number of binary images written
+	 */
+	public int writeBinaryBatch( File outputDir, Collection<RhizoStatusLabel> statusLabelsToWrite, int numThreads) {
+		if ( ! outputDir.isDirectory() && ! outputDir.mkdirs() ) {
+			Utils.log( "rhizoTrak", "WARNING: cannot create output directory " + outputDir.getAbsolutePath());
+			return 0;
+		}
+
+		HashSet<ProjectThing> rootstackThings = RhizoUtils.getRootstacks( rhizoMain.getProject());
+		if ( rootstackThings == null) {
+			Utils.log( "rhizoTrak", "WARNING: no rootstack found, nothing to write");
+			return 0;
+		}
+		final HashMap<Layer,List<Treeline>> layerTreelinesMap = getTreelinesPerLayer( rootstackThings);
+		final HashSet<RhizoStatusLabel> statusLabels = new HashSet<RhizoStatusLabel>( statusLabelsToWrite);
+
+		if ( numThreads < 1 )
+			numThreads = Process.NUM_PROCESSORS;
+		// one buffer per thread, reused for all layers of equal size
+		final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+		long start = System.currentTimeMillis();
+		final ExecutorService exec = Utils.newFixedThreadPool( numThreads, "RhizoWriteBinary-batch");
+		final LinkedList<Future<Boolean>> futures = new LinkedList<Future<Boolean>>();
+		int written = 0;
+		try {
+			for ( final Layer layer : rhizoMain.getProject().getRootLayerSet().getLayers() ) {
+				if ( layer.getPatches( false).isEmpty() )
+					continue;
+				final File saveFile = new File( outputDir, 
+						FilePathManipulator.removeExtension( new File( layer.getPatches( false).get(0).getImageFilePath()).getName()) + "-binary.tif");
+
+				futures.add( exec.submit( new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						RhizoMaskRasterizer mask = rasterizeLayer( layer, layerTreelinesMap.get( layer), statusLabels, buffers.get());
+						if ( mask == null ) {
+							Utils.log( "rhizoTrak", "WARNING: cannot determine image size of layer " + RhizoUtils.getTimepointForLayer( layer));
+							return false;
+						}
+						buffers.set( mask.getPixels());
+
+						ImagePlus imp = new ImagePlus( saveFile.getName(), 
+								new ByteProcessor( mask.getWidth(), mask.getHeight(), mask.getPixels()));
+						if ( ! new FileSaver( imp).saveAsTiff( saveFile.getAbsolutePath()) ) {
+							Utils.log( "rhizoTrak", "WARNING: cannot write binary annotation image to " + saveFile.getAbsolutePath());
+							return false;
+						}
+						return true;
+					}
+				}));
+			}
+
+			for ( Future<Boolean> future : futures ) {
+				try {
+					if ( future.get() )
+						written++;
+				} catch (Exception e) {
+					Utils.log( "rhizoTrak", "WARNING: cannot write binary annotation image of a layer: " + e.getMessage());
+				}
+			}
+		} finally {
+			exec.shutdown();
+		}
+
+		Utils.log2( "Wrote " + written + " binary annotation images to " + outputDir.getAbsolutePath() + 
+				" in " + (System.currentTimeMillis() - start) + " ms");
+		return written;
+	}
+
 	/** draw <code>layer</code> using all status labels in <code>statusLabelIntToWrite</code>
 	 * @param layer
-	 * @param rootstackThings
+	 * @param treelines treelines of the layer, may be null
 	 * @param statusLabelIntToWrite
 	 */
-	private void drawLayer(Layer layer, HashSet<ProjectThing> rootstackThings, ArrayList<RhizoStatusLabel> statusLabelIntToWrite) {
+	private void drawLayer(Layer layer, List<Treeline> treelines, HashSet<RhizoStatusLabel> statusLabelIntToWrite) {
+		if ( layer.getPatches( false).isEmpty() ) {
+			Utils.showMessage( "WriteBinary warning: no image for layer " + RhizoUtils.getTimepointForLayer( layer));
+			return;
+		}
+
 		// create a suggestion for the image filename
 		Path imagePath = Paths.get( layer.getPatches( false).get(0).getImageFilePath());
 		String basename = FilePathManipulator.removeExtension( imagePath.toString());
@@ -225,13 +314,13 @@ public class RhizoWriteBinary {
 			}
 		}
 
-		ImagePlus ip = layer.getPatches(true).get(0).getImagePlus();
-		MTBImage image = MTBImage.createMTBImage(ip);
-
-		MTBImage binaryImage = image.convertType( MTBImage.MTBImageType.MTB_BYTE, false);
-		binaryImage.fillBlack();
-
-		drawSegments( rhizoMain.getProject(), layer, binaryImage.getImagePlus(), rootstackThings, statusLabelIntToWrite);
+		RhizoMaskRasterizer mask = rasterizeLayer( layer, treelines, statusLabelIntToWrite, null);
+		if ( mask == null ) {
+			Utils.showMessage( "cannot determine image size of layer " + RhizoUtils.getTimepointForLayer( layer));
+			return;
+		}
+		MTBImage binaryImage = MTBImage.createMTBImage( new ImagePlus( saveFile.getName(), 
+				new ByteProcessor( mask.getWidth(), mask.getHeight(), mask.getPixels())));
 
 		try {
 			String filename = imagePath.toString();
@@ -260,19 +349,14 @@ public class RhizoWriteBinary {
 		}
 	}
 
-	/**
-	 * @param project
-	 * @param currentLayer if null all layers are considered*
-	 * @param imp image processor of the binary image
+	/** Collect all treelines below the rootstacks hashed by their first layer
+	 * 
 	 * @param rootstackThings
-	 * @param statusLabelsToWrite
-	 * @return list of all <code>Segment</code>s to write, null on failure
+	 * @return
 	 */
-	private void drawSegments(Project project, Layer currentLayer, ImagePlus imp, HashSet<ProjectThing> rootstackThings, ArrayList<RhizoStatusLabel> statusLabelsToWrite) {
-		// all treelines below a rootstack
-		LinkedList<Treeline> allTreelines = new LinkedList<Treeline>();
+	private HashMap<Layer,List<Treeline>> getTreelinesPerLayer( HashSet<ProjectThing> rootstackThings) {
+		HashMap<Layer,List<Treeline>> layerTreelinesMap = new HashMap<Layer,List<Treeline>>();
 
-		// collect treelines and connectors below all rootstacks
 		for ( ProjectThing rootstackThing :rootstackThings ) {
 			if ( debug)	System.out.println("rootstack " + rootstackThing.getId());
 			for ( ProjectThing pt : rootstackThing.findChildrenOfTypeR( Treeline.class)) {
@@ -280,59 +364,79 @@ public class RhizoWriteBinary {
 				Treeline tl = (Treeline)pt.getObject();
 				if ( debug)	System.out.println( "    treeline " + tl.getId());
 
-				if ( tl.getClass().equals( Treeline.class)) {
-					if ( tl.getFirstLayer() != null &&
-							( currentLayer == null || currentLayer.equals( tl.getFirstLayer())) ) {
-						if ( debug)	System.out.println( "           as treeline");
-						allTreelines.add(tl);
+				if ( tl.getClass().equals( Treeline.class) && tl.getFirstLayer() != null ) {
+					List<Treeline> treelines = layerTreelinesMap.get( tl.getFirstLayer());
+					if ( treelines == null ) {
+						treelines = new ArrayList<Treeline>();
+						layerTreelinesMap.put( tl.getFirstLayer(), treelines);
 					}
+					treelines.add( tl);
 				}
 			}
 		}
 
-		// traverse alls treelines and draw segments
-		for ( Treeline tl : allTreelines)  {
-			if ( debug)	System.out.println( "segment to write " + tl.getId());
-
-			if ( tl.getRoot() != null) {
-				int segmentID = 1;
-				Collection<Node<Float>> allNodes = tl.getRoot().getSubtreeNodes();
-
-				for(Node<Float> node : allNodes) {
-					if( !node.equals(tl.getRoot()) && statusLabelsToWrite.contains( rhizoMain.getProjectConfig().getStatusLabel( node.getConfidence()))) {
-						if ( debug)	{
-							System.out.println( "    draw segment for node with status label int " + node.getConfidence() +
-									" patch " + RhizoAddons.getPatch(tl));
-						}
-
-						AffineTransform at = tl.getAffineTransform();
-						Point2D p1 = at.transform(new Point2D.Float(node.getParent().getX(), node.getParent().getY()), null);
-						Point2D p2 = at.transform(new Point2D.Float(node.getX(), node.getY()), null);
+		return layerTreelinesMap;
+	}
 
+	/** Rasterize all segments of <code>treelines</code> with a status label in <code>statusLabelsToWrite</code>
+	 * into a binary image of the size of the image of <code>layer</code>.
+	 * 
+	 * @param layer
+	 * @param treelines may be null
+	 * @param statusLabelsToWrite
+	 * @param buffer pixel buffer to reuse, may be null
+	 * @return the rasterized mask, or null if the image size of the layer is not known
+	 */
+	private RhizoMaskRasterizer rasterizeLayer( Layer layer, List<Treeline> treelines, 
+			HashSet<RhizoStatusLabel> statusLabelsToWrite, byte[] buffer) {
+		Patch patch = layer.getPatches( false).get(0);
+		int width = patch.getOWidth();
+		int height = patch.getOHeight();
+		if ( width <= 0 || height <= 0 ) {
+			ImageFileHeader header = ImageFileHeader.read( patch.getImageFilePath());
+			if ( header == null )
+				return null;
+			width = header.width;
+			height = header.height;
+		}
 
-						int cx1 = (int) p1.getX();
-						int cy1 = (int) p1.getY();
+		RhizoMaskRasterizer mask = new RhizoMaskRasterizer( buffer, width, height);
+		if ( treelines == null )
+			return mask;
 
-						int cx2 = (int) p2.getX();
-						int cy2 = (int) p2.getY();
+		// traverse alls treelines and draw segments
+		for ( Treeline tl : treelines)  {
+			if ( debug)	System.out.println( "segment to write " + tl.getId());
+			// keep paged nodes in memory while drawing
+			tl.pinNodes();
+			try {
+				Node<Float> rootNode = tl.getRoot();
+				if ( rootNode == null)
+					continue;
+
+				AffineTransform at = tl.getAffineTransform();
+				Point2D.Float p1 = new Point2D.Float();
+				Point2D.Float p2 = new Point2D.Float();
+				for(Node<Float> node : rootNode.getSubtreeNodes()) {
+					if( !node.equals(rootNode) && statusLabelsToWrite.contains( rhizoMain.getProjectConfig().getStatusLabel( node.getConfidence()))) {
+						p1.setLocation( node.getParent().getX(), node.getParent().getY());
+						p2.setLocation( node.getX(), node.getY());
+						at.transform( p1, p1);
+						at.transform( p2, p2);
 
 						float startRadius = node.getParent().getData();
 						if ( startRadius < 1 )  startRadius = 1;
 						float endRadius = node.getData();
 						if ( endRadius < 1 ) endRadius = 1;
 
-						Drawing.drawSegment(imp, cx1, cy1, cx2, cy2, (int)startRadius, (int)endRadius, fgColor);
-						Drawing.drawFilledCircle(imp, cx1, cy1, startRadius, fgColor);
-						Drawing.drawFilledCircle(imp, cx2, cy2, endRadius, fgColor);
-
-						imp.updateAndDraw();
+						mask.fillSegment( p1.x, p1.y, startRadius, p2.x, p2.y, endRadius, fgValue);
 					}
 				}
+			} finally {
+				tl.unpinNodes();
 			}
-
-			if ( debug)	System.out.println( "segments  drawn");
 		}
 
-		return ;
+		return mask;
 	}
 }
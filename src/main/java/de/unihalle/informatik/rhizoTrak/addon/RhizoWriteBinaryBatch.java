@@ -0,0 +1,136 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.addon;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.unihalle.informatik.rhizoTrak.ControlWindow;
+import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/**
+ * Command line entry point to write the annotations of all layers of one or more rhizoTrak 
+ * projects as binary images without any user interaction.
+ * <p>
+ * Usage: <code>RhizoWriteBinaryBatch outputDir project.xml [project.xml ...] [-status name] [-threads n]</code>
+ * <p>
+ * <code>-status</code> may be given more than once, if omitted segments of all status labels are drawn.
+ * If more than one project is given, the images of each project are written to a subdirectory 
+ * of <code>outputDir</code> named after the project.
+ * 
+ * @author posch
+ *
+ */
+public class RhizoWriteBinaryBatch {
+
+	private static final String USAGE = 
+			"usage: RhizoWriteBinaryBatch outputDir project.xml [project.xml ...] [-status name] [-threads n]";
+
+	public static void main( String[] args) {
+		if ( args.length < 2 ) {
+			System.err.println( USAGE);
+			System.exit( 1);
+		}
+
+		File outputDir = new File( args[0]);
+		List<String> projectPaths = new ArrayList<String>();
+		List<String> statusNames = new ArrayList<String>();
+		int numThreads = 0;
+
+		for ( int i = 1 ; i < args.length ; i++ ) {
+			if ( args[i].equals( "-status") && i+1 < args.length ) {
+				statusNames.add( args[++i]);
+			} else if ( args[i].equals( "-threads") && i+1 < args.length ) {
+				numThreads = Integer.parseInt( args[++i]);
+			} else if ( args[i].startsWith( "-") ) {
+				System.err.println( USAGE);
+				System.exit( 1);
+			} else {
+				projectPaths.add( args[i]);
+			}
+		}
+
+		ControlWindow.setGUIEnabled( false);
+		boolean success = true;
+		for ( String projectPath : projectPaths ) {
+			Project project = Project.openFSProject( projectPath, false);
+			if ( project == null ) {
+				System.err.println( "cannot open project " + projectPath);
+				success = false;
+				continue;
+			}
+
+			RhizoProjectConfig config = project.getRhizoMain().getProjectConfig();
+			List<RhizoStatusLabel> statusLabels = new ArrayList<RhizoStatusLabel>();
+			if ( statusNames.isEmpty() ) {
+				for ( int s = 0 ; s < config.sizeStatusLabelMapping() ; s++ )
+					statusLabels.add( config.getStatusLabel( s));
+			} else {
+				for ( String name : statusNames )
+					statusLabels.add( config.getStatusLabel( name));
+			}
+
+			File projectOutputDir = outputDir;
+			if ( projectPaths.size() > 1 )
+				projectOutputDir = new File( outputDir, new File( projectPath).getName().replaceFirst( ".xml\\z", ""));
+
+			int numLayers = project.getRootLayerSet().getLayers().size();
+			int written = project.getRhizoMain().getRhizoWriteBinary().writeBinaryBatch( projectOutputDir, statusLabels, numThreads);
+			// layers without image are skipped
+			Utils.log( "Wrote " + written + " of " + numLayers + " layers of " + projectPath + " to " + projectOutputDir.getAbsolutePath());
+			if ( written == 0 && numLayers > 0 )
+				success = false;
+
+			project.destroy();
+		}
+
+		System.exit( success ? 0 : 1);
+	}
+}
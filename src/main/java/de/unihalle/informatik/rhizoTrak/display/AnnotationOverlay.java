@@ -0,0 +1,337 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.unihalle.informatik.rhizoTrak.addon.RhizoProjectConfig;
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
+
+/** Cached raster of the {@link ZDisplayable} annotations of a {@link DisplayCanvas}, composited over the images
+ *  of the offscreen. The raster is cut into tiles of about {@link #TILE_SIZE} screen pixels, whose origin and size
+ *  are whole world pixels, as the srcRect that annotations are painted for, and keyed by layer, magnification
+ *  and active object, so that panning and changes to the images (e.g. their min and max) reuse the tiles
+ *  instead of repainting every treeline. Twice as many tiles as the canvas shows are kept.
+ *  <p>
+ *  A tile holds the visible ZDisplayables under the active one in stack order, i.e. those that the canvas
+ *  would otherwise paint into its offscreen image; the active one and those above it are painted live as before.
+ *  Tiles are dropped only where an edit happened, see {@link #invalidate(Rectangle, Displayable)}, with
+ *  edits of the active object deferred until it is no longer active. Anything affecting the whole layer, or
+ *  the settings the annotations are painted with, drops all tiles.
+ *
+ * @author posch
+ */
+public class AnnotationOverlay {
+
+	/** Whether the {@link DisplayCanvas} composites annotations from this overlay, or paints them directly. */
+	static public boolean enabled = true;
+
+	/** Minimum width and height of a tile, in screen pixels. */
+	static public final int TILE_SIZE = 512;
+
+	/** Maximum number of tiles kept, each of at least 1 MB: twice as many as the canvas shows, see {@link #paint}. */
+	private int max_tiles = 8;
+
+	static private final class Key {
+		final Layer layer;
+		final double magnification;
+		final Displayable active;
+		final int tx, ty;
+
+		Key(final Layer layer, final double magnification, final Displayable active, final int tx, final int ty) {
+			this.layer = layer;
+			this.magnification = magnification;
+			this.active = active;
+			this.tx = tx;
+			this.ty = ty;
+		}
+
+		@Override
+		public boolean equals(final Object ob) {
+			if (!(ob instanceof Key)) return false;
+			final Key k = (Key) ob;
+			return layer == k.layer && magnification == k.magnification && active == k.active && tx == k.tx && ty == k.ty;
+		}
+
+		@Override
+		public int hashCode() {
+			final long m = Double.doubleToLongBits(magnification);
+			return ((((int)(m ^ (m >>> 32)) * 31 + System.identityHashCode(layer)) * 31 + System.identityHashCode(active)) * 31 + tx) * 31 + ty;
+		}
+	}
+
+	static private final class Tile {
+		final BufferedImage image;
+		/** In world coordinates. */
+		final Rectangle box;
+
+		Tile(final BufferedImage image, final Rectangle box) {
+			this.image = image;
+			this.box = box;
+		}
+	}
+
+	private final LinkedHashMap<Key,Tile> tiles = new LinkedHashMap<Key,Tile>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key,Tile> eldest) {
+			if (size() > max_tiles) {
+				eldest.getValue().image.flush();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** The active object of the last paint. */
+	private Displayable active = null;
+	/** Area edited in the active object while it was active; its tiles for other active objects are stale. */
+	private Rectangle pending = null;
+	/** Increased with every invalidation, so that a tile painted concurrently with one is not stored. */
+	private long generation = 0;
+	/** Increased with every invalidation, including edits of the active object, see {@link #getEdits()}. */
+	private long edits = 0;
+	/** The settings the tiles were painted with. */
+	private String signature = null;
+
+	/** Drop all tiles intersecting the @param box, in world coordinates.
+	 *  Edits of the @param d that is currently active don't reach the tiles shown now, so they are
+	 *  accumulated and applied when another object becomes active. */
+	synchronized public void invalidate(final Rectangle box, final Displayable d) {
+		edits++;
+		if (null == box) {
+			clear();
+			return;
+		}
+		if (null != d && d == active) {
+			if (null == pending) pending = new Rectangle(box);
+			else pending.add(box);
+			return;
+		}
+		invalidate(box);
+	}
+
+	synchronized private void invalidate(final Rectangle box) {
+		generation++;
+		for (final Iterator<Tile> it = tiles.values().iterator(); it.hasNext(); ) {
+			final Tile t = it.next();
+			if (t.box.intersects(box.x, box.y, box.width, box.height)) {
+				t.image.flush();
+				it.remove();
+			}
+		}
+	}
+
+	/** Drop all tiles. */
+	synchronized public void clear() {
+		edits++;
+		generation++;
+		for (final Tile t : tiles.values()) t.image.flush();
+		tiles.clear();
+		pending = null;
+	}
+
+	/** @return the number of invalidations so far, to let other caches of the annotations shown
+	 *  in the canvas, like its {@link HitTestIndex}, detect that they are outdated. */
+	synchronized public long getEdits() {
+		return edits;
+	}
+
+	/** Paint into @param g, whose transform is that of the offscreen image for the @param srcRect and @param magnification,
+	 *  the annotations of the @param layer that are below the @param active in stack order.
+	 *  The transform of @param g is left as found. */
+	void paint(final Graphics2D g, final Layer layer, final List<Layer> layers, final Rectangle srcRect, final double magnification, final Displayable active, final int c_alphas, final int g_width, final int g_height, final Stroke stroke) {
+		synchronized (this) {
+			final String sig = signature(layer);
+			if (!sig.equals(signature)) {
+				clear();
+				signature = sig;
+			}
+			if (active != this.active) {
+				if (null != pending) {
+					final Rectangle r = pending;
+					pending = null;
+					invalidate(r);
+				}
+				this.active = active;
+			}
+		}
+
+		// Tiles span whole world pixels: Tree and others paint relative to the integer srcRect, ignoring the transform
+		final int size = Math.max(1, (int) Math.ceil(TILE_SIZE / magnification)),
+		          tile_px = (int) Math.ceil(size * magnification);
+		final int tx0 = Math.floorDiv(srcRect.x, size),
+		          ty0 = Math.floorDiv(srcRect.y, size),
+		          tx1 = Math.floorDiv(srcRect.x + (int) Math.ceil(g_width / magnification) - 1, size),
+		          ty1 = Math.floorDiv(srcRect.y + (int) Math.ceil(g_height / magnification) - 1, size);
+
+		synchronized (this) {
+			// room for panning by a canvas, plus a tile of rounding in each direction
+			max_tiles = 2 * (g_width / tile_px + 2) * (g_height / tile_px + 2);
+			for (final Iterator<Tile> it = tiles.values().iterator(); tiles.size() > max_tiles && it.hasNext(); ) {
+				it.next().image.flush();
+				it.remove();
+			}
+		}
+
+		final AffineTransform original = g.getTransform();
+		g.setTransform(new AffineTransform());
+		final Shape clip = g.getClip();
+		try {
+			for (int ty = ty0; ty <= ty1; ty++) {
+				final int y0 = (int) Math.round((ty * size - srcRect.y) * magnification),
+				          y1 = (int) Math.round(((ty + 1) * size - srcRect.y) * magnification);
+				for (int tx = tx0; tx <= tx1; tx++) {
+					final int x0 = (int) Math.round((tx * size - srcRect.x) * magnification),
+					          x1 = (int) Math.round(((tx + 1) * size - srcRect.x) * magnification);
+					final BufferedImage bi = getTile(layer, layers, magnification, active, c_alphas, tx, ty, size, tile_px, stroke);
+					// Neighbouring tiles meet at the rounded screen position of their common world edge,
+					// without overlap: anti-aliased edges would be composited twice otherwise.
+					g.setClip(clip);
+					g.clipRect(x0, y0, x1 - x0, y1 - y0);
+					g.drawImage(bi, x0, y0, null);
+				}
+			}
+		} finally {
+			g.setClip(clip);
+			g.setTransform(original);
+		}
+	}
+
+	/** @return the image of the tile at @param tx, @param ty of @param size world pixels, painted into @param tile_px screen pixels. */
+	private BufferedImage getTile(final Layer layer, final List<Layer> layers, final double magnification, final Displayable active, final int c_alphas, final int tx, final int ty, final int size, final int tile_px, final Stroke stroke) {
+		final Key key = new Key(layer, magnification, active, tx, ty);
+		final long gen;
+		synchronized (this) {
+			final Tile t = tiles.get(key);
+			if (null != t) return t.image;
+			gen = generation;
+		}
+		final Rectangle box = new Rectangle(tx * size, ty * size, size, size);
+		final BufferedImage bi = new BufferedImage(tile_px, tile_px, BufferedImage.TYPE_INT_ARGB_PRE);
+		final Graphics2D g = bi.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,  RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			// the same transform as the canvas for a srcRect of the box
+			g.scale(magnification, magnification);
+			g.translate(-box.x, -box.y);
+			g.setStroke(stroke);
+			final Rectangle srcRect = new Rectangle(box); // box is kept with the tile
+			for (final Displayable d : collect(layer, layers, srcRect, active)) {
+				d.paint(g, srcRect, magnification, false, c_alphas, layer, layers);
+			}
+		} catch (final Throwable t) {
+			IJError.print(t);
+		} finally {
+			g.dispose();
+		}
+		synchronized (this) {
+			// An edit during painting may not be in the image: use it for this paint only
+			if (gen == generation) tiles.put(key, new Tile(bi, box));
+		}
+		return bi;
+	}
+
+	/** The visible ZDisplayables within @param srcRect below the @param active, in the order
+	 *  in which {@link DisplayCanvas} gathers them. */
+	static private List<Displayable> collect(final Layer layer, final List<Layer> layers, final Rectangle srcRect, final Displayable active) {
+		final LayerSet layer_set = layer.getParent();
+		final Collection<Displayable> zdal;
+		if (layer_set.color_cues) {
+			final Collection<Displayable> atlayer = layer_set.roughlyFindZDisplayables(layer, srcRect, true);
+			final Set<Displayable> others = new HashSet<Displayable>();
+			for (final Layer la : layers) {
+				if (la == layer) continue;
+				others.addAll(layer_set.roughlyFindZDisplayables(la, srcRect, true));
+			}
+			others.removeAll(atlayer);
+			zdal = new ArrayList<Displayable>(others);
+			zdal.addAll(atlayer);
+		} else {
+			zdal = layer_set.roughlyFindZDisplayables(layer, srcRect, true);
+		}
+		final ArrayList<Displayable> al = new ArrayList<Displayable>(zdal.size());
+		for (final Displayable d : zdal) {
+			if (d == active) break;
+			al.add(d);
+		}
+		return al;
+	}
+
+	/** The settings that annotations are painted with, other than their own data. */
+	static private String signature(final Layer layer) {
+		final LayerSet ls = layer.getParent();
+		final StringBuilder sb = new StringBuilder();
+		sb.append(ls.color_cues).append(ls.use_color_cue_colors).append(ls.n_layers_color_cue)
+		  .append(ls.paint_arrows).append(ls.paint_tags).append(ls.paint_edge_confidence_boxes);
+		final RhizoProjectConfig config = null == layer.getProject().getRhizoMain() ? null : layer.getProject().getRhizoMain().getProjectConfig();
+		if (null != config) {
+			sb.append(config.getStatusPaletteVersion())
+			  .append(config.isNodesAsCircle()).append(config.isNodesDiameterLines())
+			  .append(config.isSegmentsAsPolygon()).append(config.isSegmentsFill())
+			  .append(config.getHighlightColor1().getRGB()).append(config.getHighlightColor2().getRGB());
+		}
+		return sb.toString();
+	}
+}
@@ -373,6 +373,7 @@ public class AreaTree extends Tree<Area> implements AreaContainer {
 					Utils.wait(fus);
 					exe.shutdown();
 				}
+				positionsChanged();
 			}
 			this.at.translate(box.x, box.y); // not using super.translate(...) because a preConcatenation is not needed; here we deal with the data.
 
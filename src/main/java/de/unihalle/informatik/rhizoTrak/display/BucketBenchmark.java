@@ -0,0 +1,192 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Measures viewport queries on the {@link LooseQuadTree} of a {@link Bucket}, against the fixed grid of
+ *  {@link Bucket#MIN_BUCKET_SIZE} cells that buckets used before, which returned every object of every cell
+ *  touched by the viewport.
+ *  <p>
+ *  The bounding boxes mimic treelines on a rhizotron image: mostly short laterals, some long roots,
+ *  and a few spanning most of the image.
+ *  </p>
+ *  <p>
+ *  Usage: <code>BucketBenchmark [treelines per layer] [image width] [image height] [viewport side] [queries]</code>,
+ *  by default 10000 treelines, 12000 x 9000 pixels, a viewport of 1500 pixels and 20000 queries.
+ *  </p>
+ *
+ * @author posch
+ */
+public class BucketBenchmark {
+
+	static public void main(final String[] args) {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		final int width = args.length > 1 ? Integer.parseInt(args[1]) : 12000;
+		final int height = args.length > 2 ? Integer.parseInt(args[2]) : 9000;
+		final int side = args.length > 3 ? Integer.parseInt(args[3]) : 1500;
+		final int n_queries = args.length > 4 ? Integer.parseInt(args[4]) : 20000;
+
+		final Random random = new Random(42);
+		final Rectangle[] boxes = new Rectangle[n];
+		for (int i=0; i<n; i++) boxes[i] = createBox(random, width, height);
+		final Rectangle[] viewports = new Rectangle[n_queries];
+		for (int i=0; i<n_queries; i++) {
+			viewports[i] = new Rectangle(random.nextInt(Math.max(1, width - side)), random.nextInt(Math.max(1, height - side)), side, side);
+		}
+
+		Utils.log("Bucket benchmark: " + n + " treelines on " + width + "x" + height + ", " + n_queries + " viewports of " + side + "x" + side);
+
+		// Loose quadtree
+		long start = System.nanoTime();
+		final LooseQuadTree<Integer> tree = new LooseQuadTree<Integer>(0, 0, width, height);
+		for (int i=0; i<n; i++) tree.put(i, boxes[i]);
+		final double tree_build = (System.nanoTime() - start) / 1000000.0;
+
+		// Fixed grid
+		start = System.nanoTime();
+		final Grid grid = new Grid(width, height, Bucket.MIN_BUCKET_SIZE, boxes);
+		final double grid_build = (System.nanoTime() - start) / 1000000.0;
+
+		final ArrayList<Integer> accum = new ArrayList<Integer>();
+		final HashSet<Integer> grid_accum = new HashSet<Integer>();
+		// warm up
+		for (int k=0; k<Math.min(2000, n_queries); k++) {
+			accum.clear();
+			tree.find(viewports[k], accum);
+			grid_accum.clear();
+			grid.find(viewports[k], grid_accum);
+		}
+
+		long tree_found = 0;
+		start = System.nanoTime();
+		for (final Rectangle r : viewports) {
+			accum.clear();
+			tree.find(r, accum);
+			tree_found += accum.size();
+		}
+		final double tree_query = (System.nanoTime() - start) / 1000.0 / n_queries;
+
+		long grid_found = 0;
+		start = System.nanoTime();
+		for (final Rectangle r : viewports) {
+			grid_accum.clear();
+			grid.find(r, grid_accum);
+			grid_found += grid_accum.size();
+		}
+		final double grid_query = (System.nanoTime() - start) / 1000.0 / n_queries;
+
+		// Incremental updates, as when dragging nodes: move a tenth of the boxes a little
+		start = System.nanoTime();
+		for (int i=0; i<n; i+=10) {
+			final Rectangle b = new Rectangle(boxes[i]);
+			b.translate(random.nextInt(41) - 20, random.nextInt(41) - 20);
+			tree.put(i, b);
+		}
+		final double tree_update = (System.nanoTime() - start) / 1000.0 / ((n + 9) / 10);
+
+		Utils.log("  loose quadtree: build " + Utils.d2s(tree_build, 1) + " ms, query " + Utils.d2s(tree_query, 2) + " us, "
+				+ (tree_found / n_queries) + " objects per viewport, update " + Utils.d2s(tree_update, 2) + " us");
+		Utils.log("  fixed grid:     build " + Utils.d2s(grid_build, 1) + " ms, query " + Utils.d2s(grid_query, 2) + " us, "
+				+ (grid_found / n_queries) + " objects per viewport");
+	}
+
+	/** A bounding box within the image: 80% laterals of up to 400 pixels, 19% roots of up to 3000 pixels,
+	 *  and 1% taproots spanning most of the image height. */
+	static private Rectangle createBox(final Random random, final int width, final int height) {
+		final int kind = random.nextInt(100);
+		final int w, h;
+		if (kind < 80) {
+			w = 5 + random.nextInt(400);
+			h = 5 + random.nextInt(400);
+		} else if (kind < 99) {
+			w = 20 + random.nextInt(800);
+			h = 200 + random.nextInt(2800);
+		} else {
+			w = 100 + random.nextInt(2000);
+			h = height / 2 + random.nextInt(height / 2);
+		}
+		final int bw = Math.min(w, width), bh = Math.min(h, height);
+		return new Rectangle(random.nextInt(width - bw + 1), random.nextInt(height - bh + 1), bw, bh);
+	}
+
+	/** Cells of a fixed side, each listing every box that intersects it, as in the buckets before. */
+	static private final class Grid {
+		final int side, nx, ny;
+		final ArrayList<ArrayList<Integer>> cells;
+
+		Grid(final int width, final int height, final int side, final Rectangle[] boxes) {
+			this.side = side;
+			this.nx = (width + side - 1) / side;
+			this.ny = (height + side - 1) / side;
+			this.cells = new ArrayList<ArrayList<Integer>>(nx * ny);
+			for (int i=0; i<nx*ny; i++) cells.add(new ArrayList<Integer>());
+			for (int i=0; i<boxes.length; i++) {
+				final Rectangle b = boxes[i];
+				for (int cy = b.y / side; cy <= Math.min(ny - 1, (b.y + b.height) / side); cy++) {
+					for (int cx = b.x / side; cx <= Math.min(nx - 1, (b.x + b.width) / side); cx++) {
+						cells.get(cy * nx + cx).add(i);
+					}
+				}
+			}
+		}
+
+		void find(final Rectangle r, final HashSet<Integer> accum) {
+			for (int cy = Math.max(0, r.y / side); cy <= Math.min(ny - 1, (r.y + r.height) / side); cy++) {
+				for (int cx = Math.max(0, r.x / side); cx <= Math.min(nx - 1, (r.x + r.width) / side); cx++) {
+					accum.addAll(cells.get(cy * nx + cx));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.awt.Color;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import de.unihalle.informatik.rhizoTrak.addon.RhizoProjectConfig;
+import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Compact struct-of-arrays representation of the nodes of a {@link Treeline}.
+ * <p>
+ * Instead of one {@link RadiusNode} object per node with its children array and highlighting,
+ * position, radius, confidence, parent index and layer index are stored in primitive arrays.
+ * Nodes are stored in breadth first order starting with the root at index 0, so the parent of a node 
+ * always has a smaller index. Tags are kept for the few nodes which have them; 
+ * the painted color is derived from the confidence via the status label of the project.
+ * <p>
+ * A {@link NodeView} gives access to a single node without creating node objects. 
+ * {@link #unpack()} recreates the node objects, e.g. to edit a treeline.
+ * 
+ * @author posch
+ */
+public final class CompactTreelineNodes {
+
+	private final int size;
+	private final float[] x, y, r;
+	private final byte[] confidence;
+	/** index of the parent node, -1 for the root */
+	private final int[] parent;
+	/** index into {@link #layers} */
+	private final int[] layer_index;
+	private final Layer[] layers;
+	/** node index to the tags of this node as stored in {@link Node#tags}, for the nodes with tags only */
+	private final HashMap<Integer,Object> tags;
+
+	private CompactTreelineNodes(final int size, final int num_layers) {
+		this.size = size;
+		this.x = new float[size];
+		this.y = new float[size];
+		this.r = new float[size];
+		this.confidence = new byte[size];
+		this.parent = new int[size];
+		this.layer_index = new int[size];
+		this.layers = new Layer[num_layers];
+		this.tags = new HashMap<Integer,Object>();
+	}
+
+	/** Pack the nodes of the subtree rooted at <code>root</code>.
+	 *  @param root may be null for an empty treeline */
+	static public CompactTreelineNodes pack(final RadiusNode root) {
+		if (null == root) return new CompactTreelineNodes(0, 0);
+
+		// breadth first order
+		final ArrayList<Node<Float>> order = new ArrayList<Node<Float>>();
+		final IdentityHashMap<Node<Float>,Integer> index = new IdentityHashMap<Node<Float>,Integer>();
+		final HashMap<Layer,Integer> layer_ids = new HashMap<Layer,Integer>();
+		final LinkedList<Node<Float>> queue = new LinkedList<Node<Float>>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			final Node<Float> nd = queue.removeFirst();
+			index.put(nd, order.size());
+			order.add(nd);
+			if (!layer_ids.containsKey(nd.la)) layer_ids.put(nd.la, layer_ids.size());
+			if (null != nd.children) {
+				for (final Node<Float> child : nd.children) queue.add(child);
+			}
+		}
+
+		final CompactTreelineNodes c = new CompactTreelineNodes(order.size(), layer_ids.size());
+		for (final Map.Entry<Layer,Integer> e : layer_ids.entrySet()) c.layers[e.getValue()] = e.getKey();
+		for (int i=0; i<c.size; i++) {
+			final Node<Float> nd = order.get(i);
+			c.x[i] = nd.x;
+			c.y[i] = nd.y;
+			c.r[i] = ((RadiusNode)nd).r;
+			c.confidence[i] = nd.confidence;
+			c.parent[i] = null == nd.parent ? -1 : index.get(nd.parent);
+			c.layer_index[i] = layer_ids.get(nd.la);
+			if (null != nd.tags) c.tags.put(i, nd.tags);
+		}
+		return c;
+	}
+
+	/** Pack the nodes of <code>tl</code>. */
+	static public CompactTreelineNodes pack(final Treeline tl) {
+		return pack((RadiusNode)tl.getRoot());
+	}
+
+	/** Recreate the node objects.
+	 *  @return the root, or null if empty */
+	public RadiusNode unpack() {
+		if (0 == size) return null;
+		final RadiusNode[] nodes = new RadiusNode[size];
+		for (int i=0; i<size; i++) {
+			final RadiusNode nd = new RadiusNode(x[i], y[i], layers[layer_index[i]], r[i]);
+			final Object t = tags.get(i);
+			if (null != t) nd.tags = t;
+			nodes[i] = nd;
+			if (-1 == parent[i]) nd.confidence = confidence[i];
+			else nodes[parent[i]].attach(nd, confidence[i]); // not an edit
+		}
+		return nodes[0];
+	}
+
+	/** Recreate the node objects with the node type of <code>tl</code>, e.g. for a {@link Connector}.
+	 *  @return the root, or null if empty */
+	public RadiusNode unpack(final Treeline tl) {
+		if (0 == size) return null;
+		final RadiusNode[] nodes = new RadiusNode[size];
+		for (int i=0; i<size; i++) {
+			final RadiusNode nd = (RadiusNode)tl.newNode(x[i], y[i], layers[layer_index[i]], null);
+			nd.r = r[i]; // as stored by setData, which would count as edit
+			final Object t = tags.get(i);
+			if (null != t) nd.tags = t;
+			nodes[i] = nd;
+			if (-1 == parent[i]) nd.confidence = confidence[i];
+			else nodes[parent[i]].attach(nd, confidence[i]); // not an edit
+		}
+		return nodes[0];
+	}
+
+	/** @return the number of nodes */
+	public int size() { return size; }
+
+	public float getX(final int i) { return x[i]; }
+	public float getY(final int i) { return y[i]; }
+	public float getRadius(final int i) { return r[i]; }
+	public byte getConfidence(final int i) { return confidence[i]; }
+	/** @return the index of the parent node, -1 for the root */
+	public int getParent(final int i) { return parent[i]; }
+	public Layer getLayer(final int i) { return layers[layer_index[i]]; }
+
+	/** @return the color of node <code>i</code> according to its status */
+	public Color getColor(final int i, final RhizoProjectConfig config) {
+		return config.getColorForStatus(confidence[i]);
+	}
+
+	/** @return a view on node <code>i</code>, which may be moved to other nodes with {@link NodeView#moveTo(int)} */
+	public NodeView view(final int i) {
+		final NodeView v = new NodeView();
+		v.moveTo(i);
+		return v;
+	}
+
+	/** Lightweight, reusable view on one node of a {@link CompactTreelineNodes}. */
+	public final class NodeView {
+		private int i;
+
+		private NodeView() {}
+
+		public NodeView moveTo(final int i) {
+			if (i < 0 || i >= size) throw new IndexOutOfBoundsException("node " + i + " of " + size);
+			this.i = i;
+			return this;
+		}
+		public int getIndex() { return i; }
+		public float getX() { return x[i]; }
+		public float getY() { return y[i]; }
+		public float getRadius() { return r[i]; }
+		public byte getConfidence() { return confidence[i]; }
+		public Layer getLayer() { return layers[layer_index[i]]; }
+		public boolean isRoot() { return -1 == parent[i]; }
+		/** @return false for the root, otherwise moves this view to the parent */
+		public boolean toParent() {
+			if (-1 == parent[i]) return false;
+			i = parent[i];
+			return true;
+		}
+		public Color getColor(final RhizoProjectConfig config) { return config.getColorForStatus(confidence[i]); }
+	}
+
+	/** Write the nodes column by column: the ids of the layers, then x, y, radius, parent index,
+	 *  layer index and confidence of all nodes, followed by the tags of the tagged nodes
+	 *  and an empty color column.
+	 *  Read back with {@link #readColumns(ByteBuffer, Map, LayerSet, boolean)}. */
+	public void writeColumns(final DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(layers.length);
+		for (final Layer la : layers) out.writeLong(la.getId());
+		final ByteBuffer column = ByteBuffer.allocate(4 * size);
+		column.asFloatBuffer().put(x);
+		out.write(column.array());
+		column.clear();
+		column.asFloatBuffer().put(y);
+		out.write(column.array());
+		column.clear();
+		column.asFloatBuffer().put(r);
+		out.write(column.array());
+		column.clear();
+		column.asIntBuffer().put(parent);
+		out.write(column.array());
+		column.clear();
+		column.asIntBuffer().put(layer_index);
+		out.write(column.array());
+		out.write(confidence);
+		out.writeInt(tags.size());
+		for (final Map.Entry<Integer,Object> e : tags.entrySet()) {
+			final Tag[] ts = e.getValue() instanceof Tag[] ? (Tag[])e.getValue() : new Tag[]{(Tag)e.getValue()};
+			out.writeInt(e.getKey());
+			out.writeInt(ts.length);
+			for (final Tag t : ts) {
+				final byte[] name = t.toString().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(t.getKeyCode());
+			}
+		}
+		// nodes have no colors of their own any more; the column stays so that blocks keep their layout
+		out.writeInt(0);
+	}
+
+	/** Read nodes written by {@link #writeColumns(DataOutputStream)}, starting at the position of <code>buf</code>,
+	 *  which is advanced past the nodes.
+	 *  @param layers the layers of the project by id
+	 *  @param ls to register the tags with
+	 *  @param with_colors false for nodes written before the color column existed; stored colors are skipped
+	 *  @return null if a layer of the nodes does not exist */
+	static public CompactTreelineNodes readColumns(final ByteBuffer buf, final Map<Long,Layer> layers, final LayerSet ls, final boolean with_colors) {
+		final int size = buf.getInt();
+		final int num_layers = buf.getInt();
+		final CompactTreelineNodes c = new CompactTreelineNodes(size, num_layers);
+		for (int i=0; i<num_layers; i++) {
+			final long lid = buf.getLong();
+			c.layers[i] = layers.get(lid);
+			if (null == c.layers[i]) {
+				Utils.log("CompactTreelineNodes: no layer with id " + lid);
+				return null;
+			}
+		}
+		buf.asFloatBuffer().get(c.x);
+		buf.position(buf.position() + 4 * size);
+		buf.asFloatBuffer().get(c.y);
+		buf.position(buf.position() + 4 * size);
+		buf.asFloatBuffer().get(c.r);
+		buf.position(buf.position() + 4 * size);
+		buf.asIntBuffer().get(c.parent);
+		buf.position(buf.position() + 4 * size);
+		buf.asIntBuffer().get(c.layer_index);
+		buf.position(buf.position() + 4 * size);
+		buf.get(c.confidence);
+		final int num_tagged = buf.getInt();
+		for (int k=0; k<num_tagged; k++) {
+			final int i = buf.getInt();
+			final Tag[] ts = new Tag[buf.getInt()];
+			for (int j=0; j<ts.length; j++) {
+				final byte[] name = new byte[buf.getInt()];
+				buf.get(name);
+				ts[j] = ls.putTag(new String(name, StandardCharsets.UTF_8), buf.getInt());
+			}
+			c.tags.put(i, 1 == ts.length ? ts[0] : ts);
+		}
+		if (with_colors) {
+			final int num_colored = buf.getInt();
+			for (int k=0; k<num_colored; k++) {
+				buf.getInt(); // node index
+				buf.getInt(); // argb
+			}
+		}
+		return c;
+	}
+
+	/** @return the approximate heap size of this representation in bytes */
+	public long estimateSize() {
+		// 4 floats/ints and one byte per node, plus array headers
+		return 17L * size + 6 * 16 + 8L * layers.length + 64L * tags.size();
+	}
+
+	/** Memory benchmark: creates a treeline of <code>args[0]</code> (default 1,000,000) nodes as node objects
+	 *  and as compact representation and reports the heap used by both. */
+	static public void main(final String[] args) {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		final long base = usedMemory();
+		RadiusNode root = createTree(n);
+		final long objects = usedMemory() - base;
+
+		final CompactTreelineNodes compact = pack(root);
+		root = null;
+		final long packed = usedMemory() - base;
+
+		Utils.log("Nodes: " + n);
+		Utils.log("  node objects:       " + (objects / (1024*1024)) + " MB (" + (objects / n) + " bytes/node)");
+		Utils.log("  compact (measured): " + (packed / (1024*1024)) + " MB (" + (packed / n) + " bytes/node)");
+		Utils.log("  compact (estimate): " + (compact.estimateSize() / (1024*1024)) + " MB");
+
+		final long start = System.currentTimeMillis();
+		root = compact.unpack();
+		Utils.log("  unpack: " + (System.currentTimeMillis() - start) + " ms for " + root.getSubtreeNodes().size() + " nodes");
+	}
+
+	/** A chain of branches of 100 nodes, each branching off the start of the previous one, similar to annotated roots. */
+	static private RadiusNode createTree(final int n) {
+		final RadiusNode root = new RadiusNode(0, 0, null, 2);
+		RadiusNode last = root;
+		RadiusNode branch_start = root;
+		for (int i=1; i<n; i++) {
+			final RadiusNode nd = new RadiusNode(i % 5000, i / 5000, null, 1 + (i % 7));
+			if (0 == i % 100) {
+				branch_start.add(nd, (byte)(i % 4));
+				branch_start = nd;
+			} else {
+				last.add(nd, (byte)(i % 4));
+			}
+			last = nd;
+		}
+		return root;
+	}
+
+	static private long usedMemory() {
+		final Runtime rt = Runtime.getRuntime();
+		for (int i=0; i<3; i++) System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
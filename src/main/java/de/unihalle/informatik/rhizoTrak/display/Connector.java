@@ -75,6 +75,7 @@ import de.unihalle.informatik.rhizoTrak.addon.RhizoMain;
 import de.unihalle.informatik.rhizoTrak.addon.RhizoProjectConfig;
 import de.unihalle.informatik.rhizoTrak.conflictManagement.ConflictManager;
 import de.unihalle.informatik.rhizoTrak.display.addonGui.SplitDialog;
+import de.unihalle.informatik.rhizoTrak.persistence.XMLOptions;
 import de.unihalle.informatik.rhizoTrak.utils.M;
 import de.unihalle.informatik.rhizoTrak.utils.ProjectToolbar;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
@@ -146,7 +147,7 @@ public class Connector extends Treeline  implements TreeEventListener{
 		public void paintData(final Graphics2D g, final Rectangle srcRect,
 				final Tree<Float> tree, final AffineTransform to_screen, final Color cc,
 				final Layer active_layer) {
-			g.setColor(this.rhizoMain.getProjectConfig().getColorForStatus( (byte) RhizoProjectConfig.STATUS_CONNECTOR));
+			g.setColor(tree.getProject().getRhizoMain().getProjectConfig().getColorForStatus( (byte) RhizoProjectConfig.STATUS_CONNECTOR));
 			if(drawRootRadius && null != parent) {
 				g.draw(to_screen.createTransformedShape(new Ellipse2D.Float(x -r, y -r, r+r, r+r)));
 			}
@@ -351,6 +352,12 @@ public class Connector extends Treeline  implements TreeEventListener{
 		Displayable.exportDTD(type, sb_header, hs, indent);
 	}
 
+	/** Connectors always keep their nodes in the XML, they are few and have their own node type. */
+	@Override
+	protected boolean isNodeXMLOmitted(final XMLOptions options) {
+		return false;
+	}
+
 	@Override
 	public Connector clone(final Project pr, final boolean copy_id) {
 		final long nid = copy_id ? this.id : pr.getLoader().getNextId();
@@ -661,6 +668,7 @@ public class Connector extends Treeline  implements TreeEventListener{
 				float[] posi = findConnectorRootPosition();
 				if(posi!=null) {
 					this.getRoot().setPosition(posi);
+					nodeMoved(this.getRoot());
 				}
 			} else {
 				//conTreelines is not empty but the root node of the connector has no children or the connector has no root
@@ -688,6 +696,7 @@ public class Connector extends Treeline  implements TreeEventListener{
 				float[] posi = findConnectorRootPosition();
 				if(posi!=null) {
 					this.getRoot().setPosition(posi);
+					nodeMoved(this.getRoot());
 				}
 			}
 		} else {
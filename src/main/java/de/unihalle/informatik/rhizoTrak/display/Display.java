@@ -518,11 +518,6 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		// Does not use the thread, rather just sets it within the context of the calling thread (would be the same as making the caller thread wait.)
 		final void setAndWait(final Layer layer) {
 			if (null != layer) {
-
-				if (layer.getParent().preload_ahead > 0) {
-					preloadImagesAhead(Display.this.layer, layer, layer.getParent().preload_ahead);
-				}
-
 				Display.this.setLayer(layer);
 				Display.this.updateInDatabase("layer_id");
 				createColumnScreenshots();
@@ -564,75 +559,11 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		}
 	}
 
-	private final ImagePreloader imagePreloader = new ImagePreloader();
-
-	private final class ImagePreloader extends Thread {
-		private Layer oldLayer, newLayer;
-		private int nLayers;
-		private boolean restart = false;
-
-		ImagePreloader() {
-			setPriority(Thread.NORM_PRIORITY);
-			setDaemon(true);
-			start();
-		}
+	private final LayerPrefetcher prefetcher = new LayerPrefetcher(this);
 
-		final void reset(final Layer oldLayer, final Layer newLayer, final int nLayers) {
-			synchronized (this) {
-				this.restart = true;
-				this.oldLayer = oldLayer;
-				this.newLayer = newLayer;
-				this.nLayers = nLayers;
-				notify();
-			}
-		}
-
-		@Override
-		public void run() {
-			while (!isInterrupted()) {
-				final Layer oldLayer, newLayer;
-				final int nLayers;
-				synchronized (this) {
-					try {
-						if (!restart) wait();
-					} catch (final InterruptedException e) {
-						return;
-					}
-					oldLayer = this.oldLayer;
-					newLayer = this.newLayer;
-					this.oldLayer = null;
-					this.newLayer = null;
-					nLayers = this.nLayers;
-					restart = false;
-				}
-
-				final LayerSet ls = oldLayer.getParent();
-				final int old_layer_index = ls.indexOf(oldLayer);
-				final int new_layer_index = ls.indexOf(newLayer);
-				final int sign = new_layer_index - old_layer_index;
-
-				final Area aroi = new Area(canvas.getSrcRect());
-				final double mag = canvas.getMagnification();
-
-				// Preload from most distant ahead to least.
-				// The assumption being that least distant are already cached.
-				//Utils.log2("-- started");
-				for (final Layer la : ls.getLayers(Math.max(0, Math.min(new_layer_index + sign * nLayers, ls.size() -1)), new_layer_index)) {
-					if (restart) break;
-					for (final Displayable d : la.getDisplayables(Patch.class, aroi, true)) {
-						if (restart) break;
-						if (isInterrupted()) return;
-						project.getLoader().fetchImage((Patch)d, mag);
-						//Utils.log2("preloaded #" + d.getId() + " from layer " + la.getParent().indexOf(la));
-					}
-				}
-				//Utils.log2("-- completed: restart is " + restart);
-			}
-		}
-	}
-
-	private final void preloadImagesAhead(final Layer oldLayer, final Layer newLayer, final int nLayers) {
-		imagePreloader.reset(oldLayer, newLayer, nLayers);
+	/** Statistics of the prefetching of the images of the layers likely to be shown next. */
+	public String getPrefetchStatistics() {
+		return prefetcher.getStatistics();
 	}
 
 	final public void clearColumnScreenshots() {
@@ -1727,6 +1658,10 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		// Set:
 		this.layer = new_layer;
 
+		if (null != current_layer && null != new_layer && current_layer != new_layer) {
+			prefetcher.visited(current_layer, new_layer);
+		}
+
 		// deselect all except ZDisplayables
 		final ArrayList<Displayable> sel = selection.getSelected();
 		final Displayable last_active = this.active;
@@ -1922,7 +1857,10 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (null == layer) return;
 		for (final Display d : al_displays) {
 			if (d.isShowing(layer)) {
+				d.canvas.getAnnotationOverlay().clear();
 				d.repaintAll();
+			} else if (d.isPaintingColorCuesOf(layer)) {
+				d.canvas.getAnnotationOverlay().clear();
 			}
 		}
 	}
@@ -1937,6 +1875,7 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		for (final Display d : al_displays) {
 			if (d.layer.getParent() == set) {
 				d.updateSnapshots();
+				d.canvas.getAnnotationOverlay().clear();
 				if (update_canvas_dimensions) d.canvas.setDimensions(set.getLayerWidth(), set.getLayerHeight());
 				d.repaintAll();
 			}
@@ -1951,7 +1890,8 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		dispatcher.quit();
 		canvas.setReceivesInput(false);
 		slt.quit();
-		imagePreloader.interrupt();
+		prefetcher.quit();
+		if (prefetcher.getVisits() > 0) Utils.log2("Prefetching: " + prefetcher.getStatistics());
 
 		// update the coloring in the ProjectTree and LayerTree
 		if (!project.isBeingDestroyed()) {
@@ -2261,7 +2201,10 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (repaint_disabled) return;
 		for (final Display d : al_displays) {
 			if (layer == d.layer) {
+				d.invalidateOverlay(displ, r);
 				d.repaint(displ, r, extra, repaint_navigator, update_graphics);
+			} else if (d.isPaintingColorCuesOf(layer)) {
+				d.invalidateOverlay(displ, r);
 			}
 		}
 	}
@@ -2271,6 +2214,20 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		repaint(d.getLayer(), d, d.getBoundingBox(null), 5, true);
 	}
 
+	/** Drop the cached annotation tiles within @param r, or within the bounding box of the @param displ if r is null,
+	 *  or all of them if both are null. Images are not part of the annotation tiles. */
+	private void invalidateOverlay(final Displayable displ, final Rectangle r) {
+		if (displ instanceof ImageData) return;
+		canvas.getAnnotationOverlay().invalidate(null != r || null == displ ? r : displ.getBoundingBox(), displ);
+	}
+
+	/** @return whether this Display paints the nodes of trees in the @param la, other than its own layer, as color cues,
+	 *  so that its cached annotation tiles depend on edits there too. */
+	private boolean isPaintingColorCuesOf(final Layer la) {
+		final LayerSet ls = layer.getParent();
+		return layer != la && ls == la.getParent() && ls.isColorCues() && ls.getColorCueLayerRange(layer).contains(la);
+	}
+
 	/** Repaint as much as the bounding box around the given Displayable, or the r if not null.
 	 *  @param update_graphics will be made true if the @param displ is a Patch or it's not the active Displayable. */
 	private void repaint(final Displayable displ, final Rectangle r, final int extra, final boolean repaint_navigator, boolean update_graphics) {
@@ -2316,12 +2273,15 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (repaint_disabled) return;
 		for (final Display d : al_displays) {
 			if (layer == d.layer) {
+				d.invalidateOverlay(null, r);
 				d.canvas.setUpdateGraphics(update_graphics);
 				d.canvas.repaint(r, extra);
 				if (update_navigator) {
 					d.navigator.repaint(true);
 					Utils.updateComponent(d.tabs.getSelectedComponent());
 				}
+			} else if (d.isPaintingColorCuesOf(layer)) {
+				d.invalidateOverlay(null, r);
 			}
 		}
 	}
@@ -2332,10 +2292,13 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (repaint_disabled) return;
 		for (final Display d : al_displays) {
 			if (layer == d.layer) {
+				d.invalidateOverlay(null, r);
 				d.canvas.setUpdateGraphics(update_graphics);
 				d.canvas.repaint(r, extra);
 				d.navigator.repaint(update_graphics);
 				if (update_graphics) Utils.updateComponent(d.tabs.getSelectedComponent());
+			} else if (d.isPaintingColorCuesOf(layer)) {
+				d.invalidateOverlay(null, r);
 			}
 		}
 	}
@@ -2373,6 +2336,7 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 					}
 					d.navigator.repaint(true);
 				}
+				d.invalidateOverlay(displ, r);
 				if (null == displ || displ != d.active || displ instanceof ImageData) d.setUpdateGraphics(true); // safeguard
 				// paint the given box or the actual Displayable's box
 				if (null != r) d.canvas.repaint(r, extra);
@@ -2386,6 +2350,7 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (repaint_disabled) return;
 		for (final Display d : al_displays) {
 			if (d.layer.getParent() == set) {
+				d.canvas.getAnnotationOverlay().clear();
 				d.navigator.repaint(true);
 				d.canvas.repaint(true);
 			}
@@ -2396,6 +2361,7 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (repaint_disabled) return;
 		for (final Display d : al_displays) {
 			if (d.layer.getParent() == set) {
+				d.invalidateOverlay(null, box);
 				d.navigator.repaint(box);
 				d.canvas.repaint(box, 0, true);
 			}
@@ -2406,8 +2372,11 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 		if (repaint_disabled) return;
 		for (final Display d : al_displays) {
 			if (layer == d.layer) {
+				d.canvas.getAnnotationOverlay().clear();
 				d.navigator.repaint(true);
 				d.canvas.repaint(true);
+			} else if (d.isPaintingColorCuesOf(layer)) {
+				d.canvas.getAnnotationOverlay().clear();
 			}
 		}
 	}
@@ -2419,6 +2388,7 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 			return;
 		}
 		for (final Display d : al_displays) {
+			d.canvas.getAnnotationOverlay().clear();
 			d.navigator.repaint(true);
 			d.canvas.repaint(true);
 		}
@@ -3076,9 +3046,6 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 				final JMenu nodeMenu = new JMenu("Nodes");
 				item = new JMenuItem("Mark"); item.addActionListener(this); if(rm.getProjectConfig().isFullGUI()) nodeMenu.add(item);
 				item = new JMenuItem("Clear marks (selected Trees)"); item.addActionListener(this); if(rm.getProjectConfig().isFullGUI()) nodeMenu.add(item);
-				final JMenuItem nodeColor = new JMenuItem("Color..."); nodeMenu.add(nodeColor);
-				nodeColor.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, KeyEvent.SHIFT_MASK, true));
-				final JMenuItem nodePairColor = new JMenuItem("Color path between two nodes tagged as..."); nodeMenu.add(nodePairColor);
 				final JMenuItem nodeRadius = active instanceof Treeline ? new JMenuItem("Radius...") : null;
 				if (null != nodeRadius) {
 					nodeMenu.add(nodeRadius);
@@ -3086,8 +3053,6 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 				}
 				final JMenuItem removeAllTags = new JMenuItem("Drop all tags (selected trees)"); nodeMenu.add(removeAllTags);
 				final JMenuItem removeTag = new JMenuItem("Drop all occurrences of tag..."); nodeMenu.add(removeTag);
-				final JMenuItem colorizeByNodeCentrality = new JMenuItem("Colorize by node betweenness centrality"); nodeMenu.add(colorizeByNodeCentrality);
-				final JMenuItem colorizeByBranchCentrality = new JMenuItem("Colorize by branch betweenness centrality"); nodeMenu.add(colorizeByBranchCentrality);
 
 				popup.add(nodeMenu);
 				final ActionListener ln = new ActionListener() {
@@ -3104,48 +3069,7 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 						final Tree tree = (Tree)active;
 						final Object src = ae.getSource();
 						//
-						if (src == nodeColor) {
-							final Node nd = tree.getLastVisited();
-							if (null == nd) {
-								Utils.showMessage("Select a node first by clicking on it\nor moving the mouse over it and pushing 'g'.");
-								return;
-							}
-							tree.adjustNodeColors(nd); // sets an undo step
-						} else if (src == nodePairColor) {
-							final TreeMap<String,Tag> sm = getTags(tree);
-							if (null == sm) return;
-							if (1 == sm.size()) {
-								Utils.showMessage("Need at least two different tags in the tree!");
-								return;
-							}
-							final Color color = tree.getColor();
-							final GenericDialog gd = new GenericDialog("Node colors");
-							gd.addSlider("Red: ", 0, 255, color.getRed());
-							gd.addSlider("Green: ", 0, 255, color.getGreen());
-							gd.addSlider("Blue: ", 0, 255, color.getBlue());
-							final String[] stags = asStrings(sm);
-							sm.keySet().toArray(stags);
-							gd.addChoice("Upstream tag:", stags, stags[0]);
-							gd.addChoice("Downstream tag:", stags, stags[1]);
-							gd.showDialog();
-							if (gd.wasCanceled()) return;
-							final Color newColor = new Color((int)gd.getNextNumber(), (int)gd.getNextNumber(), (int)gd.getNextNumber());
-							final Tag upstreamTag = sm.get(gd.getNextChoice());
-							final Tag downstreamTag = sm.get(gd.getNextChoice());
-							final List<Tree<?>.NodePath> pairs = tree.findTaggedPairs(upstreamTag, downstreamTag);
-							if (null == pairs || pairs.isEmpty()) {
-								Utils.showMessage("No pairs found for '" + upstreamTag + "' and '" + downstreamTag + "'");
-								return;
-							}
-							getLayerSet().addDataEditStep(tree);
-							for (final Tree<?>.NodePath pair : pairs) {
-								for (final Node<?> nd : pair.path) {
-									nd.setColor(newColor);
-								}
-							}
-							getLayerSet().addDataEditStep(tree);
-							Display.repaint();
-						} else if (src == nodeRadius) {
+						if (src == nodeRadius) {
 							if (!(tree instanceof Treeline)) return;
 							final Node nd = tree.getLastVisited();
 							if (null == nd) {
@@ -3195,39 +3119,10 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 								IJError.print(e);
 							}
 							Display.repaint();
-						} else if (src == colorizeByNodeCentrality) {
-							final List<Tree> ts = selection.get(Tree.class);
-							final HashSet<Tree> ds = new HashSet<Tree>(ts);
-							getLayerSet().addDataEditStep(ds);
-							try {
-								for (final Tree t : ts) {
-									t.colorizeByNodeBetweennessCentrality();
-								}
-								getLayerSet().addDataEditStep(ds);
-								Display.repaint();
-							} catch (final Exception e) {
-								getLayerSet().undoOneStep();
-								IJError.print(e);
-							}
-						} else if (src == colorizeByBranchCentrality) {
-							final List<Tree> ts = selection.get(Tree.class);
-							final HashSet<Tree> ds = new HashSet<Tree>(ts);
-							getLayerSet().addDataEditStep(ds);
-							try {
-								for (final Tree t : ts) {
-									t.colorizeByBranchBetweennessCentrality(2);
-								}
-								getLayerSet().addDataEditStep(ds);
-								Display.repaint();
-							} catch (final Exception e) {
-								getLayerSet().undoOneStep();
-								IJError.print(e);
-							}
 						}
 					}
 				};
-				for (final JMenuItem a : new JMenuItem[]{nodeColor, nodePairColor, nodeRadius,
-						removeAllTags, removeTag, colorizeByNodeCentrality, colorizeByBranchCentrality}) {
+				for (final JMenuItem a : new JMenuItem[]{nodeRadius, removeAllTags, removeTag}) {
 					if (null == a) continue;
 					a.addActionListener(ln);
 				}
@@ -8399,8 +8294,6 @@ public final class Display extends DBObject implements ActionListener, IJEventLi
 			for (Node<Float> node: treelineCopy.getRoot().getSubtreeNodes())
 			{
 				node.setLayer(l);
-				Color col = Display.getFront().getProject().getRhizoMain().getProjectConfig().getColorForStatus((node.getConfidence()));
-				node.setColor(col);
 			}
 
 			treelineCopy.setTitle("treeline");
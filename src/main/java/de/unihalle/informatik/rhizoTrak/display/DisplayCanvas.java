@@ -463,6 +463,30 @@ public final class DisplayCanvas extends ImageCanvas implements KeyListener/*, F
 	/** The affine transform representing the srcRect displacement and the magnification. */
 	private final AffineTransform atc = new AffineTransform();
 
+	/** Cached tiles of the annotations painted into the offscreen image. */
+	private final AnnotationOverlay overlay = new AnnotationOverlay();
+
+	public AnnotationOverlay getAnnotationOverlay() {
+		return overlay;
+	}
+
+	/** Screen-space index of the objects under the mouse for the current view, built on demand. */
+	private volatile HitTestIndex hit_index = null;
+
+	/** @return the index of the objects under the mouse for the @param layer as currently shown,
+	 *  rebuilding it if the view or the annotations have changed since it was built. */
+	private HitTestIndex getHitTestIndex(final Layer layer) {
+		final Rectangle srcRect = getSrcRect();
+		final double magnification = getMagnification();
+		final long edits = overlay.getEdits();
+		HitTestIndex index = hit_index;
+		if (null == index || !index.isValid(layer, srcRect, magnification, edits)) {
+			index = new HitTestIndex(layer, srcRect, magnification, edits);
+			hit_index = index;
+		}
+		return index;
+	}
+
 	@Override
 	public void paint(final Graphics g) {
 		if (null == g) return;
@@ -1576,7 +1600,7 @@ public final class DisplayCanvas extends ImageCanvas implements KeyListener/*, F
 				final Layer layer = display.getLayer();
 				final int x_p = offScreenX(me.getX()),
 				          y_p = offScreenY(me.getY());
-				final ArrayList<Displayable> al = new ArrayList<Displayable>(layer.getParent().findZDisplayables(layer, x_p, y_p, true));
+				final ArrayList<Displayable> al = new ArrayList<Displayable>(getHitTestIndex(layer).find(me.getX(), me.getY(), x_p, y_p));
 				Collections.reverse(al);
 				final ArrayList<Displayable> al2 = new ArrayList<Displayable>(layer.find(x_p, y_p, true));
 				Collections.reverse(al2);
@@ -1811,6 +1835,8 @@ public final class DisplayCanvas extends ImageCanvas implements KeyListener/*, F
 			for (final BufferedImage bi : to_flush) bi.flush();
 			to_flush.clear();
 		}
+		overlay.clear();
+		hit_index = null;
 		mouse_moved.quit();
 		try {
 			synchronized (this) { if (null != animator) animator.shutdownNow(); }
@@ -2717,10 +2743,13 @@ public final class DisplayCanvas extends ImageCanvas implements KeyListener/*, F
 			final ArrayList<LayerPanel> blending_list, final int mode, final GraphicsSource graphics_source,
 			final boolean prepaint, final ArrayList<Displayable> al_top, final boolean preload) {
 
+		final long start = System.nanoTime();
 		final ArrayList<Displayable> al_paint = new ArrayList<Displayable>();
 		final int first_non_patch = gatherDisplayables(active_layer, layers, srcRect, active, al_paint, al_top, preload);
 
-		return paintOffscreen(active_layer, layers, al_paint, active, g_width, g_height, c_alphas, loader, hm, blending_list, mode, graphics_source, prepaint, first_non_patch);
+		final BufferedImage target = paintOffscreen(active_layer, layers, al_paint, active, g_width, g_height, c_alphas, loader, hm, blending_list, mode, graphics_source, prepaint, first_non_patch);
+		RepaintMetrics.report(active_layer, magnification, al_paint.size(), System.nanoTime() - start);
+		return target;
 	}
 
 	public BufferedImage paintOffscreen(final Layer active_layer, final List<Layer> layers, final ArrayList<Displayable> al_paint, final Displayable active, final int g_width, final int g_height, final int c_alphas, final Loader loader, final HashMap<Color,Layer> hm, final ArrayList<LayerPanel> blending_list, final int mode, final GraphicsSource graphics_source, final boolean prepaint, int first_non_patch) {
@@ -2778,6 +2807,9 @@ public final class DisplayCanvas extends ImageCanvas implements KeyListener/*, F
 					paintWithFiltering(g, al_paint, paintables, first_non_patch, g_width, g_height, active, c_alphas, active_layer, layers, true);
 				} else {
 					// Direct painting mode, with prePaint abilities
+					// ZDisplayables other than the active one come composited from the cached overlay tiles
+					final boolean use_overlay = AnnotationOverlay.enabled && display.getMode().getClass() == DefaultMode.class;
+					boolean overlaid = false;
 					int i = 0;
 					for (final Paintable d : paintables) {
 						if (i == first_non_patch) {
@@ -2788,6 +2820,14 @@ public final class DisplayCanvas extends ImageCanvas implements KeyListener/*, F
 							//Object render_quality = g.getRenderingHint(RenderingHints.KEY_RENDERING);
 							g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
 						}
+						if (use_overlay && d instanceof ZDisplayable && d != active) {
+							if (!overlaid) {
+								overlay.paint(g, active_layer, layers, srcRect, magnification, active, c_alphas, g_width, g_height, stroke);
+								overlaid = true;
+							}
+							i++;
+							continue;
+						}
 						if (prepaint) d.prePaint(g, srcRect, magnification, d == active, c_alphas, active_layer, layers);
 						else d.paint(g, srcRect, magnification, d == active, c_alphas, active_layer, layers);
 						i++;
@@ -1435,6 +1435,13 @@ public abstract class Displayable extends DBObject implements Paintable  {
 		sb_body.append("\"\n");
 	}
 
+	/** Write the complete XML element of this object to @param writer.
+	 *  Unless overriden, it is first built in @param sb, which must be empty on entry and is left empty. */
+	public void exportXML(final java.io.Writer writer, final StringBuilder sb, final String indent, final XMLOptions options) throws Exception {
+		exportXML(sb, indent, options);
+		Utils.writeAndClear(writer, sb);
+	}
+
 	/** Add properties, links, etc. Does NOT close the tag. */
 	synchronized protected void restXML(final StringBuilder sb_body, final String in, final XMLOptions options) {
 		// Properties:
@@ -1865,6 +1872,27 @@ public abstract class Displayable extends DBObject implements Paintable  {
 
 	// UNDO machinery
 	
+	/** Add the objects which @param step is about, including those of its dependent steps, to @param ds.
+	 *  Steps that add or remove objects, like {@link LayerSet.DoChangeTrees}, only contribute their dependents. */
+	static void collectEdited(final DoStep step, final Collection<Displayable> ds) {
+		if (step instanceof DoEdit) {
+			final DoEdit edit = (DoEdit)step;
+			ds.add(edit.d);
+			if (null != edit.dependents) for (final DoStep dep : edit.dependents) collectEdited(dep, ds);
+		} else if (step instanceof DoEdits) {
+			final DoEdits edits = (DoEdits)step;
+			for (final DoEdit edit : edits.edits) collectEdited(edit, ds);
+			if (null != edits.dependents) for (final DoStep dep : edits.dependents) collectEdited(dep, ds);
+		} else if (step instanceof DoTransforms) {
+			ds.addAll(((DoTransforms)step).ht.keySet());
+		} else if (step instanceof LayerSet.DoChangeTrees) {
+			final LayerSet.DoChangeTrees change = (LayerSet.DoChangeTrees)step;
+			if (null != change.dependents) for (final DoStep dep : change.dependents) collectEdited(dep, ds);
+		} else if (null != step.getD()) {
+			ds.add(step.getD());
+		}
+	}
+
 	static protected class DoEdits implements DoStep {
 		final HashSet<DoEdit> edits = new HashSet<DoEdit>();
 		HashSet<DoStep> dependents = null;
@@ -2252,6 +2280,15 @@ public abstract class Displayable extends DBObject implements Paintable  {
 		return getAreaAt(layer);
 	}
 
+	/** The bounding box by which a {@link Bucket} indexes this Displayable in the @param layer, or null if it has no data there.
+	 *  Override when it can be had without computing the {@link #getAreaForBucket(Layer)}. */
+	protected Rectangle getBoundsForBucket(final Layer layer) {
+		final Area a = getAreaForBucket(layer);
+		if (null == a) return null;
+		final Rectangle r = a.getBounds();
+		return r.isEmpty() ? null : r;
+	}
+
 	/** If this Displayable intersects with @param r or almost intersects, then returns true.
 	 *  This method is meant to be very fast, and err on the "yes" and never on the "no". */
 	protected boolean isRoughlyInside(final Layer layer, final Rectangle r) {
@@ -0,0 +1,304 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.unihalle.informatik.rhizoTrak.utils.M;
+
+/** Screen-space index of the {@link ZDisplayable} objects under the mouse, for a {@link DisplayCanvas}
+ *  showing a layer at a given srcRect and magnification.
+ *  <p>
+ *  The nodes of the visible {@link Treeline} and {@link Connector} objects in the layer are copied once, as the same half-edges
+ *  that {@link Node#isNear(float, float, float)} tests, transformed into screen coordinates. Each half-edge is
+ *  registered in all cells of a grid of {@link #CELL_SIDE} pixels it passes within the hit radius of, and the
+ *  cells are stored sorted by key, so that finding what is under a point takes a binary search for its cell
+ *  and a test of the few half-edges in it, without locking any tree.
+ *  Other ZDisplayable objects are tested with {@link Displayable#contains(Layer, double, double)} as before,
+ *  including trees whose hit test differs, like {@link AreaTree}, see {@link #isIndexed(ZDisplayable)}.
+ *  <p>
+ *  The index is immutable; it is replaced when the view changes or the annotations are edited, see {@link #isValid}.
+ *
+ * @author posch
+ */
+final class HitTestIndex {
+
+	/** Side of a cell, in screen pixels. */
+	static private final int CELL_SIDE = 32;
+
+	private final Layer layer;
+	private final Rectangle srcRect;
+	private final double magnification;
+	/** Value of {@link AnnotationOverlay#getEdits()} when this index was built. */
+	private final long edits;
+	/** Value of {@link Tree#getPositionChanges()} of each tree among {@link #zds} when this index was built. */
+	private final long[] position_changes;
+
+	/** Radius within which a half-edge is hit, in screen pixels, as in {@link Tree#contains(Layer, double, double)}. */
+	private final float radius;
+
+	/** The visible ZDisplayable objects intersecting the view, in stack order. */
+	private final ZDisplayable[] zds;
+
+	/** Screen coordinates of the half-edges: x1, y1, x2, y2 for each. */
+	private final float[] coords;
+	/** Index into {@link #zds} of the tree of each half-edge. */
+	private final int[] owners;
+
+	/** Sorted keys of the cells that have half-edges. */
+	private final long[] cell_keys;
+	/** Start of the half-edges of each cell in {@link #cell_edges}, plus the end of the last one. */
+	private final int[] cell_starts;
+	/** Indices of half-edges, grouped by cell. */
+	private final int[] cell_edges;
+
+	/** Build the index for the @param layer as seen through @param srcRect at @param magnification.
+	 *  @param edits is the {@link AnnotationOverlay#getEdits()} of the canvas, read before building. */
+	HitTestIndex(final Layer layer, final Rectangle srcRect, final double magnification, final long edits) {
+		this.layer = layer;
+		this.srcRect = new Rectangle(srcRect);
+		this.magnification = magnification;
+		this.edits = edits;
+		this.radius = (float)Math.max(10, 2 * magnification);
+
+		// Candidates, in stack order
+		final int pad = (int)Math.ceil(radius / magnification) + 1;
+		final Rectangle box = new Rectangle(srcRect.x - pad, srcRect.y - pad, srcRect.width + 2 * pad, srcRect.height + 2 * pad);
+		final Set<Displayable> found = new HashSet<Displayable>(layer.getParent().findZDisplayables(layer, box, true));
+		final ArrayList<ZDisplayable> al = new ArrayList<ZDisplayable>(found.size());
+		for (final ZDisplayable zd : layer.getParent().getZDisplayables()) {
+			if (found.contains(zd)) al.add(zd);
+		}
+		this.zds = al.toArray(new ZDisplayable[al.size()]);
+		this.position_changes = new long[zds.length];
+		for (int i = 0; i < zds.length; i++) {
+			if (zds[i] instanceof Tree<?>) position_changes[i] = ((Tree<?>)zds[i]).getPositionChanges();
+		}
+
+		// Half-edges of the trees, in screen coordinates
+		final Edges edges = new Edges();
+		for (int i = 0; i < zds.length; i++) {
+			if (isIndexed(zds[i])) edges.addTree((Tree<?>)zds[i], i);
+		}
+		this.coords = Arrays.copyOf(edges.coords, edges.n * 4);
+		this.owners = Arrays.copyOf(edges.owners, edges.n);
+
+		// Register each half-edge in the cells of its bounding box, enlarged by the radius
+		final HashMap<Long,ArrayList<Integer>> cells = new HashMap<Long,ArrayList<Integer>>();
+		final int max_cx = cell(srcRect.width * magnification), max_cy = cell(srcRect.height * magnification);
+		int n_entries = 0;
+		for (int e = 0; e < edges.n; e++) {
+			final int k = e * 4;
+			final int cx0 = Math.max(0, cell(Math.min(coords[k], coords[k+2]) - radius)),
+			          cx1 = Math.min(max_cx, cell(Math.max(coords[k], coords[k+2]) + radius)),
+			          cy0 = Math.max(0, cell(Math.min(coords[k+1], coords[k+3]) - radius)),
+			          cy1 = Math.min(max_cy, cell(Math.max(coords[k+1], coords[k+3]) + radius));
+			for (int cy = cy0; cy <= cy1; cy++) {
+				for (int cx = cx0; cx <= cx1; cx++) {
+					final Long key = key(cx, cy);
+					ArrayList<Integer> list = cells.get(key);
+					if (null == list) {
+						list = new ArrayList<Integer>(4);
+						cells.put(key, list);
+					}
+					list.add(e);
+					n_entries++;
+				}
+			}
+		}
+		this.cell_keys = new long[cells.size()];
+		int c = 0;
+		for (final Long key : cells.keySet()) cell_keys[c++] = key;
+		Arrays.sort(cell_keys);
+		this.cell_starts = new int[cell_keys.length + 1];
+		this.cell_edges = new int[n_entries];
+		int next = 0;
+		for (c = 0; c < cell_keys.length; c++) {
+			cell_starts[c] = next;
+			for (final Integer e : cells.get(cell_keys[c])) cell_edges[next++] = e;
+		}
+		cell_starts[cell_keys.length] = next;
+	}
+
+	/** @return whether @param zd is hit as tested by {@link Tree#contains(Layer, double, double)} with
+	 *  {@link Node#isNear(float, float, float)}, which the half-edges replicate. Subclasses may not: an
+	 *  {@link AreaTree} is also hit within its areas, see {@link Tree#isAnyNear}. */
+	static private boolean isIndexed(final ZDisplayable zd) {
+		final Class<?> c = zd.getClass();
+		return c == Treeline.class || c == Connector.class || c == TreeConnector.class;
+	}
+
+	/** Growable arrays of half-edges. */
+	private final class Edges {
+		float[] coords = new float[1024];
+		int[] owners = new int[256];
+		int n = 0;
+
+		private final void add(final float x1, final float y1, final float x2, final float y2, final int owner) {
+			if (n == owners.length) {
+				owners = Arrays.copyOf(owners, n * 2);
+				coords = Arrays.copyOf(coords, n * 8);
+			}
+			final int k = n * 4;
+			coords[k] = x1;
+			coords[k+1] = y1;
+			coords[k+2] = x2;
+			coords[k+3] = y2;
+			owners[n++] = owner;
+		}
+
+		/** Add the half-edges of the nodes of @param tree in the layer, transformed into screen coordinates. */
+		private final <T> void addTree(final Tree<T> tree, final int owner) {
+			final ArrayList<Node<T>> nodes;
+			final AffineTransform aff;
+			synchronized (tree.node_layer_map) {
+				if (null == tree.root) return;
+				final Set<Node<T>> s = tree.node_layer_map.get(layer);
+				if (null == s || s.isEmpty()) return;
+				nodes = new ArrayList<Node<T>>(s);
+				aff = new AffineTransform(magnification, 0, 0, magnification, -srcRect.x * magnification, -srcRect.y * magnification);
+				aff.concatenate(tree.at);
+			}
+			final float[] p = new float[4];
+			for (final Node<T> nd : nodes) {
+				p[0] = nd.x;
+				p[1] = nd.y;
+				final Node<T> parent = nd.parent;
+				final Node<T>[] children = nd.children;
+				boolean alone = true;
+				if (null != parent) {
+					p[2] = (nd.x + parent.x) / 2;
+					p[3] = (nd.y + parent.y) / 2;
+					addTransformed(aff, p, owner);
+					alone = false;
+				}
+				if (null != children) {
+					for (final Node<T> child : children) {
+						p[2] = (nd.x + child.x) / 2;
+						p[3] = (nd.y + child.y) / 2;
+						addTransformed(aff, p, owner);
+						alone = false;
+					}
+				}
+				if (alone) {
+					p[2] = nd.x;
+					p[3] = nd.y;
+					addTransformed(aff, p, owner);
+				}
+			}
+		}
+
+		private final void addTransformed(final AffineTransform aff, final float[] p, final int owner) {
+			final float x1 = p[0], y1 = p[1];
+			aff.transform(p, 0, p, 0, 2);
+			add(p[0], p[1], p[2], p[3], owner);
+			p[0] = x1;
+			p[1] = y1;
+		}
+	}
+
+	static private final int cell(final double v) {
+		return (int)Math.floor(v / CELL_SIDE);
+	}
+
+	static private final long key(final int cx, final int cy) {
+		return (((long)cx) << 32) | (cy & 0xffffffffL);
+	}
+
+	/** @return true if this index was built for the @param layer, @param srcRect and @param magnification,
+	 *  and neither the annotations nor the position of any node have changed since. */
+	boolean isValid(final Layer layer, final Rectangle srcRect, final double magnification, final long edits) {
+		return this.layer == layer
+		    && this.magnification == magnification
+		    && this.srcRect.equals(srcRect)
+		    && this.edits == edits
+		    && !havePositionsChanged();
+	}
+
+	private final boolean havePositionsChanged() {
+		for (int i = 0; i < zds.length; i++) {
+			if (zds[i] instanceof Tree<?> && ((Tree<?>)zds[i]).getPositionChanges() != position_changes[i]) return true;
+		}
+		return false;
+	}
+
+	/** Find the ZDisplayable objects under the point at screen coordinates @param sx, @param sy,
+	 *  which is the point @param wx, @param wy in world coordinates, in stack order. */
+	List<Displayable> find(final int sx, final int sy, final int wx, final int wy) {
+		final boolean[] hit = new boolean[zds.length];
+		final int c = Arrays.binarySearch(cell_keys, key(cell(sx), cell(sy)));
+		if (c >= 0) {
+			for (int i = cell_starts[c]; i < cell_starts[c+1]; i++) {
+				final int e = cell_edges[i];
+				if (hit[owners[e]]) continue;
+				if (isNear(e, sx, sy)) hit[owners[e]] = true;
+			}
+		}
+		final ArrayList<Displayable> al = new ArrayList<Displayable>();
+		for (int i = 0; i < zds.length; i++) {
+			if (hit[i] || (!isIndexed(zds[i]) && zds[i].contains(layer, wx, wy))) al.add(zds[i]);
+		}
+		return al;
+	}
+
+	private final boolean isNear(final int e, final float sx, final float sy) {
+		final int k = e * 4;
+		final float x1 = coords[k], y1 = coords[k+1], x2 = coords[k+2], y2 = coords[k+3];
+		final double d = x1 == x2 && y1 == y2 ?
+				  Math.sqrt((sx - x1) * (sx - x1) + (sy - y1) * (sy - y1))
+				: M.distancePointToSegment(sx, sy, x1, y1, x2, y2);
+		return d < radius;
+	}
+}
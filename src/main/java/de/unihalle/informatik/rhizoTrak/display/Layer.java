@@ -89,6 +89,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.unihalle.informatik.rhizoTrak.ControlWindow;
 import de.unihalle.informatik.rhizoTrak.Project;
@@ -114,6 +115,20 @@ public final class Layer extends DBObject implements Bucketable, Comparable<Laye
 	
 	public boolean mtbxml = false;
 
+	/** Number of edits of tree nodes in this layer, see {@link Node#edited()}. */
+	private final AtomicLong node_edits = new AtomicLong(0);
+
+	/** A node of a tree in this layer was edited. */
+	void nodeEdited() {
+		node_edits.incrementAndGet();
+	}
+
+	/** @return the number of edits of tree nodes in this layer so far, to tell whether any happened since, 
+	 *  see {@link de.unihalle.informatik.rhizoTrak.persistence.TreelinePager} */
+	public long getNodeEdits() {
+		return node_edits.get();
+	}
+
 	/** Compare layers by Z. */
 	static public final Comparator<Layer> COMPARATOR = new Comparator<Layer>() {
 		@Override
@@ -938,6 +953,17 @@ public final class Layer extends DBObject implements Bucketable, Comparable<Laye
 
 	@Override
 	public void exportXML(final StringBuilder sb_body, final String indent, final XMLOptions options) {
+		try {
+			exportXML(null, sb_body, indent, options);
+		} catch (final Exception e) {
+			throw new RuntimeException(e); // only a writer can fail
+		}
+	}
+
+	/** Writes each contained Displayable to @param writer as soon as it has been generated.
+	 *  @param sb_body must be empty on entry and is left empty, unless @param writer is null:
+	 *  then the whole XML is appended to @param sb_body. */
+	public void exportXML(final java.io.Writer writer, final StringBuilder sb_body, final String indent, final XMLOptions options) throws Exception {
 		final String in = indent + "\t";
 		// 1 - open tag
 		sb_body.append(indent).append("<t2_layer oid=\"").append(id).append("\"\n")
@@ -952,14 +978,16 @@ public final class Layer extends DBObject implements Bucketable, Comparable<Laye
 		if (null == title) title = "";
 		sb_body.append(in).append(" title=\"").append(title).append("\"\n"); // TODO 'title' should be a property of the Layer, not the LayerThing. Also, the LayerThing should not exist: LayerSet and Layer should be directly presentable in a tree. They are not Things as in "objects of the sample", but rather, structural necessities such as Patch.
 		sb_body.append(indent).append(">\n");
+		Utils.writeAndClear(writer, sb_body);
 		// 2 - export children
 		if (null != al_displayables) {
 			for (final Displayable d : al_displayables) {
-				d.exportXML(sb_body, in, options);
+				d.exportXML(writer, sb_body, in, options);
 			}
 		}
 		// 3 - close tag
 		sb_body.append(indent).append("</t2_layer>\n");
+		Utils.writeAndClear(writer, sb_body);
 	}
 
 	/** Includes all Displayable objects in the list of possible children. */
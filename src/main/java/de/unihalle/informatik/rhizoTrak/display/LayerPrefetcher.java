@@ -0,0 +1,292 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
+
+/** Prefetches the images of the layers a {@link Display} is likely to show next.
+ * <p>
+ * Annotators rarely move through the layers one way only: they flip back and forth between
+ * adjacent time points of a tube, advance step by step, or jump by the number of time points
+ * to the next tube. Therefore, on each change of layer, see {@link #visited(Layer, Layer)}, the
+ * step taken (difference of layer indices) is added to a history of steps, and the next layers are
+ * predicted by scoring candidate steps:
+ * <ul>
+ * <li>the steps that followed the last step earlier in the history, more recent ones weighing more,</li>
+ * <li>going back to the previous layer,</li>
+ * <li>continuing in the same direction with the same step, for as many steps as there are layers to prefetch.</li>
+ * </ul>
+ * The {@link LayerSet#preload_ahead} best scoring layers are prefetched in order of their score, each
+ * only the region and at the magnification currently shown, see {@link Patch#prefetch(Rectangle, double)}.
+ * A change of layer cancels the prefetching for the previous prediction, except for the image being loaded.
+ * <p>
+ * On arrival at a layer, it is counted whether the layer was predicted, whether it was prefetched completely,
+ * and how many of the visible images were already cached, see {@link #getStatistics()}.
+ *
+ * @author posch
+ */
+final class LayerPrefetcher extends Thread {
+
+	/** Number of steps remembered. */
+	static private final int HISTORY = 64;
+	/** Weight of a step learned from the history decays with its age by this factor. */
+	static private final double DECAY = 0.95;
+
+	private final Display display;
+
+	/** Recent steps, oldest first. Access is synchronized on this. */
+	private final ArrayList<Integer> steps = new ArrayList<Integer>();
+
+	/** The layers of the latest prediction, in the order to be prefetched. Access is synchronized on this. */
+	private ArrayList<Layer> queue = new ArrayList<Layer>();
+	private Rectangle srcRect = null;
+	private double magnification = 1;
+	/** Incremented on every change of layer, to cancel prefetching for a previous prediction. */
+	private volatile long generation = 0;
+
+	/** Layers predicted by the previous change of layer, and those of them that were prefetched completely.
+	 *  Access is synchronized on this. */
+	private Set<Layer> predicted = new HashSet<Layer>();
+	private final Set<Layer> prefetched = new HashSet<Layer>();
+
+	private final AtomicLong visits = new AtomicLong(),
+	                         predicted_visits = new AtomicLong(),
+	                         prefetched_visits = new AtomicLong(),
+	                         visible_patches = new AtomicLong(),
+	                         cached_patches = new AtomicLong(),
+	                         prefetched_layers = new AtomicLong(),
+	                         cancelled_layers = new AtomicLong();
+
+	LayerPrefetcher(final Display display) {
+		super("LayerPrefetcher");
+		this.display = display;
+		setPriority(Thread.NORM_PRIORITY);
+		setDaemon(true);
+		start();
+	}
+
+	/** Record the change from {@code old_layer} to {@code new_layer}, and prefetch for the
+	 *  layers predicted to come next if the {@link LayerSet#preload_ahead} is larger than zero. */
+	final void visited(final Layer old_layer, final Layer new_layer) {
+		final LayerSet ls = new_layer.getParent();
+		if (old_layer.getParent() != ls) return;
+		final int old_index = ls.indexOf(old_layer);
+		final int new_index = ls.indexOf(new_layer);
+		if (old_index < 0 || new_index < 0 || old_index == new_index) return;
+
+		final DisplayCanvas canvas = display.getCanvas();
+		if (null == canvas) return;
+		final Rectangle srcRect = (Rectangle)canvas.getSrcRect().clone();
+		final double magnification = canvas.getMagnification();
+
+		// Metrics: was the new layer expected, and are its images in the cache?
+		visits.incrementAndGet();
+		synchronized (this) {
+			if (predicted.contains(new_layer)) predicted_visits.incrementAndGet();
+			if (prefetched.contains(new_layer)) prefetched_visits.incrementAndGet();
+		}
+		for (final Displayable d : new_layer.getDisplayables(Patch.class, new Area(srcRect), true)) {
+			visible_patches.incrementAndGet();
+			if (((Patch)d).isImageCached(magnification)) cached_patches.incrementAndGet();
+		}
+
+		synchronized (this) {
+			steps.add(new_index - old_index);
+			if (steps.size() > HISTORY) steps.remove(0);
+
+			final ArrayList<Layer> layers = predict(ls, new_index, ls.preload_ahead);
+			cancelled_layers.addAndGet(queue.size());
+			this.queue = layers;
+			this.predicted = new HashSet<Layer>(layers);
+			this.prefetched.clear();
+			this.srcRect = srcRect;
+			this.magnification = magnification;
+			generation++;
+			notify();
+		}
+	}
+
+	/** Returns up to {@code n} layers, most likely first. Must be called while synchronized on this. */
+	private final ArrayList<Layer> predict(final LayerSet ls, final int index, final int n) {
+		if (n <= 0 || steps.isEmpty()) return new ArrayList<Layer>();
+		final HashMap<Integer,Double> scores = new HashMap<Integer,Double>();
+		final int size = steps.size();
+		final int last = steps.get(size -1);
+		// Steps that followed the last step before
+		double w = 2;
+		for (int i=size-2; i>=0; i--, w *= DECAY) {
+			if (steps.get(i) == last) add(scores, index + steps.get(i+1), w);
+		}
+		// Back to the previous layer
+		add(scores, index - last, 1);
+		// Onwards
+		for (int k=1; k<=n; k++) {
+			add(scores, index + k * last, 1.0 / k);
+		}
+		final ArrayList<Map.Entry<Integer,Double>> candidates = new ArrayList<Map.Entry<Integer,Double>>(scores.entrySet());
+		Collections.sort(candidates, new Comparator<Map.Entry<Integer,Double>>() {
+			@Override
+			public int compare(final Map.Entry<Integer,Double> e1, final Map.Entry<Integer,Double> e2) {
+				final int c = Double.compare(e2.getValue(), e1.getValue());
+				// Ties: the closer layer first
+				return 0 != c ? c : Integer.compare(Math.abs(e1.getKey() - index), Math.abs(e2.getKey() - index));
+			}
+		});
+		final ArrayList<Layer> layers = new ArrayList<Layer>();
+		for (final Map.Entry<Integer,Double> e : candidates) {
+			final int i = e.getKey();
+			if (i < 0 || i >= ls.size() || i == index) continue;
+			layers.add(ls.getLayer(i));
+			if (layers.size() == n) break;
+		}
+		return layers;
+	}
+
+	static private final void add(final HashMap<Integer,Double> scores, final int index, final double score) {
+		final Double s = scores.get(index);
+		scores.put(index, null == s ? score : s + score);
+	}
+
+	@Override
+	public void run() {
+		while (!isInterrupted()) {
+			final Layer layer;
+			final long gen;
+			final Rectangle srcRect;
+			final double magnification;
+			synchronized (this) {
+				while (queue.isEmpty()) {
+					try {
+						wait();
+					} catch (final InterruptedException ie) {
+						return;
+					}
+				}
+				layer = queue.remove(0);
+				gen = generation;
+				srcRect = this.srcRect;
+				magnification = this.magnification;
+			}
+			try {
+				boolean complete = true;
+				for (final Displayable d : layer.getDisplayables(Patch.class, new Area(srcRect), true)) {
+					if (isInterrupted()) return;
+					if (gen != generation) {
+						complete = false;
+						cancelled_layers.incrementAndGet();
+						break;
+					}
+					((Patch)d).prefetch(srcRect, magnification);
+				}
+				if (complete) {
+					prefetched_layers.incrementAndGet();
+					synchronized (this) {
+						if (gen == generation) prefetched.add(layer);
+					}
+				}
+			} catch (final Throwable t) {
+				IJError.print(t);
+			}
+		}
+	}
+
+	final void quit() {
+		interrupt();
+	}
+
+	/** Number of changes of layer. */
+	long getVisits() { return visits.get(); }
+
+	/** Fraction of the changes of layer to a layer that had been predicted. */
+	double getPredictionRate() {
+		final long v = visits.get();
+		return 0 == v ? 0 : predicted_visits.get() / (double)v;
+	}
+
+	/** Fraction of the changes of layer to a layer that had been prefetched completely. */
+	double getPrefetchRate() {
+		final long v = visits.get();
+		return 0 == v ? 0 : prefetched_visits.get() / (double)v;
+	}
+
+	/** Fraction of the images visible on arrival at a layer that were cached. */
+	double getHitRate() {
+		final long v = visible_patches.get();
+		return 0 == v ? 0 : cached_patches.get() / (double)v;
+	}
+
+	void resetStatistics() {
+		visits.set(0);
+		predicted_visits.set(0);
+		prefetched_visits.set(0);
+		visible_patches.set(0);
+		cached_patches.set(0);
+		prefetched_layers.set(0);
+		cancelled_layers.set(0);
+	}
+
+	String getStatistics() {
+		return new StringBuilder("layer changes: ").append(getVisits())
+			.append(", predicted: ").append((int)(100 * getPredictionRate())).append('%')
+			.append(", prefetched: ").append((int)(100 * getPrefetchRate())).append('%')
+			.append(", images cached on arrival: ").append(cached_patches.get()).append(" of ").append(visible_patches.get())
+			.append(" (hit rate ").append((int)(100 * getHitRate())).append("%)")
+			.append(", layers prefetched: ").append(prefetched_layers.get())
+			.append(", cancelled: ").append(cancelled_layers.get()).toString();
+	}
+}
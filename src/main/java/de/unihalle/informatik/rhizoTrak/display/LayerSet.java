@@ -112,7 +112,9 @@ import de.unihalle.informatik.rhizoTrak.Project;
 import de.unihalle.informatik.rhizoTrak.imaging.LayerStack;
 import de.unihalle.informatik.rhizoTrak.parallel.Process;
 import de.unihalle.informatik.rhizoTrak.parallel.TaskFactory;
+import de.unihalle.informatik.rhizoTrak.persistence.ChangeJournal;
 import de.unihalle.informatik.rhizoTrak.persistence.DBObject;
+import de.unihalle.informatik.rhizoTrak.persistence.TreelinePager;
 import de.unihalle.informatik.rhizoTrak.persistence.XMLOptions;
 import de.unihalle.informatik.rhizoTrak.tree.LayerThing;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
@@ -1024,6 +1026,11 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		return getLayers(indexOf(first), indexOf(last));
 	}
 
+	/** @return whether the nodes of trees in the layers of {@link #getColorCueLayerRange(Layer)} are painted too */
+	public boolean isColorCues() {
+		return color_cues;
+	}
+
 	/** Returns the list of layers to paint by considering the range of n_layers_color_cue around the active layer index. */
 	public List<Layer> getColorCueLayerRange(final Layer active_layer) {
 		if (n_layers_color_cue < 0) {
@@ -1210,16 +1217,6 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		}
 	}
 
-	private static java.lang.reflect.Field sbvalue = null;
-	static {
-		try {
-			sbvalue = StringBuilder.class.getSuperclass().getDeclaredField("value");
-			sbvalue.setAccessible(true);
-		} catch (Exception e) {
-			IJError.print(e);
-		}
-	}
-
 	public void exportXML(final java.io.Writer writer, final String indent, final XMLOptions options) throws Exception {
 		final StringBuilder sb_body = new StringBuilder(512);
 		sb_body.append(indent).append("<t2_layer_set\n");
@@ -1259,11 +1256,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 			       .append(in).append("/>\n")
 			;
 		}
-		if (null == sbvalue) {
-			writer.write(sb_body.toString());
-		} else {
-			writer.write((char[])sbvalue.get(sb_body), 0, sb_body.length()); // avoid making a copy of the array
-		}
+		Utils.writeAndClear(writer, sb_body);
 		// Count objects
 		int done = 0;
 		int total = 0;
@@ -1274,13 +1267,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		// export ZDisplayable objects
 		if (null != al_zdispl) {
 			for (final ZDisplayable zd : al_zdispl) {
-				sb_body.setLength(0);
-				zd.exportXML(sb_body, in, options);
-				if (null == sbvalue) {
-					writer.write(sb_body.toString()); // each separately, for they can be huge
-				} else {
-					writer.write((char[])sbvalue.get(sb_body), 0, sb_body.length()); // avoid making a copy of the array
-				}
+				zd.exportXML(writer, sb_body, in, options); // streamed, for they can be huge
 			}
 			done += al_zdispl.size();
 			Utils.showProgress(done / (double)total);
@@ -1289,13 +1276,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		if (null != al_layers) {
 			//Utils.log("LayerSet " + id + " is saving " + al_layers.size() + " layers.");
 			for (final Layer la : al_layers) {
-				sb_body.setLength(0);
-				la.exportXML(sb_body, in, options);
-				if (null == sbvalue) {
-					writer.write(sb_body.toString());
-				} else {
-					writer.write((char[])sbvalue.get(sb_body), 0, sb_body.length()); // avoid making a copy of the array
-				}
+				la.exportXML(writer, sb_body, in, options);
 				done += la.getDisplayableList().size();
 				Utils.showProgress(done / (double)total);
 			}
@@ -1303,11 +1284,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		sb_body.setLength(0);
 		if (sb_body.length() > 0) {
 			super.restXML(sb_body, in, options);
-			if (null == sbvalue) {
-				writer.write(sb_body.toString());
-			} else {
-				writer.write((char[])sbvalue.get(sb_body), 0, sb_body.length()); // avoid making a copy of the array
-			}
+			Utils.writeAndClear(writer, sb_body);
 		}
 		writer.write(indent + "</t2_layer_set>\n");
 	}
@@ -1881,6 +1858,14 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		recreateBuckets(al_layers, layer_buckets);
 	}
 
+	/** Recreate the ZDisplayable buckets for {@code layer}, unless there are no buckets yet at all. */
+	public void updateBuckets(final Layer layer) {
+		synchronized (lbucks) {
+			if (lbucks.isEmpty()) return;
+		}
+		recreateBuckets(layer, false);
+	}
+
 	/** Recreate the ZDisplayable buckets for {@code layer}, and also the {@link Layer} {@link Displayable} buckets if desired.
 	 * @param layer The {@link Layer} to recreate {@link ZDisplayable} buckets for.
 	 * @param layer_buckets Whether to also recreate the {@link Layer}-specific buckets for images and text labels.
@@ -2132,9 +2117,23 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 			redo.clear();
 		}
 
+		journal(step);
 		return true;
 	}
 
+	/** Tell the change journal of the project which objects @param step is about,
+	 *  and the treeline pager to keep them in memory. */
+	private void journal(final DoStep step) {
+		final ChangeJournal journal = project.getChangeJournal();
+		if (null == journal) return;
+		final ArrayList<Displayable> ds = new ArrayList<Displayable>();
+		Displayable.collectEdited(step, ds);
+		if (ds.isEmpty()) return;
+		journal.touched(ds);
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.forget(ds);
+	}
+
 	public boolean canUndo() {
 		return edit_history.size() > 0;
 	}
@@ -2170,6 +2169,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 				Utils.log("Undo: could not apply step!");
 				return false;
 			}
+			journal(current_edit_step);
 
 			Utils.log("Undoing " + current_edit_step.getClass().getSimpleName());
 
@@ -2222,6 +2222,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 				Utils.log("Undo: could not apply step!");
 				return false;
 			}
+			journal(current_edit_step);
 
 			Utils.log("Redoing " + current_edit_step.getClass().getSimpleName());
 
@@ -2859,10 +2860,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 
 	/** Find ZDisplayable objects that contain the point x,y in the given layer. */
 	public Collection<Displayable> findZDisplayables(final Layer layer, final int x, final int y, final boolean visible_only) {
-		final LayerBucket lb;
-		synchronized (lbucks) {
-			lb = lbucks.get(layer);
-		}
+		final LayerBucket lb = getLayerBucket(layer);
 		if (null != lb) return lb.root.find(x, y, layer, visible_only);
 		else nbmsg(layer);
 
@@ -2879,10 +2877,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 	}
 	/** Find ZDisplayable objects of Class c that contain the point x,y in the given layer. */
 	public Collection<Displayable> findZDisplayables(final Class<?> c, final Layer layer, final int x, final int y, final boolean visible_only, final boolean instance_of) {
-		final LayerBucket lb;
-		synchronized (lbucks) {
-			lb = lbucks.get(layer);
-		}
+		final LayerBucket lb = getLayerBucket(layer);
 		if (null != lb) return lb.root.find(c, x, y, layer, visible_only, instance_of);
 		else nbmsg(layer);
 
@@ -2899,10 +2894,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 	
 	/** Find ZDisplayable objects of the given class that intersect the given rectangle in the given layer. */
 	public Collection<Displayable> findZDisplayables(final Class<?> c, final Layer layer, final Rectangle r, final boolean visible_only, final boolean instance_of) {
-		final LayerBucket lb;
-		synchronized (lbucks) {
-			lb = lbucks.get(layer);
-		}
+		final LayerBucket lb = getLayerBucket(layer);
 		if (null != lb) return lb.root.find(c, r, layer, visible_only, instance_of);
 		else nbmsg(layer);
 
@@ -2917,10 +2909,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 	/** Find ZDisplayable objects of the given class that intersect the given area in the given layer.
 	 *  If @param instance_of is true, use c.isAssignableFrom instead of class equality. */
 	public Collection<Displayable> findZDisplayables(final Class<?> c, final Layer layer, final Area aroi, final boolean visible_only, final boolean instance_of) {
-		final LayerBucket lb;
-		synchronized (lbucks) {
-			lb = lbucks.get(layer);
-		}
+		final LayerBucket lb = getLayerBucket(layer);
 		if (null != lb) return lb.root.find(c, aroi, layer, visible_only, instance_of);
 		else nbmsg(layer);
 
@@ -2936,10 +2925,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 	}
 	/** Find ZDisplayable objects that intersect the given rectangle in the given layer. */
 	public Collection<Displayable> findZDisplayables(final Layer layer, final Rectangle r, final boolean visible_only) {
-		final LayerBucket lb;
-		synchronized (lbucks) {
-			lb = lbucks.get(layer);
-		}
+		final LayerBucket lb = getLayerBucket(layer);
 		if (null != lb) return lb.root.find(r, layer, visible_only);
 		else nbmsg(layer);
 
@@ -2954,10 +2940,7 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 	/** Find ZDisplayable objects that intersect the given rectangle in the given layer.
 	 *  May return false positives but never false negatives. */
 	public Collection<Displayable> roughlyFindZDisplayables(final Layer layer, final Rectangle r, final boolean visible_only) {
-		final LayerBucket lb;
-		synchronized (lbucks) {
-			lb = lbucks.get(layer);
-		}
+		final LayerBucket lb = getLayerBucket(layer);
 		if (null != lb) return lb.root.roughlyFind(r, layer, visible_only);
 		else nbmsg(layer);
 
@@ -2970,6 +2953,15 @@ public final class LayerSet extends Displayable implements Bucketable { // Displ
 		return al;
 	}
 
+	/** @return the bucket of @param layer, after reading the nodes of its treelines if they are paged out, see {@link TreelinePager}. */
+	private LayerBucket getLayerBucket(final Layer layer) {
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.pageIn(layer);
+		synchronized (lbucks) {
+			return lbucks.get(layer);
+		}
+	}
+
 	private static final void nbmsg(final Layer la) {
 		Utils.log2("No buckets for layer " + la);
 	}
@@ -0,0 +1,258 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/** A loose quadtree of objects keyed by their bounding box, as used by {@link Bucket}.
+ *  <p>
+ *  Every object is stored once, in the deepest node whose loose bounds, i.e. its square enlarged by half
+ *  its side in every direction, contain the bounding box. Nodes split into four when they hold more than
+ *  {@link #MAX_ITEMS} objects, so the depth adapts to where objects are dense, and objects spanning most of
+ *  the world (like long roots) stay near the top without being copied into every node they touch.
+ *  Objects outside the world stay at the root.
+ *  <p>
+ *  Not thread-safe: the {@link Bucket} synchronizes access.
+ *
+ * @author posch
+ */
+public final class LooseQuadTree<T> {
+
+	/** Objects a node holds before splitting. */
+	static public int MAX_ITEMS = 16;
+	/** Nodes with a smaller side, in world pixels, don't split any further. */
+	static public int MIN_SIDE = 64;
+
+	private final class Node {
+		final Node parent;
+		final double x, y, side;
+		Node[] children = null;
+		ArrayList<T> items = null;
+		/** Number of objects in this node and all its descendants. */
+		int count = 0;
+
+		Node(final Node parent, final double x, final double y, final double side) {
+			this.parent = parent;
+			this.x = x;
+			this.y = y;
+			this.side = side;
+		}
+
+		final boolean looseContains(final Rectangle b) {
+			final double pad = side / 2;
+			return b.x >= x - pad && b.y >= y - pad && b.x + b.width <= x + side + pad && b.y + b.height <= y + side + pad;
+		}
+
+		final boolean looseIntersects(final Rectangle r) {
+			final double pad = side / 2;
+			return r.x <= x + side + pad && r.x + r.width >= x - pad && r.y <= y + side + pad && r.y + r.height >= y - pad;
+		}
+
+		final boolean looseContains(final double px, final double py) {
+			final double pad = side / 2;
+			return px >= x - pad && py >= y - pad && px <= x + side + pad && py <= y + side + pad;
+		}
+
+		/** The child whose square contains the center of @param b, if its loose bounds contain all of @param b. */
+		final Node childFor(final Rectangle b) {
+			final double half = side / 2;
+			final int i = (b.x + b.width / 2.0 < x + half ? 0 : 1) + (b.y + b.height / 2.0 < y + half ? 0 : 2);
+			final Node child = children[i];
+			return child.looseContains(b) ? child : null;
+		}
+
+		@SuppressWarnings("unchecked")
+		final void split() {
+			final double half = side / 2;
+			children = new LooseQuadTree.Node[4];
+			children[0] = new Node(this, x, y, half);
+			children[1] = new Node(this, x + half, y, half);
+			children[2] = new Node(this, x, y + half, half);
+			children[3] = new Node(this, x + half, y + half, half);
+			final ArrayList<T> all = items;
+			items = null;
+			for (final T t : all) {
+				final Node child = childFor(boxes.get(t));
+				if (null == child) add(t);
+				else {
+					child.add(t);
+					child.count++;
+				}
+			}
+		}
+
+		final void add(final T t) {
+			if (null == items) items = new ArrayList<T>(4);
+			items.add(t);
+			nodes.put(t, this);
+		}
+	}
+
+	private final Node root;
+	private final HashMap<T,Rectangle> boxes = new HashMap<T,Rectangle>();
+	private final HashMap<T,Node> nodes = new HashMap<T,Node>();
+
+	/** A tree for the world from @param x,@param y with the given @param width and @param height. */
+	public LooseQuadTree(final int x, final int y, final int width, final int height) {
+		this.root = new Node(null, x, y, Math.max(1, Math.max(width, height)));
+	}
+
+	public int size() {
+		return boxes.size();
+	}
+
+	public boolean contains(final T t) {
+		return boxes.containsKey(t);
+	}
+
+	/** The box with which @param t was put, or null if not in the tree. */
+	public Rectangle getBounds(final T t) {
+		return boxes.get(t);
+	}
+
+	/** Insert @param t with the bounding box @param box, or move it if already present. */
+	public void put(final T t, final Rectangle box) {
+		if (boxes.containsKey(t)) remove(t);
+		final Rectangle b = new Rectangle(box);
+		boxes.put(t, b);
+		Node n = root;
+		while (true) {
+			n.count++;
+			if (null != n.children) {
+				final Node child = n.childFor(b);
+				if (null != child) {
+					n = child;
+					continue;
+				}
+				n.add(t);
+				return;
+			}
+			n.add(t);
+			if (n.items.size() > MAX_ITEMS && n.side / 2 >= MIN_SIDE) n.split();
+			return;
+		}
+	}
+
+	/** Returns false if @param t was not in the tree. */
+	public boolean remove(final T t) {
+		final Node n = nodes.remove(t);
+		if (null == n) return false;
+		boxes.remove(t);
+		n.items.remove(t);
+		if (n.items.isEmpty()) n.items = null;
+		for (Node p = n; null != p; p = p.parent) {
+			p.count--;
+			if (0 == p.count) p.children = null; // prune empty subtrees
+		}
+		return true;
+	}
+
+	public void clear() {
+		boxes.clear();
+		nodes.clear();
+		root.children = null;
+		root.items = null;
+		root.count = 0;
+	}
+
+	/** Add to @param accum the objects whose box intersects @param r. */
+	public void find(final Rectangle r, final Collection<? super T> accum) {
+		if (r.width <= 0 || r.height <= 0) return;
+		find(root, r, accum);
+	}
+
+	private void find(final Node n, final Rectangle r, final Collection<? super T> accum) {
+		if (0 == n.count || !n.looseIntersects(r)) return;
+		if (null != n.items) {
+			for (final T t : n.items) {
+				if (boxes.get(t).intersects(r)) accum.add(t);
+			}
+		}
+		if (null != n.children) {
+			for (final Node child : n.children) find(child, r, accum);
+		}
+	}
+
+	/** Add to @param accum the objects whose box contains the point @param px,@param py, borders included. */
+	public void find(final double px, final double py, final Collection<? super T> accum) {
+		find(root, px, py, accum);
+	}
+
+	private void find(final Node n, final double px, final double py, final Collection<? super T> accum) {
+		if (0 == n.count || !n.looseContains(px, py)) return;
+		if (null != n.items) {
+			for (final T t : n.items) {
+				final Rectangle b = boxes.get(t);
+				if (px >= b.x && py >= b.y && px <= b.x + b.width && py <= b.y + b.height) accum.add(t);
+			}
+		}
+		if (null != n.children) {
+			for (final Node child : n.children) find(child, px, py, accum);
+		}
+	}
+
+	/** Add to @param squares the square of each node holding objects, and to @param counts the number of objects it holds. */
+	public void getNodes(final List<Rectangle> squares, final List<Integer> counts) {
+		getNodes(root, squares, counts);
+	}
+
+	private void getNodes(final Node n, final List<Rectangle> squares, final List<Integer> counts) {
+		if (0 == n.count) return;
+		if (null != n.items) {
+			squares.add(new Rectangle((int)n.x, (int)n.y, (int)Math.ceil(n.side), (int)Math.ceil(n.side)));
+			counts.add(n.items.size());
+		}
+		if (null != n.children) {
+			for (final Node child : n.children) getNodes(child, squares, counts);
+		}
+	}
+}
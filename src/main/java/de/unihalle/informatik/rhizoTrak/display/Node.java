@@ -93,7 +93,9 @@ public abstract class Node<T> implements Taggable {
 	static public byte DEFAULT_EDGE_CONFIDENCE = 0;
 	
 	//actyc: added a indicator showing whether the node is highlighted
-	private boolean[] high = {false,false};
+	// bit HIGHLIGHT for normal and bit CHOOSE_HIGHLIGHT for choose highlighting, a byte instead of a boolean[] to save memory per node
+	static private final byte HIGHLIGHT = 1, CHOOSE_HIGHLIGHT = 2;
+	private byte high = 0;
 
 	protected Node<T> parent = null;
 	public Node<T> getParent() { return parent; }
@@ -102,20 +104,31 @@ public abstract class Node<T> implements Taggable {
 	public float getX() { return x; }
 	public float getY() { return y; }
 
-	protected Color color;
-	public Color getColor() { return this.color; }
-	public void setColor(final Color c) { this.color = c; }
+	/** @return the color the node is painted with, derived from its status and highlighting; nodes have no color of their own. */
+	public Color getColor() { return getCorrectedColor(); }
+	/** The tree of this node has to be told with {@link Tree#nodeMoved(Node)}. */
 	public void setPosition(final float x, final float y) {
 		this.x = x;
 		this.y = y;
+		edited();
 	}
-	/** Expects two dimensions. */
+	/** Expects two dimensions. The tree of this node has to be told with {@link Tree#nodeMoved(Node)}. */
 	public void setPosition(final float[] p) {
 		this.x = p[0];
 		this.y = p[1];
+		edited();
 	}
-	public RhizoMain rhizoMain = null;
-	
+	/** To be called by all methods which change this node, its data or its links to other nodes:
+	 *  counts the edit in the layer, see {@link Layer#getNodeEdits()}. */
+	protected final void edited() {
+		if (null != la) la.nodeEdited();
+	}
+	/** The RhizoMain of the project of the layer of this node, derived from the layer instead of being stored per node.
+	 *  @return null if the node has no layer yet */
+	public RhizoMain getRhizoMain() {
+		return null == la ? null : la.getProject().getRhizoMain();
+	}
+
 	/* The confidence value of the edge towards the parent;
 	 *  in other words, how much this node can be trusted to continue from its parent node.
 	 *  Defaults to MAX_EDGE_CONFIDENCE for full trust, and 0 for none. */
@@ -126,9 +139,6 @@ public abstract class Node<T> implements Taggable {
 	// aeekz: removed lower bounds check
 	public byte getConfidence() 
 	{
-		if(!rhizoAddonsExists()){
-			return confidence;
-		}
 		return confidence;
 	}
 
@@ -186,11 +196,18 @@ public abstract class Node<T> implements Taggable {
 		this.la = null;
 	}
 	public void setLayer(final Layer la) {
+		edited();
 		this.la = la;
-		this.rhizoMain = la.getProject().getRhizoMain();
+		edited();
 	}
 	/** Returns -1 when not added (e.g. if child is null). */
 	synchronized public final int add(final Node<T> child, final byte conf) {
+		final int i = attach(child, conf);
+		if (-1 != i) edited();
+		return i;
+	}
+	/** Like {@link #add(Node, byte)}, but not counted as edit: for rebuilding stored nodes, see {@link CompactTreelineNodes}. */
+	synchronized final int attach(final Node<T> child, final byte conf) {
 		if (null == child) return -1;
 		if (null != child.parent) {
 			Utils.log("WARNING: tried to add a node that already had a parent!");
@@ -229,6 +246,7 @@ public abstract class Node<T> implements Taggable {
 		}
 
 		child.parent = null;
+		edited();
 
 		if (1 == children.length) {
 			children = null;
@@ -269,17 +287,18 @@ public abstract class Node<T> implements Taggable {
 		final Color node_color;
 		
 		//actyc: get the color corrected for highlighting
-		this.color = getCorrectedColor();
+		// resolved from the status palette at paint time, the node itself is not modified
+		final Color corrected_color = getCorrectedColor();
 		//end
 		
-		if (null == this.color) {
+		if (null == corrected_color) {
 			// this node doesn't have its color set, so use tree color and given above/below colors
 			node_color = tree.color;
 		} else {
-			node_color = this.color;
+			node_color = corrected_color;
 			// Depth cue colors may not be in use:
-			if (tree.color == above) above = this.color;
-			if (tree.color == below) below = this.color;
+			if (tree.color == above) above = corrected_color;
+			if (tree.color == below) below = corrected_color;
 		}
 		// Which edge color?
 		final Color local_edge_color;
@@ -390,26 +409,7 @@ public abstract class Node<T> implements Taggable {
 					if (with_arrows) g.fill(M.createArrowhead(parent_x, parent_y, x, y, magnification));
 				}
 			} else if (with_arrows && !active) {
-				// paint a gray handle for the root
-				Color currentColor = active_layer == this.la ? Color.gray : local_edge_color;
-				
-				if(this.hasChildren()) {
-					int highestAlpha=0;
-					for(Node<T> node : this.children) {
-						int currentAlpha = node.getCorrectedColor().getAlpha();
-						if(currentAlpha > highestAlpha) highestAlpha=currentAlpha;
-						g.setColor(new Color(currentColor.getRed(),currentColor.getGreen(),currentColor.getBlue(),highestAlpha));
-						g.fillOval((int)x - 6, (int)y - 6, 11, 11);
-						g.setColor(new Color(0,0,0,highestAlpha));
-						g.drawString("S", (int)x -3, (int)y + 4); // TODO ensure Font is proper
-					}
-				} else {
-					g.setColor(currentColor);
-					g.fillOval((int)x - 6, (int)y - 6, 11, 11);
-					g.setColor(Color.BLACK);
-					g.drawString("S", (int)x -3, (int)y + 4); // TODO ensure Font is proper
-				}	
-
+				paintRootHandle(g, x, y, active_layer, local_edge_color);
 			}
 			if (null != children) {
 				final float[] fp = new float[2];
@@ -423,7 +423,7 @@ public abstract class Node<T> implements Taggable {
 					if (child.la == this.la){
 						// child in same layer but outside the field of view
 						// paint full edge to it
-						g.setColor(null == child.color ? tree.color : child.color);
+						g.setColor(child.getCorrectedColor());
 						g.drawLine(x, y, cx, cy);
 						if (with_arrows) g.fill(M.createArrowhead(x, y, cx, cy, magnification));
 					} else {
@@ -441,7 +441,7 @@ public abstract class Node<T> implements Taggable {
 				
 				int i = (int) this.getConfidence();
 				
-				String s = rhizoMain.getProjectConfig().getStatusLabel(i).getAbbrev();
+				String s = getRhizoMain().getProjectConfig().getStatusLabel(i).getAbbrev();
 				
 				final Dimension dim = Utils.getDimensions(s, g.getFont());
 				g.setColor(Color.white);
@@ -455,6 +455,28 @@ public abstract class Node<T> implements Taggable {
 		return tagsTask;
 	}
 
+	/** Paint a gray handle for the root at screen coordinates @param x, @param y. */
+	final void paintRootHandle(final Graphics2D g, final int x, final int y, final Layer active_layer, final Color local_edge_color) {
+		Color currentColor = active_layer == this.la ? Color.gray : local_edge_color;
+		
+		if(this.hasChildren()) {
+			int highestAlpha=0;
+			for(Node<T> node : this.children) {
+				int currentAlpha = node.getCorrectedColor().getAlpha();
+				if(currentAlpha > highestAlpha) highestAlpha=currentAlpha;
+				g.setColor(new Color(currentColor.getRed(),currentColor.getGreen(),currentColor.getBlue(),highestAlpha));
+				g.fillOval((int)x - 6, (int)y - 6, 11, 11);
+				g.setColor(new Color(0,0,0,highestAlpha));
+				g.drawString("S", (int)x -3, (int)y + 4); // TODO ensure Font is proper
+			}
+		} else {
+			g.setColor(currentColor);
+			g.fillOval((int)x - 6, (int)y - 6, 11, 11);
+			g.setColor(Color.BLACK);
+			g.drawString("S", (int)x -3, (int)y + 4); // TODO ensure Font is proper
+		}	
+	}
+
 	static private  Color receiver_color = Color.green.brighter();
 	
 	public static void setReceiverColor( Color color) {
@@ -495,7 +517,7 @@ public abstract class Node<T> implements Taggable {
 				g.setColor(Color.black);
 				g.fillOval((int)x - 4, (int)y - 4, 9, 9);
 			}
-			g.setColor(null == receiver ? (null == this.color ? t.getColor() : this.color) : receiver);
+			g.setColor(null == receiver ? getCorrectedColor() : receiver);
 			g.fillOval((int)x - 3, (int)y - 3, 7, 7);
 		} else {
 			// As branch point
@@ -554,6 +576,7 @@ public abstract class Node<T> implements Taggable {
 	final public void translate(final float dx, final float dy) {
 		x += dx;
 		y += dy;
+		edited();
 	}
 
 	/** Returns a recursive copy of this Node subtree, where the copy of this Node is the root.
@@ -697,6 +720,7 @@ public abstract class Node<T> implements Taggable {
 
 	/** Assumes this is NOT a graph with cycles. Non-recursive to avoid stack overflows. */
 	final void setRoot() {
+		edited();
 		// Works, but can be done in one pass TODO
 		//
 		// Find first the list of nodes from this node to the current root
@@ -763,15 +787,19 @@ public abstract class Node<T> implements Taggable {
 	}
 	/** Set the confidence value of this node with its parent. */
 	synchronized public final boolean setConfidence(final byte conf) {
+		final RhizoMain rhizoMain = getRhizoMain();
 		if (conf < 0 || (rhizoMain != null && conf > rhizoMain.getProjectConfig().getMaxEdgeConfidence() ) ) return false;
 	confidence = conf;
+		edited();
 		return true;
 	}
 	/** Adjust the confidence value of this node with its parent. */
 	final public boolean adjustConfidence(final int inc) {
 		final byte conf = (byte)((confidence&0xff) + inc);
+		final RhizoMain rhizoMain = getRhizoMain();
 		if (conf < 0 || (rhizoMain != null &&  conf > rhizoMain.getProjectConfig().getMaxEdgeConfidence())) return false;
 		confidence = conf;
+		edited();
 		return true;
 	}
 	/** Returns -1 if not a child of this node. */
@@ -871,6 +899,7 @@ public abstract class Node<T> implements Taggable {
 		if (null == this.tags) {
 			// Currently no tags
 			this.tags = tag;
+			edited();
 			return true;
 		}
 		// If not null, there is already at least one tag
@@ -895,6 +924,7 @@ public abstract class Node<T> implements Taggable {
 		for (final Tag t : t2) al.add(t);
 		Collections.sort(al);
 		this.tags = al.toArray(t2); // reuse t2 array, has the right size
+		edited();
 		return true;
 	}
 
@@ -922,6 +952,7 @@ public abstract class Node<T> implements Taggable {
 						}
 						this.tags = t2;
 					}
+					edited();
 					return true;
 				}
 			}
@@ -930,6 +961,7 @@ public abstract class Node<T> implements Taggable {
 			// Currently just one tag
 			if (this.tags.equals(tag)) {
 				this.tags = null;
+				edited();
 			}
 			return false;
 		}
@@ -975,7 +1007,7 @@ public abstract class Node<T> implements Taggable {
 		return tags;
 	}
 
-	private void paintTags(final Graphics2D g, final int x, final int y, Color background_color) {
+	void paintTags(final Graphics2D g, final int x, final int y, Color background_color) {
 		final int ox = x + 20;
 		int oy = y + 20;
 
@@ -1010,6 +1042,7 @@ public abstract class Node<T> implements Taggable {
 		ct.applyInPlace(fp);
 		this.x = (float)fp[0];
 		this.y = (float)fp[1];
+		edited();
 	}
 	public void apply(final VectorDataTransform vlocal) {
 		for (final VectorDataTransform.ROITransform rt : vlocal.transforms) {
@@ -1019,6 +1052,7 @@ public abstract class Node<T> implements Taggable {
 				rt.ct.applyInPlace(fp);
 				x = (float)fp[0];
 				y = (float)fp[1];
+				edited();
 				break;
 			}
 		}
@@ -1276,59 +1310,44 @@ public abstract class Node<T> implements Taggable {
 	
 	public boolean[] high()
 	{
-		return high;
+		return new boolean[] { 0 != (high & HIGHLIGHT), 0 != (high & CHOOSE_HIGHLIGHT) };
 	}
 	
 	public void high(boolean[] high)
 	{
-		for(int i=0;i<high.length;i++) {
-			this.high[i]= high[i];
-		}
+		this.high = (byte) ((high.length > 0 && high[0] ? HIGHLIGHT : 0) | (high.length > 1 && high[1] ? CHOOSE_HIGHLIGHT : 0));
 	}
 	
 	// set normal and choose highlight
 	public void highlight(){
-		this.high[0]=true;
+		this.high |= HIGHLIGHT;
 	}
 	
 	public void chooseHighlight(){
-		this.high[1]=true;
+		this.high |= CHOOSE_HIGHLIGHT;
 	}
 	
 	public void removeHighlight(){
-		this.high[0]=false;
+		this.high &= ~HIGHLIGHT;
 	}
 	
 	public void removeChooseHighlight(){
-		this.high[1]=false;
+		this.high &= ~CHOOSE_HIGHLIGHT;
 	}
 	
 	//actyc: get the righ color aka wheter non, first or seconded highlight
-	private Color getCorrectedColor(){
-		if(!rhizoAddonsExists()){
+	Color getCorrectedColor(){
+		final RhizoMain rhizoMain = getRhizoMain();
+		if(null == rhizoMain){
 			return Color.LIGHT_GRAY;     
 		}
                 
-		if(high[0]) {
+		if(0 != (high & HIGHLIGHT)) {
 		    return rhizoMain.getProjectConfig().getHighlightColor1(); 
-		} else if(high[1]) {
+		} else if(0 != (high & CHOOSE_HIGHLIGHT)) {
 		    return rhizoMain.getProjectConfig().getHighlightColor2(); 
 		} else {
-		    return this.rhizoMain.getProjectConfig().getColorForStatus( getConfidence());
-		}
-	}
-        
-	//actyc: helper to verify that rhizoAddons is set when possible
-	private boolean rhizoAddonsExists(){
-		if(this.rhizoMain!=null)
-		{
-			return true;
-		}
-		if(this.getLayer()!=null)
-		{
-			this.rhizoMain = this.getLayer().getProject().getRhizoMain();
-			return true;
+		    return rhizoMain.getProjectConfig().getColorForStatus( getConfidence());
 		}
-		return false;
 	}
 }
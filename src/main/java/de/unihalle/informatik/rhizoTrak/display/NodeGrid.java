@@ -0,0 +1,339 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import de.unihalle.informatik.rhizoTrak.utils.M;
+
+/** Uniform grid over the positions of the {@link Node}s of a {@link Tree} in one {@link Layer}
+ * and over the edges incident to these nodes, to look up nodes and edges near a point 
+ * without iterating all nodes of the layer.
+ * <p>
+ * An edge is represented by its child node and registered in all cells its segment passes through.
+ * All coordinates are local coordinates of the tree. Not thread safe, to be used 
+ * within a <code>synchronized (node_layer_map)</code> block of the tree.
+ * 
+ * @author posch
+ */
+final class NodeGrid<T> {
+
+	/** Minimal side of a cell, in local coordinates. */
+	static private final float MIN_CELL_SIDE = 16;
+
+	private final float cell_side;
+
+	/** Value of {@link Tree#getPositionChanges()} of the tree when this grid was built or last updated. */
+	private long position_changes;
+
+	/** cell key to nodes in this cell */
+	private final HashMap<Long,ArrayList<Node<T>>> node_cells = new HashMap<Long,ArrayList<Node<T>>>();
+	/** node to the key of the cell it is registered in */
+	private final HashMap<Node<T>,Long> node_keys = new HashMap<Node<T>,Long>();
+
+	/** cell key to child nodes of the edges passing through this cell */
+	private final HashMap<Long,ArrayList<Node<T>>> edge_cells = new HashMap<Long,ArrayList<Node<T>>>();
+	/** child node of an edge to the keys of all cells the edge is registered in */
+	private final HashMap<Node<T>,long[]> edge_keys = new HashMap<Node<T>,long[]>();
+
+	/** Range of cells containing nodes, to terminate searches without a maximal distance. */
+	private int min_cx = Integer.MAX_VALUE, max_cx = Integer.MIN_VALUE,
+	            min_cy = Integer.MAX_VALUE, max_cy = Integer.MIN_VALUE;
+
+	/** Build the grid for all @param nodes of a layer, including the edges to their parents
+	 *  and the edges to their children, at the @param position_changes of their tree. */
+	NodeGrid(final Collection<Node<T>> nodes, final long position_changes) {
+		this.position_changes = position_changes;
+		this.cell_side = estimateCellSide(nodes);
+		for (final Node<T> nd : nodes) {
+			add(nd);
+			if (null != nd.parent) addEdge(nd);
+			if (null != nd.children) {
+				for (final Node<T> child : nd.children) {
+					if (child.la != nd.la) addEdge(child);
+				}
+			}
+		}
+	}
+
+	/** Choose the cell side such that on average a few nodes fall into a cell. */
+	static private final <T> float estimateCellSide(final Collection<Node<T>> nodes) {
+		if (nodes.size() < 2) return MIN_CELL_SIDE;
+		float min_x = Float.MAX_VALUE, min_y = Float.MAX_VALUE,
+		      max_x = -Float.MAX_VALUE, max_y = -Float.MAX_VALUE;
+		for (final Node<T> nd : nodes) {
+			if (nd.x < min_x) min_x = nd.x;
+			if (nd.x > max_x) max_x = nd.x;
+			if (nd.y < min_y) min_y = nd.y;
+			if (nd.y > max_y) max_y = nd.y;
+		}
+		final double area = Math.max(1, (double)(max_x - min_x)) * Math.max(1, (double)(max_y - min_y));
+		return (float)Math.max(MIN_CELL_SIDE, 2 * Math.sqrt(area / nodes.size()));
+	}
+
+	/** @return true if positions of nodes have changed since this grid was built,
+	 *  given the current @param position_changes of the tree. */
+	boolean isStale(final long position_changes) {
+		return this.position_changes != position_changes;
+	}
+
+	/** Mark this grid as up to date at @param position_changes of the tree, after the nodes moved since
+	 *  @param previous have been registered again with {@link #add(Node)} and {@link #addEdge(Node)}.
+	 *  A grid which was already outdated at @param previous stays outdated. */
+	void moved(final long previous, final long position_changes) {
+		if (this.position_changes == previous) this.position_changes = position_changes;
+	}
+
+	/** @return the number of nodes registered. */
+	int size() {
+		return node_keys.size();
+	}
+
+	private final int cell(final float v) {
+		return (int)Math.floor(v / cell_side);
+	}
+
+	static private final long key(final int cx, final int cy) {
+		return (((long)cx) << 32) | (cy & 0xffffffffL);
+	}
+
+	/** Register @param nd at its current position; a node already registered is moved. */
+	void add(final Node<T> nd) {
+		final int cx = cell(nd.x),
+		          cy = cell(nd.y);
+		final long key = key(cx, cy);
+		final Long old_key = node_keys.put(nd, key);
+		if (null != old_key) {
+			if (old_key == key) return;
+			node_cells.get(old_key).remove(nd);
+		}
+		ArrayList<Node<T>> a = node_cells.get(key);
+		if (null == a) {
+			a = new ArrayList<Node<T>>(4);
+			node_cells.put(key, a);
+		}
+		a.add(nd);
+		if (cx < min_cx) min_cx = cx;
+		if (cx > max_cx) max_cx = cx;
+		if (cy < min_cy) min_cy = cy;
+		if (cy > max_cy) max_cy = cy;
+	}
+
+	/** Unregister @param nd, but not its edges. */
+	void remove(final Node<T> nd) {
+		final Long key = node_keys.remove(nd);
+		if (null == key) return;
+		final ArrayList<Node<T>> a = node_cells.get(key);
+		a.remove(nd);
+		if (a.isEmpty()) node_cells.remove(key);
+	}
+
+	/** Register the edge from @param child to its parent; an edge already registered is updated. */
+	void addEdge(final Node<T> child) {
+		removeEdge(child);
+		if (null == child.parent) return;
+		final float x0 = child.parent.x, y0 = child.parent.y,
+		            x1 = child.x, y1 = child.y;
+		final float min_x = Math.min(x0, x1), max_x = Math.max(x0, x1);
+		final int cx0 = cell(min_x),
+		          cx1 = cell(max_x);
+		final ArrayList<Long> keys = new ArrayList<Long>();
+		// for each column of cells, the cells between the lowest and highest point of the segment within the column
+		for (int cx = cx0; cx <= cx1; cx++) {
+			final float xa = Math.max(cx * cell_side, min_x),
+			            xb = Math.min((cx + 1) * cell_side, max_x);
+			final float ya, yb;
+			if (x0 == x1) {
+				ya = y0;
+				yb = y1;
+			} else {
+				ya = y0 + (xa - x0) * (y1 - y0) / (x1 - x0);
+				yb = y0 + (xb - x0) * (y1 - y0) / (x1 - x0);
+			}
+			final int cy1 = cell(Math.max(ya, yb));
+			for (int cy = cell(Math.min(ya, yb)); cy <= cy1; cy++) {
+				keys.add(key(cx, cy));
+			}
+		}
+		final long[] k = new long[keys.size()];
+		for (int i=0; i<k.length; i++) {
+			k[i] = keys.get(i);
+			ArrayList<Node<T>> a = edge_cells.get(k[i]);
+			if (null == a) {
+				a = new ArrayList<Node<T>>(4);
+				edge_cells.put(k[i], a);
+			}
+			a.add(child);
+		}
+		edge_keys.put(child, k);
+	}
+
+	/** Unregister the edge from @param child to its parent, if registered. */
+	void removeEdge(final Node<T> child) {
+		final long[] k = edge_keys.remove(child);
+		if (null == k) return;
+		for (final long key : k) {
+			final ArrayList<Node<T>> a = edge_cells.get(key);
+			a.remove(child);
+			if (a.isEmpty()) edge_cells.remove(key);
+		}
+	}
+
+	/** Same as {@link Tree#findClosestNode(Collection, float, float, double)}: the node with the smallest
+	 *  L1 distance to lx,ly, if that is smaller than @param max_dist. */
+	Node<T> findClosest(final float lx, final float ly, final double max_dist) {
+		final int cx0 = cell((float)(lx - max_dist)), cx1 = cell((float)(lx + max_dist)),
+		          cy0 = cell((float)(ly - max_dist)), cy1 = cell((float)(ly + max_dist));
+		float min_dist = Float.MAX_VALUE;
+		Node<T> nd = null;
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				final ArrayList<Node<T>> a = node_cells.get(key(cx, cy));
+				if (null == a) continue;
+				for (final Node<T> node : a) {
+					final float dist = Math.abs(node.x - lx) + Math.abs(node.y - ly);
+					if (dist < min_dist) {
+						min_dist = dist;
+						nd = node;
+					}
+				}
+			}
+		}
+		return min_dist < max_dist ? nd : null;
+	}
+
+	/** The node closest to lx,ly in calibrated 2D coordinates, searching rings of cells
+	 *  of increasing distance until no closer node can be found. */
+	Node<T> findNearest(final float lx, final float ly, final float pixelWidth, final float pixelHeight) {
+		if (node_keys.isEmpty()) return null;
+		final int qx = cell(lx),
+		          qy = cell(ly);
+		final float min_pixel = Math.min(pixelWidth, pixelHeight);
+		final int max_ring = Math.max(Math.max(Math.abs(qx - min_cx), Math.abs(qx - max_cx)),
+		                              Math.max(Math.abs(qy - min_cy), Math.abs(qy - max_cy)));
+		Node<T> nearest = null;
+		float sqdist = Float.MAX_VALUE;
+		for (int ring = 0; ring <= max_ring; ring++) {
+			for (int cx = qx - ring; cx <= qx + ring; cx++) {
+				// only the border of the square of cells, the inside was visited before
+				final int step = (cx == qx - ring || cx == qx + ring) ? 1 : 2 * ring;
+				for (int cy = qy - ring; cy <= qy + ring; cy += Math.max(1, step)) {
+					final ArrayList<Node<T>> a = node_cells.get(key(cx, cy));
+					if (null == a) continue;
+					for (final Node<T> nd : a) {
+						final float d = (float) (Math.pow(pixelWidth * (nd.x - lx), 2) + Math.pow(pixelHeight * (nd.y - ly), 2));
+						if (d < sqdist) {
+							sqdist = d;
+							nearest = nd;
+						}
+					}
+				}
+			}
+			// any node beyond this ring is at least ring cells away from lx,ly in x or y
+			final float bound = ring * cell_side * min_pixel;
+			if (null != nearest && sqdist <= bound * bound) break;
+		}
+		return nearest;
+	}
+
+	/** Same as {@link Tree#findNearestEdge(float, float, Layer, double)} restricted to edges whose parent
+	 *  node is in one of @param layers, or in any layer if null.
+	 *  @param ns the parent and child of the nearest edge found so far, updated if a nearer edge is found.
+	 *  @return the distance of the edge in @param ns. */
+	double findNearestEdge(final float lx, final float ly, final double max_dist, final HashSet<Layer> layers, final Node<T>[] ns, double min_dist) {
+		final int cx0 = cell((float)(lx - max_dist)), cx1 = cell((float)(lx + max_dist)),
+		          cy0 = cell((float)(ly - max_dist)), cy1 = cell((float)(ly + max_dist));
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				final ArrayList<Node<T>> a = edge_cells.get(key(cx, cy));
+				if (null == a) continue;
+				for (final Node<T> child : a) {
+					final Node<T> node = child.parent;
+					if (null == node || (null != layers && !layers.contains(node.la))) continue;
+					final double dist = M.distancePointToSegment(lx, ly,
+					                                             node.x, node.y,
+					                                             child.x, child.y);
+					if (dist < min_dist && dist < max_dist) {
+						min_dist = dist;
+						ns[0] = node;
+						ns[1] = child;
+					}
+				}
+			}
+		}
+		return min_dist;
+	}
+
+	/** Same as the confidence box search in {@link Tree}: the child node in @param layer whose 
+	 *  edge midpoint is closest to lx,ly, with a squared distance below @param sq_radius. */
+	Node<T> findNearestConfidenceBox(final float lx, final float ly, final float sq_radius, final Layer layer) {
+		final float radius = (float)Math.sqrt(sq_radius);
+		final int cx0 = cell(lx - radius), cx1 = cell(lx + radius),
+		          cy0 = cell(ly - radius), cy1 = cell(ly + radius);
+		float min_sq_dist = Float.MAX_VALUE;
+		Node<T> nearest = null;
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				final ArrayList<Node<T>> a = edge_cells.get(key(cx, cy));
+				if (null == a) continue;
+				for (final Node<T> nd : a) {
+					if (null == nd.parent || nd.la != layer) continue;
+					final float d = (float)(Math.pow((nd.parent.x + nd.x)/2 - lx, 2) + Math.pow((nd.parent.y + nd.y)/2 - ly, 2));
+					if (d < min_sq_dist && d < sq_radius) {
+						min_sq_dist = d;
+						nearest = nd;
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+}
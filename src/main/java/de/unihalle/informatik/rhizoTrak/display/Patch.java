@@ -611,9 +611,58 @@ public final class Patch extends Displayable implements ImageData {
 
 	@Override
 	public void paintOffscreen(final Graphics2D g, final Rectangle srcRect, final double magnification, final boolean active, final int channels, final Layer active_layer, final List<Layer> layers) {
+		if (paintTiles(g, srcRect, magnification, channels)) return;
 		paint(g, fetchImage(magnification, channels, true), srcRect);
 	}
 
+	/** Paint only the tiles of the mipmap that intersect {@code srcRect}, so that zooming into a large image
+	 *  does not load the whole mipmap level. Returns false if the tiles are not available,
+	 *  see {@link Loader#fetchImageTiles(Patch, int, Rectangle)}. */
+	private final boolean paintTiles(final Graphics2D g, final Rectangle srcRect, final double magnification, final int channels) {
+		final List<MipMapTile> tiles = fetchTiles(srcRect, magnification, channels);
+		if (null == tiles) return false;
+		for (final MipMapTile tile : tiles) {
+			final AffineTransform att = createPaintTransform( tile.scale, tile.scale );
+			att.translate( tile.x, tile.y );
+			paintMipMap(g, new MipMapImage( tile.image, tile.scale, tile.scale ), att, srcRect);
+		}
+		return true;
+	}
+
+	/** Returns the tiles of the mipmap that intersect {@code srcRect}, or null if not available. */
+	private final List<MipMapTile> fetchTiles(final Rectangle srcRect, final double magnification, final int channels) {
+		checkChannels(channels, magnification);
+		// The opacity of color channels is applied to whole mipmaps, see adjustChannels
+		if (0xffffffff != this.channels && (ImagePlus.COLOR_RGB == this.type || ImagePlus.COLOR_256 == this.type)) return null;
+
+		final Loader loader = project.getLoader();
+		final int level = loader.getMipMapLevel(this, getPaintScale(magnification));
+		final double scale = Math.pow( 2.0, level );
+
+		// srcRect in pixels of the mipmap level, with a margin for interpolation
+		final Rectangle roi;
+		try {
+			final Rectangle r = this.at.createInverse().createTransformedShape(srcRect).getBounds();
+			roi = new Rectangle((int)Math.floor(r.x / scale) - 1, (int)Math.floor(r.y / scale) - 1,
+					(int)Math.ceil(r.width / scale) + 3, (int)Math.ceil(r.height / scale) + 3);
+		} catch (final NoninvertibleTransformException nite) {
+			return null;
+		}
+
+		return loader.fetchImageTiles(this, level, roi);
+	}
+
+	/** Load into the cache, without painting, what {@link #paintOffscreen} would paint. */
+	final void prefetch(final Rectangle srcRect, final double magnification) {
+		if (null != fetchTiles(srcRect, magnification, this.channels)) return;
+		fetchImage(magnification, this.channels, false);
+	}
+
+	/** Whether the mipmap to paint at {@code magnification} is cached as a whole. */
+	final boolean isImageCached(final double magnification) {
+		return project.getLoader().isCached(this, getPaintScale(magnification));
+	}
+
 	@Override
 	public void paint(final Graphics2D g, final Rectangle srcRect, final double magnification, final boolean active, final int channels, final Layer active_layer, final List<Layer> _ignored) {
 		paint(g, fetchImage(magnification, channels, false), srcRect);
@@ -621,17 +670,21 @@ public final class Patch extends Displayable implements ImageData {
 
 	private final MipMapImage fetchImage(final double magnification, final int channels, final boolean wait_for_image) {
 		checkChannels(channels, magnification);
+		final double sc = getPaintScale(magnification);
+		return wait_for_image ?
+			  project.getLoader().fetchDataImage(this, sc)
+			: project.getLoader().fetchImage(this, sc);
+	}
 
+	/** The scale at which the image is painted at {@code magnification}. */
+	private final double getPaintScale(final double magnification) {
 		// Consider all possible scaling components: m00, m01
 		//                                           m10, m11
-		double sc = magnification * Math.max(Math.abs(at.getScaleX()),
+		final double sc = magnification * Math.max(Math.abs(at.getScaleX()),
 				                     Math.max(Math.abs(at.getScaleY()),
 							      Math.max(Math.abs(at.getShearX()),
 								       Math.abs(at.getShearY()))));
-		if (sc < 0) sc = magnification;
-		return wait_for_image ?
-			  project.getLoader().fetchDataImage(this, sc)
-			: project.getLoader().fetchImage(this, sc);
+		return sc < 0 ? magnification : sc;
 	}
 
 	private void paint( final Graphics2D g, final Image image, final Rectangle srcRect )
@@ -646,6 +699,11 @@ public final class Patch extends Displayable implements ImageData {
 	}
 
 	private void paint(final Graphics2D g, final MipMapImage mipMap, final Rectangle srcRect ) {
+		paintMipMap(g, mipMap, createPaintTransform(mipMap.scaleX, mipMap.scaleY), srcRect);
+	}
+
+	/** The transform from the pixels of a mipmap of the given inverse scale to the world. */
+	private final AffineTransform createPaintTransform(final double scaleX, final double scaleY) {
 
 		final AffineTransform atp = new AffineTransform();
 
@@ -657,7 +715,7 @@ public final class Patch extends Displayable implements ImageData {
 
 		atp.concatenate( this.at );
 
-		atp.scale( mipMap.scaleX, mipMap.scaleY );
+		atp.scale( scaleX, scaleY );
 
 		/*
 		 * Compensate MipMap pixel access for AWT considering coordinates at
@@ -668,10 +726,10 @@ public final class Patch extends Displayable implements ImageData {
 			atp.translate( -0.5, -0.5 );
 		}
 		else {
-			atp.translate( -0.5 / mipMap.scaleX, -0.5 / mipMap.scaleY );
+			atp.translate( -0.5 / scaleX, -0.5 / scaleY );
 		}
 
-		paintMipMap(g, mipMap, atp, srcRect);
+		return atp;
 	}
 
 	/** Paint first whatever is available, then request that the proper image be loaded and painted. */
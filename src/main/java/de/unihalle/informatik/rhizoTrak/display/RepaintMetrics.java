@@ -0,0 +1,121 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.display;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Frame times of the offscreen images painted by the {@link DisplayCanvas}, i.e. of gathering and painting
+ *  all objects of a layer but the active one.
+ *  <p>
+ *  Keeps count, mean and maximum since the last {@link #reset()}, and forwards each frame to the
+ *  registered {@link Listener}s, e.g. to compare renderers. With {@link #log} set, each frame is logged.
+ *
+ * @author posch
+ */
+public class RepaintMetrics {
+
+	/** Notified after each offscreen repaint, on the painting thread; keep it short. */
+	public interface Listener {
+		/** @param n_painted the number of objects painted
+		 *  @param nanos the time taken */
+		void repainted(Layer layer, double magnification, int n_painted, long nanos);
+	}
+
+	/** Whether to log the time of each frame. */
+	static public boolean log = false;
+
+	static private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	static private final AtomicLong count = new AtomicLong(),
+	                                total_nanos = new AtomicLong(),
+	                                max_nanos = new AtomicLong();
+
+	private RepaintMetrics() {}
+
+	static public void addListener(final Listener l) {
+		listeners.add(l);
+	}
+
+	static public void removeListener(final Listener l) {
+		listeners.remove(l);
+	}
+
+	/** Called by the {@link DisplayCanvas} after painting an offscreen image. */
+	static void report(final Layer layer, final double magnification, final int n_painted, final long nanos) {
+		count.incrementAndGet();
+		total_nanos.addAndGet(nanos);
+		long max = max_nanos.get();
+		while (nanos > max && !max_nanos.compareAndSet(max, nanos)) max = max_nanos.get();
+		if (log) Utils.log2("Repainted " + n_painted + " objects of " + layer + " at " + Utils.d2s(magnification * 100, 1) + "% in " + Utils.d2s(nanos / 1000000.0, 1) + " ms");
+		for (final Listener l : listeners) l.repainted(layer, magnification, n_painted, nanos);
+	}
+
+	/** @return the number of frames since the last {@link #reset()} */
+	static public long getCount() {
+		return count.get();
+	}
+
+	/** @return the mean frame time in milliseconds since the last {@link #reset()}, 0 if none */
+	static public double getMeanMillis() {
+		final long n = count.get();
+		return 0 == n ? 0 : total_nanos.get() / (n * 1000000.0);
+	}
+
+	/** @return the longest frame time in milliseconds since the last {@link #reset()} */
+	static public double getMaxMillis() {
+		return max_nanos.get() / 1000000.0;
+	}
+
+	static public void reset() {
+		count.set(0);
+		total_nanos.set(0);
+		max_nanos.set(0);
+	}
+}
@@ -49,7 +49,6 @@
 
 package de.unihalle.informatik.rhizoTrak.display;
 
-import java.awt.Color;
 import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
@@ -189,8 +188,6 @@ public class RhizoAddons
 					copy.setLayer(nextLayer, true);
 					for (Node<Float> cnode : copy.getRoot().getSubtreeNodes()) {
 						cnode.setLayer(nextLayer);
-						Color col = rhizoMain.getProjectConfig().getColorForStatus((cnode.getConfidence()));
-						cnode.setColor(col);
 					}
 					copy.setTitle("treeline");
 					copy.clearState();
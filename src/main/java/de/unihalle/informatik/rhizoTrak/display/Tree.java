@@ -84,7 +84,6 @@ import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
-import java.awt.Scrollbar;
 import java.awt.Stroke;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -100,9 +99,11 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
-import java.awt.image.IndexColorModel;
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -118,6 +119,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import javax.swing.JButton;
@@ -147,6 +149,7 @@ import de.unihalle.informatik.rhizoTrak.conflictManagement.ConflictManager;
 import de.unihalle.informatik.rhizoTrak.conflictManagement.TreelineConflict;
 import de.unihalle.informatik.rhizoTrak.parallel.Process;
 import de.unihalle.informatik.rhizoTrak.parallel.TaskFactory;
+import de.unihalle.informatik.rhizoTrak.persistence.TreelinePager;
 import de.unihalle.informatik.rhizoTrak.persistence.XMLOptions;
 import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
 import de.unihalle.informatik.rhizoTrak.utils.Bureaucrat;
@@ -157,7 +160,6 @@ import de.unihalle.informatik.rhizoTrak.utils.Utils;
 import de.unihalle.informatik.rhizoTrak.utils.Worker;
 import fiji.geom.AreaCalculations;
 import ij.ImagePlus;
-import ij.gui.GenericDialog;
 import ij.gui.StackWindow;
 import ij.io.FileSaver;
 import ij.io.Opener;
@@ -174,6 +176,12 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	protected final Set<Node<T>> end_nodes = new HashSet<Node<T>>();
 
+	/** Spatial index of the nodes and edges of each layer, built on demand; guarded by node_layer_map. */
+	private final Map<Layer,NodeGrid<T>> node_grids = new HashMap<Layer,NodeGrid<T>>();
+
+	/** Counts changes of the positions of the nodes of this tree, to let spatial indices of its nodes detect that they are outdated. */
+	private final AtomicLong position_changes = new AtomicLong();
+
 	protected Node<T> root = null;
 
 	protected Tree(final Project project, final String title) {
@@ -292,6 +300,9 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 				to_screen.translate(-srcRect.x, -srcRect.y);
 				to_screen.concatenate(this.at);
 
+				if (active) simplified.clear(); // may be edited
+				else if (null == marked && paintBatched(g, nodes, active_layer, srcRect, magnification, to_screen, with_arrows, with_tags)) nodes.clear(); // all painted
+
 				final Node<T>[] handles = active ? new Node[nodes.size()] : null;
 				int next = 0;
 				final ArrayList<Runnable> tags_tasks = new ArrayList<Runnable>();
@@ -333,6 +344,98 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		}
 	}
 
+	/** Paint @param nodes of this inactive tree in one go instead of node by node, e.g. batched per color.
+	 *  Called from within a synchronized (node_layer_map) block, with the transform of @param g cleared.
+	 *  @return false if not supported for these nodes, to paint them node by node. */
+	protected boolean paintBatched(final Graphics2D g, final Set<Node<T>> nodes, final Layer active_layer, final Rectangle srcRect,
+			final double magnification, final AffineTransform to_screen, final boolean with_arrows, final boolean with_tags) {
+		return false;
+	}
+
+	/** Below this scale from local to screen coordinates, edges are simplified for painting, see {@link #getSimplifiedEdges(Layer, double)}. */
+	static protected final double SIMPLIFY_BELOW_SCALE = 1.0;
+
+	/** The edges of the nodes of one layer with all nodes dropped that are closer than a pixel to the
+	 *  last one kept towards the root, at one zoom band: nodes[i] connects to ancestors[i]. */
+	static protected final class SimplifiedEdges<T> {
+		public final Node<T>[] nodes, ancestors;
+		private final long position_changes;
+		private final int n_nodes;
+
+		private SimplifiedEdges(final Node<T>[] nodes, final Node<T>[] ancestors, final long position_changes, final int n_nodes) {
+			this.nodes = nodes;
+			this.ancestors = ancestors;
+			this.position_changes = position_changes;
+			this.n_nodes = n_nodes;
+		}
+
+		private boolean isStale(final int n_nodes, final long position_changes) {
+			return this.n_nodes != n_nodes || this.position_changes != position_changes;
+		}
+	}
+
+	/** Simplified edges by layer and zoom band; guarded by node_layer_map. */
+	private final Map<Layer,Map<Integer,SimplifiedEdges<T>>> simplified = new HashMap<Layer,Map<Integer,SimplifiedEdges<T>>>();
+
+	/** Get the edges between nodes of @param layer, simplified for painting at @param scale from local to screen coordinates.
+	 *  Zoom bands are powers of two; within a band, dropped nodes are less than a pixel away on the screen from the
+	 *  node their child is connected to. Root, branch and end nodes are always kept. The result is cached per layer
+	 *  and band until nodes are added, removed or moved.
+	 *  Call always from within a synchronized (node_layer_map) block.
+	 *  @return null if there are no nodes in @param layer. */
+	protected SimplifiedEdges<T> getSimplifiedEdges(final Layer layer, final double scale) {
+		final Set<Node<T>> nodes = node_layer_map.get(layer);
+		if (null == nodes || nodes.isEmpty()) return null;
+		final int band = (int)Math.floor(Math.log(Math.min(scale, SIMPLIFY_BELOW_SCALE)) / Math.log(2));
+		Map<Integer,SimplifiedEdges<T>> bands = simplified.get(layer);
+		if (null == bands) {
+			bands = new HashMap<Integer,SimplifiedEdges<T>>();
+			simplified.put(layer, bands);
+		}
+		SimplifiedEdges<T> edges = bands.get(band);
+		final long position_changes = getPositionChanges();
+		if (null != edges && !edges.isStale(nodes.size(), position_changes)) return edges;
+
+		// screen distance below one pixel anywhere within the band
+		final double tolerance = scale < SIMPLIFY_BELOW_SCALE ? Math.pow(2, -(band + 1)) : 0;
+		final double tolerance_sq = tolerance * tolerance;
+		@SuppressWarnings("unchecked")
+		final Node<T>[] children = (Node<T>[])new Node[nodes.size()],
+		                ancestors = (Node<T>[])new Node[nodes.size()];
+		int n = 0;
+		// depth-first from the nodes whose parent is not in this layer, carrying the last kept node
+		final LinkedList<Node<T>> todo = new LinkedList<Node<T>>();
+		final LinkedList<Node<T>> kept = new LinkedList<Node<T>>();
+		for (final Node<T> nd : nodes) {
+			if (null != nd.parent && nodes.contains(nd.parent)) continue;
+			todo.add(nd);
+			kept.add(nd);
+		}
+		while (!todo.isEmpty()) {
+			final Node<T> nd = todo.removeLast();
+			Node<T> last = kept.removeLast();
+			if (nd != last) {
+				final double dx = nd.x - last.x,
+				             dy = nd.y - last.y;
+				if (null == nd.children || 1 != nd.children.length || dx*dx + dy*dy >= tolerance_sq) {
+					children[n] = nd;
+					ancestors[n] = last;
+					n++;
+					last = nd;
+				}
+			}
+			if (null == nd.children) continue;
+			for (final Node<T> child : nd.children) {
+				if (child.la != layer) continue;
+				todo.add(child);
+				kept.add(last);
+			}
+		}
+		edges = new SimplifiedEdges<T>(Arrays.copyOf(children, n), Arrays.copyOf(ancestors, n), position_changes, nodes.size());
+		bands.put(band, edges);
+		return edges;
+	}
+
 	protected Rectangle getPaintingBounds() {
 		Rectangle box = null;
 		synchronized (node_layer_map) {
@@ -406,6 +509,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 					for (final Node<T> nd : nodes) {
 						nd.translate(-box.x, -box.y);
 					}}
+				positionsChanged();
 			}
 			this.at.translate(box.x, box.y); // not using super.translate(...) because a preConcatenation is not needed; here we deal with the data.
 
@@ -431,7 +535,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	@Override
 	public boolean intersects(final Area area, final double z_first, final double z_last) {
-		if (null == root) return false;
+		if (null == getRoot()) return false;
 		synchronized (node_layer_map) {
 			// Area to local coords
 			try {
@@ -454,7 +558,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	@Override
 	public Layer getFirstLayer() {
-		if (null == root) return null;
+		if (null == getRoot()) return null;
 		synchronized (node_layer_map) {
 			final ArrayList<Layer> las = new ArrayList<Layer>(node_layer_map.keySet());
 			Collections.sort(las, Layer.COMPARATOR);
@@ -507,18 +611,11 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	abstract protected Node<T> newNode(float lx, float ly, Layer layer, Node<?> modelNode);
 
-	/** Create a new node, copying some properties from the modelNode such as radius or color.
+	/** Create a new node, copying some properties from the modelNode such as radius.
 	 *  The modelNode should be the node that will become the parent of the new node,
 	 *  but it doesn't have to be. */
 	protected Node<T> createNewNode(final float lx, final float ly, final Layer layer, final Node<?> modelNode) {
-		final Node<T> nd = newNode(lx, ly, layer, modelNode);
-		if (null == modelNode) return nd;
-		nd.setColor(modelNode.getColor());
-		if ( layer != null ) {
-			nd.rhizoMain = getProject().getRhizoMain();
-		}
-		
-		return nd;
+		return newNode(lx, ly, layer, modelNode);
 	}
 
 	/** To reconstruct from XML. */
@@ -526,7 +623,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	@Override
 	public boolean isDeletable() {
-		return null == root;
+		return null == root && !isPagedOut();
 	}
 
 	/** Exports to type t2_treeline. */
@@ -548,6 +645,26 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	@Override
 	public void exportXML(final StringBuilder sb_body, final String indent, final XMLOptions options) {
+		try {
+			exportXML(null, sb_body, indent, options);
+		} catch (final Exception e) {
+			throw new RuntimeException(e); // only a writer can fail
+		}
+	}
+
+	/** Whether the nodes are stored elsewhere than in the XML, see {@link XMLOptions#omit_treeline_nodes}. */
+	protected boolean isNodeXMLOmitted(final XMLOptions options) {
+		return false;
+	}
+
+	/** Number of chars after which the node XML is handed over to the writer when streaming. */
+	static private final int XML_FLUSH_CHARS = 1 << 16;
+
+	/** Streams the nodes to @param writer as they are generated, so that the XML
+	 *  of a tree with millions of nodes is never held in memory as a whole.
+	 *  If @param writer is null, the whole XML is appended to @param sb_body. */
+	@Override
+	public void exportXML(final Writer writer, final StringBuilder sb_body, final String indent, final XMLOptions options) throws Exception {
 		final String type = "t2_" + getClass().getSimpleName().toLowerCase();
 		sb_body.append(indent).append("<").append(type).append('\n');
 		final String in = indent + "\t";
@@ -556,12 +673,15 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		sb_body.append(in).append("style=\"fill:none;stroke-opacity:").append(alpha).append(";stroke:#").append(RGB[0]).append(RGB[1]).append(RGB[2]).append(";stroke-width:1.0px;stroke-opacity:1.0\"\n");
 		sb_body.append(indent).append(">\n");
 		super.restXML(sb_body, in, options);
-		if (null != root) exportXML(this, in, sb_body, root);
+		final Node<T> r = isNodeXMLOmitted(options) ? null : getRoot(); // reads paged out nodes
+		if (null != r) exportXML(this, in, sb_body, r, writer);
 		sb_body.append(indent).append("</").append(type).append(">\n");
+		Utils.writeAndClear(writer, sb_body);
 	}
 
-	/** One day, java will get tail-call optimization (i.e. no more stack overflow errors) and I will laugh at this function. */
-	private final void exportXML(final Tree<T> tree, final String indent_base, final StringBuilder sb, final Node<T> root) {
+	/** One day, java will get tail-call optimization (i.e. no more stack overflow errors) and I will laugh at this function.
+	 *  @param sb is written to @param writer and emptied whenever it grows beyond {@link #XML_FLUSH_CHARS}. */
+	private final void exportXML(final Tree<T> tree, final String indent_base, final StringBuilder sb, final Node<T> root, final Writer writer) throws IOException {
 		// Simulating recursion
 		//
 		// write depth-first, closing as children get written
@@ -572,6 +692,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		final StringBuilder indent = new StringBuilder(indent_base);
 
 		while (!list.isEmpty()) {
+			if (sb.length() > XML_FLUSH_CHARS) Utils.writeAndClear(writer, sb);
 			final Node<T> node = list.getLast();
 			if (null == node.children) {
 				// Processing end point
@@ -617,11 +738,6 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 //			if (Node.MAX_EDGE_CONFIDENCE != conf) sb.append(" c=\"").append(conf).append('\"');
 			sb.append(" c=\"").append(conf).append('\"');
 		}
-		if (null != node.color) {
-			sb.append(" color=\"");
-			Utils.asHexRGBColor(sb, node.color);
-			sb.append('\"');
-		}
 
 		tree.exportXMLNodeAttributes(indent, sb, node); // may not add anything
 		sb.append(">\n");
@@ -720,14 +836,15 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 				// Create a line to the parent
 				list.add(points.get(node.parent));
 				list.add(p);
-				if (null == node.color) {
+				final Color node_color = node.getColor();
+				if (null == node_color) {
 					colors.add(cf);
 					colors.add(cf); // twice: a line segment
 				} else {
-					Color3f c = cached_colors.get(node.color);
+					Color3f c = cached_colors.get(node_color);
 					if (null == c) {
-						c = new Color3f(node.color);
-						cached_colors.put(node.color, c);
+						c = new Color3f(node_color);
+						cached_colors.put(node_color, c);
 					}
 					colors.add(c);
 					colors.add(c); // twice: a line segment
@@ -809,6 +926,9 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 			end_nodes.remove(nd);
 			nd.setRoot();
 			this.root = nd;
+			// edges are keyed by their child node, which changed along the path to the old root
+			node_grids.clear();
+			simplified.clear();
 		}
 		updateView();
 		return true;
@@ -952,11 +1072,15 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 	}
 
 	protected void cacheSubtree(final Iterable<Node<T>> nodes) {
+		simplified.clear();
 		cache(nodes, end_nodes, node_layer_map);
+		index(nodes);
 	}
 	protected void clearCache() {
 		end_nodes.clear();
 		node_layer_map.clear();
+		node_grids.clear();
+		simplified.clear();
 		setLastAdded(null);
 		setLastEdited(null);
 		setLastMarked(null);
@@ -976,6 +1100,80 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		}
 	}
 
+	/** To be called whenever x or y of existing nodes of this tree are changed, e.g. with {@link Node#translate(float, float)}. */
+	public final void positionsChanged() {
+		position_changes.incrementAndGet();
+	}
+
+	/** Same as {@link #positionsChanged()} when only @param nd has been moved, e.g. while dragging it:
+	 *  the existing spatial indices are updated for this node and the edges to its parent and children
+	 *  instead of being rebuilt. */
+	public final void nodeMoved(final Node<T> nd) {
+		synchronized (node_layer_map) {
+			final long changes = position_changes.incrementAndGet();
+			if (node_grids.isEmpty()) return;
+			final ArrayList<Node<T>> moved = new ArrayList<Node<T>>(null == nd.children ? 1 : 1 + nd.children.length);
+			moved.add(nd);
+			if (null != nd.children) {
+				for (final Node<T> child : nd.children) moved.add(child);
+			}
+			index(moved);
+			for (final NodeGrid<T> grid : node_grids.values()) grid.moved(changes - 1, changes);
+		}
+	}
+
+	/** @return the number of {@link #positionsChanged()} of this tree so far. */
+	public final long getPositionChanges() {
+		return position_changes.get();
+	}
+
+	/** Get the spatial index of the nodes in @param layer, (re)building it if it does not exist or is outdated.
+	 *  Call always from within a synchronized (node_layer_map) block.
+	 *  @return null if there are no nodes in @param layer. */
+	protected NodeGrid<T> getNodeGrid(final Layer layer) {
+		final Set<Node<T>> nodes = node_layer_map.get(layer);
+		if (null == nodes || nodes.isEmpty()) {
+			node_grids.remove(layer);
+			return null;
+		}
+		NodeGrid<T> grid = node_grids.get(layer);
+		// the size check catches modifications of node_layer_map not reported to the index
+		final long position_changes = getPositionChanges();
+		if (null == grid || grid.isStale(position_changes) || grid.size() != nodes.size()) {
+			grid = new NodeGrid<T>(nodes, position_changes);
+			node_grids.put(layer, grid);
+		}
+		return grid;
+	}
+
+	/** Add @param nodes and the edges to their parents to the existing spatial indices, or update them.
+	 *  Call always from within a synchronized (node_layer_map) block. */
+	private final void index(final Iterable<Node<T>> nodes) {
+		if (node_grids.isEmpty()) return;
+		for (final Node<T> nd : nodes) {
+			final NodeGrid<T> grid = node_grids.get(nd.la);
+			if (null != grid) {
+				grid.add(nd);
+				grid.addEdge(nd);
+			}
+			if (null != nd.parent && nd.parent.la != nd.la) {
+				final NodeGrid<T> parent_grid = node_grids.get(nd.parent.la);
+				if (null != parent_grid) parent_grid.addEdge(nd);
+			}
+		}
+	}
+
+	/** Remove @param nodes and the edges to their parents from the existing spatial indices.
+	 *  Call always from within a synchronized (node_layer_map) block. */
+	private final void unindex(final Iterable<Node<T>> nodes) {
+		if (node_grids.isEmpty()) return;
+		for (final Node<T> nd : nodes) {
+			final NodeGrid<T> grid = node_grids.get(nd.la);
+			if (null != grid) grid.remove(nd);
+			for (final NodeGrid<T> g : node_grids.values()) g.removeEdge(nd);
+		}
+	}
+
 	/** Update the internal {@link Node} cache; you want to invoke this operation
 	 * after altering programmatically the {@link Layer} pointers of any of the
 	 * {@link Node} of this {@link Tree}.
@@ -1016,9 +1214,38 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 	}
 
 	public Node<T> getRoot() {
+		if (null == root) pageIn();
 		return root;
 	}
 
+	/** Read the nodes if they are paged out, see {@link TreelinePager}. */
+	private void pageIn() {
+		if (!(this instanceof Treeline) || null == project) return;
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.pageIn((Treeline)this);
+	}
+
+	/** @return whether the nodes are not in memory, see {@link TreelinePager} */
+	public boolean isPagedOut() {
+		if (null != root || !(this instanceof Treeline) || null == project) return false;
+		final TreelinePager pager = project.getTreelinePager();
+		return null != pager && pager.isPagedOut((Treeline)this);
+	}
+
+	/** Keep the nodes in memory while walking them, until {@link #unpinNodes()}; see {@link TreelinePager#pin(Treeline)}.
+	 *  Call before {@link #getRoot()}. */
+	public void pinNodes() {
+		if (!(this instanceof Treeline) || null == project) return;
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.pin((Treeline)this);
+	}
+
+	public void unpinNodes() {
+		if (!(this instanceof Treeline) || null == project) return;
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.unpin((Treeline)this);
+	}
+
 	protected Coordinate<Node<T>> createCoordinate(final Node<T> nd) {
 		if (null == nd) return null;
 		float x = nd.x;
@@ -1114,8 +1341,8 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 
 	/** Find the node whose confidence box for the parent edge is closest to x,y,layer, if any.  */
 	private Node<T> findNodeConfidenceBox(float x, float y, final Layer layer, final double magnification) {
-		final Set<Node<T>> nodes = node_layer_map.get(layer);
-		if (null == nodes) return null;
+		final NodeGrid<T> grid = getNodeGrid(layer);
+		if (null == grid) return null;
 
 		final Point2D.Double po = inverseTransformPoint(x, y);
 		x = (float)po.x;
@@ -1125,23 +1352,13 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		if (radius < 2) radius = 2;
 		radius *= radius; // squared
 
-		float min_sq_dist = Float.MAX_VALUE;
-		Node<T> nearest = null;
-		for (final Node<T> nd : nodes) {
-			if (null == nd.parent) continue;
-			final float d = (float)(Math.pow((nd.parent.x + nd.x)/2 - x, 2) + Math.pow((nd.parent.y + nd.y)/2 - y, 2));
-			if (d < min_sq_dist && d < radius) {
-				min_sq_dist = d;
-				nearest = nd;
-			}
-		}
-		return nearest;
+		return grid.findNearestConfidenceBox(x, y, radius, layer);
 	}
 
 	/** Find a node in @param layer near the local coords lx,ly, with precision depending on magnification.  */
 	public Node<T> findNode(final float lx, final float ly, final Layer layer, final double magnification) {
 		synchronized (node_layer_map) {
-			return findClosestNode(node_layer_map.get(layer), lx, ly, magnification);
+			return findClosestNode(layer, lx, ly, magnification);
 		}
 	}
 
@@ -1149,9 +1366,14 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 	public Node<T> findClosestNodeW(final float wx, final float wy, final Layer layer, final double magnification) {
 		if (null == root) return null;
 		synchronized (node_layer_map) {
-			final Set<Node<T>> nodes = node_layer_map.get(layer);
-			if (null == nodes) return null;
-			return findClosestNodeW(nodes, wx, wy, magnification);
+			float lx = wx,
+			      ly = wy;
+			if (!this.at.isIdentity()) {
+				final Point2D.Double po = inverseTransformPoint(wx, wy);
+				lx = (float)po.x;
+				ly = (float)po.y;
+			}
+			return findClosestNode(layer, lx, ly, magnification);
 		}
 	}
 
@@ -1236,12 +1458,24 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		return min_dist < d ? nd : null;
 	}
 
+	/** Expects local coords; with precision depending on magnification. Uses the spatial index of @param layer.
+	 *  Call always from within a synchronized (node_layer_map) block. */
+	private Node<T> findClosestNode(final Layer layer, final float lx, final float ly, final double magnification) {
+		final NodeGrid<T> grid = getNodeGrid(layer);
+		if (null == grid) return null;
+		double d = (10.0D / magnification);
+		if (d < 2) d = 2;
+		return grid.findClosest(lx, ly, d);
+	}
+
 	/** Find the spatially closest node, in calibrated coords; expects local coords. */
 	public Node<T> findNearestNode(final float lx, final float ly, final Layer layer) {
 		synchronized (node_layer_map) {
-			final Set<Node<T>> nodes = node_layer_map.get(layer);
-			if (null == nodes) return null;
-			return findNearestNode(lx, ly, (float)layer.getZ(), layer.getParent().getCalibration(), nodes);
+			final NodeGrid<T> grid = getNodeGrid(layer);
+			if (null == grid) return null;
+			// all nodes are in layer, hence the difference in Z is zero
+			final Calibration cal = layer.getParent().getCalibration();
+			return grid.findNearest(lx, ly, (float) cal.pixelWidth, (float) cal.pixelHeight);
 		}
 	}
 
@@ -1292,29 +1526,27 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 	 *  @return null if none of the edges is close enough, or an array of parent and child describing the edge. */
 	public Node<T>[] findNearestEdge(final float x_pl, final float y_pl, final Layer layer, final double magnification) {
 		if (null == root) return null;
-		// Don't traverse all, just look into nodes currently being painted according to layer_set.n_layers_color_cue
-		final Collection<Node<T>> nodes = getNodesToPaint(layer);
-		if (null == nodes) return null;
+		// Don't traverse all, just look into edges of nodes currently being painted according to layer_set.n_layers_color_cue
+		// TODO it's missing edges with parents beyond the set of painted layers,
+		//      and it's doing edges to children beyond the set of painted layers.
+		final Collection<Layer> layers;
+		if (layer_set.color_cues) {
+			layers = -1 == layer_set.n_layers_color_cue ? null : layer.getParent().getColorCueLayerRange(layer);
+		} else {
+			layers = Collections.singletonList(layer);
+		}
 		//
 		double d = (10.0D / magnification);
 		if (d < 2) d = 2;
 		double min_dist = Double.MAX_VALUE;
 		final Node<T>[] ns = new Node[2]; // parent and child
 		//
-		for (final Node<T> node : nodes) {
-			if (null == node.children) continue;
-			// Examine if the point is closer to the 2D-projected edge than any other so far:
-			// TODO it's missing edges with parents beyond the set of painted layers,
-			//      and it's doing edges to children beyond the set of painted layers.
-			for (final Node<T> child : node.children) {
-				final double dist = M.distancePointToSegment(x_pl, y_pl,
-								       node.x, node.y,
-								       child.x, child.y);
-				if (dist < min_dist && dist < d) {
-					min_dist = dist;
-					ns[0] = node;
-					ns[1] = child;
-				}
+		synchronized (node_layer_map) {
+			final HashSet<Layer> parent_layers = null == layers ? null : new HashSet<Layer>(layers);
+			for (final Layer la : null == layers ? new ArrayList<Layer>(node_layer_map.keySet()) : layers) {
+				final NodeGrid<T> grid = getNodeGrid(la);
+				if (null == grid) continue;
+				min_dist = grid.findNearestEdge(x_pl, y_pl, d, parent_layers, ns, min_dist);
 			}
 		}
 		if (null == ns[0]) return null;
@@ -1415,6 +1647,9 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 				}
 				synchronized (node_layer_map) {
 					node_layer_map.get(node.la).remove(node);
+					unindex(Collections.singletonList(node));
+					// the child is now linked to the former parent of node
+					index(Collections.singletonList(node.children[0]));
 				}
 				fireNodeRemoved(node);
 				updateView();
@@ -1444,10 +1679,12 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 							Utils.log2("WARNING: node to remove doesn't have any children but wasn't in end_nodes list!");
 						}
 					}
+					unindex(subtree_nodes);
 				} else {
 					Utils.log2("Just removing node " + node);
 					end_nodes.remove(node);
 					node_layer_map.get(node.la).remove(node);
+					unindex(Collections.singletonList(node));
 				}
 				if (1 == node.parent.getChildrenCount()) {
 					end_nodes.add(node.parent);
@@ -1537,6 +1774,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 			// Remove from tl cache
 			synchronized (tl.node_layer_map) {
 				tl.node_layer_map.clear();
+				tl.node_grids.clear();
 			}
 			tl.end_nodes.clear();
 		}
@@ -1913,6 +2151,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		}
 
 		active.translate(x_d - x_d_old, y_d - y_d_old);
+		nodeMoved(active);
 		repaint(false, la);
 		setLastEdited(active);
                 //actyc: drag event to stimulate a sanity check
@@ -2188,79 +2427,11 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 //					break;
 			}
 		}
-		if (rm.getProjectConfig().isFullGUI() && ProjectToolbar.PEN == ProjectToolbar.getToolId() && 0 == (modifiers ^ Event.SHIFT_MASK) && KeyEvent.VK_C == keyCode) {
-			nd = findClosestNodeW(getNodesToPaint(layer), po.x, po.y, dc.getMagnification());
-			if (null == nd) {
-				final Node<T> last = getLastVisited();
-				if (null != last && layer == last.getLayer()) nd = last;
-			}
-			if (null != nd && adjustNodeColors(nd)) {
-				ke.consume();
-				return;
-			}
-		}
 		} finally {
 			if (null != nd) setLastVisited(nd);
 		}
 	}
 
-	protected boolean adjustNodeColors(final Node<T> nd) {
-		final Color color = null == nd.color ? this.color : nd.color;
-		final GenericDialog gd = new GenericDialog("Node colors");
-		gd.addSlider("Red: ", 0, 255, color.getRed());
-		gd.addSlider("Green: ", 0, 255, color.getGreen());
-		gd.addSlider("Blue: ", 0, 255, color.getBlue());
-		final Scrollbar red = (Scrollbar)gd.getSliders().get(0);
-		final Scrollbar green = (Scrollbar)gd.getSliders().get(1);
-		final Scrollbar blue = (Scrollbar)gd.getSliders().get(2);
-		final Color original = nd.color; // may be null
-		final SliderListener slc = new SliderListener() {
-			@Override
-			public void update() {
-				nd.setColor(new Color(red.getValue(), green.getValue(), blue.getValue()));
-				Display.repaint();
-			}
-		};
-		red.addAdjustmentListener(slc);
-		green.addAdjustmentListener(slc);
-		blue.addAdjustmentListener(slc);
-		final String[] choices = {"this node only", "nodes until next branch or end node", "entire subtree"};
-		gd.addChoice("Apply to:", choices, choices[0]);
-		gd.showDialog();
-		if (gd.wasCanceled()) {
-			nd.setColor(original);
-			Display.repaint();
-			return false;
-		}
-		try {
-			layer_set.addDataEditStep(this);
-			final Color c = new Color(red.getValue(), green.getValue(), blue.getValue());
-			switch (gd.getNextChoiceIndex()) {
-				case 0:
-					// this node only: already done
-					return true;
-				case 1:
-					// the downstream slab:
-					for (final Node<T> node : new Node.NodeCollection<T>(nd, Node.SlabIterator.class)) {
-						node.setColor(c);
-					}
-					return true;
-				case 2:
-					// the entire subtree:
-					for (final Node<T> node: new Node.NodeCollection<T>(nd, Node.BreadthFirstSubtreeIterator.class)) {
-						node.setColor(c);
-					}
-					return true;
-				default:
-					layer_set.removeLastUndoStep();
-			}
-		} finally {
-			layer_set.addDataEditStep(this);
-			Display.repaint();
-		}
-		return true;
-	}
-
 	@Override
 	public void mouseWheelMoved(final MouseWheelEvent mwe) {
 		final int modifiers = mwe.getModifiers();
@@ -2467,8 +2638,12 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 	public boolean paintsAt(final Layer layer) {
 		synchronized (node_layer_map) {
 			final Collection<Node<T>> nodes = node_layer_map.get(layer);
-			return null != nodes && nodes.size() > 0;
+			if (null != nodes && nodes.size() > 0) return true;
 		}
+		// the nodes may be paged out
+		if (!(this instanceof Treeline) || null == project) return false;
+		final TreelinePager pager = project.getTreelinePager();
+		return null != pager && pager.hasNodesAt((Treeline)this, layer);
 	}
 
 	@Override
@@ -3166,6 +3341,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 				}
 				nd.apply(chain, roi);
 			}
+			positionsChanged();
 		}
 		if (null != chain) calculateBoundingBox(la);
 		return true;
@@ -3180,6 +3356,7 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 			for (final Node<T> nd : nodes) {
 				nd.apply(vlocal);
 			}
+			positionsChanged();
 		}
 		calculateBoundingBox(vdt.layer);
 		return true;
@@ -3213,6 +3390,22 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		}
 	}
 
+	/** The bounds of the {@link #getAreaAt(Layer)}, without adding up the areas of the nodes. */
+	@Override
+	protected Rectangle getBoundsForBucket(final Layer layer) {
+		synchronized (node_layer_map) {
+			final Set<Node<T>> nodes = node_layer_map.get(layer);
+			if (null == nodes || nodes.isEmpty()) return null;
+			Rectangle box = null;
+			for (final Node<T> nd : nodes) {
+				final Rectangle b = nd.getArea().getBounds();
+				if (null == box) box = b;
+				else box.add(b);
+			}
+			return this.at.createTransformedShape(box).getBounds();
+		}
+	}
+
 	/** Fast and dirty, never returns a false negative but may return a false positive. */
 	@Override
 	protected boolean isRoughlyInside(final Layer layer, final Rectangle box) {
@@ -3958,49 +4151,6 @@ public abstract class Tree<T> extends ZDisplayable implements VectorData {
 		return cs;
 	}
 
-	public void colorizeByNodeBetweennessCentrality() {
-		if (null == root) return;
-		final HashMap<Node<T>,Vertex<Node<T>>> m = asVertices();
-		Centrality.compute(m.values());
-		final IndexColorModel cm = Utils.fireLUT();
-		final Map<Integer,Color> colors = new HashMap<Integer,Color>();
-		double max = 0;
-		for (final Vertex<?> v : m.values()) max = Math.max(max, v.centrality);
-		for (final Map.Entry<Node<T>, Vertex<Node<T>>> e : m.entrySet()) {
-			final int i = (int)(255 * (e.getValue().centrality / max) + 0.5f);
-			Color c = colors.get(i);
-			if (null == c) {
-				c = new Color(cm.getRed(i), cm.getGreen(i), cm.getBlue(i));
-				colors.put(i, c);
-			}
-			e.getKey().setColor(c);
-		}
-	}
-
-	public void colorizeByBranchBetweennessCentrality(final int etching_multiplier) {
-		if (null == root) return;
-		final Collection<Vertex<Node<T>>> vs = asVertices().values();
-		Centrality.branchWise(vs, etching_multiplier);
-		final IndexColorModel cm = Utils.fireLUT();
-		final Map<Integer,Color> colors = new HashMap<Integer,Color>();
-		double max = 0;
-		for (final Vertex<?> v : vs) max = Math.max(max, v.centrality);
-		if (0 == max) {
-			Utils.logAll("Branch centrality: all have zero!");
-			return;
-		}
-		for (final Vertex<Node<T>> v : vs) {
-			final int i = (int)(255 * (v.centrality / max) + 0.5f);
-			Utils.log("branch centrality: " + v.centrality + " , i: " + i);
-			Color c = colors.get(i);
-			if (null == c) {
-				c = new Color(cm.getRed(i), cm.getGreen(i), cm.getBlue(i));
-				colors.put(i, c);
-			}
-			v.data.setColor(c);
-		}
-	}
-
 	public class Pair {
 		/** Two nodes of a tree; there is a unique path that goes from a to b. */
 		public Node<T> a, b;
@@ -67,6 +67,7 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
@@ -74,7 +75,9 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.scijava.input.KeyCode;
@@ -88,6 +91,7 @@ import org.scijava.vecmath.Vector3f;
 import de.unihalle.informatik.rhizoTrak.Project;
 import de.unihalle.informatik.rhizoTrak.addon.RhizoProjectConfig;
 import de.unihalle.informatik.rhizoTrak.addon.RhizoUtils;
+import de.unihalle.informatik.rhizoTrak.persistence.XMLOptions;
 import de.unihalle.informatik.rhizoTrak.utils.IJError;
 import de.unihalle.informatik.rhizoTrak.utils.M;
 import de.unihalle.informatik.rhizoTrak.utils.ProjectToolbar;
@@ -131,6 +135,122 @@ public class Treeline extends Tree<Float> {
 		return new RadiusNode(ht_attr);
 	}
 
+	/** Shapes to paint collected per color, so that each color is filled and drawn with one call
+	 *  and the composite for the translucent fill is set only once. */
+	static final class PaintBatch {
+		final boolean diameter_lines, diameter_circles, show_polygon, fill_polygon;
+		private final LinkedHashMap<Color,GeneralPath> fills = new LinkedHashMap<Color,GeneralPath>(),
+		                                               outlines = new LinkedHashMap<Color,GeneralPath>(),
+		                                               lines = new LinkedHashMap<Color,GeneralPath>(),
+		                                               arrows = new LinkedHashMap<Color,GeneralPath>();
+
+		PaintBatch(final RhizoProjectConfig config) {
+			this.diameter_lines = config.isNodesDiameterLines();
+			this.diameter_circles = config.isNodesAsCircle();
+			this.show_polygon = config.isSegmentsAsPolygon();
+			this.fill_polygon = config.isSegmentsFill();
+		}
+
+		static private GeneralPath get(final Map<Color,GeneralPath> m, final Color c) {
+			GeneralPath path = m.get(c);
+			if (null == path) {
+				path = new GeneralPath();
+				m.put(c, path);
+			}
+			return path;
+		}
+
+		GeneralPath fills(final Color c) { return get(fills, c); }
+		GeneralPath outlines(final Color c) { return get(outlines, c); }
+		GeneralPath lines(final Color c) { return get(lines, c); }
+		GeneralPath arrows(final Color c) { return get(arrows, c); }
+
+		/** Fill segments with at most @param alpha 0.4, then draw outlines, edges and arrows in the composite of @param g. */
+		void paint(final Graphics2D g, final float alpha) {
+			if (!fills.isEmpty()) {
+				final Composite c = g.getComposite();
+				g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha > 0.4f ? 0.4f : alpha));
+				for (final Map.Entry<Color,GeneralPath> e : fills.entrySet()) {
+					g.setColor(e.getKey());
+					g.fill(e.getValue());
+				}
+				g.setComposite(c);
+			}
+			for (final Map.Entry<Color,GeneralPath> e : outlines.entrySet()) {
+				g.setColor(e.getKey());
+				g.draw(e.getValue());
+			}
+			for (final Map.Entry<Color,GeneralPath> e : lines.entrySet()) {
+				g.setColor(e.getKey());
+				g.draw(e.getValue());
+			}
+			for (final Map.Entry<Color,GeneralPath> e : arrows.entrySet()) {
+				g.setColor(e.getKey());
+				g.fill(e.getValue());
+			}
+		}
+	}
+
+	/** Paint all nodes of the active layer with one {@link PaintBatch}, along the edges simplified for
+	 *  the current magnification (see {@link Tree#getSimplifiedEdges(Layer, double)}).
+	 *  Connectors and nodes with edges to other layers, which are painted in depth cue colors, are painted node by node. */
+	@Override
+	protected boolean paintBatched(final Graphics2D g, final Set<Node<Float>> nodes, final Layer active_layer, final Rectangle srcRect,
+			final double magnification, final AffineTransform to_screen, final boolean with_arrows, final boolean with_tags) {
+		if (Treeline.class != getClass() || null == project.getRhizoMain()) return false;
+		for (final Node<Float> nd : nodes) {
+			if (nd.la != active_layer || (null != nd.parent && nd.parent.la != active_layer)) return false;
+			if (null != nd.children) {
+				for (final Node<Float> child : nd.children) if (child.la != active_layer) return false;
+			}
+		}
+		final SimplifiedEdges<Float> edges = getSimplifiedEdges(active_layer, magnification * Math.sqrt(Math.abs(this.at.getDeterminant())));
+		if (null == edges) return true;
+
+		final PaintBatch batch = new PaintBatch(project.getRhizoMain().getProjectConfig());
+		final float[] fps = new float[4];
+		for (int i=0; i<edges.nodes.length; i++) {
+			final Node<Float> nd = edges.nodes[i];
+			final Node<Float> anc = edges.ancestors[i];
+			if (!nodes.contains(nd) && !nodes.contains(anc)) continue;
+			final Color corrected_color = nd.getCorrectedColor();
+			final Color cc = null == corrected_color ? this.color : corrected_color;
+			((RadiusNode)nd).batchData(batch, to_screen, cc, (RadiusNode)anc);
+			// edge to the ancestor, in screen coords as in Node.paint
+			fps[0] = nd.x;
+			fps[1] = nd.y;
+			fps[2] = anc.x;
+			fps[3] = anc.y;
+			this.at.transform(fps, 0, fps, 0, 2);
+			final int x = (int)((fps[0] - srcRect.x) * magnification),
+			          y = (int)((fps[1] - srcRect.y) * magnification),
+			          px = (int)((fps[2] - srcRect.x) * magnification),
+			          py = (int)((fps[3] - srcRect.y) * magnification);
+			final GeneralPath line = batch.lines(cc);
+			line.moveTo(x, y);
+			line.lineTo(px, py);
+			if (with_arrows) batch.arrows(cc).append(M.createArrowhead(px, py, x, y, magnification), false);
+		}
+		batch.paint(g, alpha);
+
+		// root handles and tags on top, as when painting node by node
+		for (final Node<Float> nd : nodes) {
+			final boolean root_handle = null == nd.parent && with_arrows,
+			              tags = with_tags && null != nd.tags;
+			if (!root_handle && !tags) continue;
+			fps[0] = nd.x;
+			fps[1] = nd.y;
+			this.at.transform(fps, 0, fps, 0, 1);
+			final int x = (int)((fps[0] - srcRect.x) * magnification),
+			          y = (int)((fps[1] - srcRect.y) * magnification);
+			final Color corrected_color = nd.getCorrectedColor();
+			final Color cc = null == corrected_color ? this.color : corrected_color;
+			if (root_handle) nd.paintRootHandle(g, x, y, active_layer, cc);
+			if (tags) nd.paintTags(g, x, y, cc);
+		}
+		return true;
+	}
+
 	@Override
 	public Treeline clone(final Project pr, final boolean copy_id) {
 		final long nid = copy_id ? this.id : pr.getLoader().getNextId();
@@ -361,6 +481,7 @@ public class Treeline extends Tree<Float> {
 		@Override
         public final boolean setData(final Float radius) {
 			this.r = radius > 0 ? radius : 0;
+			edited();
 			return true;
 		}
 		@Override
@@ -415,8 +536,11 @@ public class Treeline extends Tree<Float> {
 		
 		//actyc: modified version of getSegment to fix a rendering issue causing treelines to have a visual radius of 0  
 		private final Polygon getSegment(AffineTransform to_screen) {
-			
-			final RadiusNode parent = (RadiusNode) this.parent;
+			return getSegment(to_screen, (RadiusNode) this.parent);
+		}
+		/** As {@link #getSegment(AffineTransform)} towards @param parent, which may be an ancestor when edges are simplified. */
+		private final Polygon getSegment(AffineTransform to_screen, final RadiusNode parent) {
+
 			float vx = parent.x - this.x;
 			float vy = parent.y - this.y;
 			final float len = (float) Math.sqrt(vx*vx + vy*vy);
@@ -456,8 +580,10 @@ public class Treeline extends Tree<Float> {
 		//ende
 		//actyc: modified version of getSegment to return two Polygons, each a line representing the diameter (or one line in some cases)  
 		private final Polygon[] getDiameterpoints(AffineTransform to_screen) {
-			
-			final RadiusNode parent = (RadiusNode) this.parent;
+			return getDiameterpoints(to_screen, (RadiusNode) this.parent);
+		}
+		private final Polygon[] getDiameterpoints(AffineTransform to_screen, final RadiusNode parent) {
+
 			Polygon[] result = new Polygon[2];
 			float vx = parent.x - this.x;
 			float vy = parent.y - this.y;
@@ -505,8 +631,10 @@ public class Treeline extends Tree<Float> {
 		//ende
 		
 		//actyc: modified version of getSegment to return two Polygons, each a line representing the diameter (or one line in some cases)  
-		private final Shape[] getDiameterCircleInformation(AffineTransform to_screen) {		
-			final RadiusNode parent = (RadiusNode) this.parent;
+		private final Shape[] getDiameterCircleInformation(AffineTransform to_screen) {
+			return getDiameterCircleInformation(to_screen, (RadiusNode) this.parent);
+		}
+		private final Shape[] getDiameterCircleInformation(AffineTransform to_screen, final RadiusNode parent) {
 			float vx = parent.x - this.x;
 			float vy = parent.y - this.y;
 			final float len = (float) Math.sqrt(vx*vx + vy*vy);
@@ -592,10 +720,11 @@ public class Treeline extends Tree<Float> {
 				final Tree<Float> tree, final AffineTransform to_screen, final Color cc,
 				final Layer active_layer) {
 
-			boolean showDiameterLine = this.rhizoMain.getProjectConfig().isNodesDiameterLines();
-			boolean showDiameterCircle =this.rhizoMain.getProjectConfig().isNodesAsCircle();
-			boolean showRootPolygon=this.rhizoMain.getProjectConfig().isSegmentsAsPolygon();
-			boolean fillRootPolygon =this.rhizoMain.getProjectConfig().isSegmentsFill();
+			final RhizoProjectConfig config = tree.getProject().getRhizoMain().getProjectConfig();
+			boolean showDiameterLine = config.isNodesDiameterLines();
+			boolean showDiameterCircle = config.isNodesAsCircle();
+			boolean showRootPolygon = config.isSegmentsAsPolygon();
+			boolean fillRootPolygon = config.isSegmentsFill();
 			
 			if (null == this.parent) return; // doing it here for less total cost
 
@@ -640,6 +769,25 @@ public class Treeline extends Tree<Float> {
 			}
 		}
 
+		/** Add what {@link #paintData(Graphics2D, Rectangle, Tree, AffineTransform, Color, Layer)} paints
+		 *  to @param batch, connecting to @param parent, which may be an ancestor when edges are simplified. */
+		final void batchData(final PaintBatch batch, final AffineTransform to_screen, final Color cc, final RadiusNode parent) {
+			if (0 == this.r && 0 == parent.r) return;
+			if (batch.fill_polygon || batch.show_polygon) {
+				final Polygon shape = getSegment(to_screen, parent);
+				if (batch.fill_polygon) batch.fills(cc).append(shape, false);
+				if (batch.show_polygon) batch.outlines(cc).append(shape, false);
+			}
+			if (!batch.show_polygon && batch.diameter_lines) {
+				for (final Polygon p : getDiameterpoints(to_screen, parent)) {
+					if (null != p) batch.outlines(cc).append(p, false);
+				}
+			}
+			if (batch.diameter_circles) {
+				for (final Shape c : getDiameterCircleInformation(to_screen, parent)) batch.outlines(cc).append(c, false);
+			}
+		}
+
 		/** Expects @param a in local coords. */
 		@Override
 		public boolean intersects(final Area a) {
@@ -682,6 +830,7 @@ public class Treeline extends Tree<Float> {
 						rt.ct.applyInPlace(fp);
 						r = ( float )Math.abs(fp[0] - this.x);
 					}
+					edited();
 					break;
 				}
 			}
@@ -720,6 +869,11 @@ public class Treeline extends Tree<Float> {
 		Displayable.exportDTD(type, sb_header, hs, indent);
 	}
 
+	@Override
+	protected boolean isNodeXMLOmitted(final XMLOptions options) {
+		return options.omit_treeline_nodes;
+	}
+
 	/** Export the radius only if it is larger than zero. */
 	@Override
 	protected boolean exportXMLNodeAttributes(final StringBuilder indent, final StringBuilder sb, final Node<Float> node) {
@@ -1003,13 +1157,14 @@ public class Treeline extends Tree<Float> {
 
 				// Colors for each segment:
 				Color3f c;
-				if (null == nd.color) {
+				final Color node_color = nd.getColor();
+				if (null == node_color) {
 					c = cf;
 				} else {
-					c = cached_colors.get(nd.color);
+					c = cached_colors.get(node_color);
 					if (null == c) {
-						c = new Color3f(nd.color);
-						cached_colors.put(nd.color, c);
+						c = new Color3f(node_color);
+						cached_colors.put(node_color, c);
 					}
 				}
 				while (n_verts > 0) {
@@ -50,6 +50,19 @@
 package de.unihalle.informatik.rhizoTrak.io;
 
 import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
 import loci.formats.ChannelSeparator;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
@@ -57,8 +70,18 @@ import loci.formats.IFormatReader;
 public class ImageFileHeader {
 
 	public final int width, height, type;
+	/** The reader used for formats without a header parser of their own; null otherwise. */
 	public final IFormatReader fr;
-	
+
+	/** Number of images (slices) in the file. */
+	public final int n_images;
+	/** The size of a pixel in {@link #unit}s, or 1 when the file carries no calibration. */
+	public final double pixel_width, pixel_height;
+	/** The unit of the calibration as ImageJ would set it, "pixel" when not calibrated. */
+	public final String unit;
+	/** Slice labels as stored by ImageJ in TIFF files; may be null. */
+	public final String[] slice_labels;
+
 	/** Reads the header of the image file at {@code filepath}
 	 * using an {@link IFormatReader} from the bio-formats library,
 	 * and then extracts the {link #width}, {@link #height} and {@link #type}
@@ -69,12 +92,17 @@ public class ImageFileHeader {
 	 * @throws Exception
 	 */
 	public ImageFileHeader(final String filepath) throws Exception {
+		this.pixel_width = 1;
+		this.pixel_height = 1;
+		this.unit = "pixel";
+		this.slice_labels = null;
 		fr = new ChannelSeparator();
 		fr.setGroupFiles(false);
 		try {
 			fr.setId(filepath);
 			width = fr.getSizeX();
 			height = fr.getSizeY();
+			n_images = fr.getImageCount();
 
 			if (fr.isRGB()) {
 				type = ImagePlus.COLOR_RGB;
@@ -104,6 +132,248 @@ public class ImageFileHeader {
 			fr.close();
 		}
 	}
+
+	private ImageFileHeader(final int width, final int height, final int type, final int n_images,
+			final double pixel_width, final double pixel_height, final String unit, final String[] slice_labels) {
+		this.fr = null;
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.n_images = n_images;
+		this.pixel_width = pixel_width;
+		this.pixel_height = pixel_height;
+		this.unit = null == unit || 0 == unit.trim().length() ? "pixel" : unit;
+		this.slice_labels = slice_labels;
+	}
+
+	/** The most recently read headers, keyed by absolute file path, length and modification time of the file,
+	 *  so that a header is read again when the file changed. */
+	static private final int MAX_CACHED = 4096;
+	static private final LinkedHashMap<String,ImageFileHeader> cache = new LinkedHashMap<String,ImageFileHeader>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String,ImageFileHeader> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	/** Returns the header of the image file at {@code filepath}, reading only the header bytes
+	 * of TIFF, PNG and JPEG files and using bio-formats for any other format. Headers of the
+	 * {@link #MAX_CACHED} most recently read files are cached, and read again only when the
+	 * modification time or the length of the file changed.
+	 *
+	 * @param filepath
+	 * @return the header, or null if the file does not exist or its header cannot be read.
+	 */
+	static public ImageFileHeader read(final String filepath) {
+		if (null == filepath) return null;
+		final File file = new File(filepath);
+		if (!file.isFile()) return null;
+		// taken before reading, so that a file changed meanwhile is read again next time
+		final String key = new StringBuilder(file.getAbsolutePath()).append('\n').append(file.length())
+				.append('\n').append(file.lastModified()).toString();
+		synchronized (cache) {
+			final ImageFileHeader h = cache.get(key);
+			if (null != h) return h;
+		}
+		ImageFileHeader h = null;
+		try {
+			final String name = file.getName().toLowerCase();
+			if (name.endsWith(".tif") || name.endsWith(".tiff")) h = readTiff(file);
+			else if (name.endsWith(".png")) h = readPNG(file);
+			else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) h = readJPEG(file);
+		} catch (IOException e) {
+			Utils.log("ImageFileHeader: cannot parse the header of " + filepath + ": " + e);
+		}
+		if (null == h) {
+			try {
+				h = new ImageFileHeader(filepath);
+			} catch (Exception e) {
+				Utils.log("ImageFileHeader: cannot read " + filepath + ": " + e);
+				return null;
+			}
+		}
+		synchronized (cache) {
+			cache.put(key, h);
+		}
+		return h;
+	}
+
+	/** Forget all cached headers. */
+	static public void flushCache() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/** Read the image file directories with ImageJ's {@link TiffDecoder}, which does not read any pixels.
+	 * The unit is set like ImageJ does when opening the image, i.e. a unit given in the ImageJ description
+	 * overrides the resolution unit. */
+	static private ImageFileHeader readTiff(final File file) throws IOException {
+		final FileInfo[] fis = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+		if (null == fis || 0 == fis.length) return null;
+		final FileInfo fi = fis[0];
+		int type;
+		switch (fi.fileType) {
+			case FileInfo.GRAY8:
+			case FileInfo.BITMAP:
+				type = ImagePlus.GRAY8;
+				break;
+			case FileInfo.COLOR8:
+				type = ImagePlus.COLOR_256;
+				break;
+			case FileInfo.GRAY16_SIGNED:
+			case FileInfo.GRAY16_UNSIGNED:
+			case FileInfo.GRAY12_UNSIGNED:
+			case FileInfo.RGB48:
+			case FileInfo.RGB48_PLANAR:
+				type = ImagePlus.GRAY16;
+				break;
+			case FileInfo.GRAY32_INT:
+			case FileInfo.GRAY32_UNSIGNED:
+			case FileInfo.GRAY32_FLOAT:
+			case FileInfo.GRAY24_UNSIGNED:
+			case FileInfo.GRAY64_FLOAT:
+				type = ImagePlus.GRAY32;
+				break;
+			default:
+				type = ImagePlus.COLOR_RGB;
+				break;
+		}
+		String unit = fi.unit;
+		if (null != fi.description && fi.description.startsWith("ImageJ")) {
+			for (final String line : fi.description.split("\n")) {
+				if (line.startsWith("unit=")) {
+					unit = line.substring("unit=".length()).trim();
+				}
+			}
+		}
+		final int n_images = fi.nImages > 1 ? fi.nImages : fis.length;
+		return new ImageFileHeader(fi.width, fi.height, type, n_images, fi.pixelWidth, fi.pixelHeight, unit, fi.sliceLabels);
+	}
+
+	/** Read the IHDR chunk, and the pHYs chunk if it precedes the image data. */
+	static private ImageFileHeader readPNG(final File file) throws IOException {
+		final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 4096));
+		try {
+			if (0x89504E470D0A1A0AL != dis.readLong()) return null;
+			int width = 0, height = 0, type = ImagePlus.GRAY8;
+			double pixel_width = 1, pixel_height = 1;
+			String unit = null;
+			while (true) {
+				final int len = dis.readInt();
+				final int chunk = dis.readInt();
+				if (0x49484452 == chunk) { // IHDR
+					width = dis.readInt();
+					height = dis.readInt();
+					final int depth = dis.readUnsignedByte();
+					final int color = dis.readUnsignedByte();
+					switch (color) {
+						case 0: // greyscale
+						case 4: // greyscale with alpha
+							type = 16 == depth ? ImagePlus.GRAY16 : ImagePlus.GRAY8;
+							break;
+						case 3: // palette
+							type = ImagePlus.COLOR_256;
+							break;
+						default:
+							type = ImagePlus.COLOR_RGB;
+							break;
+					}
+					skipFully(dis, len - 10 + 4);
+				} else if (0x70485973 == chunk) { // pHYs
+					final long ppu_x = dis.readInt() & 0xffffffffL;
+					final long ppu_y = dis.readInt() & 0xffffffffL;
+					final int unit_spec = dis.readUnsignedByte();
+					if (1 == unit_spec && ppu_x > 0 && ppu_y > 0) {
+						// pixels per meter
+						pixel_width = 1000.0 / ppu_x;
+						pixel_height = 1000.0 / ppu_y;
+						unit = "mm";
+					}
+					skipFully(dis, len - 9 + 4);
+				} else if (0x49444154 == chunk || 0x49454E44 == chunk) { // IDAT or IEND
+					break;
+				} else {
+					skipFully(dis, len + 4);
+				}
+			}
+			if (0 == width || 0 == height) return null;
+			return new ImageFileHeader(width, height, type, 1, pixel_width, pixel_height, unit, null);
+		} finally {
+			dis.close();
+		}
+	}
+
+	/** Read the JFIF density and the frame header, stopping at the start of the scan. */
+	static private ImageFileHeader readJPEG(final File file) throws IOException {
+		final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 4096));
+		try {
+			if (0xFFD8 != dis.readUnsignedShort()) return null;
+			double pixel_width = 1, pixel_height = 1;
+			String unit = null;
+			while (true) {
+				int marker = dis.readUnsignedByte();
+				if (0xFF != marker) return null;
+				while (0xFF == (marker = dis.readUnsignedByte())) {} // fill bytes
+				if (0xD9 == marker || 0xDA == marker) return null; // EOI or SOS before any frame header
+				if (0x01 == marker || (marker >= 0xD0 && marker <= 0xD7)) continue; // markers without length
+				final int len = dis.readUnsignedShort();
+				if (0xE0 == marker && len >= 16) {
+					final byte[] id = new byte[5];
+					dis.readFully(id);
+					if ('J' == id[0] && 'F' == id[1] && 'I' == id[2] && 'F' == id[3] && 0 == id[4]) {
+						dis.readUnsignedShort(); // version
+						final int units = dis.readUnsignedByte();
+						final int dx = dis.readUnsignedShort();
+						final int dy = dis.readUnsignedShort();
+						if (1 == units && dx > 0 && dy > 0) {
+							// dots per inch
+							pixel_width = 1.0 / dx;
+							pixel_height = 1.0 / dy;
+							unit = "inch";
+						} else if (2 == units && dx > 0 && dy > 0) {
+							// dots per cm
+							pixel_width = 10.0 / dx;
+							pixel_height = 10.0 / dy;
+							unit = "mm";
+						}
+						skipFully(dis, len - 2 - 12);
+					} else {
+						skipFully(dis, len - 2 - 5);
+					}
+				} else if (marker >= 0xC0 && marker <= 0xCF && 0xC4 != marker && 0xC8 != marker && 0xCC != marker) {
+					// Start of frame
+					dis.readUnsignedByte(); // precision
+					final int height = dis.readUnsignedShort();
+					final int width = dis.readUnsignedShort();
+					final int n_components = dis.readUnsignedByte();
+					if (0 == width || 0 == height) return null;
+					return new ImageFileHeader(width, height, 1 == n_components ? ImagePlus.GRAY8 : ImagePlus.COLOR_RGB,
+							1, pixel_width, pixel_height, unit, null);
+				} else {
+					skipFully(dis, len - 2);
+				}
+			}
+		} finally {
+			dis.close();
+		}
+	}
+
+	static private void skipFully(final DataInputStream dis, int n) throws IOException {
+		while (n > 0) {
+			final int skipped = dis.skipBytes(n);
+			if (skipped <= 0) throw new EOFException();
+			n -= skipped;
+		}
+	}
+
+	/**
+	 * @return Whether the header carries a spatial calibration.
+	 */
+	public boolean isCalibrated() {
+		return !"pixel".equals(unit) && pixel_width > 0 && pixel_height > 0;
+	}
 	
 	/**
 	 * @return Whether the {link #type} is supported by ImageJ and TrakEM2.
@@ -0,0 +1,696 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+package de.unihalle.informatik.rhizoTrak.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import de.unihalle.informatik.rhizoTrak.persistence.ImageBytes;
+import de.unihalle.informatik.rhizoTrak.utils.CachingThread;
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Stores all mipmap levels of one image in a single file, instead of one file per level
+ * as {@link RagMipMaps} and the other formats do. On network-mounted storage opening a file
+ * costs more than reading a mipmap level, so the number of files matters.
+ * <p>
+ * Layout: magic, version and number of level slots, then the level index with one entry of
+ * {@link #ENTRY_SIZE} bytes per level (offset and length of the level data, width, height, number
+ * of channels and tile size; length 0 for a level not stored), then the level data. A level is cut
+ * into tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE} pixels, so that a region of it can be read
+ * without decoding the rest, see {@link #loadTile(String, int, int, int)}. The data of a level is a
+ * table with offset and length of each tile, row by row, followed by the tiles. A tile is one record
+ * per channel: a flag, the length and the bytes, either raw or deflated with the fastest compression
+ * level when that saves at least an eighth. Like {@link RagMipMaps}, only the
+ * alpha channel is deflated unless {@link #deflate_all} is set: inflating costs more than reading
+ * the raw bytes from a local disk, but may pay off for slow network storage.
+ * <p>
+ * Writing level 0 starts a new file, which replaces the old one atomically; the other levels are
+ * appended and then entered into the index, so readers never see a partially written level.
+ * Files are read through a memory mapping, and the mappings of the most recently read files are kept,
+ * so that fetching further levels of the same image does not open the file again. The level index of
+ * recently used files is kept on the heap, so that looking for the levels present does not map the file.
+ * A mapping is unmapped as soon as it is invalidated and no longer read, as a mapped file can not be
+ * replaced or deleted on Windows.
+ * <p>
+ * The {@link #main(String[])} method compares cold and warm fetch latency with {@link RagMipMaps}.
+ *
+ * @author posch
+ */
+public final class PackedMipMaps
+{
+	static private final byte[] MAGIC = {'R', 'T', 'M', 'I', 'P', 'M', '\r', '\n'};
+	static private final int VERSION = 2;
+	/** Enough for images of up to 2^37 pixels in width or height. */
+	static public final int MAX_LEVELS = 32;
+	/** Width and height of the tiles of newly written levels. */
+	static public final int TILE_SIZE = 256;
+	/** Offset (long), length, width, height (ints), number of channels (byte), tile size (int), padded to 8. */
+	static private final int ENTRY_SIZE = 32;
+	static private final int INDEX_START = 8 + 4 + 4;
+	static private final int DATA_START = INDEX_START + MAX_LEVELS * ENTRY_SIZE;
+
+	static private final byte RAW = 0;
+	static private final byte DEFLATED = 1;
+
+	/** Whether to deflate also the grey or color channels, not only the alpha channel. */
+	static public volatile boolean deflate_all = false;
+
+	/** Number of files whose mapping is kept open. */
+	static private final int MAX_MAPPED = 256;
+
+	/** Number of files whose level index is kept. */
+	static private final int MAX_INDEXES = 4096;
+
+	/** The mapping of a file and the number of threads reading it. Access is synchronized on {@link #mapped}. */
+	static private final class Mapping {
+		final ByteBuffer m;
+		int readers = 0;
+		/** Whether it is no longer in {@link #mapped}, to unmap once not read anymore. */
+		boolean retired = false;
+		Mapping(final ByteBuffer m) {
+			this.m = m;
+		}
+	}
+
+	/** Most recently read files, in access order. Access is synchronized on the map. */
+	static private final LinkedHashMap<String,Mapping> mapped = new LinkedHashMap<String,Mapping>(MAX_MAPPED, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String,Mapping> eldest) {
+			if (size() <= MAX_MAPPED) return false;
+			retire(eldest.getValue());
+			return true;
+		}
+	};
+
+	/** Copies of the level index of the most recently used files, in access order. Access is synchronized on the map. */
+	static private final LinkedHashMap<String,ByteBuffer> indexes = new LinkedHashMap<String,ByteBuffer>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String,ByteBuffer> eldest) {
+			return size() > MAX_INDEXES;
+		}
+	};
+
+	/** Writers of the same file are serialized by one of these. */
+	static private final Object[] locks = new Object[64];
+	static {
+		for (int i=0; i<locks.length; ++i) locks[i] = new Object();
+	}
+
+	static private final Object lock(final String path) {
+		return locks[(path.hashCode() & 0x7fffffff) % locks.length];
+	}
+
+	private PackedMipMaps() {}
+
+	/** Store the channels {@code b} (1 to 4, see {@link RagMipMaps#GREY}) of mipmap {@code level} into the file at {@code path}. */
+	static public final boolean save(final String path, final int level, final byte[][] b, final int width, final int height) {
+		if (level < 0 || level >= MAX_LEVELS) {
+			Utils.log2("Can't store mipmap level " + level + " into " + path);
+			return false;
+		}
+		if (!ImageSaver.checkPath(path)) return false;
+		final byte[] data;
+		try {
+			data = encodeLevel(b, width, height);
+		} catch (IOException ioe) {
+			IJError.print(ioe);
+			return false;
+		}
+		synchronized (lock(path)) {
+			invalidate(path); // unmap, or the file can't be replaced on Windows
+			final File f = new File(path);
+			final File target = 0 == level ? new File(path + ".tmp") : f;
+			RandomAccessFile ra = null;
+			try {
+				ra = new RandomAccessFile(target, "rw");
+				if (0 == level || ra.length() < DATA_START || !hasMagic(ra)) {
+					ra.setLength(0);
+					final ByteBuffer h = ByteBuffer.allocate(DATA_START);
+					h.put(MAGIC).putInt(VERSION).putInt(MAX_LEVELS);
+					ra.write(h.array());
+				}
+				final long offset = ra.length();
+				ra.seek(offset);
+				ra.write(data);
+				final ByteBuffer e = ByteBuffer.allocate(ENTRY_SIZE);
+				e.putLong(offset).putInt(data.length).putInt(width).putInt(height).put((byte)b.length).putInt(TILE_SIZE);
+				ra.seek(INDEX_START + level * ENTRY_SIZE);
+				ra.write(e.array());
+				ra.close();
+				ra = null;
+				if (target != f) {
+					Files.move(target.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				return true;
+			} catch (Exception e) {
+				IJError.print(e);
+			} finally {
+				if (null != ra) try { ra.close(); } catch (Exception e) { IJError.print(e); }
+				invalidate(path);
+			}
+		}
+		return false;
+	}
+
+	static private final boolean hasMagic(final RandomAccessFile ra) throws IOException {
+		final byte[] m = new byte[MAGIC.length];
+		ra.seek(0);
+		ra.readFully(m);
+		return Arrays.equals(m, MAGIC);
+	}
+
+	/** Returns the tile table, with offsets relative to its start, followed by the tiles. */
+	static private final byte[] encodeLevel(final byte[][] b, final int width, final int height) throws IOException {
+		final int nx = (width + TILE_SIZE - 1) / TILE_SIZE,
+		          ny = (height + TILE_SIZE - 1) / TILE_SIZE;
+		final ByteArrayOutputStream ba = new ByteArrayOutputStream(b.length * width * height + nx * ny * 12);
+		final DataOutputStream dos = new DataOutputStream(ba);
+		final byte[][] tiles = new byte[nx * ny][];
+		long offset = nx * ny * 12;
+		for (int ty=0, k=0; ty<ny; ++ty) {
+			for (int tx=0; tx<nx; ++tx, ++k) {
+				final int x0 = tx * TILE_SIZE,
+				          y0 = ty * TILE_SIZE,
+				          tw = Math.min(TILE_SIZE, width - x0),
+				          th = Math.min(TILE_SIZE, height - y0);
+				final byte[][] t = new byte[b.length][tw * th];
+				for (int c=0; c<b.length; ++c) {
+					for (int y=0; y<th; ++y) {
+						System.arraycopy(b[c], (y0 + y) * width + x0, t[c], y * tw, tw);
+					}
+				}
+				tiles[k] = encode(t);
+				dos.writeLong(offset);
+				dos.writeInt(tiles[k].length);
+				offset += tiles[k].length;
+			}
+		}
+		for (final byte[] t : tiles) dos.write(t);
+		dos.flush();
+		return ba.toByteArray();
+	}
+
+	static private final byte[] encode(final byte[][] b) throws IOException {
+		int n = 0;
+		for (int i=0; i<b.length; ++i) n += b[i].length + 5;
+		final ByteArrayOutputStream ba = new ByteArrayOutputStream(n);
+		final DataOutputStream dos = new DataOutputStream(ba);
+		final Deflater def = new Deflater(Deflater.BEST_SPEED, false);
+		try {
+			byte[] buf = null;
+			for (int i=0; i<b.length; ++i) {
+				final boolean alpha = i == b.length -1 && 0 == b.length % 2;
+				if (!alpha && !deflate_all) {
+					dos.writeByte(RAW);
+					dos.writeInt(b[i].length);
+					dos.write(b[i]);
+					continue;
+				}
+				final int limit = b[i].length - b[i].length / 8;
+				if (null == buf || buf.length < limit) buf = new byte[limit];
+				def.reset();
+				def.setInput(b[i]);
+				def.finish();
+				int len = 0;
+				while (!def.finished() && len < limit) {
+					len += def.deflate(buf, len, limit - len);
+				}
+				if (def.finished()) {
+					dos.writeByte(DEFLATED);
+					dos.writeInt(len);
+					dos.write(buf, 0, len);
+				} else {
+					dos.writeByte(RAW);
+					dos.writeInt(b[i].length);
+					dos.write(b[i]);
+				}
+			}
+		} finally {
+			def.end();
+		}
+		dos.flush();
+		return ba.toByteArray();
+	}
+
+	/** Whether the file at {@code path} contains mipmap {@code level}. */
+	static public final boolean exists(final String path, final int level) {
+		if (level < 0 || level >= MAX_LEVELS) return false;
+		final ByteBuffer index = index(path, false);
+		return null != index && 0 != index.getInt(INDEX_START + level * ENTRY_SIZE + 8);
+	}
+
+	/** Returns {width, height, tile size} of mipmap {@code level}, or null when not stored. */
+	static public final int[] getLevelDimensions(final String path, final int level) {
+		if (level < 0 || level >= MAX_LEVELS) return null;
+		final ByteBuffer index = index(path, false);
+		if (null == index) return null;
+		final int entry = INDEX_START + level * ENTRY_SIZE;
+		if (0 == index.getInt(entry + 8)) return null;
+		return new int[]{index.getInt(entry + 12), index.getInt(entry + 16), index.getInt(entry + 21)};
+	}
+
+	/** Returns the channels of mipmap {@code level}, or null when not stored. */
+	static public final ImageBytes load(final String path, final int level) {
+		if (level < 0 || level >= MAX_LEVELS) return null;
+		final ByteBuffer index = index(path, true);
+		if (null == index) return null;
+		final int entry = INDEX_START + level * ENTRY_SIZE;
+		if (0 == index.getInt(entry + 8)) return null;
+		final int width = index.getInt(entry + 12),
+		          height = index.getInt(entry + 16),
+		          nCh = index.get(entry + 20),
+		          ts = index.getInt(entry + 21);
+		final int nx = (width + ts - 1) / ts,
+		          ny = (height + ts - 1) / ts;
+		final Mapping mp = acquire(path, index.getLong(entry) + index.getInt(entry + 8));
+		if (null == mp) return null;
+		final ByteBuffer m = mp.m;
+		final byte[][] ch = CachingThread.getOrCreateByteArray(nCh, width * height);
+		final byte[][] t = new byte[nCh][ts * ts];
+		final Inflater inf = new Inflater(false);
+		try {
+			for (int ty=0; ty<ny; ++ty) {
+				for (int tx=0; tx<nx; ++tx) {
+					final int x0 = tx * ts,
+					          y0 = ty * ts,
+					          tw = Math.min(ts, width - x0),
+					          th = Math.min(ts, height - y0);
+					decodeTile(m, entry, ty * nx + tx, t, tw * th, inf);
+					for (int c=0; c<nCh; ++c) {
+						for (int y=0; y<th; ++y) {
+							System.arraycopy(t[c], y * tw, ch[c], (y0 + y) * width + x0, tw);
+						}
+					}
+				}
+			}
+			return new ImageBytes(ch, width, height);
+		} catch (DataFormatException dfe) {
+			Utils.log2("Corrupted mipmap level " + level + " in " + path);
+		} catch (RuntimeException re) {
+			// e.g. BufferUnderflowException, for a truncated file
+			IJError.print(re);
+		} finally {
+			inf.end();
+			release(mp);
+		}
+		CachingThread.storeForReuse(ch);
+		return null;
+	}
+
+	/** Returns the channels of the tile at column {@code tx} and row {@code ty} of mipmap {@code level},
+	 *  or null when not stored. The tiles of the last column and row may be narrower or lower than the tile size. */
+	static public final ImageBytes loadTile(final String path, final int level, final int tx, final int ty) {
+		if (level < 0 || level >= MAX_LEVELS) return null;
+		final ByteBuffer index = index(path, true);
+		if (null == index) return null;
+		final int entry = INDEX_START + level * ENTRY_SIZE;
+		if (0 == index.getInt(entry + 8)) return null;
+		final int width = index.getInt(entry + 12),
+		          height = index.getInt(entry + 16),
+		          nCh = index.get(entry + 20),
+		          ts = index.getInt(entry + 21);
+		final int nx = (width + ts - 1) / ts,
+		          ny = (height + ts - 1) / ts;
+		if (tx < 0 || ty < 0 || tx >= nx || ty >= ny) return null;
+		final int tw = Math.min(ts, width - tx * ts),
+		          th = Math.min(ts, height - ty * ts);
+		final Mapping mp = acquire(path, index.getLong(entry) + index.getInt(entry + 8));
+		if (null == mp) return null;
+		final ByteBuffer m = mp.m;
+		final byte[][] ch = CachingThread.getOrCreateByteArray(nCh, tw * th);
+		final Inflater inf = new Inflater(false);
+		try {
+			decodeTile(m, entry, ty * nx + tx, ch, tw * th, inf);
+			return new ImageBytes(ch, tw, th);
+		} catch (DataFormatException dfe) {
+			Utils.log2("Corrupted mipmap level " + level + " in " + path);
+		} catch (RuntimeException re) {
+			IJError.print(re);
+		} finally {
+			inf.end();
+			release(mp);
+		}
+		CachingThread.storeForReuse(ch);
+		return null;
+	}
+
+	/** Decode tile {@code k} of the level at index {@code entry} into the first {@code length} bytes of each of the {@code ch}. */
+	static private final void decodeTile(final ByteBuffer m, final int entry, final int k, final byte[][] ch, final int length, final Inflater inf) throws DataFormatException {
+		final long table = m.getLong(entry);
+		final ByteBuffer d = m.duplicate();
+		d.position((int)(table + m.getLong((int)(table + k * 12))));
+		byte[] buf = null;
+		for (int i=0; i<ch.length; ++i) {
+			final byte flag = d.get();
+			final int len = d.getInt();
+			if (RAW == flag) {
+				d.get(ch[i], 0, length);
+			} else {
+				if (null == buf || buf.length < len) buf = new byte[len];
+				d.get(buf, 0, len);
+				inf.reset();
+				inf.setInput(buf, 0, len);
+				int sum = 0;
+				while (sum < length && !inf.finished()) {
+					final int r = inf.inflate(ch[i], sum, length - sum);
+					if (0 == r && (inf.needsInput() || inf.needsDictionary())) break;
+					sum += r;
+				}
+			}
+		}
+	}
+
+	static public final BufferedImage read(final String path, final int level) {
+		try {
+			return RagMipMaps.createImage(load(path, level));
+		} catch (Exception e) {
+			IJError.print(e);
+		}
+		return null;
+	}
+
+	static public final BufferedImage readTile(final String path, final int level, final int tx, final int ty) {
+		try {
+			return RagMipMaps.createImage(loadTile(path, level, tx, ty));
+		} catch (Exception e) {
+			IJError.print(e);
+		}
+		return null;
+	}
+
+	/** Returns the level index of the file at {@code path}, or null if the file does not exist or
+	 *  is not a packed mipmap file. Only absolute gets may be used on it, as it is shared.
+	 *  @param report_missing whether to log a missing file. */
+	static private final ByteBuffer index(final String path, final boolean report_missing) {
+		synchronized (indexes) {
+			final ByteBuffer index = indexes.get(path);
+			if (null != index) return index;
+		}
+		RandomAccessFile ra = null;
+		try {
+			ra = new RandomAccessFile(path, "r");
+			if (ra.length() < DATA_START || ra.length() > Integer.MAX_VALUE) {
+				Utils.log2("Not a packed mipmap file: " + path);
+				return null;
+			}
+			final byte[] b = new byte[DATA_START];
+			ra.readFully(b);
+			final ByteBuffer index = ByteBuffer.wrap(b);
+			final byte[] magic = new byte[MAGIC.length];
+			index.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || VERSION != index.getInt(MAGIC.length)) {
+				Utils.log2("Not a packed mipmap file: " + path);
+				return null;
+			}
+			synchronized (indexes) {
+				indexes.put(path, index);
+			}
+			return index;
+		} catch (FileNotFoundException fnfe) {
+			if (report_missing) Utils.log2("File not found: " + path);
+		} catch (Exception e) {
+			IJError.print(e);
+		} finally {
+			if (null != ra) try { ra.close(); } catch (Exception e) { IJError.print(e); }
+		}
+		return null;
+	}
+
+	/** Returns a mapping of the file at {@code path} of at least {@code size} bytes, to be handed
+	 *  back with {@link #release(Mapping)}, or null if the file can't be mapped. */
+	static private final Mapping acquire(final String path, final long size) {
+		synchronized (mapped) {
+			final Mapping mp = mapped.get(path);
+			// A level written after the file was mapped: map again
+			if (null != mp && mp.m.capacity() >= size) {
+				mp.readers++;
+				return mp;
+			}
+		}
+		RandomAccessFile ra = null;
+		try {
+			ra = new RandomAccessFile(path, "r");
+			final FileChannel fc = ra.getChannel();
+			final long length = fc.size();
+			if (length < size || length > Integer.MAX_VALUE) {
+				Utils.log2("Truncated packed mipmap file: " + path);
+				return null;
+			}
+			final Mapping mp = new Mapping(fc.map(FileChannel.MapMode.READ_ONLY, 0, length));
+			mp.readers = 1;
+			synchronized (mapped) {
+				final Mapping old = mapped.put(path, mp);
+				if (null != old) retire(old);
+			}
+			return mp;
+		} catch (FileNotFoundException fnfe) {
+			Utils.log2("File not found: " + path);
+		} catch (Exception e) {
+			IJError.print(e);
+		} finally {
+			if (null != ra) try { ra.close(); } catch (Exception e) { IJError.print(e); }
+		}
+		return null;
+	}
+
+	static private final void release(final Mapping mp) {
+		synchronized (mapped) {
+			if (0 == --mp.readers && mp.retired) unmap(mp.m);
+		}
+	}
+
+	/** Unmap {@code mp} now if no thread reads it, else when the last one releases it. Call synchronized on {@link #mapped}. */
+	static private final void retire(final Mapping mp) {
+		mp.retired = true;
+		if (0 == mp.readers) unmap(mp.m);
+	}
+
+	static private boolean unmap_failed = false;
+
+	/** Release the mapping right away instead of when it is garbage collected. */
+	static private final void unmap(final ByteBuffer m) {
+		if (unmap_failed || !m.isDirect()) return;
+		try {
+			try {
+				// java 9 and later
+				final Class<?> c = Class.forName("sun.misc.Unsafe");
+				final Field f = c.getDeclaredField("theUnsafe");
+				f.setAccessible(true);
+				c.getMethod("invokeCleaner", ByteBuffer.class).invoke(f.get(null), m);
+			} catch (NoSuchMethodException nsme) {
+				// java 8
+				final Method cleaner = m.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				final Object cl = cleaner.invoke(m);
+				if (null != cl) cl.getClass().getMethod("clean").invoke(cl);
+			}
+		} catch (Throwable t) {
+			unmap_failed = true;
+			Utils.log2("Can't unmap packed mipmap files, leaving it to the garbage collector: " + t);
+		}
+	}
+
+	/** Forget the mapping and the level index of the file at {@code path}, if any. */
+	static public final void invalidate(final String path) {
+		synchronized (mapped) {
+			final Mapping mp = mapped.remove(path);
+			if (null != mp) retire(mp);
+		}
+		synchronized (indexes) {
+			indexes.remove(path);
+		}
+	}
+
+	/** Forget all mappings and level indexes. */
+	static public final void invalidateAll() {
+		synchronized (mapped) {
+			for (final Mapping mp : mapped.values()) retire(mp);
+			mapped.clear();
+		}
+		synchronized (indexes) {
+			indexes.clear();
+		}
+	}
+
+	/** Delete the file at {@code path} with all its levels. */
+	static public final boolean remove(final String path) {
+		synchronized (lock(path)) {
+			invalidate(path);
+			final File f = new File(path);
+			return !f.exists() || f.delete();
+		}
+	}
+
+	/** Benchmark of mipmap level fetch latency, packed versus one {@link RagMipMaps} file per level.
+	 *  Writes {@code n} synthetic images of {@code width} x {@code height} pixels with all their levels
+	 *  in both formats into {@code folder}, then fetches every level of every image once with no file
+	 *  mapped ("cold") and then {@code rounds} more times ("warm").
+	 *  For cold numbers that include the disk or network, drop the operating system's file cache
+	 *  between writing and reading, e.g. by running with {@code -read} a second time.
+	 *  <p>
+	 *  Last, reports the latency of fetching a single tile at full resolution, as needed to paint a region only.
+	 *  With {@code -deflate}, all channels are deflated, see {@link #deflate_all}.
+	 *  <p>
+	 *  Usage: {@code PackedMipMaps folder [-n 200] [-w 2048] [-h 2048] [-rounds 5] [-read] [-deflate]} */
+	static public void main(final String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: PackedMipMaps folder [-n 200] [-w 2048] [-h 2048] [-rounds 5] [-read] [-deflate]");
+			return;
+		}
+		String folder = args[0];
+		if (!folder.endsWith("/")) folder += "/";
+		int n = 200, width = 2048, height = 2048, rounds = 5;
+		boolean write = true;
+		for (int i=1; i<args.length; ++i) {
+			if ("-n".equals(args[i])) n = Integer.parseInt(args[++i]);
+			else if ("-w".equals(args[i])) width = Integer.parseInt(args[++i]);
+			else if ("-h".equals(args[i])) height = Integer.parseInt(args[++i]);
+			else if ("-rounds".equals(args[i])) rounds = Integer.parseInt(args[++i]);
+			else if ("-read".equals(args[i])) write = false;
+			else if ("-deflate".equals(args[i])) deflate_all = true;
+		}
+		int n_levels = 0;
+		for (int w = width, h = height; w >= 32 && h >= 32; w /= 2, h /= 2) n_levels++;
+
+		if (write) {
+			final Random rnd = new Random(42);
+			for (int k=0; k<n; ++k) {
+				byte[] grey = new byte[width * height];
+				for (int y=0, i=0; y<height; ++y) {
+					for (int x=0; x<width; ++x, ++i) {
+						grey[i] = (byte)(((x + y + k) >> 3) + rnd.nextInt(16));
+					}
+				}
+				int w = width, h = height;
+				for (int level=0; level<n_levels; ++level) {
+					RagMipMaps.save(folder + "rag/" + level + "/" + k + ".rag", new byte[][]{grey}, w, h);
+					save(folder + "packed/" + k + ".rtmm", level, new byte[][]{grey}, w, h);
+					// Halve with a 2x2 box filter
+					final int w2 = w / 2, h2 = h / 2;
+					final byte[] g2 = new byte[w2 * h2];
+					for (int y=0; y<h2; ++y) {
+						for (int x=0; x<w2; ++x) {
+							final int i = 2 * y * w + 2 * x;
+							g2[y * w2 + x] = (byte)(((grey[i] & 0xff) + (grey[i+1] & 0xff) + (grey[i+w] & 0xff) + (grey[i+w+1] & 0xff)) >> 2);
+						}
+					}
+					grey = g2;
+					w = w2;
+					h = h2;
+				}
+			}
+			System.out.println("Wrote " + n + " images with " + n_levels + " levels: " + (n * n_levels) + " rag files, " + n + " packed files");
+		}
+
+		final long[] rag = new long[n * n_levels * (rounds + 1)];
+		final long[] packed = new long[rag.length];
+		invalidateAll();
+		for (int round=0, s=0; round<=rounds; ++round) {
+			for (int k=0; k<n; ++k) {
+				// Fetch levels in the order of zooming in
+				for (int level=n_levels-1; level>=0; --level, ++s) {
+					long t0 = System.nanoTime();
+					ImageBytes ib = RagMipMaps.load(folder + "rag/" + level + "/" + k + ".rag");
+					rag[s] = System.nanoTime() - t0;
+					if (null != ib) CachingThread.storeForReuse(ib.c);
+					t0 = System.nanoTime();
+					ib = load(folder + "packed/" + k + ".rtmm", level);
+					packed[s] = System.nanoTime() - t0;
+					if (null != ib) CachingThread.storeForReuse(ib.c);
+				}
+			}
+		}
+		final long[] tile = new long[n * rounds];
+		for (int round=0, s=0; round<rounds; ++round) {
+			for (int k=0; k<n; ++k, ++s) {
+				final long t0 = System.nanoTime();
+				final ImageBytes ib = loadTile(folder + "packed/" + k + ".rtmm", 0, width / TILE_SIZE / 2, height / TILE_SIZE / 2);
+				tile[s] = System.nanoTime() - t0;
+				if (null != ib) CachingThread.storeForReuse(ib.c);
+			}
+		}
+		final int cold = n * n_levels;
+		report("rag    cold", Arrays.copyOfRange(rag, 0, cold));
+		report("packed cold", Arrays.copyOfRange(packed, 0, cold));
+		if (rounds > 0) {
+			report("rag    warm", Arrays.copyOfRange(rag, cold, rag.length));
+			report("packed warm", Arrays.copyOfRange(packed, cold, packed.length));
+			report("packed tile", tile);
+		}
+	}
+
+	static private final void report(final String label, final long[] t) {
+		Arrays.sort(t);
+		long sum = 0;
+		for (final long v : t) sum += v;
+		System.out.println(label + ": fetches " + t.length
+				+ "  mean " + (sum / t.length / 1000) + " us"
+				+ "  median " + (t[t.length / 2] / 1000) + " us"
+				+ "  p95 " + (t[(int)(t.length * 0.95)] / 1000) + " us");
+	}
+}
@@ -202,34 +202,40 @@ public final class RagMipMaps
 
 	static public final BufferedImage read(final String path) {
 		try {
-			final ImageBytes ib = load(path);
-			if (null == ib) return null;
-			final byte[][] ch = ib.c;
-			// Channel length also specifies the type
-			switch (ch.length) {
-				case GREY:
-					return ImageSaver.createGrayImage(ch[0], ib.width, ib.height);
-			}
-			try {
-				// Given that the BufferedImage is created with an int[], store the byte[] arrays for reuse
-				switch (ch.length) {
-					case GREY_ALPHA:
-						// TODO: price of PRE should be paid when saving, not when reading
-						return ImageSaver.createARGBImagePre(P.blendPre(ch[0], ch[1]), ib.width, ib.height);
-					case RGB:
-						return ImageSaver.createRGBImage(P.blend(ch[0], ch[1], ch[2]), ib.width, ib.height);
-					case RGBA:
-						// TODO: price of PRE should be paid when saving, not when reading
-						return ImageSaver.createARGBImagePre(P.blendPre(ch[0], ch[1], ch[2], ch[3]), ib.width, ib.height);
-				}
-			} finally {
-				CachingThread.storeForReuse(ch);
-			}
+			return createImage(load(path));
 		} catch (Exception e) {
 			IJError.print(e);
 		}
 		return null;
 	}
+
+	/** Returns null if {@code ib} is null. The channels of {@code ib} are stored for reuse
+	 *  unless the image is greyscale, whose {@link BufferedImage} uses them directly. */
+	static public final BufferedImage createImage(final ImageBytes ib) {
+		if (null == ib) return null;
+		final byte[][] ch = ib.c;
+		// Channel length also specifies the type
+		switch (ch.length) {
+			case GREY:
+				return ImageSaver.createGrayImage(ch[0], ib.width, ib.height);
+		}
+		try {
+			// Given that the BufferedImage is created with an int[], store the byte[] arrays for reuse
+			switch (ch.length) {
+				case GREY_ALPHA:
+					// TODO: price of PRE should be paid when saving, not when reading
+					return ImageSaver.createARGBImagePre(P.blendPre(ch[0], ch[1]), ib.width, ib.height);
+				case RGB:
+					return ImageSaver.createRGBImage(P.blend(ch[0], ch[1], ch[2]), ib.width, ib.height);
+				case RGBA:
+					// TODO: price of PRE should be paid when saving, not when reading
+					return ImageSaver.createARGBImagePre(P.blendPre(ch[0], ch[1], ch[2], ch[3]), ib.width, ib.height);
+			}
+		} finally {
+			CachingThread.storeForReuse(ch);
+		}
+		return null;
+	}
 	
 	static private final void read(final RandomAccessFile ra, final byte[] b) throws IOException {
 		int s = 0;
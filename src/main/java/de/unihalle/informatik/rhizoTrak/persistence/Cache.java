@@ -56,23 +56,30 @@ import java.awt.Image;
 import java.lang.ref.SoftReference;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import de.unihalle.informatik.rhizoTrak.display.MipMapImage;
 import de.unihalle.informatik.rhizoTrak.utils.CachingThread;
 import de.unihalle.informatik.rhizoTrak.utils.TypedHashMap;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
 
-/** Access is not synchronized, that is your duty.
+/** A thread-safe cache of mipmap pyramids and ImagePlus instances, keyed by Patch id.
  * 
- *  The current setup depends on calls to removeAndFlushSome to clean up empty slots;
- *  otherwise these slots are never cleaned up to avoid O(n) overhead (worst case)
- *  when removing a Pyramid for a given id, or O(1) cost of checking whether the first interval
- *  is empty and removing it. Granted, the latter could be done in all calls to {@link #append},
- *  but in the current setup this overhead is just not necessary.
+ *  Pyramids are distributed over a fixed number of segments by id, and each segment
+ *  is guarded by its own lock, so that readers and writers of different ids do not contend.
+ *  Callers do not need to synchronize access.
+ *  
+ *  Eviction follows a segmented LRU policy: a newly added pyramid enters the probation queue
+ *  of its segment, and is promoted to the protected queue when accessed again. When room has to
+ *  be made, the least recently used probation pyramid over all segments is evicted first, and
+ *  only then protected ones. This way scrolling once through a long series of layers does not
+ *  push out the images that are looked at repeatedly.
  *  
  *  This Cache self-regulates the size to stay always at or below max_bytes.
  *  If the smallest image added is larger than max_bytes, then that image will be the only
@@ -85,17 +92,28 @@ import de.unihalle.informatik.rhizoTrak.utils.Utils;
  *  When an image is removed, either directly or out of house-keeping to stay under max_bytes,
  *  that image is flushed. ImagePlus instances are not flushed, but if they point to an Image,
  *  then that image is flushed.
+ *  
+ *  Besides whole mipmap levels, a pyramid may hold tiles of levels, see {@link #putTile(long, int, int, int, Image, int)},
+ *  for painting only the visible region of large images. Tiles count and are evicted like images;
+ *  when a pyramid is evicted from, its tiles go first.
+ *  
+ *  Hits, misses and evictions are counted, see {@link #getStatistics()}.
+ *  
+ *  Locking order: a segment lock may be held while acquiring the lock on the table of ImagePlus users,
+ *  never the other way around, and no two segment locks are ever held at the same time.
  */
 public class Cache {
 	
 	private final class Pyramid {
 		private final Image[] images;
-		private TypedHashMap<Long,Pyramid> interval = null;
 		private final long id;
 		//private ImagePlus imp;
 		private SoftReference<ImagePlus> srimp;
 		private long impSize;
 		private int n_images; // counts non-null instances in images array
+		private TypedHashMap<Long,Image> tiles = null; // see tileKey; null when there are none
+		private boolean in_protected = false; // whether in the protected or the probation queue of its segment
+		private long last_access; // tick of the last access, to compare recency across segments
 
 		/** ASSUMES that @param image is not null. */
 		Pyramid(final long id, final Image image, final int level) {
@@ -114,6 +132,40 @@ public class Cache {
 			this.n_images = 0;
 		}
 
+		/** A pyramid for tiles only. */
+		Pyramid(final long id, final int maxdim) {
+			this.id = id;
+			this.images = new Image[maxLevel(maxdim)];
+			this.n_images = 0;
+		}
+
+		/** Returns the number of bytes used, or zero if there was already a tile for @param key. */
+		final long addTile(final long key, final Image tile) {
+			if (null == tiles) tiles = new TypedHashMap<Long,Image>();
+			else if (tiles.hasKey(key)) return 0;
+			tiles.put(key, tile);
+			return Cache.size(tile);
+		}
+
+		/** Flushes the tiles of @param level, or of all levels if negative.
+		 *  Returns the number of bytes freed (negative) and stores the number of tiles removed at @param n[0]. */
+		final long removeTiles(final int level, final int[] n) {
+			n[0] = 0;
+			if (null == tiles) return 0;
+			long b = 0;
+			for (final Iterator<Map.Entry<Long,Image>> it = tiles.entrySet().iterator(); it.hasNext(); ) {
+				final Map.Entry<Long,Image> e = it.next();
+				if (level >= 0 && level != tileLevel(e.getKey())) continue;
+				final Image tile = e.getValue();
+				b -= Cache.size(tile);
+				tile.flush(); CachingThread.storeArrayForReuse(tile);
+				it.remove();
+				n[0]++;
+			}
+			if (tiles.isEmpty()) tiles = null;
+			return b;
+		}
+
 		/** Accepts a null @param img.
 		 *  Returns number of bytes used/free (positive/negative)
 		 *  If it was null here and img is not null, returns zero: no bytes to free. */
@@ -145,15 +197,15 @@ public class Cache {
 
 		/** Returns the number of bytes used/free (positive/negative). */
 		final long replace(final ImagePlus impNew) {
-			final ImagePlus pyrimp = getImagePlus();
 			if (null == impNew) {
-				if (null == pyrimp) return 0; // A: both null
-				// B: this.imp is not null; some bytes to be free 
-				if (null != this.srimp) this.srimp.clear();
-				return -impSize;
+				if (null == this.srimp) return 0; // A: both null
+				// B: this.imp is not null, or was garbage collected; its bytes are to be freed
+				final long b = -impSize;
+				setImagePlus(null);
+				return b;
 			} else {
 				// imp is not null:
-				if (null == pyrimp) {
+				if (null == this.srimp) {
 					// C: this.imp is null; some bytes to be used
 					setImagePlus(impNew);
 					return impSize;
@@ -167,6 +219,7 @@ public class Cache {
 		}
 
 		final void setImagePlus(final ImagePlus imp) {
+			if (null != this.srimp) this.srimp.clear();
 			if (null == imp) {
 				this.impSize = 0;
 				this.srimp = null;
@@ -179,6 +232,71 @@ public class Cache {
 		final ImagePlus getImagePlus() {
 			return null == this.srimp ? null : this.srimp.get();
 		}
+
+		/** Whether an ImagePlus was stored and accounted for, even if it has been garbage collected since. */
+		final boolean hasImagePlus() {
+			return null != this.srimp;
+		}
+
+		final boolean isEmpty() {
+			return 0 == n_images && null == this.srimp && null == tiles;
+		}
+	}
+
+	/** One lock stripe: the pyramids whose id hashes to it, and their probation and protected LRU queues.
+	 *  All access must be synchronized on the Segment instance. */
+	private final class Segment {
+		final TypedHashMap<Long,Pyramid> pyramids = new TypedHashMap<Long,Pyramid>();
+		// insertion-ordered: the first entry is the least recently used one
+		final LinkedHashMap<Long,Pyramid> probation = new LinkedHashMap<Long,Pyramid>();
+		final LinkedHashMap<Long,Pyramid> protect = new LinkedHashMap<Long,Pyramid>();
+
+		/** Add a new pyramid to the probation queue. */
+		final void add(final Pyramid p) {
+			p.last_access = clock.incrementAndGet();
+			pyramids.put(p.id, p);
+			probation.put(p.id, p);
+		}
+
+		/** Record an access: move to the end of the protected queue, demoting
+		 *  the least recently used protected pyramids if the protected queue grew too large. */
+		final void touch(final Pyramid p) {
+			p.last_access = clock.incrementAndGet();
+			if (p.in_protected) {
+				protect.remove(p.id);
+			} else {
+				probation.remove(p.id);
+				p.in_protected = true;
+			}
+			protect.put(p.id, p);
+			final int max_protected = Math.max(1, (int)(PROTECTED_FRACTION * pyramids.size()));
+			while (protect.size() > max_protected) {
+				final Iterator<Pyramid> it = protect.values().iterator();
+				final Pyramid q = it.next();
+				it.remove();
+				q.in_protected = false;
+				probation.put(q.id, q);
+			}
+		}
+
+		final void drop(final Pyramid p) {
+			pyramids.removeEntry(p.id);
+			if (p.in_protected) protect.remove(p.id);
+			else probation.remove(p.id);
+		}
+
+		/** The next pyramid to evict from this segment, or null if empty. */
+		final Pyramid eldest() {
+			if (!probation.isEmpty()) return probation.values().iterator().next();
+			if (!protect.isEmpty()) return protect.values().iterator().next();
+			return null;
+		}
+
+		final void clear() {
+			pyramids.clear();
+			probation.clear();
+			protect.clear();
+		}
 	}
 
 	private final class ImagePlusUsers {
@@ -195,7 +313,8 @@ public class Cache {
 		final void addUser(final Long id) {
 			users.add(id);
 		}
-		/** When the number of users is zero, it removes itself from imps. */
+		/** When the number of users is zero, it removes itself from imps.
+		 *  Must be called while synchronized on imps. */
 		final void removeUser(final Long id, final String path) {
 			users.remove(id);
 			if (users.isEmpty()) {
@@ -204,7 +323,7 @@ public class Cache {
 		}
 	}
 	
-	/** Keep a table of loaded ImagePlus. */
+	/** Keep a table of loaded ImagePlus. Access is synchronized on the table itself. */
 	private final TypedHashMap<String,ImagePlusUsers> imps = new TypedHashMap<String,ImagePlusUsers>();
 	
 	static private final int[] PIXEL_SIZE = new int[]{1, 2, 4, 1, 4}; // GRAY0, GRAY16, GRAY32, COLOR_256 and COLOR_RGB
@@ -218,6 +337,14 @@ public class Cache {
 		return img.getWidth(null) * img.getHeight(null) * 4 + OVERHEAD; // assume int[] image
  	}
 	
+	static private final long tileKey(final int level, final int tx, final int ty) {
+		return ((long)level << 48) | ((long)ty << 24) | tx;
+	}
+
+	static private final int tileLevel(final long key) {
+		return (int)(key >>> 48);
+	}
+
 	static private final int computeLevel(final int i) {
 		return (int)(0.5 + ((Math.log(i) - Math.log(32)) / Math.log(2))) + 1;
 	}
@@ -236,62 +363,63 @@ public class Cache {
 	}
 	
 	private final int maxLevel(final Image image, final int starting_level) {
-		/*
-		final int w = image.getWidth(null);
-		final int h = image.getHeight(null);
-		int max_level = starting_level;
-
-		while (w > 32 || h > 32) {
-			w /= 2;
-			h /= 2;
-			max_level++;
-		}
-		return max_level;
-		*/
-
 		final int max = Math.max(image.getWidth(null), image.getHeight(null));
 		return starting_level + (max < max_levels.length ? max_levels[max] : computeLevel(max));
-
-		/*
-		if (max >= max_levels.length) {
-			return starting_level + computeLevel(max);
-		} else {
-			return starting_level + max_levels[max];
-		}
-		*/
 	}
 	
 	///////////////
-	
-	private final TypedHashMap<Long,Pyramid> pyramids = new TypedHashMap<Long,Pyramid>();
-	private final LinkedList<TypedHashMap<Long,Pyramid>> intervals = new LinkedList<TypedHashMap<Long,Pyramid>>();
-	private int count = 0; // if the cache is empty, this count must be 0;
+
+	/** Number of lock stripes, as a power of two. */
+	static private final int SEGMENT_BITS = 5;
+	static private final int N_SEGMENTS = 1 << SEGMENT_BITS;
+
+	/** Fraction of the pyramids of a segment that may reside in its protected queue. */
+	static private final double PROTECTED_FRACTION = 0.8;
+
+	private final Segment[] segments = new Segment[N_SEGMENTS];
+	{
+		for (int i=0; i<N_SEGMENTS; i++) segments[i] = new Segment();
+	}
+
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger count = new AtomicInteger(); // if the cache is empty, this count must be 0;
 						   // if not empty, then it counts the number of images stored (not of pyramids)
-	private long bytes = 0,
-				 max_bytes = 0; // negative values are ok
+	private final AtomicLong bytes = new AtomicLong();
+	private volatile long max_bytes = 0; // negative values are ok
+
+	// statistics
+	private final LongAdder hits = new LongAdder(),
+	                        misses = new LongAdder(),
+	                        evictions = new LongAdder(),
+	                        evicted_bytes = new LongAdder();
 	
 	public Cache(final long max_bytes) {
 		this.max_bytes = max_bytes;
 	}
+
+	private final Segment segmentFor(final long id) {
+		// Fibonacci hashing: consecutive ids spread over all segments
+		return segments[(int)((id * 0x9E3779B97F4A7C15L) >>> (64 - SEGMENT_BITS))];
+	}
 	
 	private final void addBytes(final long b) {
-		this.bytes += b;
-		//Utils.log2("Added " + b + " and then: bytes = " + this.bytes);
-		//Utils.printCaller(this, 3);
+		this.bytes.addAndGet(b);
 	}
 	
 	public void setMaxBytes(final long max_bytes) {
-		if (max_bytes < this.max_bytes) {
-			removeAndFlushSome(this.max_bytes - max_bytes);
-		}
 		this.max_bytes = max_bytes;
+		final long b = bytes.get();
+		if (b > max_bytes) {
+			removeAndFlushSome(b - max_bytes);
+		}
 	}
 	
 	/** Remove and flush the minimal amount of images to ensure there are at least min_free_bytes free. */
 	public final long ensureFree(final long min_free_bytes) {
-		if (bytes + min_free_bytes > max_bytes) {
+		final long b = bytes.get();
+		if (b + min_free_bytes > max_bytes) {
 			// remove the difference (or a bit more):
-			return removeAndFlushSome(bytes + min_free_bytes - max_bytes);
+			return removeAndFlushSome(b + min_free_bytes - max_bytes);
 		}
 		return 0;
 	}
@@ -300,149 +428,185 @@ public class Cache {
 	public long getMaxBytes() { return max_bytes; }
 	
 	/** Current estimated space occupied by the images in this cache. */
-	public long getBytes() { return bytes; }
+	public long getBytes() { return bytes.get(); }
 	
 	public final boolean contains(final long id) {
-		return pyramids.hasKey(id);
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			return s.pyramids.hasKey(id);
+		}
 	}
 
 	public final boolean contains(final long id, final int level) {
-		final Pyramid p = pyramids.getValue(id);
-		return null != p && null != p.images[level];
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			return null != p && level < p.images.length && null != p.images[level];
+		}
 	}
 
 	public final Image get(final long id, final int level) {
-		final Pyramid p = pyramids.getValue(id);
-		if (null == p) return null;
-		if (null == p || null == p.images[level]) return null;
-		
-		update(p);
-		
-		return p.images[level];
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p || level >= p.images.length || null == p.images[level]) {
+				misses.increment();
+				return null;
+			}
+			s.touch(p);
+			hits.increment();
+			return p.images[level];
+		}
 	}
 
 	public final ImagePlus get(final String path) {
-		final ImagePlusUsers u = imps.getValue(path);
-		return null == u ? null : u.getImagePlus();
+		synchronized (imps) {
+			final ImagePlusUsers u = imps.getValue(path);
+			return null == u ? null : u.getImagePlus();
+		}
 	}
 	
 	public final ImagePlus get(final long id) {
-		final Pyramid p = pyramids.getValue(id);
-		if (null == p) return null;
-		final ImagePlus pyrimp = p.getImagePlus();
-		if (null == pyrimp) return null;
-		
-		update(p);
-		
-		return pyrimp;
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			final ImagePlus pyrimp = null == p ? null : p.getImagePlus();
+			if (null == pyrimp) {
+				misses.increment();
+				return null;
+			}
+			s.touch(p);
+			hits.increment();
+			return pyrimp;
+		}
 	}
 
 	public final Map<Integer,Image> getAll(final long id) {
-		final Pyramid p = pyramids.getValue(id);
 		final TypedHashMap<Integer,Image> m = new TypedHashMap<Integer,Image>();
-		if (null == p) return m;
-		for (int i=0; i<p.images.length; i++) {
-			if (null != p.images[i]) m.put(i, p.images[i]);
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) return m;
+			for (int i=0; i<p.images.length; i++) {
+				if (null != p.images[i]) m.put(i, p.images[i]);
+			}
+			s.touch(p);
 		}
-		update(p);
 		return m;
 	}
 
 	public final MipMapImage getClosestAbove(final long id, final int level) {
-		final Pyramid p = pyramids.getValue(id);
-		if (null == p) return null;
-		for (int i=Math.min(level, p.images.length-1); i>-1; i--) {
-			if (null == p.images[i]) continue;
-			update(p);
-			final double scale = Math.pow( 2.0, i );
-			return new MipMapImage( p.images[ i ], scale, scale );
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null != p) {
+				for (int i=Math.min(level, p.images.length-1); i>-1; i--) {
+					if (null == p.images[i]) continue;
+					s.touch(p);
+					hits.increment();
+					final double scale = Math.pow( 2.0, i );
+					return new MipMapImage( p.images[ i ], scale, scale );
+				}
+			}
 		}
+		misses.increment();
 		return null;
 	}
 
 	// Below or equal
 	public final MipMapImage getClosestBelow(final long id, final int level) {
-		final Pyramid p = pyramids.getValue(id);
-		if (null == p) return null;
-		for (int i=level; i<p.images.length; i++) {
-			if (null == p.images[i]) continue;
-			update(p);
-			final double scale = Math.pow( 2.0, i );
-			return new MipMapImage( p.images[ i ], scale, scale );
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null != p) {
+				for (int i=level; i<p.images.length; i++) {
+					if (null == p.images[i]) continue;
+					s.touch(p);
+					hits.increment();
+					final double scale = Math.pow( 2.0, i );
+					return new MipMapImage( p.images[ i ], scale, scale );
+				}
+			}
 		}
+		misses.increment();
 		return null;
 	}
 
-	static private final int MAX_INTERVAL_SIZE = 20;
-	private TypedHashMap<Long,Pyramid> last_interval = new TypedHashMap<Long,Pyramid>(MAX_INTERVAL_SIZE);
-	{
-		intervals.add(last_interval);
-	}
-	
-	private final void reset() {
-		pyramids.clear();
-		intervals.clear();
-		count = 0;
-		bytes = 0;
-		last_interval = new TypedHashMap<Long, Pyramid>(MAX_INTERVAL_SIZE);
-		intervals.add(last_interval);
-		imps.clear();
-	}
-	
-	private final void update(final Pyramid p) {
-		// Last-access -based priority queue:
-		// Remove from current interval and append to last interval
-		if (last_interval != p.interval) {
-			p.interval.removeEntry(p.id);
-			append(p);
-		}
-	}
-
-	/** Append the key to the last interval, creating a new interval if the last is full.
-	 *  Then set that interval as the key's interval. */
-	private final void append(final Pyramid p) {
-		// May have been removed:
-		if (0 == intervals.size()) intervals.add(last_interval);
-		// Push an new interval if the last one is full:
-		if (last_interval.size() >= MAX_INTERVAL_SIZE) {
-			last_interval = new TypedHashMap<Long,Pyramid>(MAX_INTERVAL_SIZE);
-			intervals.add(last_interval);
-		}
-
-		last_interval.put(p.id, p);
-		// Reflection: tell the Pyramid instance where it is
-		p.interval = last_interval;
-	}
-
-	/** Makes up space to fit b, and also drops empty intervals from the head. */
+	/** Makes up space to fit b. Must not be called while holding a segment lock. */
 	private final void fit(final long b) {
 		addBytes(b);
-		if (bytes > max_bytes) {
-			removeAndFlushSome(bytes - max_bytes);
+		final long over = bytes.get() - max_bytes;
+		if (over > 0) {
+			removeAndFlushSome(over);
 		}
 	}
 	
 	// If already there, move to latest interval
 	// If the image is different, flush the old image
 	public final void put(final long id, final Image image, final int level) {
-		Pyramid p = pyramids.getValue(id);
-		if (null == p) {
-			p = new Pyramid(id, image, level);
-			pyramids.put(id, p);
-			append(p);
-			fit(Cache.size(image)); // AFTER adding it
-			count++;
-		} else {
-			update(p);
-			if (null == p.images[level]) count++;
-			fit(p.replace(image, level));
+		final Segment s = segmentFor(id);
+		final long b;
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) {
+				s.add(new Pyramid(id, image, level));
+				b = Cache.size(image);
+				count.incrementAndGet();
+			} else {
+				s.touch(p);
+				if (null == p.images[level]) count.incrementAndGet();
+				b = p.replace(image, level);
+			}
 		}
+		fit(b); // AFTER adding it
+	}
+
+	/** Returns the tile at column @param tx and row @param ty of mipmap @param level, or null if not cached. */
+	public final Image getTile(final long id, final int level, final int tx, final int ty) {
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			final Image tile = null == p || null == p.tiles ? null : p.tiles.getValue(tileKey(level, tx, ty));
+			if (null == tile) {
+				misses.increment();
+				return null;
+			}
+			s.touch(p);
+			hits.increment();
+			return tile;
+		}
+	}
+
+	/** Add a tile of mipmap @param level, unless another thread added it first.
+	 *  @param maxdim is max(width, height) of the Patch.
+	 *  @return the cached tile: either @param tile or the one added before. */
+	public final Image putTile(final long id, final int level, final int tx, final int ty, final Image tile, final int maxdim) {
+		final Segment s = segmentFor(id);
+		final long key = tileKey(level, tx, ty);
+		final long b;
+		synchronized (s) {
+			Pyramid p = s.pyramids.getValue(id);
+			if (null == p) {
+				p = new Pyramid(id, maxdim);
+				s.add(p);
+			} else {
+				s.touch(p);
+				final Image other = null == p.tiles ? null : p.tiles.getValue(key);
+				if (null != other) return other;
+			}
+			b = p.addTile(key, tile);
+			count.incrementAndGet();
+		}
+		fit(b); // AFTER adding it
+		return tile;
 	}
 	
 	public final void updateImagePlusPath(final String oldPath, final String newPath) {
-		final ImagePlusUsers u = imps.removeEntry(oldPath);
-		if (null == u) return;
-		imps.put(newPath, u);
+		synchronized (imps) {
+			final ImagePlusUsers u = imps.removeEntry(oldPath);
+			if (null == u) return;
+			imps.put(newPath, u);
+		}
 	}
 	
 	/** Returns null if the ImagePlus was preprocessed or doesn't have an original FileInfo
@@ -460,290 +624,368 @@ public class Cache {
 	/** @param maxdim is max(width, height) of the Patch wrapping @param imp;
 	 *  that is, the dimensions of the mipmap image. */
 	public final void put(final long id, final ImagePlus imp, final int maxdim) {
-		Pyramid p = pyramids.getValue(id);
-		if (null == p) {
-			p = new Pyramid(id, imp, maxdim);
-			pyramids.put(id, p);
-			append(p);
-			//
-			final String path = getPath(imp); // may be null, in which case it is not stored in imps
-			final ImagePlusUsers u = imps.getValue(path); // u is null if path is null
-			if (null == u) {
-				fit(Cache.size(imp)); // AFTER adding it to the pyramids
-				if (null != path) imps.put(path, new ImagePlusUsers(imp, id));
+		final Segment s = segmentFor(id);
+		long b = 0;
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) {
+				s.add(new Pyramid(id, imp, maxdim));
+				//
+				final String path = getPath(imp); // may be null, in which case it is not stored in imps
+				synchronized (imps) {
+					final ImagePlusUsers u = imps.getValue(path); // u is null if path is null
+					if (null == u) {
+						b = Cache.size(imp);
+						if (null != path) imps.put(path, new ImagePlusUsers(imp, id));
+					} else {
+						u.addUser(id);
+					}
+				}
+				//
+				count.incrementAndGet();
 			} else {
-				u.addUser(id);
-			}
-			//
-			count++;
-		} else {
-			update(p);
-			final ImagePlus pyrimp = p.getImagePlus();
-			if (null == pyrimp) count++;
-			else if (imp != pyrimp) {
-				// Remove from old
-				final String path1 = getPath(pyrimp);
-				final ImagePlusUsers u1 = imps.getValue(path1);
-				u1.removeUser(id, path1);
-				// Add to new, which may have to be created
-				final String path2 = getPath(imp);
-				final ImagePlusUsers u2 = imps.getValue(path2);
-				if (null == u2) {
-					if (null != path2) {
-						imps.put(path2, new ImagePlusUsers(imp, id));
+				s.touch(p);
+				final ImagePlus pyrimp = p.getImagePlus();
+				if (!p.hasImagePlus()) count.incrementAndGet();
+				else if (null != pyrimp && imp != pyrimp) {
+					synchronized (imps) {
+						// Remove from old
+						final String path1 = getPath(pyrimp);
+						final ImagePlusUsers u1 = imps.getValue(path1);
+						if (null != u1) u1.removeUser(id, path1);
+						// Add to new, which may have to be created
+						final String path2 = getPath(imp);
+						final ImagePlusUsers u2 = imps.getValue(path2);
+						if (null == u2) {
+							if (null != path2) {
+								imps.put(path2, new ImagePlusUsers(imp, id));
+							}
+						} else {
+							u2.addUser(id);
+						}
 					}
-				} else {
-					u2.addUser(id);
 				}
+				b = p.replace(imp);
 			}
-			fit(p.replace(imp));
 		}
+		fit(b); // AFTER adding it to the pyramids
 	}
 
 
-	// WARNING: an empty interval may be left behind. Will be cleaned up by removeAndFlushSome.
 	/** Remove one mipmap level, if there. */
 	public final Image remove(final long id, final int level) {
-		final Pyramid p = pyramids.getValue(id);
-		if (null == p) return null;
-		final Image im = p.images[level];
-		if (null != im) {
-			addBytes(p.replace(null, level));
-			count--;
-		}
-		// If at least one level is still not null, keep the pyramid; otherwise drop it
-		if (0 == p.n_images && null == p.getImagePlus()) {
-			p.interval.removeEntry(id);
-			pyramids.removeEntry(id);
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) return null;
+			final Image im = p.images[level];
+			if (null != im) {
+				addBytes(p.replace(null, level));
+				count.decrementAndGet();
+			}
+			final int[] n = new int[1];
+			addBytes(p.removeTiles(level, n));
+			count.addAndGet(-n[0]);
+			// If at least one level is still not null, keep the pyramid; otherwise drop it
+			if (p.isEmpty()) {
+				s.drop(p);
+			}
+			return im;
 		}
-		return im;
 	}
 	
 	/** Remove only the ImagePlus, if there. */
 	public final ImagePlus removeImagePlus(final long id) {
-		return removeImagePlus(pyramids.getValue(id));
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) return null;
+			final ImagePlus imp = p.getImagePlus();
+			if (!p.hasImagePlus()) return null;
+			removeImagePlus(p);
+			if (p.isEmpty()) {
+				s.drop(p);
+			}
+			return imp;
+		}
 	}
 	
-	private final ImagePlus removeImagePlus(final Pyramid p) {
-		if (null == p) return null;
+	/** Must be called while synchronized on the segment of @param p.
+	 *  Returns the number of bytes freed, which is zero if the ImagePlus is still used by another pyramid. */
+	private final long removeImagePlus(final Pyramid p) {
 		final ImagePlus pyrimp = p.getImagePlus();
-		if (null == pyrimp) return null;
-		final ImagePlus imp = pyrimp;
-		p.setImagePlus(null);
-		//
-		final String path = getPath(imp);
-		final ImagePlusUsers u = imps.getValue(path);
-		if (null != u) {
-			u.removeUser(p.id, path);
-		}
-		if (null == u || u.users.isEmpty()) {
-			// Reclaim space only if the ImagePlus is no longer referenced
-			// (u is null if the ImagePlus was preprocessed)
-			addBytes(p.replace(null));
-			count--;
-			//
-			if (0 == p.n_images) {
-				p.interval.removeEntry(p.id);
-				pyramids.removeEntry(p.id);
+		final String path = null == pyrimp ? null : getPath(pyrimp);
+		final boolean reclaim;
+		synchronized (imps) {
+			final ImagePlusUsers u = imps.getValue(path);
+			if (null != u) {
+				u.removeUser(p.id, path);
 			}
+			// Reclaim space only if the ImagePlus is no longer referenced
+			// (u is null if the ImagePlus was preprocessed or garbage collected)
+			reclaim = null == u || u.users.isEmpty();
+		}
+		count.decrementAndGet();
+		if (reclaim) {
+			final long b = p.replace((ImagePlus)null);
+			addBytes(b);
+			return -b;
 		}
-		return imp;
+		p.setImagePlus(null);
+		return 0;
 	}
 	
 	public final void remove(final long id) {
-		final Pyramid p = pyramids.removeEntry(id);
-		if (null == p) return;
-		if (null != p.getImagePlus()) {
-			removeImagePlus(p);
-		}
-		count -= p.n_images;
-		for (int i=0; i<p.images.length; i++) {
-			if (null == p.images[i]) continue;
-			addBytes(p.replace(null, i));
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) return;
+			s.drop(p);
+			if (p.hasImagePlus()) {
+				removeImagePlus(p);
+			}
+			count.addAndGet(-p.n_images);
+			for (int i=0; i<p.images.length; i++) {
+				if (null == p.images[i]) continue;
+				addBytes(p.replace(null, i));
+			}
+			final int[] n = new int[1];
+			addBytes(p.removeTiles(-1, n));
+			count.addAndGet(-n[0]);
 		}
-		p.interval.removeEntry(id);
 	}
 	
 	/** Flush all mipmaps, and forget all mipmaps and imps. */
 	public final void removeAndFlushAll() {
-		for (final Pyramid p : pyramids.values()) {
-			p.replace(null); // the imp may need cleanup
-			for (int i=0; i<p.images.length; i++) {
-				if (null == p.images[i]) continue;
-				p.images[i].flush(); CachingThread.storeArrayForReuse(p.images[i]);
+		for (final Segment s : segments) {
+			synchronized (s) {
+				for (final Pyramid p : s.pyramids.values()) {
+					if (p.hasImagePlus()) removeImagePlus(p); // the imp may need cleanup
+					long b = 0;
+					int n = 0;
+					for (int i=0; i<p.images.length; i++) {
+						if (null == p.images[i]) continue;
+						b += p.replace(null, i);
+						n++;
+					}
+					final int[] nt = new int[1];
+					b += p.removeTiles(-1, nt);
+					addBytes(b);
+					count.addAndGet(-n - nt[0]);
+				}
+				s.clear();
 			}
 		}
-		reset();
+		synchronized (imps) {
+			imps.clear();
+		}
 	}
 
-	// WARNING: an empty interval may be left behind. Will be cleaned up by removeAndFlushSome.
 	/** Does not alter the ImagePlus. */
 	public final void removeAndFlushPyramid(final long id) {
-		final Pyramid p = pyramids.getValue(id);
-		if (null == p) return;
-		count -= p.n_images;
-		for (int i=0; i<p.images.length; i++) {
+		final Segment s = segmentFor(id);
+		synchronized (s) {
+			final Pyramid p = s.pyramids.getValue(id);
+			if (null == p) return;
+			count.addAndGet(-p.n_images);
+			for (int i=0; i<p.images.length; i++) {
+				if (null == p.images[i]) continue;
+				addBytes(p.replace(null, i));
+			}
+			final int[] n = new int[1];
+			addBytes(p.removeTiles(-1, n));
+			count.addAndGet(-n[0]);
+			if (!p.hasImagePlus()) {
+				s.drop(p);
+			}
+		}
+	}
+
+	/** Find the segment holding the pyramid to evict next: the least recently used one
+	 *  of all probation queues, or if these are all empty, of all protected queues.
+	 *  Returns null if the cache is empty. */
+	private final Segment findEvictionSegment() {
+		Segment best = null;
+		boolean best_protected = true;
+		long best_access = Long.MAX_VALUE;
+		for (final Segment s : segments) {
+			synchronized (s) {
+				final Pyramid p = s.eldest();
+				if (null == p) continue;
+				if (best_protected && !p.in_protected) {
+					best = s;
+					best_protected = false;
+					best_access = p.last_access;
+				} else if (p.in_protected == best_protected && p.last_access < best_access) {
+					best = s;
+					best_access = p.last_access;
+				}
+			}
+		}
+		return best;
+	}
+
+	/** Evict images of the eldest pyramid of segment @param s, starting with its tiles, then its ImagePlus
+	 *  and then its mipmaps from the largest one, until at least @param min_bytes were freed
+	 *  or @param max_images images were removed. A pyramid from which all images were removed is dropped.
+	 *  Must be called while synchronized on @param s.
+	 *  
+	 *  @param freed accumulates the freed bytes at its first position.
+	 *  @return the number of images removed, or -1 if the segment is empty. */
+	private final int evictEldest(final Segment s, final long min_bytes, final int max_images, final long[] freed) {
+		final Pyramid p = s.eldest();
+		if (null == p) return -1;
+		int n = 0;
+		final long start = freed[0];
+		if (null != p.tiles) {
+			final int[] nt = new int[1];
+			final long b = p.removeTiles(-1, nt);
+			freed[0] -= b;
+			addBytes(b);
+			count.addAndGet(-nt[0]);
+			n += nt[0];
+		}
+		if (p.hasImagePlus()) {
+			final ImagePlus pyrimp = p.getImagePlus();
+			final String path = null == pyrimp ? null : getPath(pyrimp);
+			boolean release;
+			synchronized (imps) {
+				final ImagePlusUsers u = imps.getValue(path);
+				release = null == path || null == u || 1 == u.users.size();
+				if (release && null != path) imps.removeEntry(path);
+			}
+			if (release) {
+				final long b = p.replace((ImagePlus)null); // the imp may need cleanup
+				freed[0] -= b;
+				addBytes(b);
+				count.decrementAndGet();
+				n++;
+			}
+		}
+		for (int i=0; i<p.images.length && p.n_images > 0; i++) {
+			if (freed[0] - start >= min_bytes || n >= max_images) break;
 			if (null == p.images[i]) continue;
-			addBytes(p.replace(null, i));
+			final long b = p.replace(null, i);
+			freed[0] -= b;
+			addBytes(b);
+			count.decrementAndGet();
+			n++;
 		}
-		if (null == p.getImagePlus()) {
-			pyramids.removeEntry(id);
-			p.interval.removeEntry(id);
+		if (0 == p.n_images) {
+			// the ImagePlus, if still present, is shared with other pyramids: only unregister this one as a user
+			if (p.hasImagePlus()) freed[0] += removeImagePlus(p);
+			s.drop(p);
 		}
+		evictions.add(n);
+		evicted_bytes.add(freed[0] - start);
+		return n;
 	}
-	
+
 	/** Returns the number of released bytes. */
 	public final long removeAndFlushSome(final long min_bytes) {
-		long size = 0;
-		while (intervals.size() > 0) {
-			final TypedHashMap<Long,Pyramid> interval = intervals.getFirst();
-			for (final Iterator<Pyramid> it = interval.values().iterator(); it.hasNext(); ) {
-				final Pyramid p = it.next();
-				final ImagePlus pyrimp = p.getImagePlus();
-				if (null != pyrimp) {
-					final String path = getPath(pyrimp);
-					final ImagePlusUsers u = imps.getValue(path);
-					if (null == path || null == u || 1 == u.users.size()) {
-						//
-						imps.removeEntry(path);
-						//
-						final long s = p.replace(null); // the imp may need cleanup
-						size -= s;
-						addBytes(s);
-						count--;
-						if (size >= min_bytes) {
-							if (0 == p.n_images) {
-								pyramids.removeEntry(p.id);
-								it.remove();
-								if (interval.isEmpty()) intervals.removeFirst();
-							}
-							return size;
-						}
-					}
-				}
-				for (int i=0; i<p.images.length && p.n_images > 0; i++) {
-					if (null == p.images[i]) continue;
-					final long s = p.replace(null, i);
-					size -= s;
-					addBytes(s);
-					count--;
-					if (size >= min_bytes) {
-						if (0 == p.n_images) {
-							pyramids.removeEntry(p.id);
-							it.remove();
-							if (interval.isEmpty()) intervals.removeFirst();
-						}
-						return size;
-					}
-				}
-				pyramids.removeEntry(p.id);
-				it.remove(); // from the interval
+		final long[] freed = new long[1];
+		while (freed[0] < min_bytes) {
+			final Segment s = findEvictionSegment();
+			if (null == s) break;
+			synchronized (s) {
+				// the eldest may have changed meanwhile, but it is still a good candidate
+				evictEldest(s, min_bytes - freed[0], Integer.MAX_VALUE, freed);
 			}
-			intervals.removeFirst();
 		}
-		return size;
+		return freed[0];
 	}
 
+	/** Remove and flush @param n images; returns the number of released bytes. */
 	public final long removeAndFlushSome(int n) {
-		long size = 0;
-		while (intervals.size() > 0) {
-			final TypedHashMap<Long,Pyramid> interval = intervals.getFirst();
-			for (final Iterator<Pyramid> it = interval.values().iterator(); it.hasNext(); ) {
-				final Pyramid p = it.next();
-				final ImagePlus pyrimp = p.getImagePlus();
-				if (null != pyrimp) {
-					final String path = getPath(pyrimp);
-					final ImagePlusUsers u = imps.getValue(path);
-					if (null == path || null == u || 1 == u.users.size()) {
-						//
-						imps.removeEntry(path);
-						//
-						final long s = p.replace(null);
-						size -= s;
-						addBytes(s);
-						p.replace(null); // the imp may need cleanup
-						n--;
-						count--;
-						if (0 == n) {
-							if (0 == p.n_images) {
-								pyramids.removeEntry(p.id);
-								it.remove();
-								if (interval.isEmpty()) intervals.removeFirst();
-							}
-							return size;
-						}
-					}
-				}
-				for (int i=0; i<p.images.length; i++) {
-					if (null == p.images[i]) continue;
-					final long s = p.replace(null, i);
-					size -= s;
-					addBytes(s);
-					n--;
-					count--;
-					if (0 == n) {
-						if (0 == p.n_images) {
-							pyramids.removeEntry(p.id);
-							it.remove();
-							if (interval.isEmpty()) intervals.removeFirst();
-						}
-						return size;
-					}
-				}
-				pyramids.removeEntry(p.id);
-				it.remove(); // from the interval
+		final long[] freed = new long[1];
+		while (n > 0) {
+			final Segment s = findEvictionSegment();
+			if (null == s) break;
+			synchronized (s) {
+				final int k = evictEldest(s, Long.MAX_VALUE, n, freed);
+				if (k > 0) n -= k;
 			}
-			intervals.removeFirst();
 		}
-		return size;
+		return freed[0];
 	}
 
 	public final int size() {
-		return count;
+		return count.get();
+	}
+
+	/** Number of lookups that found a suitable image. */
+	public long getHits() { return hits.sum(); }
+
+	/** Number of lookups that did not find a suitable image. */
+	public long getMisses() { return misses.sum(); }
+
+	/** Number of images removed to make room. */
+	public long getEvictions() { return evictions.sum(); }
+
+	/** Number of bytes released by removing images to make room. */
+	public long getEvictedBytes() { return evicted_bytes.sum(); }
+
+	/** Fraction of lookups that were hits, or zero if there were none. */
+	public double getHitRate() {
+		final long h = hits.sum(),
+		           total = h + misses.sum();
+		return 0 == total ? 0 : h / (double)total;
+	}
+
+	public void resetStatistics() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		evicted_bytes.reset();
+	}
+
+	public String getStatistics() {
+		return new StringBuilder("hits: ").append(getHits())
+			.append(", misses: ").append(getMisses())
+			.append(" (hit rate ").append((int)(100 * getHitRate())).append("%)")
+			.append(", evictions: ").append(getEvictions())
+			.append(" (").append(getEvictedBytes()).append(" bytes)").toString();
 	}
 	
 	public void debug() {
 		Utils.log2("@@@@@@@@@@ START");
-		Utils.log2("pyramids: " + pyramids.size());
-		for (Map.Entry<Long,Pyramid> e : new TreeMap<Long,Pyramid>(pyramids).entrySet()) {
-			Pyramid p = e.getValue();
-			Utils.log2("p id:" + e.getKey() + ";  images: " + p.n_images + " / " + p.images.length + ";  imp: " + e.getValue().getImagePlus());
-		}
-		Utils.log2("----");
-		int i = 0;
-		for (TypedHashMap<Long,Pyramid> m : intervals) {
-			Utils.log2("interval " + (++i));
-			for (Map.Entry<Long,Pyramid> e : new TreeMap<Long,Pyramid>(m).entrySet()) {
-				Pyramid p = e.getValue();
-				Utils.log2("p id:" + e.getKey() + ";  images: " + p.n_images + " / " + p.images.length + "; imp: " + e.getValue().getImagePlus());
-				int[] levels = new int[p.images.length];
-				for (int k=0; k<levels.length; k++) levels[k] = null == p.images[k] ? 0 : 1;
-				Utils.log2("      levels: " + Utils.toString(levels));
+		int n_pyramids = 0;
+		for (int k=0; k<N_SEGMENTS; k++) {
+			final Segment s = segments[k];
+			synchronized (s) {
+				n_pyramids += s.pyramids.size();
+				Utils.log2("segment " + k + ": pyramids: " + s.pyramids.size() + ", probation: " + s.probation.size() + ", protected: " + s.protect.size());
+				for (Map.Entry<Long,Pyramid> e : new TreeMap<Long,Pyramid>(s.pyramids).entrySet()) {
+					Pyramid p = e.getValue();
+					Utils.log2("p id:" + e.getKey() + ";  images: " + p.n_images + " / " + p.images.length + ";  imp: " + p.getImagePlus() + (p.in_protected ? "; protected" : ""));
+					int[] levels = new int[p.images.length];
+					for (int i=0; i<levels.length; i++) levels[i] = null == p.images[i] ? 0 : 1;
+					Utils.log2("      levels: " + Utils.toString(levels));
+				}
 			}
 		}
 		Utils.log2("----");
-		for (Map.Entry<String,ImagePlusUsers> e : imps.entrySet()) {
-			ImagePlusUsers u = e.getValue();
-			Utils.log2(u.users.size() + " ImagePlusUsers of " + e.getKey());
+		synchronized (imps) {
+			for (Map.Entry<String,ImagePlusUsers> e : imps.entrySet()) {
+				ImagePlusUsers u = e.getValue();
+				Utils.log2(u.users.size() + " ImagePlusUsers of " + e.getKey());
+			}
+			Utils.log2("----");
+			Utils.log2("imps: " + imps.size());
 		}
 		Utils.log2("----");
-		Utils.log2("imps: " + imps.size());
-		Utils.log2("----");
 		// Analytics
-		Utils.log2("count is: " + count + ", size is: " + bytes + " / " + max_bytes + ", intervals.size = " + intervals.size() + ", pyr.size = " + pyramids.size());
-		TypedHashMap<Integer,Integer> s = new TypedHashMap<Integer,Integer>();
-		for (TypedHashMap<Long,Pyramid> m : intervals) {
-			int l = m.size();
-			Integer in = s.getValue(l);
-			if (null == in) s.put(l, 1);
-			else s.put(l, in.intValue() + 1);
-		}
-		Utils.log2("interval size distribution: ", s);
+		Utils.log2("count is: " + count.get() + ", size is: " + bytes.get() + " / " + max_bytes + ", pyr.size = " + n_pyramids);
+		Utils.log2(getStatistics());
 	}
 	
 	public final long seqFindId(final ImagePlus imp) {
-		for (final Pyramid p : pyramids.values()) {
-			if (p.getImagePlus() == imp) return p.id;
+		for (final Segment s : segments) {
+			synchronized (s) {
+				for (final Pyramid p : s.pyramids.values()) {
+					if (p.getImagePlus() == imp) return p.id;
+				}
+			}
 		}
 		return Long.MIN_VALUE;
 	}
@@ -0,0 +1,174 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.ImageObserver;
+import java.awt.image.ImageProducer;
+import java.util.Random;
+
+import de.unihalle.informatik.rhizoTrak.display.MipMapImage;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Measures the throughput of the mipmap {@link Cache} with concurrent readers,
+ *  once with every access serialized on a single lock, as the Loader used to do with its db_lock,
+ *  and once accessing the cache directly.
+ *  <p>
+ *  Each reader repeatedly requests a random mipmap level of a random Patch id, where a fifth of the ids
+ *  receive most of the requests, and puts a new image when the lookup misses, like Loader.fetchAWTImage.
+ *  Images carry no pixels, only their dimensions, so that the cache itself is measured.
+ *  </p>
+ *  <p>
+ *  Usage: <code>CacheBenchmark [seconds per run] [number of ids] [cache size in MB] [readers...]</code>,
+ *  by default 3 seconds, 2000 ids, 512 MB, and 1, 4 and 16 readers.
+ *  </p>
+ */
+public class CacheBenchmark {
+
+	/** An image without pixels, with a type distinct from BufferedImage so that flushing it is cheap. */
+	static private final class SyntheticImage extends Image {
+		private final int width, height;
+		SyntheticImage(final int width, final int height) {
+			this.width = width;
+			this.height = height;
+		}
+		@Override
+		public int getWidth(final ImageObserver observer) { return width; }
+		@Override
+		public int getHeight(final ImageObserver observer) { return height; }
+		@Override
+		public ImageProducer getSource() { return null; }
+		@Override
+		public Graphics getGraphics() { return null; }
+		@Override
+		public Object getProperty(final String name, final ImageObserver observer) { return null; }
+	}
+
+	static private final int IMAGE_SIZE = 256;
+	static private final int N_LEVELS = 4; // down to 32 pixels, the smallest mipmap level
+
+	static public void main(final String[] args) {
+		final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+		final int n_ids = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		final long max_bytes = (args.length > 2 ? Long.parseLong(args[2]) : 512) * 1024 * 1024;
+		int[] readers = new int[]{1, 4, 16};
+		if (args.length > 3) {
+			readers = new int[args.length - 3];
+			for (int i=0; i<readers.length; i++) readers[i] = Integer.parseInt(args[i + 3]);
+		}
+
+		Utils.log("Cache benchmark: " + n_ids + " ids, " + (max_bytes / (1024 * 1024)) + " MB, " + seconds + " s per run");
+		for (final int n : readers) {
+			for (final boolean global_lock : new boolean[]{true, false}) {
+				final Cache cache = new Cache(max_bytes);
+				run(cache, n, n_ids, seconds / 4, global_lock); // warm up
+				cache.resetStatistics();
+				final double ops = run(cache, n, n_ids, seconds, global_lock);
+				Utils.log("  " + n + " readers, " + (global_lock ? "single lock: " : "striped:     ")
+						+ (long)(ops / seconds) + " ops/s; " + cache.getStatistics());
+			}
+		}
+	}
+
+	/** Returns the total number of lookups done by @param n_readers threads during @param seconds. */
+	static private long run(final Cache cache, final int n_readers, final int n_ids, final double seconds, final boolean global_lock) {
+		final Object lock = new Object();
+		final long[] ops = new long[n_readers];
+		final long end = System.nanoTime() + (long)(seconds * 1e9);
+		final Thread[] threads = new Thread[n_readers];
+		for (int t=0; t<n_readers; t++) {
+			final int k = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					final Random random = new Random(k);
+					final int n_hot = Math.max(1, n_ids / 5);
+					long n = 0;
+					while (true) {
+						if (0 == (n & 0xff) && System.nanoTime() >= end) break;
+						// 80% of the requests go to 20% of the ids
+						final long id = random.nextInt(5) < 4 ? random.nextInt(n_hot) : random.nextInt(n_ids);
+						final int level = random.nextInt(N_LEVELS);
+						final MipMapImage mipMap;
+						if (global_lock) {
+							synchronized (lock) {
+								mipMap = cache.getClosestAbove(id, level);
+							}
+						} else {
+							mipMap = cache.getClosestAbove(id, level);
+						}
+						if (null == mipMap || mipMap.scaleX != Math.pow(2, level)) {
+							final Image image = new SyntheticImage(IMAGE_SIZE >> level, IMAGE_SIZE >> level);
+							if (global_lock) {
+								synchronized (lock) {
+									cache.put(id, image, level);
+								}
+							} else {
+								cache.put(id, image, level);
+							}
+						}
+						n++;
+					}
+					ops[k] = n;
+				}
+			};
+		}
+		for (final Thread t : threads) t.start();
+		long total = 0;
+		for (int t=0; t<n_readers; t++) {
+			try {
+				threads[t].join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			total += ops[t];
+		}
+		return total;
+	}
+}
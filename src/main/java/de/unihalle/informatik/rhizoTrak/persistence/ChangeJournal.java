@@ -0,0 +1,442 @@
+/*
+ * This file is part of the rhizoTrak project.
+ *
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code
+ * are directly derived/copied from the source code of TrakEM2.
+ *
+ * For more information on TrakEM2 please visit its websites:
+ *
+ *  https://imagej.net/TrakEM2
+ *
+ *  https://github.com/trakem2/TrakEM2/wiki
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL.
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.display.CompactTreelineNodes;
+import de.unihalle.informatik.rhizoTrak.display.Connector;
+import de.unihalle.informatik.rhizoTrak.display.Displayable;
+import de.unihalle.informatik.rhizoTrak.display.Layer;
+import de.unihalle.informatik.rhizoTrak.display.LayerSet;
+import de.unihalle.informatik.rhizoTrak.display.Treeline;
+import de.unihalle.informatik.rhizoTrak.display.ZDisplayable;
+import de.unihalle.informatik.rhizoTrak.tree.ProjectThing;
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Append-only journal of the edits of treelines and connectors since the project was last saved.
+ * <p>
+ * The undo machinery of the {@link LayerSet} reports for each new undo step which objects it is about,
+ * see {@link #touched(Collection)}. {@link #flush()}, called by the autosaver instead of saving the whole
+ * project, appends one record with the current state of each touched or added treeline (title, color, transform
+ * and its nodes as columns, see {@link CompactTreelineNodes}) and one record per removed treeline.
+ * Saving the project deletes the journal.
+ * <p>
+ * The journal is stored next to the project file with the extension {@link #EXTENSION} and records
+ * size and modification time of the project file it applies to. When opening a project and a matching
+ * journal exists, rhizoTrak was not closed properly and {@link #replay(Project)} applies the journaled
+ * edits to the project as read from the project file. Each record carries a checksum, so a record
+ * torn by a crash ends the replay. If the journal does not match the project file, it is ignored.
+ *
+ * @author posch
+ */
+public class ChangeJournal {
+
+	/** Appended to the path of the project file. */
+	static public final String EXTENSION = ".journal";
+
+	static private final byte[] MAGIC = {'R', 'T', 'J', 'R', 'N', 'L', '\r', '\n'};
+	/** 2: with a node color column, which is always empty now */
+	static private final int VERSION = 2;
+	static private final int HEADER_SIZE = 8 + 4 + 8 + 8;
+
+	static private final byte UPSERT = 1;
+	static private final byte DELETE = 2;
+
+	static private final byte TREELINE = 0;
+	static private final byte CONNECTOR = 1;
+
+	/** Above this size the autosaver saves the whole project instead of appending to the journal. */
+	static private final long MAX_JOURNAL_BYTES = 64L << 20;
+
+	private final Project project;
+
+	/** Treelines and connectors to write on the next flush. */
+	private final HashMap<Long,Treeline> dirty = new HashMap<Long,Treeline>();
+	/** Ids of the treelines and connectors in the project file plus the journal, to detect removals. */
+	private HashSet<Long> known = null;
+	/** The journal file appended to in this session, null if not yet started. */
+	private File file = null;
+	/** Whether edits were recovered from a journal and not yet saved to the project file. */
+	private boolean recovered = false;
+
+	public ChangeJournal(final Project project) {
+		this.project = project;
+	}
+
+	/** Treelines and connectors in <code>ds</code> were edited or are about to be edited. */
+	public void touched(final Collection<? extends Displayable> ds) {
+		synchronized (dirty) {
+			for (final Displayable d : ds) {
+				if (d instanceof Treeline) dirty.put(d.getId(), (Treeline)d);
+			}
+		}
+	}
+
+	/** @return whether edits were recovered from a journal and are not yet saved to the project file */
+	public boolean isRecovered() {
+		return recovered;
+	}
+
+	/** @return the journal file for the current project file, or null if the project was never saved */
+	private File getJournalFile() {
+		final String path = project.getLoader() instanceof FSLoader ? ((FSLoader)project.getLoader()).getProjectXMLPath() : null;
+		if (null == path || FSLoader.isURL(path)) return null;
+		return new File(path + EXTENSION);
+	}
+
+	/** @return whether the autosaver should {@link #flush()} instead of saving the whole project */
+	public boolean canFlush() {
+		final File f = getJournalFile();
+		if (null == f || !projectFile(f).exists()) return false;
+		// a journal of another session is started over
+		return !f.equals(file) || f.length() < MAX_JOURNAL_BYTES;
+	}
+
+	/** Append the state of the touched, added and the removal of deleted treelines and connectors to the journal.
+	 *  @return false if the journal could not be written, the edits are then kept for the next flush */
+	public synchronized boolean flush() {
+		final LayerSet ls = project.getRootLayerSet();
+		if (null == ls) return false;
+		final HashMap<Long,Treeline> to_write;
+		synchronized (dirty) {
+			to_write = new HashMap<Long,Treeline>(dirty);
+			dirty.clear();
+		}
+		if (null == known) known = currentIds(ls);
+		// compare with the known ids to find added and removed ones
+		final HashSet<Long> current = new HashSet<Long>();
+		for (final ZDisplayable zd : ls.getZDisplayables(Treeline.class, true)) {
+			current.add(zd.getId());
+			if (!known.contains(zd.getId())) to_write.put(zd.getId(), (Treeline)zd);
+		}
+		final HashSet<Long> removed = new HashSet<Long>(known);
+		removed.removeAll(current);
+		to_write.keySet().retainAll(current);
+		if (to_write.isEmpty() && removed.isEmpty()) return true;
+
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		final ArrayList<Treeline> failed = new ArrayList<Treeline>();
+		try {
+			for (final Treeline tl : to_write.values()) {
+				try {
+					writeRecord(records, UPSERT, upsert(tl));
+				} catch (final RuntimeException e) {
+					// edited concurrently; try again on the next flush
+					failed.add(tl);
+				}
+			}
+			for (final Long id : removed) {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+				new DataOutputStream(bytes).writeLong(id);
+				writeRecord(records, DELETE, bytes.toByteArray());
+			}
+			append(records.toByteArray());
+		} catch (final IOException e) {
+			Utils.log("Could not write the change journal: " + e);
+			touched(to_write.values());
+			return false;
+		}
+		if (!failed.isEmpty()) touched(failed);
+		known = current;
+		return true;
+	}
+
+	static private HashSet<Long> currentIds(final LayerSet ls) {
+		final HashSet<Long> ids = new HashSet<Long>();
+		for (final ZDisplayable zd : ls.getZDisplayables(Treeline.class, true)) ids.add(zd.getId());
+		return ids;
+	}
+
+	/** Id, kind, project tree position, title, transform and nodes of @param tl. */
+	private byte[] upsert(final Treeline tl) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(tl.getId());
+		out.writeByte(tl instanceof Connector ? CONNECTOR : TREELINE);
+		final ProjectThing pt = project.findProjectThing(tl);
+		final ProjectThing parent = null == pt ? null : (ProjectThing)pt.getParent();
+		writeString(out, null == pt ? "" : pt.getType());
+		out.writeLong(null == parent ? -1 : parent.getId());
+		writeString(out, null == tl.getTitle() ? "" : tl.getTitle());
+		out.writeInt(tl.getColor().getRGB());
+		out.writeFloat(tl.getAlpha());
+		final double[] m = new double[6];
+		tl.getAffineTransform().getMatrix(m);
+		for (final double v : m) out.writeDouble(v);
+		CompactTreelineNodes.pack(tl).writeColumns(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static private void writeString(final DataOutputStream out, final String s) throws IOException {
+		final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	static private String readString(final ByteBuffer buf) {
+		final byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/** int length, byte type, payload, int CRC32 of type and payload. */
+	static private void writeRecord(final ByteArrayOutputStream records, final byte type, final byte[] payload) throws IOException {
+		final DataOutputStream out = new DataOutputStream(records);
+		final CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(payload);
+		out.writeInt(payload.length);
+		out.writeByte(type);
+		out.write(payload);
+		out.writeInt((int)crc.getValue());
+		out.flush();
+	}
+
+	/** Append @param records to the journal, starting a new one for the current project file if needed. */
+	private void append(final byte[] records) throws IOException {
+		final File f = getJournalFile();
+		if (null == f) throw new IOException("the project has not been saved yet");
+		final boolean start = !f.equals(file) || !f.exists();
+		final FileOutputStream fos = new FileOutputStream(f, !start);
+		try {
+			if (start) {
+				final File fproject = projectFile(f);
+				final DataOutputStream out = new DataOutputStream(fos);
+				out.write(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fproject.length());
+				out.writeLong(fproject.lastModified());
+				out.flush();
+			}
+			fos.write(records);
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		file = f;
+	}
+
+	static private File projectFile(final File journal) {
+		final String path = journal.getPath();
+		return new File(path.substring(0, path.length() - EXTENSION.length()));
+	}
+
+	/** The project was saved as a whole: delete the journal and start over. */
+	public synchronized void reset() {
+		synchronized (dirty) {
+			dirty.clear();
+		}
+		if (null != project.getRootLayerSet()) known = currentIds(project.getRootLayerSet());
+		delete(file);
+		delete(getJournalFile());
+		file = null;
+		recovered = false;
+	}
+
+	/** The project is closed without saving its changes: delete the journal. */
+	public synchronized void discard() {
+		delete(file);
+		file = null;
+	}
+
+	static private void delete(final File f) {
+		if (null != f && f.exists() && !f.delete()) Utils.log("Could not delete the change journal " + f);
+	}
+
+	/** Apply the edits journaled for the project file of @param project, if any.
+	 *  @return the number of applied records */
+	static public int replay(final Project project) {
+		final ChangeJournal journal = project.getChangeJournal();
+		journal.known = currentIds(project.getRootLayerSet());
+		synchronized (journal.dirty) {
+			journal.dirty.clear(); // loading is not an edit
+		}
+		final File f = journal.getJournalFile();
+		if (null == f || !f.exists()) return 0;
+		final File fproject = projectFile(f);
+
+		int count = 0;
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(f, "r");
+			try {
+				final ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				final byte[] magic = new byte[MAGIC.length];
+				if (buf.remaining() < HEADER_SIZE) return 0;
+				buf.get(magic);
+				final int version = buf.getInt();
+				if (!Arrays.equals(MAGIC, magic) || version > VERSION) {
+					Utils.log("Ignoring unknown change journal " + f);
+					return 0;
+				}
+				if (buf.getLong() != fproject.length() || buf.getLong() != fproject.lastModified()) {
+					Utils.log("Ignoring the change journal " + f + ", it does not belong to the current project file.");
+					return 0;
+				}
+
+				final LayerSet ls = project.getRootLayerSet();
+				final HashMap<Long,Layer> layers = new HashMap<Long,Layer>();
+				for (final Layer la : ls.getLayers()) layers.put(la.getId(), la);
+				final HashMap<Long,Treeline> trees = new HashMap<Long,Treeline>();
+				for (final ZDisplayable zd : ls.getZDisplayables(Treeline.class, true)) trees.put(zd.getId(), (Treeline)zd);
+
+				final CRC32 crc = new CRC32();
+				while (buf.remaining() >= 4 + 1 + 4) {
+					final int length = buf.getInt();
+					if (length < 0 || buf.remaining() < 1 + length + 4) break; // torn record
+					final byte type = buf.get();
+					final byte[] payload = new byte[length];
+					buf.get(payload);
+					crc.reset();
+					crc.update(type);
+					crc.update(payload);
+					if ((int)crc.getValue() != buf.getInt()) break; // torn record
+					final ByteBuffer record = ByteBuffer.wrap(payload);
+					if (UPSERT == type) applyUpsert(project, record, version, layers, trees);
+					else if (DELETE == type) applyDelete(project, record.getLong(), trees);
+					count++;
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (final Exception e) {
+			Utils.log("Could not replay the change journal " + f + ", using the project file as saved.");
+			IJError.print(e);
+			return count;
+		}
+		if (count > 0) {
+			// keep appending to this journal until the project is saved
+			journal.file = f;
+			journal.known = currentIds(project.getRootLayerSet());
+			journal.recovered = true;
+			project.getLoader().setJournaledChanges();
+			Utils.log("Recovered " + count + " edits from the change journal " + f);
+		}
+		return count;
+	}
+
+	static private void applyUpsert(final Project project, final ByteBuffer record, final int version, final Map<Long,Layer> layers, final Map<Long,Treeline> trees) {
+		final long id = record.getLong();
+		final byte kind = record.get();
+		final String pt_type = readString(record);
+		final long parent_id = record.getLong();
+		final String title = readString(record);
+		final Color color = new Color(record.getInt());
+		final float alpha = record.getFloat();
+		final double[] m = new double[6];
+		for (int i=0; i<6; i++) m[i] = record.getDouble();
+		final LayerSet ls = project.getRootLayerSet();
+
+		Treeline tl = trees.get(id);
+		if (null == tl) {
+			// created after the project was saved
+			final ProjectThing parent = project.getRootProjectThing().findChild(parent_id);
+			if (null == parent || 0 == pt_type.length()) {
+				Utils.log("Change journal: cannot find where to add " + title + " #" + id);
+				return;
+			}
+			final HashMap<String,String> ht_attr = new HashMap<String,String>();
+			ht_attr.put("title", title);
+			ht_attr.put("width", "0");
+			ht_attr.put("height", "0");
+			ht_attr.put("transform", "matrix(" + m[0] + "," + m[1] + "," + m[2] + "," + m[3] + "," + m[4] + "," + m[5] + ")");
+			final String[] RGB = Utils.getHexRGBColor(color);
+			ht_attr.put("style", "fill:none;stroke-opacity:" + alpha + ";stroke:#" + RGB[0] + RGB[1] + RGB[2] + ";stroke-width:1.0px;stroke-opacity:1.0");
+			tl = CONNECTOR == kind ? new Connector(project, id, ht_attr, new HashMap<Displayable,String>())
+			                       : new Treeline(project, id, ht_attr, new HashMap<Displayable,String>());
+			tl.addToDatabase(); // so that the loader does not hand out the id again
+			ls.add(tl);
+			if (null == project.getProjectTree().addChild(parent, pt_type, tl)) {
+				ls.remove(tl);
+				return;
+			}
+			trees.put(id, tl);
+		} else {
+			if (title.length() > 0 && !title.equals(tl.getTitle())) tl.setTitle(title);
+			if (!color.equals(tl.getColor())) tl.setColor(color);
+			if (alpha != tl.getAlpha()) tl.setAlpha(alpha);
+			tl.setAffineTransform(new AffineTransform(m));
+		}
+		final CompactTreelineNodes c = CompactTreelineNodes.readColumns(record, layers, ls, version >= 2);
+		if (null == c) return;
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.forget(Collections.singleton(tl)); // the journaled nodes replace those in the project file
+		tl.setRoot(null); // clears the node caches
+		tl.setRoot(c.unpack(tl));
+		tl.calculateBoundingBox(null);
+	}
+
+	static private void applyDelete(final Project project, final long id, final Map<Long,Treeline> trees) {
+		final Treeline tl = trees.remove(id);
+		if (null == tl) return;
+		final TreelinePager pager = project.getTreelinePager();
+		if (null != pager) pager.forget(Collections.singleton(tl));
+		if (!project.removeProjectThing(tl, false)) tl.remove2(false);
+	}
+}
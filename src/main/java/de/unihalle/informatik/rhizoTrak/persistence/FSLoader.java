@@ -108,7 +108,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -117,6 +120,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
@@ -139,6 +143,7 @@ import org.xml.sax.InputSource;
 
 import de.unihalle.informatik.rhizoTrak.ControlWindow;
 import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.display.Connector;
 import de.unihalle.informatik.rhizoTrak.display.DLabel;
 import de.unihalle.informatik.rhizoTrak.display.Display;
 import de.unihalle.informatik.rhizoTrak.display.Displayable;
@@ -147,11 +152,14 @@ import de.unihalle.informatik.rhizoTrak.display.MipMapImage;
 import de.unihalle.informatik.rhizoTrak.display.Patch;
 import de.unihalle.informatik.rhizoTrak.display.RhizoAddons;
 import de.unihalle.informatik.rhizoTrak.display.Stack;
+import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.imaging.FloatProcessorT2;
 import de.unihalle.informatik.rhizoTrak.imaging.P;
 import de.unihalle.informatik.rhizoTrak.io.ImageSaver;
+import de.unihalle.informatik.rhizoTrak.io.PackedMipMaps;
 import de.unihalle.informatik.rhizoTrak.io.RagMipMaps;
 import de.unihalle.informatik.rhizoTrak.io.RawMipMaps;
+import de.unihalle.informatik.rhizoTrak.parallel.Process;
 import de.unihalle.informatik.rhizoTrak.utils.Bureaucrat;
 import de.unihalle.informatik.rhizoTrak.utils.CachingThread;
 import de.unihalle.informatik.rhizoTrak.utils.IJError;
@@ -334,9 +342,13 @@ public final class FSLoader extends Loader {
 
 		// parse file, according to expected format as indicated by the extension:
 		final String lcFilePath = this.project_file_path.toLowerCase();
-		if (lcFilePath.matches(".*(\\.xml|\\.xml\\.gz)")) {
+		final boolean is_snapshot = ProjectSnapshot.isSnapshotPath(lcFilePath);
+		if (lcFilePath.matches(".*(\\.xml|\\.xml\\.gz)") || is_snapshot) {
 			InputStream i_stream = null;
+			ProjectSnapshot snapshot = null;
+			final OpenTimings timings = new OpenTimings(this.project_file_path);
 			TMLHandler handler = new TMLHandler(this.project_file_path, this);
+			handler.setOpenTimings(timings);
 			if (handler.isUnreadable()) {
 				handler = null;
 			} else {
@@ -345,7 +357,12 @@ public final class FSLoader extends Loader {
 					factory.setValidating(false);
 					factory.setXIncludeAware(false);
 					SAXParser parser = factory.newSAXParser();
-					if (isURL(this.project_file_path)) {
+					if (is_snapshot) {
+						// the XML of everything but the treeline nodes, which are read in getProjectData
+						snapshot = ProjectSnapshot.open(this.project_file_path);
+						handler.setSnapshot(snapshot);
+						i_stream = snapshot.openSkeleton();
+					} else if (isURL(this.project_file_path)) {
 						i_stream = new java.net.URL(this.project_file_path).openStream();
 					} else {
 						i_stream = new BufferedInputStream(new FileInputStream(this.project_file_path));
@@ -355,6 +372,7 @@ public final class FSLoader extends Loader {
 					}
 					InputSource input_source = new InputSource(i_stream);
 					parser.parse(input_source, handler);
+					timings.mark("parse");
 				} catch (java.io.FileNotFoundException fnfe) {
 					Utils.log("ERROR: File not found: " + path);
 					handler = null;
@@ -373,10 +391,25 @@ public final class FSLoader extends Loader {
 			}
 			if (null == handler) {
 				Utils.showMessage("Error when reading the project .xml file.");
+				if (null != snapshot) {
+					try {
+						snapshot.close();
+					} catch (Exception e) {
+						IJError.print(e);
+					}
+				}
 				return null;
 			}
 
 			data = handler.getProjectData(open_displays);
+			if (null != snapshot) {
+				try {
+					snapshot.close();
+				} catch (Exception e) {
+					IJError.print(e);
+				}
+			}
+			if (null != data) timings.done();
 		}
 
 		if (null == data) {
@@ -778,12 +811,20 @@ public final class FSLoader extends Loader {
 		return null;
 	}
 
+	/** Treelines are recorded by the {@link ChangeJournal}: added and removed ones are found by their ids,
+	 *  updated ones are handed to it in {@link #updateInDatabase(DBObject, String)}. Connectors are journaled too,
+	 *  but the treelines they connect are stored in the rhizoTrak project file, which only a save writes. */
+	private void setChanged(final DBObject ob) {
+		if (ob instanceof Treeline && !(ob instanceof Connector)) setJournaledChanges();
+		else setChanged(true);
+	}
+
 	/* GENERIC, from DBObject calls. Records the id of the object in the HashMap ht_dbo.
 	 * Always returns true. Does not check if another object has the same id.
 	 */
 	public boolean addToDatabase(final DBObject ob) {
 		synchronized (db_lock) {
-			setChanged(true);
+			setChanged(ob);
 			final long id = ob.getId();
 			if (id > max_id) {
 				max_id = id;
@@ -803,7 +844,8 @@ public final class FSLoader extends Loader {
 
 	public boolean updateInDatabase(final DBObject ob, final String key) {
 		// Should only be GUI-driven
-		setChanged(true);
+		setChanged(ob);
+		if (ob instanceof Treeline) ob.getProject().getChangeJournal().touched(Collections.singleton((Treeline)ob));
 		//
 		if (ob.getClass() == Patch.class) {
 			Patch p = (Patch)ob;
@@ -814,7 +856,8 @@ public final class FSLoader extends Loader {
 
 	public boolean updateInDatabase(final DBObject ob, final Set<String> keys) {
 		// Should only be GUI-driven
-		setChanged(true);
+		setChanged(ob);
+		if (ob instanceof Treeline) ob.getProject().getChangeJournal().touched(Collections.singleton((Treeline)ob));
 		if (ob.getClass() == Patch.class) {
 			Patch p = (Patch)ob;
 			if (keys.contains("tiff_working")) return null != setImageFile(p, fetchImagePlus(p));
@@ -824,7 +867,7 @@ public final class FSLoader extends Loader {
 
 	public boolean removeFromDatabase(final DBObject ob) {
 		synchronized (db_lock) {
-			setChanged(true);
+			setChanged(ob);
 			// remove from the hashtable
 			final long loid = ob.getId();
 			Utils.log2("removing " + Project.getName(ob.getClass()) + " " + ob);
@@ -1119,6 +1162,7 @@ public final class FSLoader extends Loader {
 		String extension = ".xml";
 		if (path2.endsWith(extension)) {} // all fine
 		else if (path2.endsWith(".xml.gz")) extension = ".xml.gz";
+		else if (ProjectSnapshot.isSnapshotPath(path2)) extension = ProjectSnapshot.EXTENSION;
 		else {
 			// neither matches, add the default ".xml"
 			path2 += extension;
@@ -1138,7 +1182,7 @@ public final class FSLoader extends Loader {
 				String parent = fxml.getParent().replace('\\','/');
 				if (!parent.endsWith("/")) parent += "/";
 				String name = fxml.getName();
-				name = name.substring(0, name.length() - 4);
+				name = name.substring(0, name.length() - extension.length());
 				path2 =  parent + name + "-" +  i + extension;
 				fxml = new File(path2);
 				i++;
@@ -1480,10 +1524,13 @@ public final class FSLoader extends Loader {
 	public Bureaucrat regenerateMipMaps(final Collection<? extends Displayable> patches) {
 		return Bureaucrat.createAndStart(new Worker.Task("Regenerating mipmaps") { public void exec() {
 			final List<Future<?>> fus = new ArrayList<Future<?>>();
+			final List<Patch> own = new ArrayList<Patch>();
 			for (final Displayable d : patches) {
 				if (d.getClass() != Patch.class) continue;
-				fus.add(d.getProject().getLoader().regenerateMipMaps((Patch) d));
+				if (FSLoader.this == d.getProject().getLoader()) own.add((Patch) d);
+				else fus.add(d.getProject().getLoader().regenerateMipMaps((Patch) d));
 			}
+			generateMipMapsPipelined(own);
 			// Wait until all done
 			for (final Future<?> fu : fus) try {
 				if (null != fu) fu.get(); // fu could be null if a task was not submitted because it's already being done or it failed in some way.
@@ -1608,20 +1655,63 @@ public final class FSLoader extends Loader {
 	 */
 	protected boolean generateMipMaps(final Patch patch) {
 		Utils.log2("mipmaps for " + patch);
+		final MipMapJob job = prepareMipMaps(patch);
+		if (null == job) return false;
+		try {
+			job.ok = decodeMipMaps(job) && downsampleMipMaps(job) && writeMipMaps(job);
+		} catch (Throwable e) {
+			failMipMaps(job, e);
+		} finally {
+			// gets executed even when returning from within the try/catch block
+			finishMipMaps(job);
+		}
+		return job.ok;
+	}
+
+	/** The state of the mipmap generation for one Patch, as it is handed from one stage to the next:
+	 *  {@link #decodeMipMaps(MipMapJob)}, {@link #downsampleMipMaps(MipMapJob)} and {@link #writeMipMaps(MipMapJob)}. */
+	private final class MipMapJob {
+		final Patch patch;
+		/** Alpha mask: setup to check if it was modified while regenerating. */
+		final long alpha_mask_id;
+		final int resizing_mode;
+		String filename;
+		ImageProcessor ip;
+		ByteProcessor alpha_mask = null;
+		ByteProcessor outside_mask = null;
+		int type;
+		int first_mipmap_level_saved;
+		/** The encodable pixels of each mipmap level; null for levels that are not to be saved. */
+		ImageBytes[] levels;
+		boolean ok = false;
+		/** When not null, completed with {@link #ok} once the job is finished. */
+		CompletableFuture<Boolean> done = null;
+
+		MipMapJob(final Patch patch) {
+			this.patch = patch;
+			this.alpha_mask_id = patch.getAlphaMaskId();
+			this.resizing_mode = patch.getProject().getMipMapsMode();
+			this.type = patch.getType();
+		}
+	}
+
+	/** Check that the mipmaps of {@code patch} can be generated and clean up the data derived from its image.
+	 *  Returns null when the mipmaps cannot be generated. */
+	private MipMapJob prepareMipMaps(final Patch patch) {
 		final String path = getAbsolutePath(patch);
 		if (null == path) {
 			Utils.log("generateMipMaps: null path for Patch " + patch);
 			cannot_regenerate.add(patch);
-			return false;
+			return null;
 		}
 		if (hs_unloadable.contains(patch)) {
 			FilePathRepair.add(patch);
-			return false;
+			return null;
 		}
 		synchronized (gm_lock) {
 			try {
 				if (null == dir_mipmaps) createMipMapsDir(null);
-				if (null == dir_mipmaps || isURL(dir_mipmaps)) return false;
+				if (null == dir_mipmaps || isURL(dir_mipmaps)) return null;
 			} catch (Exception e) {
 				IJError.print(e);
 			}
@@ -1636,325 +1726,560 @@ public final class FSLoader extends Loader {
 		/** Remove serialized pointmatches, if any */
 		removeSerializedPointMatches(patch);
 
-		/** Alpha mask: setup to check if it was modified while regenerating. */
-		final long alpha_mask_id = patch.getAlphaMaskId();
+		return new MipMapJob(patch);
+	}
 
-		final int resizing_mode = patch.getProject().getMipMapsMode();
+	/** First stage: obtain the coordinate-transformed image of the Patch, its alpha masks,
+	 *  and bring it to the pixel values that will be written to the mipmaps. */
+	private boolean decodeMipMaps(final MipMapJob job) {
+		final Patch patch = job.patch;
 
-		try {
-			ImageProcessor ip;
-			ByteProcessor alpha_mask = null;
-			ByteProcessor outside_mask = null;
-			int type = patch.getType();
-
-			// Aggressive cache freeing
-			releaseToFit(patch.getOWidth() * patch.getOHeight() * 4 + MIN_FREE_BYTES);
-
-			// Obtain an image which may be coordinate-transformed, and an alpha mask.
-			Patch.PatchImage pai = patch.createTransformedImage();
-			if (null == pai || null == pai.target) {
-				Utils.log("Can't regenerate mipmaps for patch " + patch);
-				cannot_regenerate.add(patch);
-				return false;
-			}
-			ip = pai.target;
-			alpha_mask = pai.mask; // can be null
-			outside_mask = pai.outside; // can be null
-			pai = null;
-			
-			// Old style:
-			//final String filename = new StringBuilder(new File(path).getName()).append('.').append(patch.getId()).append(mExt).toString();
-			// New style:
-			final String filename = createMipMapRelPath(patch, mExt);
-
-			int w = ip.getWidth();
-			int h = ip.getHeight();
-
-			// sigma = sqrt(2^level - 0.5^2)
-			//    where 0.5 is the estimated sigma for a full-scale image
-			//  which means sigma = 0.75 for the full-scale image (has level 0)
-			// prepare a 0.75 sigma image from the original
-
-			double min = patch.getMin(),
-			       max = patch.getMax();
-			// Fix improper min,max values
-			// (The -1,-1 are flags really for "not set")
-			if (-1 == min && -1 == max) {
-				switch (type) {
-					case ImagePlus.COLOR_RGB:
-					case ImagePlus.COLOR_256:
-					case ImagePlus.GRAY8:
-						patch.setMinAndMax(0, 255);
-						break;
-					// Find and flow through to default:
-					case ImagePlus.GRAY16:
-						((ij.process.ShortProcessor)ip).findMinAndMax();
-						patch.setMinAndMax(ip.getMin(), ip.getMax());
-						break;
-					case ImagePlus.GRAY32:
-						((FloatProcessor)ip).findMinAndMax();
-						patch.setMinAndMax(ip.getMin(), ip.getMax());
-						break;
-				}
-				min = patch.getMin(); // may have changed
-				max = patch.getMax();
+		// Aggressive cache freeing
+		releaseToFit(patch.getOWidth() * patch.getOHeight() * 4 + MIN_FREE_BYTES);
+
+		// Obtain an image which may be coordinate-transformed, and an alpha mask.
+		Patch.PatchImage pai = patch.createTransformedImage();
+		if (null == pai || null == pai.target) {
+			Utils.log("Can't regenerate mipmaps for patch " + patch);
+			cannot_regenerate.add(patch);
+			return false;
+		}
+		ImageProcessor ip = pai.target;
+		job.alpha_mask = pai.mask; // can be null
+		job.outside_mask = pai.outside; // can be null
+		pai = null;
+
+		// Old style:
+		//final String filename = new StringBuilder(new File(path).getName()).append('.').append(patch.getId()).append(mExt).toString();
+		// New style:
+		job.filename = createMipMapRelPath(patch, mExt);
+
+		// sigma = sqrt(2^level - 0.5^2)
+		//    where 0.5 is the estimated sigma for a full-scale image
+		//  which means sigma = 0.75 for the full-scale image (has level 0)
+		// prepare a 0.75 sigma image from the original
+
+		double min = patch.getMin(),
+		       max = patch.getMax();
+		// Fix improper min,max values
+		// (The -1,-1 are flags really for "not set")
+		if (-1 == min && -1 == max) {
+			switch (job.type) {
+				case ImagePlus.COLOR_RGB:
+				case ImagePlus.COLOR_256:
+				case ImagePlus.GRAY8:
+					patch.setMinAndMax(0, 255);
+					break;
+				// Find and flow through to default:
+				case ImagePlus.GRAY16:
+					((ij.process.ShortProcessor)ip).findMinAndMax();
+					patch.setMinAndMax(ip.getMin(), ip.getMax());
+					break;
+				case ImagePlus.GRAY32:
+					((FloatProcessor)ip).findMinAndMax();
+					patch.setMinAndMax(ip.getMin(), ip.getMax());
+					break;
 			}
-			
-			// Set for the level 0 image, which is a duplicate of the one in the cache in any case
-			ip.setMinAndMax(min, max);
+			min = patch.getMin(); // may have changed
+			max = patch.getMax();
+		}
 
+		// Set for the level 0 image, which is a duplicate of the one in the cache in any case
+		ip.setMinAndMax(min, max);
 
-			// ImageJ no longer stretches the bytes for ByteProcessor with setMinAndmax
-			if (ByteProcessor.class == ip.getClass()) {
-				if (0 != min && 255 != max) {
-					final byte[] b = (byte[]) ip.getPixels();
-					final double scale = 255 / (max - min);
-					for (int i=0; i<b.length; ++i) {
-						final int val = b[i] & 0xff;
-						if (val < min) b[i] = 0;
-						else b[i] = (byte)Math.min(255, ((val - min) * scale));
-					}
+
+		// ImageJ no longer stretches the bytes for ByteProcessor with setMinAndmax
+		if (ByteProcessor.class == ip.getClass()) {
+			if (0 != min && 255 != max) {
+				final byte[] b = (byte[]) ip.getPixels();
+				final double scale = 255 / (max - min);
+				for (int i=0; i<b.length; ++i) {
+					final int val = b[i] & 0xff;
+					if (val < min) b[i] = 0;
+					else b[i] = (byte)Math.min(255, ((val - min) * scale));
 				}
 			}
+		}
 
-			// Proper support for LUT images: treat them as RGB
-			if (ip.isColorLut() || type == ImagePlus.COLOR_256) {
-				ip = ip.convertToRGB();
-				type = ImagePlus.COLOR_RGB;
-			}
-			
-			final int first_mipmap_level_saved = patch.getProject().getFirstMipMapLevelSaved();
-			
-			if (Loader.AREA_DOWNSAMPLING == resizing_mode) {
-				long t0 = System.currentTimeMillis();
-				final ImageBytes[] b = DownsamplerMipMaps.create(patch, type, ip, alpha_mask, outside_mask);
-				long t1 = System.currentTimeMillis();
-				for (int i=0; i<b.length; ++i) {
-					if (i < first_mipmap_level_saved) {
-						// Ignore level i
-						if (null != b[i]) CachingThread.storeForReuse(b[i].c);
-					} else {
-						boolean written = mmio.save(getLevelDir(dir_mipmaps, i) + filename, b[i].c, b[i].width, b[i].height, 0.85f);
-						if (!written) {
-							Utils.log("Failed to save mipmap with area downsampling at level=" + i + " for patch " + patch);
-							cannot_regenerate.add(patch);
-							break;
-						}
+		// Proper support for LUT images: treat them as RGB
+		if (ip.isColorLut() || job.type == ImagePlus.COLOR_256) {
+			ip = ip.convertToRGB();
+			job.type = ImagePlus.COLOR_RGB;
+		}
+
+		job.ip = ip;
+		job.first_mipmap_level_saved = patch.getProject().getFirstMipMapLevelSaved();
+
+		return !Thread.currentThread().isInterrupted();
+	}
+
+	/** Second stage: compute the pixels of all mipmap levels to save, into {@code job.levels}.
+	 *  Releases the decoded image. */
+	private boolean downsampleMipMaps(final MipMapJob job) {
+		final Patch patch = job.patch;
+		final ImageProcessor ip = job.ip;
+		job.ip = null;
+		final int first_mipmap_level_saved = job.first_mipmap_level_saved;
+		int w = ip.getWidth();
+		int h = ip.getHeight();
+
+		if (Loader.AREA_DOWNSAMPLING == job.resizing_mode) {
+			final ImageBytes[] b = DownsamplerMipMaps.create(patch, job.type, ip, job.alpha_mask, job.outside_mask);
+			for (int i=0; i<b.length && i<first_mipmap_level_saved; ++i) {
+				// Ignore level i
+				if (null != b[i]) CachingThread.storeForReuse(b[i].c);
+				b[i] = null;
+			}
+			job.levels = b;
+		} else if (Loader.GAUSSIAN == job.resizing_mode) {
+			final ArrayList<ImageBytes> levels = new ArrayList<ImageBytes>();
+			if (ImagePlus.COLOR_RGB == job.type) {
+				// TODO releaseToFit proper
+				releaseToFit(w * h * 4 * 10);
+				final ColorProcessor cp = (ColorProcessor)ip;
+				final FloatProcessorT2 red = new FloatProcessorT2(w, h, 0, 255);   cp.toFloat(0, red);
+				final FloatProcessorT2 green = new FloatProcessorT2(w, h, 0, 255); cp.toFloat(1, green);
+				final FloatProcessorT2 blue = new FloatProcessorT2(w, h, 0, 255);  cp.toFloat(2, blue);
+				FloatProcessorT2 alpha;
+				final FloatProcessorT2 outside;
+				ByteProcessor alpha_mask = job.alpha_mask;
+				if (null != alpha_mask) {
+					alpha = new FloatProcessorT2(alpha_mask);
+				} else {
+					alpha = null;
+				}
+				if (null != job.outside_mask) {
+					outside = new FloatProcessorT2(job.outside_mask);
+					if ( null == alpha ) {
+						alpha = outside;
+						alpha_mask = job.outside_mask;
 					}
+				} else {
+					outside = null;
 				}
-				long t2 = System.currentTimeMillis();
-				System.out.println("MipMaps with area downsampling: creation took " + (t1 - t0) + "ms, saving took " + (t2 - t1) + "ms, total: " + (t2 - t0) + "ms\n");
-			} else if (Loader.GAUSSIAN == resizing_mode) {
-				if (ImagePlus.COLOR_RGB == type) {
-					// TODO releaseToFit proper
-					releaseToFit(w * h * 4 * 10);
-					final ColorProcessor cp = (ColorProcessor)ip;
-					final FloatProcessorT2 red = new FloatProcessorT2(w, h, 0, 255);   cp.toFloat(0, red);
-					final FloatProcessorT2 green = new FloatProcessorT2(w, h, 0, 255); cp.toFloat(1, green);
-					final FloatProcessorT2 blue = new FloatProcessorT2(w, h, 0, 255);  cp.toFloat(2, blue);
-					FloatProcessorT2 alpha;
-					final FloatProcessorT2 outside;
-					if (null != alpha_mask) {
-						alpha = new FloatProcessorT2(alpha_mask);
+
+				if (Thread.currentThread().isInterrupted()) return false;
+
+				// Generate level 0 first:
+				if (0 == first_mipmap_level_saved) {
+					if (null == alpha) {
+						final byte[] r = new byte[w * h],
+						             g = new byte[w * h],
+						             b = new byte[w * h];
+						cp.getRGB(r, g, b);
+						levels.add(new ImageBytes(new byte[][]{r, g, b}, w, h));
 					} else {
-						alpha = null;
+						levels.add(new ImageBytes(
+								P.asRGBABytes((int[])cp.getPixels(),
+								(byte[])alpha_mask.getPixels(),
+								null == outside ? null : (byte[])job.outside_mask.getPixels()),
+								w, h));
 					}
-					if (null != outside_mask) {
-						outside = new FloatProcessorT2(outside_mask);
-						if ( null == alpha ) {
-							alpha = outside;
-							alpha_mask = outside_mask;
+				} else {
+					levels.add(null);
+				}
+				// Generate all other mipmap levels
+				// TODO: for best performance, it should start from a direct Gaussian downscaling at the first level to write.
+				int k = 0; // the scale level. Proper scale is: 1 / pow(2, k)
+				do {
+					if (Thread.currentThread().isInterrupted()) return false;
+					// 1 - Prepare values for the next scaled image
+					k++;
+					// 2 - Blur the previous image to 0.75 sigma, and scale it
+					final byte[] r = gaussianBlurResizeInHalf(red);   // will resize 'red' FloatProcessor in place.
+					final byte[] g = gaussianBlurResizeInHalf(green); // idem
+					final byte[] b = gaussianBlurResizeInHalf(blue);  // idem
+					final byte[] a = null == alpha ? null : gaussianBlurResizeInHalf(alpha); // idem
+					if ( null != outside ) {
+						final byte[] o;
+						if (alpha != outside)
+							o = gaussianBlurResizeInHalf(outside); // idem
+						else
+							o = a;
+						// Remove all not completely inside pixels from the alphamask
+						// If there was no alpha mask, alpha is the outside itself
+						for (int i=0; i<o.length; i++) {
+							if ( (o[i]&0xff) != 255 ) a[i] = 0; // TODO I am sure there is a bitwise operation to do this in one step. Some thing like: a[i] &= 127;
 						}
-					} else {
-						outside = null;
 					}
 
-					final String target_dir0 = getLevelDir(dir_mipmaps, 0);
-
-					if (Thread.currentThread().isInterrupted()) return false;
+					w = red.getWidth();
+					h = red.getHeight();
 
-					// Generate level 0 first:
-					if (0 == first_mipmap_level_saved) {
-						boolean written;
-						if (null == alpha) {
-							written = mmio.save(cp, target_dir0 + filename, 0.85f, false);
-						} else {
-							written = mmio.save(target_dir0 + filename,
-									P.asRGBABytes((int[])cp.getPixels(),
-									(byte[])alpha_mask.getPixels(),
-									null == outside ? null : (byte[])outside_mask.getPixels()),
-									w, h, 0.85f);
-						}
-						if (!written) {
-							Utils.log("Failed to save mipmap for COLOR_RGB, 'alpha = " + alpha + "', level = 0  for  patch " + patch);
-							cannot_regenerate.add(patch);
-						}
+					// 3 - Compose the channels
+					if (first_mipmap_level_saved < k) {
+						// Skip saving this mipmap level
+						levels.add(null);
+						continue;
 					}
-					// Generate all other mipmap levels
-					// TODO: for best performance, it should start from a direct Gaussian downscaling at the first level to write.
-					int k = 0; // the scale level. Proper scale is: 1 / pow(2, k)
-					do {
-						if (Thread.currentThread().isInterrupted()) return false;
-						// 1 - Prepare values for the next scaled image
-						k++;
-						// 2 - Check that the target folder for the desired scale exists
-						final String target_dir = getLevelDir(dir_mipmaps, k);
-						if (null == target_dir) break;
-						// 3 - Blur the previous image to 0.75 sigma, and scale it
-						final byte[] r = gaussianBlurResizeInHalf(red);   // will resize 'red' FloatProcessor in place.
-						final byte[] g = gaussianBlurResizeInHalf(green); // idem
-						final byte[] b = gaussianBlurResizeInHalf(blue);  // idem
-						final byte[] a = null == alpha ? null : gaussianBlurResizeInHalf(alpha); // idem
-						if ( null != outside ) {
-							final byte[] o;
-							if (alpha != outside)
-								o = gaussianBlurResizeInHalf(outside); // idem
-							else
-								o = a;
-							// Remove all not completely inside pixels from the alphamask
-							// If there was no alpha mask, alpha is the outside itself
-							for (int i=0; i<o.length; i++) {
-								if ( (o[i]&0xff) != 255 ) a[i] = 0; // TODO I am sure there is a bitwise operation to do this in one step. Some thing like: a[i] &= 127;
-							}
-						}
+					levels.add(new ImageBytes(null == alpha ? new byte[][]{r, g, b} : new byte[][]{r, g, b, a}, w, h));
+				} while (w >= 32 && h >= 32); // not smaller than 32x32
+			} else {
+				// Greyscale:
+				releaseToFit(w * h * 4 * 10);
 
-						w = red.getWidth();
-						h = red.getHeight();
+				if (Thread.currentThread().isInterrupted()) return false;
 
-						// 4 - Compose ColorProcessor
-						if (first_mipmap_level_saved < k) {
-							// Skip saving this mipmap level
-							continue;
-						}
-						if (null == alpha) {
-							// 5 - Save as jpeg
-							if (!mmio.save(target_dir + filename, new byte[][]{r, g, b}, w, h, 0.85f)) {
-								Utils.log("Failed to save mipmap for COLOR_RGB, 'alpha = " + alpha + "', level = " + k  + " for  patch " + patch);
-								cannot_regenerate.add(patch);
-								break;
-							}
-						} else {
-							if (!mmio.save(target_dir + filename, new byte[][]{r, g, b, a}, w, h, 0.85f)) {
-								Utils.log("Failed to save mipmap for COLOR_RGB, 'alpha = " + alpha + "', level = " + k  + " for  patch " + patch);
-								cannot_regenerate.add(patch);
-								break;
-							}
-						}
-					} while (w >= 32 && h >= 32); // not smaller than 32x32
+				final FloatProcessorT2 fp = new FloatProcessorT2((FloatProcessor) ip.convertToFloat());
+				if (ImagePlus.GRAY8 == job.type) {
+					// for 8-bit, the min,max has been applied when going to FloatProcessor
+					fp.setMinMax(0, 255); // just set it
+				} else {
+					fp.setMinAndMax(patch.getMin(), patch.getMax());
+				}
+				//fp.debugMinMax(patch.toString());
+
+				FloatProcessorT2 alpha, outside;
+				if (null != job.alpha_mask) {
+					alpha = new FloatProcessorT2(job.alpha_mask);
+				} else {
+					alpha = null;
+				}
+				if (null != job.outside_mask) {
+					outside = new FloatProcessorT2(job.outside_mask);
+					if (null == alpha) {
+						alpha = outside;
+					}
 				} else {
-					long t0 = System.currentTimeMillis();
-					// Greyscale:
-					releaseToFit(w * h * 4 * 10);
+					outside = null;
+				}
 
+				int k = 0; // the scale level. Proper scale is: 1 / pow(2, k)
+				do {
 					if (Thread.currentThread().isInterrupted()) return false;
 
-					final FloatProcessorT2 fp = new FloatProcessorT2((FloatProcessor) ip.convertToFloat());
-					if (ImagePlus.GRAY8 == type) {
-						// for 8-bit, the min,max has been applied when going to FloatProcessor
-						fp.setMinMax(0, 255); // just set it
-					} else {
-						fp.setMinAndMax(patch.getMin(), patch.getMax());
+					if (0 != k) { // not doing so at the end because it would add one unnecessary blurring
+						gaussianBlurResizeInHalf( fp );
+						if (null != alpha) {
+							gaussianBlurResizeInHalf( alpha );
+							if (alpha != outside && outside != null) {
+								gaussianBlurResizeInHalf( outside );
+							}
+						}
 					}
-					//fp.debugMinMax(patch.toString());
 
-					FloatProcessorT2 alpha, outside;
-					if (null != alpha_mask) {
-						alpha = new FloatProcessorT2(alpha_mask);
-					} else {
-						alpha = null;
+					w = fp.getWidth();
+					h = fp.getHeight();
+
+					if (k < first_mipmap_level_saved) {
+						// Skip saving this mipmap level
+						levels.add(null);
+						k++;
+						continue;
 					}
-					if (null != outside_mask) {
-						outside = new FloatProcessorT2(outside_mask);
-						if (null == alpha) {
-							alpha = outside;
-							alpha_mask = outside_mask;
-						}
+					if (null != alpha) {
+						// 8-bit with alpha
+						// Remove all not completely inside pixels from the alpha mask
+						// If there was no alpha mask, alpha is the outside itself
+						levels.add(new ImageBytes(new byte[][]{fp.getScaledBytePixels(), P.merge(alpha.getBytePixels(), null == outside ? null : outside.getBytePixels())}, w, h));
 					} else {
-						outside = null;
+						// 8-bit
+						levels.add(new ImageBytes(new byte[][]{fp.getScaledBytePixels()}, w, h));
 					}
 
-					int k = 0; // the scale level. Proper scale is: 1 / pow(2, k)
-					do {
-						if (Thread.currentThread().isInterrupted()) return false;
-
-						if (0 != k) { // not doing so at the end because it would add one unnecessary blurring
-							gaussianBlurResizeInHalf( fp );
-							if (null != alpha) {
-								gaussianBlurResizeInHalf( alpha );
-								if (alpha != outside && outside != null) {
-									gaussianBlurResizeInHalf( outside );
-								}
-							}
-						}
+					// prepare values for the next scaled image
+					k++;
+				} while (fp.getWidth() >= 32 && fp.getHeight() >= 32); // not smaller than 32x32
+			}
+			job.levels = levels.toArray(new ImageBytes[levels.size()]);
+		} else {
+			Utils.log("ERROR: unknown image resizing mode for mipmaps: " + job.resizing_mode);
+			job.levels = new ImageBytes[0];
+		}
+		job.alpha_mask = null;
+		job.outside_mask = null;
+		return true;
+	}
 
-						w = fp.getWidth();
-						h = fp.getHeight();
+	/** Third stage: encode and write each mipmap level in {@code job.levels}, releasing each level once written. */
+	private boolean writeMipMaps(final MipMapJob job) {
+		for (int i=0; i<job.levels.length; ++i) {
+			final ImageBytes b = job.levels[i];
+			if (null == b) continue;
+			if (Thread.currentThread().isInterrupted()) return false;
+			// check that the target folder for the desired scale exists
+			final String target_dir = getLevelDir(dir_mipmaps, i);
+			if (null == target_dir) break;
+			job.levels[i] = null;
+			if (!mmio.save(target_dir + job.filename, b.c, b.width, b.height, 0.85f)) {
+				Utils.log("Failed to save mipmap at level=" + i + " for patch " + job.patch);
+				cannot_regenerate.add(job.patch);
+				return false;
+			}
+		}
+		return true;
+	}
 
-						// 1 - check that the target folder for the desired scale exists
-						final String target_dir = getLevelDir(dir_mipmaps, k);
-						if (null == target_dir) break;
+	private void failMipMaps(final MipMapJob job, final Throwable e) {
+		Utils.log("*** ERROR: Can't generate mipmaps for patch " + job.patch);
+		IJError.print(e);
+		cannot_regenerate.add(job.patch);
+		job.ok = false;
+	}
 
-						if (k < first_mipmap_level_saved) {
-							// Skip saving this mipmap level
-							k++;
-							continue;
-						}
-						if (null != alpha) {
-							// 3 - save as jpeg with alpha
-							// Remove all not completely inside pixels from the alpha mask
-							// If there was no alpha mask, alpha is the outside itself
-							if (!mmio.save(target_dir + filename, new byte[][]{fp.getScaledBytePixels(), P.merge(alpha.getBytePixels(), null == outside ? null : outside.getBytePixels())}, w, h, 0.85f)) {
-								Utils.log("Failed to save mipmap for GRAY8, 'alpha = " + alpha + "', level = " + k  + " for  patch " + patch);
-								cannot_regenerate.add(patch);
-								break;
-							}
-						} else {
-							// 3 - save as 8-bit jpeg
-							if (!mmio.save(target_dir + filename, new byte[][]{fp.getScaledBytePixels()}, w, h, 0.85f)) {
-								Utils.log("Failed to save mipmap for GRAY8, 'alpha = " + alpha + "', level = " + k  + " for  patch " + patch);
-								cannot_regenerate.add(patch);
-								break;
-							}
-						}
+	/** Flush any cached images of the Patch, release any leftover level pixels,
+	 *  and resubmit the Patch if its alpha mask changed meanwhile. */
+	private void finishMipMaps(final MipMapJob job) {
+		final Patch patch = job.patch;
 
-						// 4 - prepare values for the next scaled image
-						k++;
-					} while (fp.getWidth() >= 32 && fp.getHeight() >= 32); // not smaller than 32x32
+		// levels left unwritten, if any
+		if (null != job.levels) {
+			for (final ImageBytes b : job.levels) {
+				if (null != b) CachingThread.storeForReuse(b.c);
+			}
+			job.levels = null;
+		}
+		job.ip = null;
+
+		// flush any cached tiles
+		flushMipMaps(patch.getId());
 
-					long t1 = System.currentTimeMillis();
-					System.out.println("MipMaps took " + (t1 - t0));
+		// flush any cached layer screenshots
+		if (null != patch.getLayer()) {
+			try { patch.getLayer().getParent().removeFromOffscreens(patch.getLayer()); } catch (Exception e) { IJError.print(e); }
+		}
+
+		synchronized (gm_lock) {
+			regenerating_mipmaps.remove(patch);
+		}
+		if (null != job.done) job.done.complete(job.ok);
+
+		// Has the alpha mask changed?
+		if (patch.getAlphaMaskId() != job.alpha_mask_id) {
+			Utils.log2("Alpha mask changed: resubmitting mipmap regeneration for " + patch);
+			regenerateMipMaps(patch);
+		}
+	}
+
+	/** Generates the mipmaps of many patches at once in three stages connected by bounded queues:
+	 *  decoding (reading and transforming the images; mostly I/O), downsampling (CPU)
+	 *  and encoding and writing the mipmap files (I/O again). All stages run concurrently;
+	 *  a stage blocks when the queue to the next one is full, so that only {@link #QUEUE_CAPACITY} decoded
+	 *  images wait in memory per queue, besides the one of each worker.
+	 *  The throughput is shown in the status bar and logged at the end. */
+	private final class MipMapPipeline {
+		/** Of the queues between the stages, independent of the number of workers. */
+		static private final int QUEUE_CAPACITY = 2;
+		private final ConcurrentLinkedQueue<Patch> todo;
+		private final int n_total;
+		private final int n_decoders, n_downsamplers, n_encoders;
+		private final ArrayBlockingQueue<MipMapJob> decoded, downsampled;
+		/** Marks the end of the input of a stage. */
+		private final MipMapJob end;
+		private final AtomicInteger live_decoders, live_downsamplers;
+		private final AtomicInteger n_done = new AtomicInteger(0),
+		                            n_failed = new AtomicInteger(0);
+		private final AtomicLong decode_time = new AtomicLong(0),
+		                         downsample_time = new AtomicLong(0),
+		                         write_time = new AtomicLong(0);
+		private volatile boolean cancelled = false;
+		private long start;
+
+		MipMapPipeline(final Collection<Patch> patches, final Patch any) {
+			this.todo = new ConcurrentLinkedQueue<Patch>(patches);
+			this.n_total = patches.size();
+			this.n_decoders = Math.max(1, Math.min(2, Process.NUM_PROCESSORS / 2));
+			this.n_downsamplers = Process.NUM_PROCESSORS;
+			this.n_encoders = Math.max(1, Math.min(2, Process.NUM_PROCESSORS / 2));
+			this.decoded = new ArrayBlockingQueue<MipMapJob>(QUEUE_CAPACITY);
+			this.downsampled = new ArrayBlockingQueue<MipMapJob>(QUEUE_CAPACITY);
+			this.live_decoders = new AtomicInteger(n_decoders);
+			this.live_downsamplers = new AtomicInteger(n_downsamplers);
+			this.end = new MipMapJob(any);
+		}
+
+		/** Blocks until all patches have been processed, or the calling thread is interrupted. */
+		void run() {
+			if (0 == n_total) return;
+			start = System.currentTimeMillis();
+			final ExecutorService exec = Utils.newFixedThreadPool(n_decoders + n_downsamplers + n_encoders, "mipmap-pipeline");
+			final List<Future<?>> fus = new ArrayList<Future<?>>();
+			try {
+				for (int i=0; i<n_decoders; ++i) fus.add(exec.submit(new Runnable() { public void run() { decode(); }}));
+				for (int i=0; i<n_downsamplers; ++i) fus.add(exec.submit(new Runnable() { public void run() { downsample(); }}));
+				for (int i=0; i<n_encoders; ++i) fus.add(exec.submit(new Runnable() { public void run() { write(); }}));
+				for (final Future<?> fu : fus) {
+					try {
+						fu.get();
+					} catch (InterruptedException ie) {
+						cancelled = true;
+						exec.shutdownNow();
+						Thread.currentThread().interrupt();
+						break;
+					} catch (ExecutionException ee) {
+						IJError.print(ee);
+					}
+				}
+			} finally {
+				exec.shutdown();
+				awaitTermination(exec);
+				// Release any patches that were still queued when cancelled; no worker takes them anymore
+				final List<MipMapJob> left = new ArrayList<MipMapJob>();
+				decoded.drainTo(left);
+				downsampled.drainTo(left);
+				for (final MipMapJob job : left) if (end != job) finishMipMaps(job);
+				final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+				Utils.showStatus("");
+				Utils.log(new StringBuilder("Generated mipmaps for ").append(n_done.get()).append(" of ").append(n_total)
+						.append(" images in ").append(elapsed).append(" ms (")
+						.append(Utils.cutNumber(n_done.get() * 1000.0 / elapsed, 2)).append(" images/s); ")
+						.append(n_failed.get()).append(" failed or skipped. Time per stage: decoding ").append(decode_time.get() / 1000000)
+						.append(" ms, downsampling ").append(downsample_time.get() / 1000000)
+						.append(" ms, writing ").append(write_time.get() / 1000000).append(" ms").toString());
+			}
+		}
+
+		/** Wait until all workers have stopped, which they do within 100 ms once cancelled.
+		 *  Keeps the interrupted status of the calling thread. */
+		private void awaitTermination(final ExecutorService exec) {
+			boolean interrupted = Thread.interrupted();
+			while (true) {
+				try {
+					if (exec.awaitTermination(1, TimeUnit.SECONDS)) break;
+				} catch (InterruptedException ie) {
+					interrupted = true;
+					cancelled = true;
 				}
-			} else {
-				Utils.log("ERROR: unknown image resizing mode for mipmaps: " + resizing_mode);
 			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
 
-			return true;
-		} catch (Throwable e) {
-			Utils.log("*** ERROR: Can't generate mipmaps for patch " + patch);
-			IJError.print(e);
-			cannot_regenerate.add(patch);
-			return false;
-		} finally {
+		private void decode() {
+			try {
+				for (Patch patch = todo.poll(); null != patch && !cancelled; patch = todo.poll()) {
+					final MipMapJob job = start(patch);
+					if (null == job) continue;
+					final long t0 = System.nanoTime();
+					try {
+						job.ok = decodeMipMaps(job);
+					} catch (Throwable e) {
+						failMipMaps(job, e);
+					}
+					decode_time.addAndGet(System.nanoTime() - t0);
+					if (!put(decoded, job)) break;
+				}
+			} finally {
+				if (0 == live_decoders.decrementAndGet()) {
+					for (int i=0; i<n_downsamplers; ++i) put(decoded, end);
+				}
+			}
+		}
 
-			// flush any cached tiles
-			flushMipMaps(patch.getId());
+		private void downsample() {
+			try {
+				for (MipMapJob job = take(decoded); null != job && end != job; job = take(decoded)) {
+					if (job.ok) {
+						final long t0 = System.nanoTime();
+						try {
+							job.ok = downsampleMipMaps(job);
+						} catch (Throwable e) {
+							failMipMaps(job, e);
+						}
+						downsample_time.addAndGet(System.nanoTime() - t0);
+					}
+					if (!put(downsampled, job)) break;
+				}
+			} finally {
+				if (0 == live_downsamplers.decrementAndGet()) {
+					for (int i=0; i<n_encoders; ++i) put(downsampled, end);
+				}
+			}
+		}
 
-			// flush any cached layer screenshots
-			if (null != patch.getLayer()) {
-				try { patch.getLayer().getParent().removeFromOffscreens(patch.getLayer()); } catch (Exception e) { IJError.print(e); }
+		private void write() {
+			for (MipMapJob job = take(downsampled); null != job && end != job; job = take(downsampled)) {
+				if (job.ok) {
+					final long t0 = System.nanoTime();
+					try {
+						job.ok = writeMipMaps(job);
+					} catch (Throwable e) {
+						failMipMaps(job, e);
+					}
+					write_time.addAndGet(System.nanoTime() - t0);
+				}
+				finishMipMaps(job);
+				if (job.ok) n_done.incrementAndGet();
+				else n_failed.incrementAndGet();
+				Display.repaint(job.patch.getLayer());
+				Display.updatePanel(job.patch.getLayer(), job.patch);
+				report();
 			}
+		}
 
-			// gets executed even when returning from the catch statement or within the try/catch block
+		/** Register the Patch as being regenerated and remove its current mipmaps;
+		 *  returns null if the Patch is already being regenerated or its mipmaps cannot be generated. */
+		private MipMapJob start(final Patch patch) {
+			final CompletableFuture<Boolean> done = new CompletableFuture<Boolean>();
 			synchronized (gm_lock) {
-				regenerating_mipmaps.remove(patch);
+				if (regenerating_mipmaps.containsKey(patch)) return null;
+				regenerating_mipmaps.put(patch, done);
+			}
+			MipMapJob job = null;
+			try {
+				final Future<Boolean> removing = removeMipMaps(patch);
+				if (null != removing) removing.get();
+				job = prepareMipMaps(patch);
+			} catch (InterruptedException ie) {
+				cancelled = true;
+			} catch (Exception e) {
+				IJError.print(e);
+			}
+			if (null == job) {
+				synchronized (gm_lock) {
+					regenerating_mipmaps.remove(patch);
+				}
+				done.complete(false);
+				n_failed.incrementAndGet();
+				return null;
+			}
+			job.done = done;
+			return job;
+		}
+
+		/** Blocks while the queue is full; returns false, releasing the job, if the pipeline was cancelled meanwhile. */
+		private boolean put(final ArrayBlockingQueue<MipMapJob> queue, final MipMapJob job) {
+			try {
+				while (!queue.offer(job, 100, TimeUnit.MILLISECONDS)) {
+					if (cancelled) break;
+				}
+				if (!cancelled) return true;
+			} catch (InterruptedException ie) {
+				cancelled = true;
 			}
+			if (end != job) finishMipMaps(job);
+			return false;
+		}
 
-			// Has the alpha mask changed?
-			if (patch.getAlphaMaskId() != alpha_mask_id) {
-				Utils.log2("Alpha mask changed: resubmitting mipmap regeneration for " + patch);
-				regenerateMipMaps(patch);
+		/** Blocks while the queue is empty; returns null if the pipeline was cancelled meanwhile. */
+		private MipMapJob take(final ArrayBlockingQueue<MipMapJob> queue) {
+			try {
+				while (!cancelled) {
+					final MipMapJob job = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (null != job) return job;
+				}
+			} catch (InterruptedException ie) {
+				cancelled = true;
 			}
+			return null;
+		}
+
+		private void report() {
+			final int n = n_done.get() + n_failed.get();
+			final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+			Utils.showStatus(new StringBuilder("Generating mipmaps: ").append(n).append('/').append(n_total)
+					.append(" (").append(Utils.cutNumber(n * 1000.0 / elapsed, 1)).append(" images/s)").toString());
+		}
+	}
+
+	/** Generate the mipmaps of all {@code patches} of this loader with a {@link MipMapPipeline}; blocks until done. */
+	private void generateMipMapsPipelined(final Collection<Patch> patches) {
+		if (patches.isEmpty()) return;
+		if (!isMipMapsRegenerationEnabled()) {
+			// If not enabled, the cache must be flushed
+			for (final Patch p : patches) flushMipMaps(p.getId());
+			return;
 		}
+		new MipMapPipeline(patches, patches.iterator().next()).run();
 	}
 
 
@@ -2083,7 +2408,7 @@ public final class FSLoader extends Loader {
 				this.setAsBackground(true);
 				Utils.log2("starting mipmap generation ..");
 				try {
-					final ArrayList<Future<?>> fus = new ArrayList<Future<?>>();
+					final ArrayList<Patch> todo = new ArrayList<Patch>();
 					for (final Displayable displ : patches) {
 						if (displ.getClass() != Patch.class) continue;
 						Patch pa = (Patch)displ;
@@ -2105,10 +2430,10 @@ public final class FSLoader extends Loader {
 							} while (w >= 32 && h >= 32);
 						}
 						if (!ow) continue;
-						fus.add(regenerateMipMaps(pa));
+						todo.add(pa);
 					}
 
-					Utils.wait(fus);
+					generateMipMapsPipelined(todo);
 
 				} catch (Exception e) {
 					IJError.print(e);
@@ -2316,6 +2641,13 @@ public final class FSLoader extends Loader {
 	}
 
 	private void removeMipMaps(final String filename, final int width, final int height) {
+		if (filename.endsWith(MIPMAP_FORMATS[MIPMAP_PACKED])) {
+			final String packed = dir_mipmaps + PACKED_DIR + filename;
+			if (!PackedMipMaps.remove(packed)) {
+				Utils.log2("Could not remove file " + packed);
+			}
+			return;
+		}
 		int w = width;
 		int h = height;
 		int k = 0; // the level
@@ -2357,6 +2689,15 @@ public final class FSLoader extends Loader {
 				// find max level that keeps dim over 32 pixels
 				if (level > max_level) return max_level;
 				return level;
+			} else if (MIPMAP_PACKED == mipmaps_format) {
+				final String packed = packedMipMapPath(patch);
+				if (null == packed) return 0;
+				do {
+					if (PackedMipMaps.exists(packed, level)) {
+						return level;
+					}
+					level--;
+				} while (level >= 0);
 			} else {
 				do {
 					final File f = new File(new StringBuilder(dir_mipmaps).append(level).append('/').append(filename).toString());
@@ -2444,6 +2785,28 @@ public final class FSLoader extends Loader {
 		}
 	}
 
+	@Override
+	protected int[] getMipMapTileGrid(final Patch patch, final int level) {
+		final String packed = packedMipMapPath(patch);
+		return null == packed ? null : PackedMipMaps.getLevelDimensions(packed, level);
+	}
+
+	@Override
+	protected Image fetchMipMapTile(final Patch patch, final int level, final int tx, final int ty) {
+		final String packed = packedMipMapPath(patch);
+		if (null == packed) return null;
+		final BufferedImage bi = PackedMipMaps.readTile(packed, level, tx, ty);
+		if (null == bi || patch.hasAlphaChannel() || patch.paintsWithFalseColor()) return bi;
+		switch (patch.getType()) {
+			case ImagePlus.GRAY16:
+			case ImagePlus.GRAY8:
+			case ImagePlus.GRAY32:
+				return ImageSaver.asGrey(bi);
+			default:
+				return bi;
+		}
+	}
+
 	/** Will NOT free memory. */
 	private final MipMapImage fetchMipMapAWT(final Patch patch, final int level, final long n_bytes, final int retries) {
 		if (null == dir_mipmaps) {
@@ -2902,14 +3265,16 @@ public final class FSLoader extends Loader {
 	////////////////////
 
 
-	static final public String[] MIPMAP_FORMATS = new String[]{".jpg", ".png", ".tif", ".raw", ".rag"};
+	static final public String[] MIPMAP_FORMATS = new String[]{".jpg", ".png", ".tif", ".raw", ".rag", ".rtmm"};
 	static public final int MIPMAP_JPEG = 0;
 	static public final int MIPMAP_PNG = 1;
 	static public final int MIPMAP_TIFF = 2;
 	static public final int MIPMAP_RAW = 3;
 	static public final int MIPMAP_RAG = 4;
+	/** All levels of a Patch in a single file, see {@link PackedMipMaps}. */
+	static public final int MIPMAP_PACKED = 5;
 
-	static private final int MIPMAP_HIGHEST = MIPMAP_RAG; // WARNING: update this value if other formats are added
+	static private final int MIPMAP_HIGHEST = MIPMAP_PACKED; // WARNING: update this value if other formats are added
 
 	// Default: RAG
 	private int mipmaps_format = MIPMAP_RAG;
@@ -2928,13 +3293,15 @@ public final class FSLoader extends Loader {
 				return new RWImageRaw();
 			case MIPMAP_RAG:
 				return new RWImageRag();
+			case MIPMAP_PACKED:
+				return new RWImagePacked();
 			// WARNING add here another one
 		}
 		return null;
 	}
 
 	/** Any of: {@link #MIPMAP_JPEG}, {@link #MIPMAP_PNG}, {@link #MIPMAP_TIFF}, {@link #MIPMAP_RAW},
-	 * {@link #MIPMAP_RAG}. */
+	 * {@link #MIPMAP_RAG}, {@link #MIPMAP_PACKED}. */
 	@Override
 	public final int getMipMapFormat() {
 		return mipmaps_format;
@@ -2948,6 +3315,7 @@ public final class FSLoader extends Loader {
 			case MIPMAP_TIFF:
 			case MIPMAP_RAW:
 			case MIPMAP_RAG:
+			case MIPMAP_PACKED:
 				this.mipmaps_format = format;
 				this.mExt = MIPMAP_FORMATS[mipmaps_format];
 				this.mmio = newMipMapRWImage();
@@ -3177,6 +3545,56 @@ public final class FSLoader extends Loader {
 			}
 		}
 	}
+	/** Writes into and reads from the file of {@link #packedMipMapPath(String)}. */
+	private final class RWImagePacked extends RWImage {
+		@Override
+		final BufferedImage open(final String path) {
+			final String packed = packedMipMapPath(path);
+			return null == packed ? null : PackedMipMaps.read(packed, packedMipMapLevel(path));
+		}
+		@Override
+		final BufferedImage openGrey(final String path) {
+			return ImageSaver.asGrey(open(path));
+		}
+		@Override
+		final boolean save(final String path, final byte[][] b, final int width, final int height, final float quality) {
+			try {
+				final String packed = packedMipMapPath(path);
+				return null != packed && PackedMipMaps.save(packed, packedMipMapLevel(path), b, width, height);
+			} finally {
+				CachingThread.storeForReuse(b);
+			}
+		}
+	}
+
+	/** The folder, under dir_mipmaps, of the files of format {@link #MIPMAP_PACKED}. */
+	static private final String PACKED_DIR = "packed/";
+
+	/** Maps the path of a mipmap level, {@code <dir_mipmaps><level>/<file>}, to the file of format
+	 *  {@link #MIPMAP_PACKED} holding all levels, {@code <dir_mipmaps>packed/<file>}. Returns null for other paths. */
+	private final String packedMipMapPath(final String path) {
+		final String dir = dir_mipmaps;
+		if (null == dir || !path.startsWith(dir)) return null;
+		final int slash = path.indexOf('/', dir.length());
+		if (-1 == slash) return null;
+		return new StringBuilder(dir).append(PACKED_DIR).append(path, slash + 1, path.length()).toString();
+	}
+
+	/** The file of format {@link #MIPMAP_PACKED} with all mipmap levels of {@code patch},
+	 *  or null if mipmaps are stored in a different format or not in a local folder. */
+	private final String packedMipMapPath(final Patch patch) {
+		final String dir = dir_mipmaps;
+		if (MIPMAP_PACKED != mipmaps_format || null == dir || isURL(dir)) return null;
+		final String filename = getInternalFileName(patch);
+		if (null == filename) return null;
+		return new StringBuilder(dir).append(PACKED_DIR).append(createIdPath(Long.toString(patch.getId()), filename, mExt)).toString();
+	}
+
+	/** The level of the path of a mipmap level, see {@link #packedMipMapPath(String)}. */
+	private final int packedMipMapLevel(final String path) {
+		final int start = dir_mipmaps.length();
+		return Integer.parseInt(path.substring(start, path.indexOf('/', start)));
+	}
 	
 	@SuppressWarnings("unchecked")
 	@Override
@@ -110,6 +110,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -140,6 +141,7 @@ import de.unihalle.informatik.rhizoTrak.display.DisplayablePanel;
 import de.unihalle.informatik.rhizoTrak.display.Layer;
 import de.unihalle.informatik.rhizoTrak.display.LayerSet;
 import de.unihalle.informatik.rhizoTrak.display.MipMapImage;
+import de.unihalle.informatik.rhizoTrak.display.MipMapTile;
 import de.unihalle.informatik.rhizoTrak.display.Patch;
 import de.unihalle.informatik.rhizoTrak.display.Polyline;
 import de.unihalle.informatik.rhizoTrak.display.Region;
@@ -210,6 +212,9 @@ abstract public class Loader {
 	/** Keep track of whether there are any unsaved changes.*/
 	protected boolean changes = false;
 
+	/** Keep track of whether there are unsaved changes which the {@link ChangeJournal} does not record. */
+	protected boolean unjournaled_changes = false;
+
 	final private AtomicLong nextTempId = new AtomicLong( -1 );
 
 
@@ -743,8 +748,11 @@ abstract public class Loader {
 			// Sanity check:
 			if (0 == mawts.size()) {
 				CachingThread.releaseAll();
+				final Project project = Project.findProject(this);
 				// Remove any autotraces
-				Polyline.flushTraceCache(Project.findProject(this));
+				Polyline.flushTraceCache(project);
+				// Drop the nodes of treelines in layers not shown, they are read again on demand
+				if (null != project && null != project.getTreelinePager()) project.getTreelinePager().pageOutAll();
 				// TODO should measure the polyline trace cache and add it to 'released'
 
 				Thread.yield();
@@ -811,34 +819,28 @@ abstract public class Loader {
 
 	/** Removes from the cache all awt images bond to the given id. */
 	public void decacheAWT(final long id) {
-		synchronized (db_lock) {
-			try {
-				mawts.removeAndFlushPyramid(id); // where are my lisp macros! Wrapping any function in a synch/lock/unlock could be done crudely with reflection, but what a pain
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			mawts.removeAndFlushPyramid(id); // where are my lisp macros! Wrapping any function in a synch/lock/unlock could be done crudely with reflection, but what a pain
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 	}
 
 	public Image getCachedAWT(final long id, final int level) {
-		synchronized (db_lock) {
-			try {
-				return mawts.get(id, level);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			return mawts.get(id, level);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 		return null;
 	}
 
 	public void cacheAWT( final long id, final Image awt) {
 		if (null == awt) return;
-		synchronized (db_lock) {
-			try {
-				mawts.put(id, awt, 0);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			mawts.put(id, awt, 0);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 	}
 
@@ -901,71 +903,59 @@ abstract public class Loader {
 	}
 
 	public boolean isImagePlusCached(final Patch p) {
-		synchronized (db_lock) {
-			try {
-				return null != mawts.get(p.getId());
-			} catch (final Throwable t) {
-				handleCacheError(t);
-				return false;
-			}
+		try {
+			return null != mawts.get(p.getId());
+		} catch (final Throwable t) {
+			handleCacheError(t);
+			return false;
 		}
 	}
 
 	/** Returns true if there is a cached awt image for the given mag and Patch id. */
 	public boolean isCached(final Patch p, final double mag) {
 		final int level = Loader.getMipMapLevel(mag, maxDim(p));
-		synchronized (db_lock) {
-			try {
-				return mawts.contains(p.getId(), level);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-				return false;
-			}
+		try {
+			return mawts.contains(p.getId(), level);
+		} catch (final Throwable t) {
+			handleCacheError(t);
+			return false;
 		}
 	}
 
 	public MipMapImage getCached(final long id, final int level) {
-		synchronized (db_lock) {
-			try {
-				return mawts.getClosestAbove(id, level);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			return mawts.getClosestAbove(id, level);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 		return null;
 	}
 	
 	/** Only the indicated level for the given Patch id. */
 	public void removeCached(final long id, final int level) {
-		synchronized (db_lock) {
-			try {
-				mawts.remove(id, level);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			mawts.remove(id, level);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 	}
 	
 	/** All levels of the Patch. */
 	public void removeCached(final long id) {
-		synchronized (db_lock) {
-			try {
-				mawts.remove(id);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			mawts.remove(id);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 	}
 
 	/** Above or equal in size. */
 	public MipMapImage getCachedClosestAboveImage(final Patch p, final double mag) {
 		final int level = Loader.getMipMapLevel(mag, maxDim(p));
-		synchronized (db_lock) {
-			try {
-				return mawts.getClosestAbove(p.getId(), level);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			return mawts.getClosestAbove(p.getId(), level);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 		return null;
 	}
@@ -973,12 +963,10 @@ abstract public class Loader {
 	/** Below, not equal. */
 	public MipMapImage getCachedClosestBelowImage(final Patch p, final double mag) {
 		final int level = Loader.getMipMapLevel(mag, maxDim(p));
-		synchronized (db_lock) {
-			try {
-				return mawts.getClosestBelow(p.getId(), level);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			return mawts.getClosestBelow(p.getId(), level);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 		return null;
 	}
@@ -989,21 +977,21 @@ abstract public class Loader {
 	}
 
 	/** Table of dynamic locks, a single one per Patch if any.
-	 *  Access is synchronized by db_lock. */
-	private final Map<String,ImageLoadingLock> ht_plocks = new HashMap<String,ImageLoadingLock>();
+	 *  Concurrent, so that it can be accessed without holding db_lock. */
+	private final ConcurrentHashMap<String,ImageLoadingLock> ht_plocks = new ConcurrentHashMap<String,ImageLoadingLock>();
 
 	protected final ImageLoadingLock getOrMakeImageLoadingLock(final long id, final int level) {
 		return getOrMakeImageLoadingLock(new StringBuilder().append(id).append('.').append(level).toString());
 	}
 	protected final ImageLoadingLock getOrMakeImageLoadingLock(final String key) {
-		ImageLoadingLock plock = ht_plocks.get(key);
+		final ImageLoadingLock plock = ht_plocks.get(key);
 		if (null != plock) return plock;
-		plock = new ImageLoadingLock(key);
-		ht_plocks.put(key, plock);
-		return plock;
+		final ImageLoadingLock newlock = new ImageLoadingLock(key);
+		final ImageLoadingLock other = ht_plocks.putIfAbsent(key, newlock);
+		return null == other ? newlock : other;
 	}
 	protected final void removeImageLoadingLock(final ImageLoadingLock pl) {
-		ht_plocks.remove(pl.key);
+		ht_plocks.remove(pl.key, pl);
 	}
 
 	/** Calls fetchImage(p, mag) unless overriden. */
@@ -1021,44 +1009,88 @@ abstract public class Loader {
 	 * If the mag is bigger than 1.0, it will return as if was 1.0.
 	 * Will return Loader.NOT_FOUND if, err, not found (probably an Exception will print along).
 	 */
-	public MipMapImage fetchImage( final Patch p, double mag ) {
+	public MipMapImage fetchImage( final Patch p, final double mag ) {
+		return fetchAWTImage(p, getMipMapLevel(p, mag), Loader.getHighestMipMapLevel(p));
+	}
 
+	/** The mipmap level that {@link #fetchImage(Patch, double)} fetches for the given magnification. */
+	public final int getMipMapLevel( final Patch p, double mag ) {
 		if (mag > 1.0) mag = 1.0; // Don't want to create gigantic images!
-		final int max_level = Loader.getHighestMipMapLevel(p);
-		
-		final int level = Math.max(Math.min(max_level,
-				                            Loader.getMipMapLevel(mag, maxDim(p))),
-				                   Math.max(0,
-				                		    p.getProject().getFirstMipMapLevelSaved()));
+		return Math.max(Math.min(Loader.getHighestMipMapLevel(p),
+				                 Loader.getMipMapLevel(mag, maxDim(p))),
+				        Math.max(0,
+				                 p.getProject().getFirstMipMapLevelSaved()));
+	}
 
-		return fetchAWTImage(p, level, max_level);
+	/** Fetch only the tiles of mipmap {@code level} that intersect {@code roi}, given in pixels of that level,
+	 * for painting large images of which only a small part is visible. Tiles are cached like mipmaps.
+	 * Returns null, and then the whole level has to be fetched with {@link #fetchImage(Patch, double)},
+	 * if the level is not stored as tiles or a tile is missing, if the whole level is cached already,
+	 * or if {@code roi} intersects all tiles anyway.
+	 */
+	public List<MipMapTile> fetchImageTiles( final Patch p, final int level, final Rectangle roi ) {
+		if (null == mawts || level < 0 || !isMipMapsRegenerationEnabled()) return null;
+		try {
+			final long id = p.getId();
+			if (mawts.contains(id, level)) return null;
+			final int[] grid = getMipMapTileGrid(p, level);
+			if (null == grid) return null;
+			final int ts = grid[2];
+			final int nx = (grid[0] + ts - 1) / ts,
+			          ny = (grid[1] + ts - 1) / ts;
+			final Rectangle r = roi.intersection(new Rectangle(0, 0, grid[0], grid[1]));
+			final ArrayList<MipMapTile> tiles = new ArrayList<MipMapTile>();
+			if (r.isEmpty()) return tiles;
+			final int tx0 = r.x / ts,
+			          ty0 = r.y / ts,
+			          tx1 = (r.x + r.width - 1) / ts,
+			          ty1 = (r.y + r.height - 1) / ts;
+			if ((tx1 - tx0 + 1) * (ty1 - ty0 + 1) >= nx * ny) return null;
+			final double scale = Math.pow( 2.0, level );
+			final int maxdim = (int)maxDim(p);
+			for (int ty=ty0; ty<=ty1; ty++) {
+				for (int tx=tx0; tx<=tx1; tx++) {
+					Image tile = mawts.getTile(id, level, tx, ty);
+					if (null == tile) {
+						releaseToFit( ts * ts * 8L );
+						tile = fetchMipMapTile(p, level, tx, ty);
+						if (null == tile) return null;
+						tile = mawts.putTile(id, level, tx, ty, tile, maxdim);
+					}
+					tiles.add(new MipMapTile(tile, tx * ts, ty * ts, scale));
+				}
+			}
+			return tiles;
+		} catch (final Throwable t) {
+			handleCacheError(t);
+		}
+		return null;
 	}
 
 	final public MipMapImage fetchAWTImage(final Patch p, final int level, final int max_level) {
-		// Below, the complexity of the synchronized blocks is to provide sufficient granularity. Keep in mind that only one thread at at a time can access a synchronized block for the same object (in this case, the db_lock), and thus calling lock() and unlock() is not enough. One needs to break the statement in as many synch blocks as possible for maximizing the number of threads concurrently accessing different parts of this function.
+		// The mipmap cache is thread-safe and lock-striped by id, so lookups and insertions need not hold the db_lock.
+		// The image loading locks ensure that only one thread loads a given level of a given Patch at a time.
 
 		// find an equal or larger existing pyramid awt
 		final long id = p.getId();
 		ImageLoadingLock plock = null;
 
-		synchronized (db_lock) {
-			try {
-				if (null == mawts) {
-					return new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() ); // when lazy repainting after closing a project, the awts is null
-				}
-				if (level >= 0 && isMipMapsRegenerationEnabled()) {
-					// 1 - check if the exact level is cached
-					final Image mawt = mawts.get( id, level );
-					if (null != mawt) {
-						//Utils.log2("returning cached exact mawt for level " + level);
-						final double scale = Math.pow( 2.0, level );
-						return new MipMapImage( mawt, scale, scale );
-					}
-					plock = getOrMakeImageLoadingLock(p.getId(), level);
+		try {
+			if (null == mawts) {
+				return new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() ); // when lazy repainting after closing a project, the awts is null
+			}
+			if (level >= 0 && isMipMapsRegenerationEnabled()) {
+				// 1 - check if the exact level is cached
+				final Image mawt = mawts.get( id, level );
+				if (null != mawt) {
+					//Utils.log2("returning cached exact mawt for level " + level);
+					final double scale = Math.pow( 2.0, level );
+					return new MipMapImage( mawt, scale, scale );
 				}
-			} catch (final Exception e) {
-				IJError.print(e);
+				plock = getOrMakeImageLoadingLock(p.getId(), level);
 			}
+		} catch (final Exception e) {
+			IJError.print(e);
 		}
 
 		MipMapImage mipMap = null;
@@ -1066,10 +1098,7 @@ abstract public class Loader {
 		// 2 - check if the exact file is present for the desired level
 		if (level >= 0 && isMipMapsRegenerationEnabled()) {
 			synchronized (plock) {
-				final Image mawt;
-				synchronized (db_lock) {
-					mawt = mawts.get( id, level );
-				}
+				final Image mawt = mawts.get( id, level );
 				if (null != mawt) {
 					final double scale = Math.pow( 2.0, level );
 					return new MipMapImage( mawt, scale, scale ); // was loaded by a different thread
@@ -1089,44 +1118,42 @@ abstract public class Loader {
 					mipMap = null;
 				}
 
-				synchronized (db_lock) {
-					try {
-						if ( null != mipMap ) {
-							//Utils.log2("returning exact mawt from file for level " + level);
-							if ( REGENERATING != mipMap.image ) {
-								mawts.put( id, mipMap.image, level );
-								Display.repaintSnapshot(p);
-							}
-							return mipMap;
+				try {
+					if ( null != mipMap ) {
+						//Utils.log2("returning exact mawt from file for level " + level);
+						if ( REGENERATING != mipMap.image ) {
+							mawts.put( id, mipMap.image, level );
+							Display.repaintSnapshot(p);
 						}
+						return mipMap;
+					}
 
-						// Check if an appropriate level is cached
-						mipMap = mawts.getClosestAbove(id, level);
-
-						if ( mipMap == null ) {
-							// 3 - else, load closest level to it but still giving a larger image
-							final int lev = getClosestMipMapLevel(p, level, max_level); // finds the file for the returned level, otherwise returns zero
-							//Utils.log2("closest mipmap level is " + lev);
-							if (lev > -1) {
-								mipMap = fetchMipMapAWT( p, lev, n_bytes ); // overestimating n_bytes
-								if ( null != mipMap ) {
-									mawts.put( id, mipMap.image, lev );
-									//Utils.log2("from getClosestMipMapLevel: mawt is " + mawt);
-									Display.repaintSnapshot( p );
-									//Utils.log2("returning from getClosestMipMapAWT with level " + lev);
-									return mipMap;
-								}
-							} else if (ERROR_PATH_NOT_FOUND == lev) {
-								mipMap = new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() );
+					// Check if an appropriate level is cached
+					mipMap = mawts.getClosestAbove(id, level);
+
+					if ( mipMap == null ) {
+						// 3 - else, load closest level to it but still giving a larger image
+						final int lev = getClosestMipMapLevel(p, level, max_level); // finds the file for the returned level, otherwise returns zero
+						//Utils.log2("closest mipmap level is " + lev);
+						if (lev > -1) {
+							mipMap = fetchMipMapAWT( p, lev, n_bytes ); // overestimating n_bytes
+							if ( null != mipMap ) {
+								mawts.put( id, mipMap.image, lev );
+								//Utils.log2("from getClosestMipMapLevel: mawt is " + mawt);
+								Display.repaintSnapshot( p );
+								//Utils.log2("returning from getClosestMipMapAWT with level " + lev);
+								return mipMap;
 							}
-						} else {
-							return mipMap;
+						} else if (ERROR_PATH_NOT_FOUND == lev) {
+							mipMap = new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() );
 						}
-					} catch (final Throwable t) {
-						handleCacheError(t);
-					} finally {
-						removeImageLoadingLock(plock);
+					} else {
+						return mipMap;
 					}
+				} catch (final Throwable t) {
+					handleCacheError(t);
+				} finally {
+					removeImageLoadingLock(plock);
 				}
 			}
 		}
@@ -1134,39 +1161,28 @@ abstract public class Loader {
 		// level is zero or nonsensically lower than zero, or was not found
 		//Utils.log2("not found!");
 
-		synchronized (db_lock) {
-			try {
-				// 4 - check if any suitable level is cached (whithout mipmaps, it may be the large image)
-				mipMap = mawts.getClosestAbove(id, level);
-				if (null != mipMap) {
-					//Utils.log2("returning from getClosest with level " + level);
-					return mipMap;
-				}
-			} catch (final Exception e) {
-				IJError.print(e);
+		try {
+			// 4 - check if any suitable level is cached (whithout mipmaps, it may be the large image)
+			mipMap = mawts.getClosestAbove(id, level);
+			if (null != mipMap) {
+				//Utils.log2("returning from getClosest with level " + level);
+				return mipMap;
 			}
+		} catch (final Exception e) {
+			IJError.print(e);
 		}
 
 		// 5 - else, fetch the (perhaps) transformed ImageProcessor and make an image from it of the proper size and quality
 
 		if (hs_unloadable.contains(p)) return new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() );
 
-		synchronized (db_lock) {
-			try {
-				plock = getOrMakeImageLoadingLock(p.getId(), level);
-			} catch (final Exception e) {
-				if (null != plock) removeImageLoadingLock(plock); // TODO there may be a flaw in the image loading locks: when removing it, if it had been acquired by another thread, then a third thread will create it new. The image loading locks should count the number of threads that have them, and remove themselves when zero.
-				return new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() );
-			}
-		}
+		plock = getOrMakeImageLoadingLock(p.getId(), level);
 
 		synchronized (plock) {
 			// Check if a previous call made it while waiting:
 			mipMap = mawts.getClosestAbove(id, level);
 			if (null != mipMap) {
-				synchronized (db_lock) {
-					removeImageLoadingLock(plock);
-				}
+				removeImageLoadingLock(plock);
 				return mipMap;
 			}
 		}
@@ -1186,19 +1202,17 @@ abstract public class Loader {
 			mawt = null;
 		}
 
-		synchronized (db_lock) {
-			try {
-				if (null != mawt) {
-					mawts.put(id, mawt, 0);
-					Display.repaintSnapshot(p);
-					//Utils.log2("Created mawt from scratch.");
-					return new MipMapImage( mawt, 1.0, 1.0 );
-				}
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			} finally {
-				removeImageLoadingLock(plock);
+		try {
+			if (null != mawt) {
+				mawts.put(id, mawt, 0);
+				Display.repaintSnapshot(p);
+				//Utils.log2("Created mawt from scratch.");
+				return new MipMapImage( mawt, 1.0, 1.0 );
 			}
+		} catch (final Throwable t) {
+			handleCacheError(t);
+		} finally {
+			removeImageLoadingLock(plock);
 		}
 
 		return new MipMapImage( NOT_FOUND, p.getWidth() / NOT_FOUND.getWidth(), p.getHeight() / NOT_FOUND.getHeight() );
@@ -1230,12 +1244,10 @@ abstract public class Loader {
 
 	/** Simply reads from the cache, does no reloading at all. If the ImagePlus is not found in the cache, it returns null and the burden is on the calling method to do reconstruct it if necessary. This is intended for the LayerStack. */
 	public ImagePlus getCachedImagePlus(final long id) {
-		synchronized(db_lock) {
-			try {
-				return mawts.get(id);
-			} catch (final Throwable t) {
-				handleCacheError(t);
-			}
+		try {
+			return mawts.get(id);
+		} catch (final Throwable t) {
+			handleCacheError(t);
 		}
 		return null;
 	}
@@ -3462,6 +3474,11 @@ while (it.hasNext()) {
 		return MIN_FREE_BYTES;
 	}
 
+	/** Size of the output buffer when writing the project XML. */
+	static private final int XML_BUFFER_SIZE = 1 << 20;
+	/** Size of the deflater input buffer when writing gzip-compressed project XML. */
+	static private final int XML_GZIP_BUFFER_SIZE = 1 << 16;
+
 	/** Exports the project and its images (optional); if export_images is true, it will be asked for confirmation anyway -beware: for FSLoader, images are not exported since it doesn't own them; only their path.*/
 	protected String export(final Project project, final File fxml, final XMLOptions options) {
 		
@@ -3492,25 +3509,39 @@ while (it.hasNext()) {
 			final File ftmp = IJ.isWindows() ? fxml : new File(new StringBuilder(fxml.getAbsolutePath()).append(".tmp").toString());
 			final FileOutputStream fos = new FileOutputStream(ftmp);
 
-			// TODO: test saving times if the BufferedOutputStream is given a much larger buffer size than the default 8192.
-			java.io.Writer writer;
-			if (fxml.getName().endsWith(".xml.gz")) {
-				writer = new OutputStreamWriter(new GZIPOutputStream(new BufferedOutputStream(fos)), "8859_1");
+			if (ProjectSnapshot.isSnapshotPath(fxml.getName())) {
+				try {
+					ProjectSnapshot.write(project, fos, options);
+					fos.getFD().sync();
+				} catch (final Exception e) {
+					Utils.log("FAILED to write to the file at " + fxml);
+					IJError.print(e);
+					path = null;
+					return null;
+				} finally {
+					fos.close();
+				}
 			} else {
-				writer = new OutputStreamWriter(new BufferedOutputStream(fos), "8859_1");
-			}
+				// The XML is streamed element by element, so use large buffers to keep the number of system calls low.
+				java.io.Writer writer;
+				if (fxml.getName().endsWith(".xml.gz")) {
+					writer = new OutputStreamWriter(new GZIPOutputStream(new BufferedOutputStream(fos, XML_BUFFER_SIZE), XML_GZIP_BUFFER_SIZE), "8859_1");
+				} else {
+					writer = new OutputStreamWriter(new BufferedOutputStream(fos, XML_BUFFER_SIZE), "8859_1");
+				}
 
-			try {
-				writeXMLTo(project, writer, options);
-				fos.getFD().sync(); // ensure the file is synch'ed with the file system, given that we are going to rename it after closing it.
-			} catch (final Exception e) {
-				Utils.log("FAILED to write to the file at " + fxml);
-				IJError.print(e);
-				path = null;
-				return null;
-			} finally {
-				writer.close(); // flushes and closes the FileOutputStream as well
-				writer = null;
+				try {
+					writeXMLTo(project, writer, options);
+					fos.getFD().sync(); // ensure the file is synch'ed with the file system, given that we are going to rename it after closing it.
+				} catch (final Exception e) {
+					Utils.log("FAILED to write to the file at " + fxml);
+					IJError.print(e);
+					path = null;
+					return null;
+				} finally {
+					writer.close(); // flushes and closes the FileOutputStream as well
+					writer = null;
+				}
 			}
 
 			// On success, rename .xml.tmp to .xml
@@ -3534,7 +3565,10 @@ while (it.hasNext()) {
 
 			// On successful renaming, then:
 			setChanged(false);
+			project.getChangeJournal().reset();
 			path = fxml.getAbsolutePath().replace('\\', '/');
+			// the saved snapshot backs the paged treelines from now on
+			if (null != project.getTreelinePager() && ProjectSnapshot.isSnapshotPath(fxml.getName())) project.getTreelinePager().reopen(fxml.getAbsolutePath());
 			project.setTitle(fxml.getName());
 
 			// Remove the patches_dir if empty (can happen when doing a "save" on a FSLoader project if no new Patch have been created that have no path.
@@ -3640,7 +3674,7 @@ while (it.hasNext()) {
 		if (null == fxml) return null; // User canceled dialog
 		// ... which means we must do some checking here:
 		final String name = fxml.getName();
-		if ( !(name.endsWith(".xml") || name.endsWith(".xml.gz"))) {
+		if ( !(name.endsWith(".xml") || name.endsWith(".xml.gz") || ProjectSnapshot.isSnapshotPath(name))) {
 			// Default to compressed XML
 			fxml = new File(Utils.fixDir(fxml.getParent()) + name + ".xml.gz");
 		}
@@ -3738,9 +3772,21 @@ while (it.hasNext()) {
 
 	public void setChanged(final boolean changed) {
 		this.changes = changed;
+		this.unjournaled_changes = changed;
 		//Utils.printCaller(this, 7);
 	}
 
+	/** Record unsaved changes of treelines or connectors which were handed to the {@link ChangeJournal},
+	 *  so that the autosaver may append them to the journal instead of saving the whole project. */
+	public void setJournaledChanges() {
+		this.changes = true;
+	}
+
+	/** @return whether there are unsaved changes which only saving the whole project keeps */
+	public boolean hasUnjournaledChanges() {
+		return this.unjournaled_changes;
+	}
+
 	/** Returns null unless overriden. This is intended for FSLoader projects. */
 	public String getPath(final Patch patch) { return null; }
 
@@ -3929,7 +3975,8 @@ while (it.hasNext()) {
 			final long mb = lo.mawts.getMaxBytes();
 			sb.append(++i).append(": cache size: " ).append(b).append(" / ").append(mb)
 			.append(" (").append((100 * b) / (float)mb).append("%)")
-			.append(" (ids: ").append(lo.mawts.size()).append(')');
+			.append(" (ids: ").append(lo.mawts.size()).append(')')
+			.append(" (").append(lo.mawts.getStatistics()).append(")\n");
 		}
 		Utils.log2(sb.toString());
 	}
@@ -4066,6 +4113,14 @@ while (it.hasNext()) {
 	/** Does nothing and returns null unless overriden. */
 	protected MipMapImage fetchMipMapAWT(final Patch patch, final int level, final long n_bytes) { return null; }
 
+	/** Returns {width, height, tile size} of mipmap {@code level} if it is stored as tiles,
+	 *  see {@link #fetchImageTiles(Patch, int, Rectangle)}. Returns null unless overriden. */
+	protected int[] getMipMapTileGrid(final Patch patch, final int level) { return null; }
+
+	/** Reads the tile at column {@code tx} and row {@code ty} of mipmap {@code level}, without caching it.
+	 *  Returns null unless overriden. */
+	protected Image fetchMipMapTile(final Patch patch, final int level, final int tx, final int ty) { return null; }
+
 	/** Does nothing and returns false unless overriden. */
 	public boolean checkMipMapFileExists(final Patch p, final double magnification) { return false; }
 
@@ -4112,7 +4167,7 @@ while (it.hasNext()) {
 		//}
 	}
 
-	/** Must be called within the context of the db_lock. */
+	/** The cache is thread-safe, so this may be called with or without holding the db_lock. */
 	final protected void handleCacheError(final Throwable t) {
 		Utils.log("ERROR with image cache!");
 		IJError.print(t);
@@ -0,0 +1,115 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Wall-clock time spent in each stage of opening a project, e.g. parsing the XML versus building the
+ *  tree caches and buckets. Each {@link #mark(String)} books the time since the previous one to the given stage.
+ *  Logged when the project is open, and kept in {@link #getLast()} for comparisons.
+ *
+ * @author posch
+ */
+public class OpenTimings {
+
+	static private volatile OpenTimings last = null;
+
+	private final String path;
+	private final long start = System.nanoTime();
+	private long previous = start;
+	private long end = 0;
+	private final LinkedHashMap<String,Long> stages = new LinkedHashMap<String,Long>();
+
+	public OpenTimings(final String path) {
+		this.path = path;
+	}
+
+	/** Book the time since the previous mark, or since creation, to @param stage. */
+	synchronized public void mark(final String stage) {
+		final long now = System.nanoTime();
+		add(stage, now - previous);
+		previous = now;
+	}
+
+	/** Book @param nanos to @param stage, for work done outside the sequence of marks, e.g. in the background. */
+	synchronized public void add(final String stage, final long nanos) {
+		final Long t = stages.get(stage);
+		stages.put(stage, null == t ? nanos : t + nanos);
+	}
+
+	/** @return the milliseconds booked to @param stage, 0 if none */
+	synchronized public double getMillis(final String stage) {
+		final Long t = stages.get(stage);
+		return null == t ? 0 : t / 1000000.0;
+	}
+
+	/** End the measurement, log it and make it the {@link #getLast()}. */
+	synchronized public void done() {
+		end = System.nanoTime();
+		last = this;
+		Utils.log2(toString());
+	}
+
+	@Override
+	synchronized public String toString() {
+		final StringBuilder sb = new StringBuilder("Opened ").append(path).append(" in ")
+			.append(Utils.d2s(((0 == end ? System.nanoTime() : end) - start) / 1000000.0, 0)).append(" ms:");
+		for (final Map.Entry<String,Long> e : stages.entrySet()) {
+			sb.append("\n  ").append(e.getKey()).append(": ").append(Utils.d2s(e.getValue() / 1000000.0, 0)).append(" ms");
+		}
+		return sb.toString();
+	}
+
+	/** @return the timings of the last project opened, or null */
+	static public OpenTimings getLast() {
+		return last;
+	}
+}
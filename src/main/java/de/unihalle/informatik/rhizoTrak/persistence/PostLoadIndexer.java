@@ -0,0 +1,254 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.unihalle.informatik.rhizoTrak.display.Layer;
+import de.unihalle.informatik.rhizoTrak.display.LayerSet;
+import de.unihalle.informatik.rhizoTrak.display.Node;
+import de.unihalle.informatik.rhizoTrak.display.Tree;
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Rebuilds the caches and spatial indices of a project after its XML is parsed, on a work-stealing {@link ForkJoinPool}.
+ *  <p>
+ *  The order follows the dependencies: the buckets of each {@link Layer} (images and labels) only need the parsed
+ *  objects, so they start first and run alongside the rest. The node caches of every {@link Tree} are rebuilt next,
+ *  in parallel per tree; the {@link LayerSet} buckets of the ZDisplayables read those caches, so they are built
+ *  afterwards, in parallel per layer. Layers shown in a Display are waited for; the buckets of the other layers
+ *  continue in the background, roughly in order of distance to the shown layers.
+ *  </p>
+ *
+ * @author posch
+ */
+public class PostLoadIndexer {
+
+	/** Lists below this size are processed by a single task. */
+	static private final int CHUNK = 16;
+
+	/** Apply a per-item action to a range of a list, splitting in halves for other workers to steal. */
+	static private abstract class RangeAction<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final List<T> items;
+		final int first, last; // last is exclusive
+
+		RangeAction(final List<T> items, final int first, final int last) {
+			this.items = items;
+			this.first = first;
+			this.last = last;
+		}
+
+		abstract RangeAction<T> create(int first, int last);
+
+		abstract void process(T item) throws Exception;
+
+		@Override
+		protected void compute() {
+			if (last - first <= CHUNK) {
+				for (int i=first; i<last; i++) {
+					try {
+						process(items.get(i));
+					} catch (final Throwable t) {
+						IJError.print(t);
+					}
+				}
+				return;
+			}
+			final int middle = (first + last) >>> 1;
+			invokeAll(create(first, middle), create(middle, last));
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final OpenTimings timings;
+	private ForkJoinTask<?> shown_buckets = null;
+
+	/** @param timings may be null. */
+	public PostLoadIndexer(final OpenTimings timings) {
+		this.timings = timings;
+		final AtomicInteger count = new AtomicInteger(0);
+		this.pool = new ForkJoinPool(getParallelism(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+				final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				t.setName("PostLoadIndexer-" + count.incrementAndGet());
+				return t;
+			}
+		}, null, false);
+	}
+
+	/** Leave a core or two for the event dispatch thread and the opening of displays. */
+	static private int getParallelism() {
+		final int n = Runtime.getRuntime().availableProcessors();
+		if (n < 2) return 1;
+		return n <= 4 ? n - 1 : n - 2;
+	}
+
+	/** Start rebuilding the buckets of all @param layers: first those in @param shown, which {@link #finish()} waits for,
+	 *  then the others, nearest to a shown layer first, in the background. */
+	public void startLayerBuckets(final List<Layer> layers, final Collection<Layer> shown) {
+		final List<Layer> first = new ArrayList<Layer>(shown);
+		final int[] shown_indices = new int[first.size()];
+		for (int k=0; k<shown_indices.length; k++) shown_indices[k] = layers.indexOf(first.get(k));
+		final HashMap<Layer,Integer> distance = new HashMap<Layer,Integer>();
+		for (int i=0; i<layers.size(); i++) {
+			final Layer la = layers.get(i);
+			if (shown.contains(la)) continue;
+			int d = Integer.MAX_VALUE;
+			for (final int k : shown_indices) d = Math.min(d, Math.abs(k - i));
+			distance.put(la, d);
+		}
+		final List<Layer> rest = new ArrayList<Layer>(distance.keySet());
+		Collections.sort(rest, new Comparator<Layer>() {
+			@Override
+			public int compare(final Layer l1, final Layer l2) {
+				return distance.get(l1).compareTo(distance.get(l2));
+			}
+		});
+		shown_buckets = pool.submit(new LayerBuckets(first, 0, first.size()));
+		if (rest.isEmpty()) return;
+		pool.submit(new Runnable() {
+			@Override
+			public void run() {
+				final long start = System.nanoTime();
+				new LayerBuckets(rest, 0, rest.size()).invoke(); // within this worker: not rejected once the pool is shut down
+				if (null != timings) timings.add("buckets of other layers, in background", System.nanoTime() - start);
+				Utils.log2("Done recreating the buckets of " + rest.size() + " layers in the background.");
+			}
+		});
+	}
+
+	static private final class LayerBuckets extends RangeAction<Layer> {
+		private static final long serialVersionUID = 1L;
+		LayerBuckets(final List<Layer> layers, final int first, final int last) {
+			super(layers, first, last);
+		}
+		@Override
+		RangeAction<Layer> create(final int first, final int last) {
+			return new LayerBuckets(items, first, last);
+		}
+		@Override
+		void process(final Layer la) {
+			la.recreateBuckets();
+		}
+	}
+
+	/** Set each root node to its {@link Tree}, rebuilding the node caches of each tree in parallel; blocks until done. */
+	public void setRoots(final Map<Tree<?>,Node<?>> roots) {
+		final List<Map.Entry<Tree<?>,Node<?>>> entries = new ArrayList<Map.Entry<Tree<?>,Node<?>>>(roots.size());
+		for (final Map.Entry<Tree<?>,Node<?>> e : roots.entrySet()) {
+			if (null != e.getValue()) entries.add(e); // null applies to old Treeline formats only
+		}
+		pool.invoke(new TreeRoots(entries, 0, entries.size()));
+	}
+
+	static private final class TreeRoots extends RangeAction<Map.Entry<Tree<?>,Node<?>>> {
+		private static final long serialVersionUID = 1L;
+		TreeRoots(final List<Map.Entry<Tree<?>,Node<?>>> entries, final int first, final int last) {
+			super(entries, first, last);
+		}
+		@Override
+		RangeAction<Map.Entry<Tree<?>,Node<?>>> create(final int first, final int last) {
+			return new TreeRoots(items, first, last);
+		}
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		void process(final Map.Entry<Tree<?>,Node<?>> e) {
+			// Can't compile with <?>
+			((Tree)e.getKey()).setRoot((Node)e.getValue()); // will generate node caches of the tree
+		}
+	}
+
+	/** Rebuild the ZDisplayable buckets of every layer of @param layer_set in parallel; blocks until done.
+	 *  Call after {@link #setRoots(Map)}, since trees are indexed by their node caches. */
+	public void recreateZDisplayableBuckets(final LayerSet layer_set) {
+		final List<Layer> layers = layer_set.getLayers();
+		pool.invoke(new ZDisplayableBuckets(layer_set, layers, 0, layers.size()));
+	}
+
+	static private final class ZDisplayableBuckets extends RangeAction<Layer> {
+		private static final long serialVersionUID = 1L;
+		final LayerSet layer_set;
+		ZDisplayableBuckets(final LayerSet layer_set, final List<Layer> layers, final int first, final int last) {
+			super(layers, first, last);
+			this.layer_set = layer_set;
+		}
+		@Override
+		RangeAction<Layer> create(final int first, final int last) {
+			return new ZDisplayableBuckets(layer_set, items, first, last);
+		}
+		@Override
+		void process(final Layer la) {
+			layer_set.recreateBuckets(la, false);
+		}
+	}
+
+	/** Wait for the buckets of the shown layers; those of other layers continue in the background,
+	 *  after which the pool shuts down. */
+	public void finish() {
+		try {
+			if (null != shown_buckets) shown_buckets.join();
+		} catch (final Throwable t) {
+			IJError.print(t);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
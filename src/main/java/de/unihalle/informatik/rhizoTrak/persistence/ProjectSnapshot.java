@@ -0,0 +1,480 @@
+/*
+ * This file is part of the rhizoTrak project.
+ *
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code
+ * are directly derived/copied from the source code of TrakEM2.
+ *
+ * For more information on TrakEM2 please visit its websites:
+ *
+ *  https://imagej.net/TrakEM2
+ *
+ *  https://github.com/trakem2/TrakEM2/wiki
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL.
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.unihalle.informatik.rhizoTrak.ControlWindow;
+import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.display.CompactTreelineNodes;
+import de.unihalle.informatik.rhizoTrak.display.Layer;
+import de.unihalle.informatik.rhizoTrak.display.LayerSet;
+import de.unihalle.informatik.rhizoTrak.display.Node;
+import de.unihalle.informatik.rhizoTrak.display.Treeline;
+import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
+import de.unihalle.informatik.rhizoTrak.display.ZDisplayable;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Binary project file, an alternative to .xml and .xml.gz for projects with many annotated nodes.
+ * <p>
+ * Parsing the XML of millions of <code>t2_node</code> elements dominates opening large projects,
+ * and so does generating it when saving. A snapshot stores the nodes of each {@link Treeline}
+ * in its own block of columns (x, y, radius, parent, layer, status; see {@link CompactTreelineNodes})
+ * which are read with bulk copies from a memory mapped file. Everything else (layers, patches,
+ * connectors, project tree, display settings) is comparatively small and is stored as gzip
+ * compressed project XML without the treeline nodes, so that it is parsed by the {@link TMLHandler} as usual.
+ * <p>
+ * Layout, all numbers big endian:
+ * <pre>
+ * header     MAGIC, int version
+ * blocks     SKELETON: gzip compressed XML; one TREELINE block per treeline with nodes
+ * directory  int n, n times: byte type, long id, long layer id of the root, long offset, long length, int number of nodes
+ * trailer    long offset of the directory, MAGIC
+ * </pre>
+ * The directory allows to read the nodes of single treelines, e.g. only those rooted in one layer.
+ * <p>
+ * Converts between the formats and measures opening and saving with <code>main</code>.
+ *
+ * @author posch
+ */
+public class ProjectSnapshot {
+
+	/** File name extension of snapshots. */
+	static public final String EXTENSION = ".rtsnap";
+
+	static private final byte[] MAGIC = {'R', 'T', 'S', 'N', 'A', 'P', '\r', '\n'};
+	/** 2: with a node color column, which is always empty now */
+	static private final int VERSION = 2;
+	static private final int TRAILER_SIZE = 8 + 8;
+
+	static private final byte SKELETON = 1;
+	static private final byte TREELINE = 2;
+
+	/** One entry of the block directory. */
+	static private final class Block {
+		final byte type;
+		final long id, layer_id, offset, length;
+		final int n_nodes;
+
+		Block(final byte type, final long id, final long layer_id, final long offset, final long length, final int n_nodes) {
+			this.type = type;
+			this.id = id;
+			this.layer_id = layer_id;
+			this.offset = offset;
+			this.length = length;
+			this.n_nodes = n_nodes;
+		}
+	}
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	/** the whole file if it can be mapped at once, else null and blocks are mapped one by one */
+	private final ByteBuffer mapped;
+	/** of the file read */
+	private final int version;
+	private Block skeleton = null;
+	/** treeline id to its block */
+	private final HashMap<Long,Block> treelines = new HashMap<Long,Block>();
+
+	/** @return whether <code>path</code> names a snapshot file */
+	static public boolean isSnapshotPath(final String path) {
+		return null != path && path.toLowerCase().endsWith(EXTENSION);
+	}
+
+	/** Open a snapshot for reading; close with {@link #close()}. */
+	static public ProjectSnapshot open(final String path) throws IOException {
+		return new ProjectSnapshot(new File(path));
+	}
+
+	private ProjectSnapshot(final File file) throws IOException {
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+		try {
+			final long size = channel.size();
+			this.mapped = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+
+			if (size < MAGIC.length + 4 + TRAILER_SIZE) throw new IOException("Not a rhizoTrak snapshot: " + file);
+			final ByteBuffer header = map(0, MAGIC.length + 4);
+			checkMagic(header, file);
+			this.version = header.getInt();
+			if (version > VERSION) throw new IOException("Unsupported snapshot version " + version + " of " + file);
+
+			final ByteBuffer trailer = map(size - TRAILER_SIZE, TRAILER_SIZE);
+			final long dir_offset = trailer.getLong();
+			checkMagic(trailer, file);
+
+			final ByteBuffer dir = map(dir_offset, size - TRAILER_SIZE - dir_offset);
+			final int n = dir.getInt();
+			for (int i=0; i<n; i++) {
+				final Block b = new Block(dir.get(), dir.getLong(), dir.getLong(), dir.getLong(), dir.getLong(), dir.getInt());
+				if (SKELETON == b.type) skeleton = b;
+				else if (TREELINE == b.type) treelines.put(b.id, b);
+			}
+			if (null == skeleton) throw new IOException("No project data in snapshot " + file);
+		} catch (final IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	static private void checkMagic(final ByteBuffer buf, final File file) throws IOException {
+		final byte[] m = new byte[MAGIC.length];
+		buf.get(m);
+		if (!Arrays.equals(MAGIC, m)) throw new IOException("Not a rhizoTrak snapshot: " + file);
+	}
+
+	private ByteBuffer map(final long offset, final long length) throws IOException {
+		if (null == mapped) return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		final ByteBuffer buf = mapped.duplicate();
+		buf.position((int)offset);
+		buf.limit((int)(offset + length));
+		return buf.slice();
+	}
+
+	/** @return the project XML, without the nodes of the treelines stored in this snapshot */
+	public InputStream openSkeleton() throws IOException {
+		return new GZIPInputStream(new ByteBufferInputStream(map(skeleton.offset, skeleton.length)), 1 << 16);
+	}
+
+	/** Convenience for parsers which only know the file path, see {@link de.unihalle.informatik.rhizoTrak.tree.DTDParser}.
+	 *  Closing the returned stream closes the snapshot. */
+	static public InputStream openSkeleton(final String path) throws IOException {
+		final ProjectSnapshot snapshot = open(path);
+		return new java.io.FilterInputStream(snapshot.openSkeleton()) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				snapshot.close();
+			}
+		};
+	}
+
+	/** @return whether the nodes of treeline <code>id</code> are stored in this snapshot */
+	public boolean hasNodes(final long id) {
+		return treelines.containsKey(id);
+	}
+
+	/** @return the number of nodes stored for treeline <code>id</code>, 0 if none */
+	public int getNodeCount(final long id) {
+		final Block b = treelines.get(id);
+		return null == b ? 0 : b.n_nodes;
+	}
+
+	/** @return the id of the layer of the root of treeline <code>id</code>, -1 if no nodes are stored for it */
+	public long getLayerId(final long id) {
+		final Block b = treelines.get(id);
+		return null == b ? -1 : b.layer_id;
+	}
+
+	/** @return the ids of the layers of the nodes of treeline <code>id</code> as stored at the start of its
+	 *  block, see {@link CompactTreelineNodes#writeColumns(java.io.DataOutputStream)}; empty if none */
+	public long[] getNodeLayerIds(final long id) throws IOException {
+		final Block b = treelines.get(id);
+		if (null == b) return new long[0];
+		final ByteBuffer buf = map(b.offset, b.length);
+		buf.getInt(); // number of nodes
+		final long[] ids = new long[buf.getInt()];
+		for (int i=0; i<ids.length; i++) ids[i] = buf.getLong();
+		return ids;
+	}
+
+	/** @return the ids of the treelines whose root is in layer <code>layer_id</code> */
+	public List<Long> getTreelineIds(final long layer_id) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		for (final Block b : treelines.values()) {
+			if (b.layer_id == layer_id) ids.add(b.id);
+		}
+		return ids;
+	}
+
+	/** Read the nodes of treeline <code>id</code>.
+	 *  @param layers the layers of the project by id
+	 *  @param ls the layer set of the treeline, to register tags with
+	 *  @return null if no nodes are stored for the treeline or they refer to a missing layer */
+	public CompactTreelineNodes readNodes(final long id, final Map<Long,Layer> layers, final LayerSet ls) throws IOException {
+		final Block b = treelines.get(id);
+		if (null == b) return null;
+		return CompactTreelineNodes.readColumns(map(b.offset, b.length), layers, ls, version >= 2);
+	}
+
+	/** Read the nodes of treeline <code>id</code> as node objects.
+	 *  @return the root, or null, see {@link #readNodes(long, Map, LayerSet)} */
+	public RadiusNode readRoot(final long id, final Map<Long,Layer> layers, final LayerSet ls) throws IOException {
+		final CompactTreelineNodes c = readNodes(id, layers, ls);
+		return null == c ? null : c.unpack();
+	}
+
+	/** Write the stored nodes of treeline <code>id</code> unchanged to <code>out</code>, see {@link TreelinePager}. */
+	void copyNodes(final long id, final DataOutputStream out) throws IOException {
+		final Block b = treelines.get(id);
+		if (null == b) return;
+		final ByteBuffer buf = map(b.offset, b.length);
+		final byte[] chunk = new byte[(int)Math.min(b.length, 1 << 16)];
+		while (buf.hasRemaining()) {
+			final int n = Math.min(chunk.length, buf.remaining());
+			buf.get(chunk, 0, n);
+			out.write(chunk, 0, n);
+		}
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/** Write <code>project</code> as snapshot to <code>os</code>, which is not closed. */
+	static public void write(final Project project, final OutputStream os, final XMLOptions options) throws Exception {
+		final CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(os, 1 << 20));
+		final DataOutputStream out = new DataOutputStream(counter);
+		final ArrayList<Block> blocks = new ArrayList<Block>();
+
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+
+		// the project XML without the treeline nodes
+		long offset = counter.count;
+		final GZIPOutputStream gz = new GZIPOutputStream(counter, 1 << 16);
+		final java.io.Writer writer = new OutputStreamWriter(gz, "8859_1");
+		final boolean omit = options.omit_treeline_nodes;
+		options.omit_treeline_nodes = true;
+		try {
+			project.getLoader().writeXMLTo(project, writer, options);
+		} finally {
+			options.omit_treeline_nodes = omit;
+		}
+		gz.finish(); // does not close the underlying stream
+		blocks.add(new Block(SKELETON, project.getId(), -1, offset, counter.count - offset, 0));
+
+		// the nodes of each treeline; those paged out are copied from the file they were opened from
+		final TreelinePager pager = project.getTreelinePager();
+		for (final Treeline tl : collectTreelines(project.getRootLayerSet(), new ArrayList<Treeline>())) {
+			if (null != pager) {
+				offset = counter.count;
+				final int n_nodes = pager.copyNodes(tl, out);
+				if (n_nodes >= 0) {
+					blocks.add(new Block(TREELINE, tl.getId(), pager.getLayerId(tl), offset, counter.count - offset, n_nodes));
+					continue;
+				}
+			}
+			final CompactTreelineNodes c;
+			final long layer_id;
+			tl.pinNodes();
+			try {
+				final Node<Float> root = tl.getRoot();
+				if (null == root) continue;
+				c = CompactTreelineNodes.pack(tl);
+				layer_id = root.getLayer().getId();
+			} finally {
+				tl.unpinNodes();
+			}
+			offset = counter.count;
+			c.writeColumns(out);
+			blocks.add(new Block(TREELINE, tl.getId(), layer_id, offset, counter.count - offset, c.size()));
+		}
+
+		final long dir_offset = counter.count;
+		out.writeInt(blocks.size());
+		for (final Block b : blocks) {
+			out.writeByte(b.type);
+			out.writeLong(b.id);
+			out.writeLong(b.layer_id);
+			out.writeLong(b.offset);
+			out.writeLong(b.length);
+			out.writeInt(b.n_nodes);
+		}
+		out.writeLong(dir_offset);
+		out.write(MAGIC);
+		out.flush();
+	}
+
+	/** The treelines whose nodes are omitted from the XML with {@link XMLOptions#omit_treeline_nodes}:
+	 *  all but connectors, also those in nested layer sets. */
+	static private List<Treeline> collectTreelines(final LayerSet ls, final List<Treeline> list) {
+		for (final ZDisplayable zd : ls.getZDisplayables(Treeline.class)) list.add((Treeline)zd);
+		for (final Layer la : ls.getLayers()) {
+			for (final Object ob : la.getDisplayables(LayerSet.class)) collectTreelines((LayerSet)ob, list);
+		}
+		return list;
+	}
+
+	static private final class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+
+		CountingOutputStream(final OutputStream os) {
+			super(os);
+		}
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		/** Never closes the file, which is done by the caller of {@link ProjectSnapshot#write(Project, OutputStream, XMLOptions)}. */
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	static private final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buf;
+
+		ByteBufferInputStream(final ByteBuffer buf) {
+			this.buf = buf;
+		}
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? buf.get() & 0xff : -1;
+		}
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (!buf.hasRemaining()) return -1;
+			final int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+	}
+
+	private static final String USAGE = "usage: ProjectSnapshot project.(xml|xml.gz|" + EXTENSION.substring(1) + ") [-o output]";
+
+	/** Opens the given project, saves it as gzip compressed XML and as snapshot to temporary files,
+	 *  and reports the times to save and to open again in both formats.
+	 *  With <code>-o</code> the project is converted to the output file, whose format is chosen by the file name extension. */
+	static public void main(final String[] args) throws Exception {
+		String output = null;
+		if (3 == args.length && args[1].equals("-o")) {
+			output = args[2];
+		} else if (1 != args.length) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		ControlWindow.setGUIEnabled(false);
+		long start = System.currentTimeMillis();
+		Project project = Project.openFSProject(args[0], false);
+		if (null == project) {
+			System.err.println("cannot open project " + args[0]);
+			System.exit(1);
+		}
+		Utils.log("open " + args[0] + ": " + (System.currentTimeMillis() - start) + " ms");
+
+		if (null != output) {
+			final XMLOptions options = new XMLOptions();
+			options.overwriteXMLFile = true;
+			if (null == project.getLoader().saveAs(output, options)) {
+				System.err.println("cannot write " + output);
+				System.exit(1);
+			}
+			Utils.log("converted to " + output);
+			project.destroy();
+			System.exit(0);
+		}
+
+		// next to the project, so that relative image paths stay valid when opening again
+		final File dir = new File(args[0]).getAbsoluteFile().getParentFile();
+		final String[] extensions = {".xml.gz", EXTENSION};
+		final File[] files = new File[extensions.length];
+		for (int i=0; i<extensions.length; i++) {
+			files[i] = File.createTempFile("rhizoTrak-snapshot", extensions[i], dir);
+			files[i].deleteOnExit();
+			start = System.currentTimeMillis();
+			final FileOutputStream fos = new FileOutputStream(files[i]);
+			try {
+				if (EXTENSION.equals(extensions[i])) {
+					write(project, fos, new XMLOptions());
+				} else {
+					final java.io.Writer writer = new OutputStreamWriter(new GZIPOutputStream(new BufferedOutputStream(fos, 1 << 20), 1 << 16), "8859_1");
+					project.getLoader().writeXMLTo(project, writer, new XMLOptions());
+					writer.close();
+				}
+			} finally {
+				fos.close();
+			}
+			Utils.log("save " + extensions[i] + ": " + (System.currentTimeMillis() - start) + " ms, " + (files[i].length() / 1024) + " kB");
+		}
+		project.destroy();
+
+		for (int i=0; i<extensions.length; i++) {
+			System.gc();
+			start = System.currentTimeMillis();
+			project = Project.openFSProject(files[i].getAbsolutePath(), false);
+			if (null == project) {
+				System.err.println("cannot open " + files[i]);
+				continue;
+			}
+			Utils.log("open " + extensions[i] + ": " + (System.currentTimeMillis() - start) + " ms");
+			project.destroy();
+		}
+		System.exit(0);
+	}
+}
@@ -73,20 +73,14 @@ package de.unihalle.informatik.rhizoTrak.persistence;
 
 import ij.process.ByteProcessor;
 
-import java.awt.Color;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import mpicbg.models.TransformList;
@@ -177,13 +171,15 @@ public class TMLHandler extends DefaultHandler {
 	final private LinkedList<Node<?>> nodes = new LinkedList<Node<?>>();
 	final private Map<Long,List<Node<?>>> node_layer_table = new HashMap<Long,List<Node<?>>>();
 	final private Map<Tree<?>,Node<?>> tree_root_nodes = new HashMap<Tree<?>,Node<?>>();
-	final private Map<Color,Collection<Node<?>>> node_colors = new HashMap<Color,Collection<Node<?>>>();
 	private StringBuilder last_treeline_data = null;
 	private Displayable last_displayable = null;
 	private StringBuilder last_annotation = null;
 	final private ArrayList< TransformList< Object > > ct_list_stack = new ArrayList< TransformList< Object > >();
 	private boolean open_displays = true;
 	final private LinkedList<Runnable> legacy = new LinkedList<Runnable>();
+	/** Where the nodes of treelines are read from when parsing a snapshot, else null. */
+	private ProjectSnapshot snapshot = null;
+	private OpenTimings timings = null;
 
 
 	/** @param path The XML file that contains the project data in XML format.
@@ -244,6 +240,33 @@ public class TMLHandler extends DefaultHandler {
 		//TODO//project_tt.addAttribute("title", "Project");
 	}
 
+	/** Fill in the roots of the treelines whose nodes are stored in the {@link #snapshot}.
+	 *  For projects with many layers, hand the treelines over to a {@link TreelinePager} instead. */
+	private void readSnapshotNodes() {
+		final HashMap<Long,Layer> layers = new HashMap<Long,Layer>();
+		for (final Layer la : al_layers) layers.put(la.getId(), la);
+		final TreelinePager pager = TreelinePager.isWanted(al_layers.size()) ? TreelinePager.open(project, loader.getProjectXMLPath()) : null;
+		for (final Map.Entry<Tree<?>,Node<?>> e : tree_root_nodes.entrySet()) {
+			if (null != e.getValue() || !snapshot.hasNodes(e.getKey().getId())) continue;
+			if (null != pager && e.getKey() instanceof Treeline && pager.add((Treeline)e.getKey())) continue;
+			try {
+				e.setValue(snapshot.readRoot(e.getKey().getId(), layers, e.getKey().getLayerSet()));
+			} catch (final Exception ex) {
+				Utils.log("ERROR: could not read the nodes of " + e.getKey());
+				IJError.print(ex);
+			}
+		}
+		if (null != pager) {
+			Utils.log2("Paging the nodes of " + pager.getPagedOutCount() + " treelines in " + al_layers.size() + " layers.");
+			project.setTreelinePager(pager);
+		}
+	}
+
+	/** Read the nodes of the treelines, which are omitted from the parsed XML, from @param snapshot. */
+	public void setSnapshot(final ProjectSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
 	public boolean isUnreadable() {
 		return null == loader;
 	}
@@ -330,64 +353,37 @@ public class TMLHandler extends DefaultHandler {
 		if (!node_layer_table.isEmpty()) {
 			Utils.log("ERROR: node_layer_table is not empty!");
 		}
+		if (null != timings) timings.mark("links and layers");
 		// 5 - Assign root nodes to Treelines, now that all nodes have a layer
-		for (final Map.Entry<Tree<?>,Node<?>> e : tree_root_nodes.entrySet()) {
-			if (null == e.getValue()) {
-				//Utils.log2("Ignoring, applies to new Treeline format only.");
-				continue;
-			}
-			// Can't compile with <?>
-			e.getKey().setRoot((Node)e.getValue()); // will generate node caches of each Treeline
+		if (null != snapshot) {
+			readSnapshotNodes();
+			if (null != timings) timings.mark("read nodes from snapshot");
 		}
-		tree_root_nodes.clear();
-		// Assign colors to nodes
-		for (final Map.Entry<Color,Collection<Node<?>>> e : node_colors.entrySet()) {
-			for (final Node<?> nd : e.getValue()) {
-				nd.setColor(e.getKey());
-			}
+
+		// Create a table with all layer ids vs layer instances:
+		final HashMap<Long,Layer> ht_lids = new HashMap<Long,Layer>();
+		for (final Layer layer : al_layers) {
+			ht_lids.put(new Long(layer.getId()), layer);
 		}
-		node_colors.clear();
+		final LayerSet layer_set = (LayerSet) root_lt.getObject();
+		final PostLoadIndexer indexer = new PostLoadIndexer(timings);
+		// The buckets of images and labels don't depend on the trees: start them now, those of the layers to display first
+		indexer.startLayerBuckets(layer_set.getLayers(), getLayersToDisplay(layer_set, ht_lids));
+
+		indexer.setRoots(tree_root_nodes); // will generate node caches of each Treeline, in parallel
+		tree_root_nodes.clear();
 
 		// 6 - Run legacy operations
 		for (final Runnable r : legacy) {
 			r.run();
 		}
+		if (null != timings) timings.mark("tree caches");
 
 		try {
-
-			// Create a table with all layer ids vs layer instances:
-			final HashMap<Long,Layer> ht_lids = new HashMap<Long,Layer>();
-			for (final Layer layer : al_layers) {
-				ht_lids.put(new Long(layer.getId()), layer);
-			}
-
-			// Spawn threads to recreate buckets, starting from the subset of displays to open
-			int n = Runtime.getRuntime().availableProcessors();
-			switch (n) {
-				case 1:
-					break;
-				case 2:
-				case 3:
-				case 4:
-					n--;
-					break;
-				default:
-					n -= 2;
-					break;
-			}
-			final ExecutorService exec = Utils.newFixedThreadPool(n, "TMLHandler-recreateBuckets");
-
-			final Set<Long> dlids = new HashSet<Long>();
-			final LayerSet layer_set = (LayerSet) root_lt.getObject();
-
-			final List<Future<?>> fus = new ArrayList<Future<?>>();
-			final List<Future<?>> fus2 = new ArrayList<Future<?>>();
-
 			for (final HashMap<String,String> ht_attributes : al_displays) {
 				String ob = ht_attributes.get("layer_id");
 				if (null == ob) continue;
 				final Long lid = new Long(ob);
-				dlids.add(lid);
 				final Layer la = ht_lids.get(lid);
 				if (null == la) {
 					ht_lids.remove(lid);
@@ -395,63 +391,17 @@ public class TMLHandler extends DefaultHandler {
 				}
 				// to open later:
 				new Display(project, Long.parseLong(ht_attributes.get("id")), la, ht_attributes);
-				fus.add(exec.submit(new Runnable() { public void run() {
-					la.recreateBuckets();
-				}}));
 			}
 
-			fus.add(exec.submit(new Runnable() { public void run() {
-				layer_set.recreateBuckets(false); // only for ZDisplayable
-			}}));
-
-			// Ensure launching:
-			if (dlids.isEmpty() && layer_set.size() > 0) {
-				dlids.add(layer_set.getLayer(0).getId());
-			}
-
-			final List<Layer> layers = layer_set.getLayers();
-			for (final Long lid : new HashSet<Long>(dlids)) {
-				fus.add(exec.submit(new Runnable() { public void run() {
-					int start = layer_set.indexOf(layer_set.getLayer(lid.longValue()));
-					int next = start + 1;
-					int prev = start -1;
-					while (next < layer_set.size() || prev > -1) {
-						if (prev > -1) {
-							final Layer lprev = layers.get(prev);
-							synchronized (dlids) {
-								if (dlids.add(lprev.getId())) { // returns true if not there already
-									fus2.add(exec.submit(new Runnable() { public void run() {
-										lprev.recreateBuckets();
-									}}));
-								}
-							}
-							prev--;
-						}
-						if (next < layers.size()) {
-							final Layer lnext = layers.get(next);
-							synchronized (dlids) {
-								if (dlids.add(lnext.getId())) { // returns true if not there already
-									fus2.add(exec.submit(new Runnable() { public void run() {
-										lnext.recreateBuckets();
-									}}));
-								}
-							}
-							next++;
-						}
-					}
-					Utils.log2("done recreateBuckets chunk");
-				}}));
-			}
-			Utils.wait(fus);
-			exec.submit(new Runnable() { public void run() {
-				Utils.log2("waiting for TMLHandler fus...");
-				Utils.wait(fus2);
-				Utils.log2("done waiting TMLHandler fus.");
-				exec.shutdown();
-			}});
+			// The trees are indexed by their node caches, now complete
+			indexer.recreateZDisplayableBuckets(layer_set);
 		} catch (Throwable t) {
 			IJError.print(t);
+		} finally {
+			// wait for the buckets of the layers to display; the others continue in the background
+			indexer.finish();
 		}
+		if (null != timings) timings.mark("buckets");
 
 		// debug:
 		//root_tt.debug("");
@@ -461,6 +411,24 @@ public class TMLHandler extends DefaultHandler {
 		return new Object[]{root_tt, root_pt, root_lt, ht_pt_expanded};
 	}
 
+	/** The layers of the Displays to open, or the first layer if none. */
+	private List<Layer> getLayersToDisplay(final LayerSet layer_set, final Map<Long,Layer> ht_lids) {
+		final List<Layer> shown = new ArrayList<Layer>();
+		for (final HashMap<String,String> ht_attributes : al_displays) {
+			final String ob = ht_attributes.get("layer_id");
+			if (null == ob) continue;
+			final Layer la = ht_lids.get(new Long(ob));
+			if (null != la && !shown.contains(la)) shown.add(la);
+		}
+		if (shown.isEmpty() && layer_set.size() > 0) shown.add(layer_set.getLayer(0));
+		return shown;
+	}
+
+	/** Book the time spent in each stage of opening to @param timings. */
+	public void setOpenTimings(final OpenTimings timings) {
+		this.timings = timings;
+	}
+
 	private int counter = 0;
 
 	public void startElement(String namespace_URI, String local_name, String qualified_name, Attributes attributes) throws SAXException {
@@ -801,8 +769,6 @@ public class TMLHandler extends DefaultHandler {
 					throw new NullPointerException("Can't create a node for null last_tree!");
 				}
 				final Node<?> node = last_tree.newNode(ht_attributes);
-				//actyc: set the rhizoAddons object
-				node.rhizoMain=project.getRhizoMain();
 				taggables.add(node);
 				// Put node into the list of nodes with that layer id, to update to proper Layer pointer later
 				final long ndlid = Long.parseLong(ht_attributes.get("lid"));
@@ -819,17 +785,7 @@ public class TMLHandler extends DefaultHandler {
 					final String sconf = ht_attributes.get("c");
 					nodes.getLast().add((Node)node, null == sconf ? Node.DEFAULT_EDGE_CONFIDENCE : Byte.parseByte(sconf));
 				}
-				// color?
-				final String scolor = ht_attributes.get("color");
-				if (null != scolor) {
-					final Color color = Utils.getRGBColorFromHex(scolor);
-					Collection<Node<?>> nodes = node_colors.get(color);
-					if (null == nodes) {
-						nodes = new ArrayList<Node<?>>();
-						node_colors.put(color, nodes);
-					}
-					nodes.add(node);
-				}
+				// a color attribute of older files is ignored: nodes are painted in the color of their status
 				// Put node into stack of nodes (to be removed on closing the tag)
 				nodes.add(node);
 			} else if (type.equals("profile")) {
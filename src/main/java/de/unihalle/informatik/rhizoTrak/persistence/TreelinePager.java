@@ -0,0 +1,442 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import ij.IJ;
+
+import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.display.Display;
+import de.unihalle.informatik.rhizoTrak.display.Displayable;
+import de.unihalle.informatik.rhizoTrak.display.Layer;
+import de.unihalle.informatik.rhizoTrak.display.LayerSet;
+import de.unihalle.informatik.rhizoTrak.display.Treeline;
+import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
+import de.unihalle.informatik.rhizoTrak.display.ZDisplayable;
+import de.unihalle.informatik.rhizoTrak.utils.IJError;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Loads the nodes of the treelines of a project opened from a {@link ProjectSnapshot} layer by layer, on demand.
+ * <p>
+ * Annotators work on one or two time points at a time, yet all nodes of all layers used to be read
+ * when opening a project. With a pager the {@link Treeline} objects are created as usual, so that
+ * the project tree, titles, colors and links are complete, but their nodes stay in the snapshot file
+ * until a layer is displayed or searched via the buckets of the {@link LayerSet}, or the root of a
+ * treeline is asked for. At most {@link #max_resident_layers} layers are kept in memory; the least
+ * recently used layer that is not shown in any {@link Display} is paged out beyond that, and all
+ * of them when memory runs low, see {@link #pageOutAll()}. Treelines whose nodes are walked are
+ * pinned meanwhile, see {@link #pin(Treeline)}.
+ * <p>
+ * Paging is keyed by the layer of the root node, as stored in the directory of the snapshot.
+ * Connectors, which span layers, are always loaded. A treeline that is edited is dropped from the
+ * pager (see {@link #forget(Collection)}), as is one with nodes in a layer where nodes were edited
+ * without an undo step since paging in (see {@link Layer#getNodeEdits()}), and stays in memory until the project is saved again as
+ * snapshot, after which the saved file backs all treelines, see {@link #reopen(String)}.
+ * When saving as snapshot the nodes of paged out treelines are copied from the old file
+ * without creating the node objects, see {@link #copyNodes(Treeline, DataOutputStream)}.
+ *
+ * @author posch
+ */
+public class TreelinePager {
+
+	/** Maximum number of layers whose paged treelines are kept in memory. */
+	static public int max_resident_layers = 32;
+
+	private final Project project;
+	private String path;
+	private ProjectSnapshot snapshot;
+	/** the layer set of the paged treelines, a project has only one in practice */
+	private LayerSet ls = null;
+	/** the layers of {@link #ls} by id */
+	private final HashMap<Long,Layer> layers = new HashMap<Long,Layer>();
+	/** layer id to the treelines rooted there whose nodes are not loaded */
+	private final HashMap<Long,List<Treeline>> paged_out = new HashMap<Long,List<Treeline>>();
+	/** layer id to the treelines rooted there whose nodes are loaded, least recently used first */
+	private final LinkedHashMap<Long,List<Treeline>> resident = new LinkedHashMap<Long,List<Treeline>>(16, 0.75f, true);
+	/** the layer id of each treeline under control of the pager */
+	private final HashMap<Treeline,Long> tree_layer = new HashMap<Treeline,Long>();
+	/** layer id to the number of node edits, when paged in, of the layers with nodes of the resident treelines rooted there */
+	private final HashMap<Long,Map<Layer,Long>> edit_stamps = new HashMap<Long,Map<Layer,Long>>();
+	/** the number of pins of each pinned treeline, see {@link #pin(Treeline)} */
+	private final HashMap<Treeline,Integer> pins = new HashMap<Treeline,Integer>();
+	/** the ids of the layers of the nodes of paged out treelines as stored in the snapshot, as asked for */
+	private final HashMap<Treeline,long[]> node_layer_ids = new HashMap<Treeline,long[]>();
+	/** pages out in the background when memory runs low */
+	private final ExecutorService releaser = Utils.newFixedThreadPool(1, "treeline-pager");
+
+	private TreelinePager(final Project project, final String path) throws IOException {
+		this.project = project;
+		this.path = path;
+		this.snapshot = ProjectSnapshot.open(path);
+	}
+
+	/** @return whether the treelines of a snapshot with @param n_layers layers are worth paging.
+	 *  Not on Windows, which can not replace a file that is memory mapped when saving. */
+	static public boolean isWanted(final int n_layers) {
+		return n_layers > max_resident_layers && !IJ.isWindows();
+	}
+
+	/** Create a pager on the snapshot at @param path; treelines are handed over with {@link #add(Treeline)}.
+	 *  @return null if the snapshot can not be opened */
+	static public TreelinePager open(final Project project, final String path) {
+		try {
+			return new TreelinePager(project, path);
+		} catch (final IOException e) {
+			Utils.log("Could not open " + path + " for paging treelines, loading all of them.");
+			IJError.print(e);
+			return null;
+		}
+	}
+
+	/** Page @param tl, whose nodes are not yet read, from now on.
+	 *  @return false if the tree can not be paged, e.g. because it is a connector or its nodes are not in the snapshot */
+	synchronized public boolean add(final Treeline tl) {
+		if (Treeline.class != tl.getClass()) return false;
+		if (null == ls) {
+			ls = tl.getLayerSet();
+			for (final Layer la : ls.getLayers()) layers.put(la.getId(), la);
+		}
+		if (tl.getLayerSet() != ls) return false;
+		final long layer_id = snapshot.getLayerId(tl.getId());
+		if (!layers.containsKey(layer_id)) return false;
+		tree_layer.put(tl, layer_id);
+		getList(paged_out, layer_id).add(tl);
+		return true;
+	}
+
+	static private List<Treeline> getList(final Map<Long,List<Treeline>> m, final long layer_id) {
+		List<Treeline> list = m.get(layer_id);
+		if (null == list) {
+			list = new ArrayList<Treeline>();
+			m.put(layer_id, list);
+		}
+		return list;
+	}
+
+	/** @return whether the nodes of @param tl are not in memory but in the snapshot */
+	synchronized public boolean isPagedOut(final Treeline tl) {
+		final Long layer_id = tree_layer.get(tl);
+		if (null == layer_id) return false;
+		final List<Treeline> list = paged_out.get(layer_id);
+		return null != list && list.contains(tl);
+	}
+
+	/** Read the nodes of the treeline @param tl and all others rooted in the same layer, if not yet in memory. */
+	public void pageIn(final Treeline tl) {
+		final Long layer_id;
+		synchronized (this) {
+			layer_id = tree_layer.get(tl);
+		}
+		if (null != layer_id) pageIn(layers.get(layer_id));
+	}
+
+	/** Read the nodes of the treelines rooted in @param layer, if not yet in memory. */
+	public void pageIn(final Layer layer) {
+		if (null == layer) return;
+		synchronized (this) {
+			final long layer_id = layer.getId();
+			final List<Treeline> list = paged_out.remove(layer_id);
+			if (null == list) {
+				resident.get(layer_id); // most recently used
+				return;
+			}
+			for (final Treeline tl : list) {
+				try {
+					final RadiusNode root = snapshot.readRoot(tl.getId(), layers, ls);
+					if (null != root) tl.setRoot(root);
+				} catch (final Exception e) {
+					Utils.log("ERROR: could not read the nodes of " + tl);
+					IJError.print(e);
+				}
+			}
+			resident.put(layer_id, list);
+			edit_stamps.put(layer_id, stampEdits(list));
+			layer.getParent().updateBuckets(layer);
+			trimResident(max_resident_layers);
+		}
+	}
+
+	/** @return the number of node edits so far of each layer with nodes of the @param treelines */
+	static private Map<Layer,Long> stampEdits(final List<Treeline> treelines) {
+		final HashMap<Layer,Long> stamps = new HashMap<Layer,Long>();
+		for (final Treeline tl : treelines) {
+			for (final Layer la : tl.getLayersWithData()) stamps.put(la, la.getNodeEdits());
+		}
+		return stamps;
+	}
+
+	/** @return whether nodes were edited in any layer of the nodes of @param tl since @param stamps were taken;
+	 *  not necessarily nodes of @param tl, but there is no telling. */
+	static private boolean isEdited(final Treeline tl, final Map<Layer,Long> stamps) {
+		if (null == stamps) return true;
+		for (final Layer la : tl.getLayersWithData()) {
+			final Long stamp = stamps.get(la);
+			if (null == stamp || stamp.longValue() != la.getNodeEdits()) return true;
+		}
+		return false;
+	}
+
+	/** Page out least recently used layers until at most @param max remain, skipping displayed layers
+	 *  and the layers of pinned treelines. */
+	private void trimResident(final int max) {
+		if (resident.size() <= max) return;
+		final HashSet<Layer> shown = new HashSet<Layer>();
+		for (final Display d : Display.getDisplays()) {
+			final Layer la = d.getLayer();
+			shown.add(la);
+			// nodes of the layers around are painted too
+			if (la.getParent().isColorCues()) shown.addAll(la.getParent().getColorCueLayerRange(la));
+		}
+		final HashSet<Long> pinned = new HashSet<Long>();
+		for (final Treeline tl : pins.keySet()) {
+			final Long layer_id = tree_layer.get(tl);
+			if (null != layer_id) pinned.add(layer_id);
+		}
+		final ArrayList<Long> out = new ArrayList<Long>();
+		int n = resident.size();
+		for (final Long layer_id : resident.keySet()) {
+			if (n <= max) break;
+			if (shown.contains(layers.get(layer_id)) || pinned.contains(layer_id)) continue;
+			out.add(layer_id);
+			n--;
+		}
+		for (final Long layer_id : out) pageOut(layer_id);
+	}
+
+	private void pageOut(final long layer_id) {
+		final List<Treeline> list = resident.remove(layer_id);
+		if (null == list) return;
+		final Map<Layer,Long> stamps = edit_stamps.remove(layer_id);
+		final ArrayList<Treeline> out = new ArrayList<Treeline>(list.size());
+		for (final Treeline tl : list) {
+			if (isEdited(tl, stamps)) {
+				// unsaved edits without an undo step, e.g. statuses set for all nodes: keep the nodes
+				tree_layer.remove(tl);
+				continue;
+			}
+			tl.setRoot(null);
+			out.add(tl);
+		}
+		if (!out.isEmpty()) paged_out.put(layer_id, out);
+		final Layer layer = layers.get(layer_id);
+		layer.getParent().updateBuckets(layer);
+	}
+
+	/** Keep the nodes of @param tl in memory until as many calls to {@link #unpin(Treeline)}, so that they are
+	 *  not paged out while walking them, e.g. with {@code tl.getRoot().getSubtreeNodes()}. Pins nothing if
+	 *  the pager does not control @param tl. See also {@link Treeline#pinNodes()}. */
+	synchronized public void pin(final Treeline tl) {
+		if (!tree_layer.containsKey(tl)) return;
+		final Integer n = pins.get(tl);
+		pins.put(tl, null == n ? 1 : n + 1);
+	}
+
+	synchronized public void unpin(final Treeline tl) {
+		final Integer n = pins.get(tl);
+		if (null == n) return;
+		if (n > 1) {
+			pins.put(tl, n - 1);
+			return;
+		}
+		pins.remove(tl);
+		trimResident(max_resident_layers);
+	}
+
+	/** @return whether @param tl is paged out and has nodes in @param layer, as stored in the snapshot */
+	synchronized public boolean hasNodesAt(final Treeline tl, final Layer layer) {
+		if (!isPagedOut(tl)) return false;
+		long[] ids = node_layer_ids.get(tl);
+		if (null == ids) {
+			try {
+				ids = snapshot.getNodeLayerIds(tl.getId());
+			} catch (final IOException e) {
+				IJError.print(e);
+				return false;
+			}
+			node_layer_ids.put(tl, ids);
+		}
+		for (final long id : ids) {
+			if (id == layer.getId()) return true;
+		}
+		return false;
+	}
+
+	/** Page out the nodes of all layers not shown in a {@link Display}, in the background; called when memory runs low. */
+	public void pageOutAll() {
+		releaser.submit(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (TreelinePager.this) {
+					trimResident(0);
+				}
+			}
+		});
+	}
+
+	/** The treelines among @param ds are edited: keep their nodes in memory from now on. */
+	synchronized public void forget(final Collection<? extends Displayable> ds) {
+		for (final Displayable d : ds) {
+			if (!(d instanceof Treeline)) continue;
+			final Long layer_id = tree_layer.remove(d);
+			if (null == layer_id) continue;
+			final List<Treeline> list = resident.get(layer_id);
+			if (null != list) list.remove(d);
+			final List<Treeline> out = paged_out.get(layer_id);
+			if (null != out && out.remove(d)) {
+				// edited without its nodes ever being read, e.g. the title or color
+				pageIn((Treeline)d, layer_id);
+			}
+		}
+	}
+
+	private void pageIn(final Treeline tl, final long layer_id) {
+		try {
+			final RadiusNode root = snapshot.readRoot(tl.getId(), layers, tl.getLayerSet());
+			if (null != root) {
+				tl.setRoot(root);
+				tl.getLayerSet().updateBuckets(layers.get(layer_id));
+			}
+		} catch (final Exception e) {
+			Utils.log("ERROR: could not read the nodes of " + tl);
+			IJError.print(e);
+		}
+	}
+
+	/** Write the nodes of @param tl as stored in the snapshot, if paged out.
+	 *  @return the number of nodes written, or -1 if the nodes of @param tl are in memory */
+	synchronized int copyNodes(final Treeline tl, final DataOutputStream out) throws IOException {
+		if (!isPagedOut(tl)) return -1;
+		snapshot.copyNodes(tl.getId(), out);
+		return snapshot.getNodeCount(tl.getId());
+	}
+
+	/** @return the id of the layer of the root of the paged out @param tl, see {@link #copyNodes(Treeline, DataOutputStream)} */
+	synchronized long getLayerId(final Treeline tl) {
+		return snapshot.getLayerId(tl.getId());
+	}
+
+	/** The project was saved as snapshot to @param new_path: read from it from now on,
+	 *  and page all treelines stored there, including those edited or created since opening. */
+	synchronized public void reopen(final String new_path) {
+		final ProjectSnapshot old = snapshot;
+		try {
+			snapshot = ProjectSnapshot.open(new_path);
+		} catch (final IOException e) {
+			Utils.log("Could not reopen " + new_path + " for paging treelines, keeping " + path);
+			IJError.print(e);
+			return;
+		}
+		path = new_path;
+		try {
+			old.close();
+		} catch (final IOException e) {
+			IJError.print(e);
+		}
+		if (null == ls) ls = project.getRootLayerSet();
+		layers.clear();
+		for (final Layer la : ls.getLayers()) layers.put(la.getId(), la);
+		// paged out treelines were copied unchanged, the others are in memory
+		final HashMap<Long,List<Treeline>> out = new HashMap<Long,List<Treeline>>(paged_out);
+		paged_out.clear();
+		resident.clear();
+		tree_layer.clear();
+		edit_stamps.clear();
+		node_layer_ids.clear();
+		for (final List<Treeline> list : out.values()) {
+			for (final Treeline tl : list) add(tl);
+		}
+		for (final ZDisplayable zd : ls.getZDisplayables(Treeline.class)) {
+			final Treeline tl = (Treeline)zd;
+			if (tree_layer.containsKey(tl) || null == tl.getRoot() || !snapshot.hasNodes(tl.getId())) continue;
+			final long layer_id = snapshot.getLayerId(tl.getId());
+			if (Treeline.class != tl.getClass() || !layers.containsKey(layer_id)) continue;
+			tree_layer.put(tl, layer_id);
+			getList(resident, layer_id).add(tl);
+		}
+		// all saved now
+		for (final Map.Entry<Long,List<Treeline>> e : resident.entrySet()) edit_stamps.put(e.getKey(), stampEdits(e.getValue()));
+		trimResident(max_resident_layers);
+	}
+
+	/** @return the snapshot file the nodes are read from */
+	public String getPath() {
+		return path;
+	}
+
+	/** @return the number of treelines whose nodes are not in memory */
+	synchronized public int getPagedOutCount() {
+		int n = 0;
+		for (final List<Treeline> list : paged_out.values()) n += list.size();
+		return n;
+	}
+
+	synchronized public void close() {
+		releaser.shutdownNow();
+		try {
+			snapshot.close();
+		} catch (final IOException e) {
+			IJError.print(e);
+		}
+		paged_out.clear();
+		resident.clear();
+		tree_layer.clear();
+		edit_stamps.clear();
+		pins.clear();
+		node_layer_ids.clear();
+	}
+}
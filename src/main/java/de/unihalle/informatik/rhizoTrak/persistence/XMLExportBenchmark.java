@@ -0,0 +1,209 @@
+/* 
+ * This file is part of the rhizoTrak project.
+ * 
+ * Note that rhizoTrak extends TrakEM2, hence, its code base substantially 
+ * relies on the source code of the TrakEM2 project and the corresponding Fiji 
+ * plugin, initiated by A. Cardona in 2005. Large portions of rhizoTrak's code 
+ * are directly derived/copied from the source code of TrakEM2.
+ * 
+ * For more information on TrakEM2 please visit its websites:
+ * 
+ *  https://imagej.net/TrakEM2
+ * 
+ *  https://github.com/trakem2/TrakEM2/wiki
+ * 
+ * Fore more information on rhizoTrak, visit
+ *
+ *  https://prbio-hub.github.io/rhizoTrak
+ *
+ * Both projects, TrakEM2 and rhizoTrak, are released under GPL. 
+ * Please find below first the copyright notice of rhizoTrak, and further on
+ * (in case that this file was part of the original TrakEM2 source code base
+ * and contained a TrakEM2 file header) the original file header with the 
+ * TrakEM2 license note.
+ */
+
+/*
+ * Copyright (C) 2018 - @YEAR@ by the rhizoTrak development team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Fore more information on rhizoTrak, visit
+ *
+ *    https://prbio-hub.github.io/rhizoTrak
+ *
+ */
+
+package de.unihalle.informatik.rhizoTrak.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.zip.GZIPOutputStream;
+
+import de.unihalle.informatik.rhizoTrak.ControlWindow;
+import de.unihalle.informatik.rhizoTrak.Project;
+import de.unihalle.informatik.rhizoTrak.display.Layer;
+import de.unihalle.informatik.rhizoTrak.display.LayerSet;
+import de.unihalle.informatik.rhizoTrak.display.Treeline;
+import de.unihalle.informatik.rhizoTrak.display.Treeline.RadiusNode;
+import de.unihalle.informatik.rhizoTrak.display.ZDisplayable;
+import de.unihalle.informatik.rhizoTrak.utils.Utils;
+
+/** Measures time and peak heap usage of writing the XML of a project, comparing
+ *  building the XML of each treeline in a StringBuilder before writing it, as done formerly,
+ *  with streaming it to the output node by node.
+ *  <p>
+ *  Usage: <code>XMLExportBenchmark project.xml [-nodes n] [-gz]</code>
+ *  </p>
+ *  <p>
+ *  With <code>-nodes</code> a synthetic treeline with n nodes spread over all layers is added
+ *  to the opened project (default 1000000), to emulate a large annotation project.
+ *  The project file itself is not modified, the XML is written to temporary files.
+ *  </p>
+ */
+public class XMLExportBenchmark {
+
+	private static final String USAGE = "usage: XMLExportBenchmark project.xml [-nodes n] [-gz]";
+
+	static public void main(final String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		int n_nodes = 1000000;
+		boolean gz = false;
+		for (int i=1; i<args.length; i++) {
+			if (args[i].equals("-nodes") && i+1 < args.length) {
+				n_nodes = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-gz")) {
+				gz = true;
+			} else {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+		}
+
+		ControlWindow.setGUIEnabled(false);
+		final Project project = Project.openFSProject(args[0], false);
+		if (null == project) {
+			System.err.println("cannot open project " + args[0]);
+			System.exit(1);
+		}
+		if (n_nodes > 0) addSyntheticTreeline(project, n_nodes);
+
+		final XMLOptions options = new XMLOptions();
+		final LayerSet ls = project.getRootLayerSet();
+
+		// 1 - treelines built in memory, then written
+		long[] r = measure(new Task() {
+			@Override
+			public void run(final Writer writer) throws Exception {
+				for (final ZDisplayable zd : ls.getZDisplayables()) {
+					final StringBuilder sb = new StringBuilder();
+					zd.exportXML(sb, "\t", options);
+					writer.write(sb.toString());
+				}
+			}
+		}, gz);
+		Utils.log("treelines via StringBuilder: " + r[0] + " ms, peak heap " + (r[1] / (1024 * 1024)) + " MB");
+
+		// 2 - treelines streamed
+		r = measure(new Task() {
+			@Override
+			public void run(final Writer writer) throws Exception {
+				final StringBuilder sb = new StringBuilder();
+				for (final ZDisplayable zd : ls.getZDisplayables()) {
+					zd.exportXML(writer, sb, "\t", options);
+				}
+			}
+		}, gz);
+		Utils.log("treelines streamed:          " + r[0] + " ms, peak heap " + (r[1] / (1024 * 1024)) + " MB");
+
+		// 3 - the complete project, as when saving
+		r = measure(new Task() {
+			@Override
+			public void run(final Writer writer) throws Exception {
+				project.getLoader().writeXMLTo(project, writer, options);
+			}
+		}, gz);
+		Utils.log("complete project streamed:   " + r[0] + " ms, peak heap " + (r[1] / (1024 * 1024)) + " MB");
+
+		project.destroy();
+		System.exit(0);
+	}
+
+	private interface Task {
+		void run(Writer writer) throws Exception;
+	}
+
+	/** Returns the elapsed milliseconds and the peak heap bytes used while running @param task. */
+	static private long[] measure(final Task task, final boolean gz) throws Exception {
+		final File f = File.createTempFile("rhizoTrak-export", gz ? ".xml.gz" : ".xml");
+		f.deleteOnExit();
+		System.gc();
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == pool.getType()) pool.resetPeakUsage();
+		}
+		final long start = System.currentTimeMillis();
+		final FileOutputStream fos = new FileOutputStream(f);
+		final Writer writer = gz ? new OutputStreamWriter(new GZIPOutputStream(new BufferedOutputStream(fos, 1 << 20), 1 << 16), "8859_1")
+		                         : new OutputStreamWriter(new BufferedOutputStream(fos, 1 << 20), "8859_1");
+		try {
+			task.run(writer);
+		} finally {
+			writer.close();
+		}
+		final long elapsed = System.currentTimeMillis() - start;
+		long peak = 0;
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == pool.getType()) peak += pool.getPeakUsage().getUsed();
+		}
+		f.delete();
+		return new long[]{elapsed, peak};
+	}
+
+	/** Add a treeline of @param n nodes, in branches of 100 nodes distributed over the layers. */
+	static private void addSyntheticTreeline(final Project project, final int n) {
+		final LayerSet ls = project.getRootLayerSet();
+		final int n_layers = ls.size();
+		if (0 == n_layers) return;
+		final Treeline tl = new Treeline(project, "synthetic");
+		ls.add(tl);
+		RadiusNode branch_start = null;
+		RadiusNode last = null;
+		RadiusNode root = null;
+		for (int i=0; i<n; i++) {
+			final Layer la = ls.getLayer((i / 100) % n_layers);
+			final RadiusNode nd = new RadiusNode(i % 5000, i / 5000, la, 1 + (i % 7));
+			if (null == root) {
+				root = nd;
+				branch_start = nd;
+			} else if (0 == i % 100) {
+				branch_start.add(nd, (byte)(i % 4));
+				branch_start = nd;
+			} else {
+				last.add(nd, (byte)(i % 4));
+			}
+			last = nd;
+		}
+		tl.setRoot(root);
+		Utils.log("added synthetic treeline with " + n + " nodes");
+	}
+}
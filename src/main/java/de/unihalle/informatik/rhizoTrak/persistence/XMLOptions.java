@@ -52,6 +52,7 @@ package de.unihalle.informatik.rhizoTrak.persistence;
 import java.util.HashMap;
 
 import de.unihalle.informatik.rhizoTrak.display.Patch;
+import de.unihalle.informatik.rhizoTrak.display.Treeline;
 import de.unihalle.informatik.rhizoTrak.tree.ProjectTree;
 import de.unihalle.informatik.rhizoTrak.tree.Thing;
 import mpicbg.trakem2.transform.CoordinateTransform;
@@ -73,6 +74,10 @@ public class XMLOptions
 	/** If true, then {@link Patch#exportXML(StringBuilder, String, XMLOptions)} will write
 	 * the @{link {@link CoordinateTransform}} XML into the XML file. */
 	public boolean include_coordinate_transform = true;
+
+	/** If true, {@link Treeline} objects are written without their nodes, which are then stored
+	 * separately, see {@link ProjectSnapshot}. */
+	public boolean omit_treeline_nodes = false;
 	
 	public XMLOptions() {}
 }
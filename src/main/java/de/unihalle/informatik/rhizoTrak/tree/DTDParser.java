@@ -64,6 +64,7 @@ import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 import de.unihalle.informatik.rhizoTrak.persistence.FSLoader;
+import de.unihalle.informatik.rhizoTrak.persistence.ProjectSnapshot;
 import de.unihalle.informatik.rhizoTrak.utils.IJError;
 import de.unihalle.informatik.rhizoTrak.utils.Utils;
 
@@ -75,6 +76,7 @@ public class DTDParser {
 	/** Extracts the template by reading the ELEMENT and ATTLIST tags from a .dtd file or the DOCTYPE of an .xml file. */
 	static public TemplateThing[] extractTemplate(String path) throws Exception {
 		if (path.matches(".*(\\.xml|\\.xml\\.gz)")) return parseXMLFile(path);
+		if (ProjectSnapshot.isSnapshotPath(path)) return parseXMLStream(ProjectSnapshot.openSkeleton(path));
 		if (path.length() -4 == path.lastIndexOf(".dtd")) return parseDTDFile(path);
 		return null;
 	}
@@ -112,18 +114,23 @@ public class DTDParser {
 	/** Parses a !DOCTYPE chunk from an .xml file, if any. Returns the TemplateThing roots. Assumes there is only one continuous DOCTYPE clause and the root template thing, the layer_set and the display are part of the project tag. */
 	static public TemplateThing[] parseXMLFile(String xml_path) throws Exception {
 		// fetch file
+		InputStream i_stream;
+		if (FSLoader.isURL(xml_path)) {
+			i_stream = new java.net.URL(xml_path).openStream();
+		} else {
+			File f = new File(xml_path);
+			if (!f.exists()) return null;
+			i_stream = new FileInputStream(xml_path);
+		}
+		if (xml_path.endsWith(".xml.gz")) i_stream = new GZIPInputStream(i_stream);
+		return parseXMLStream(i_stream);
+	}
+
+	/** Parses a !DOCTYPE chunk from the XML read from @param i_stream, which is closed. See {@link #parseXMLFile(String)}. */
+	static public TemplateThing[] parseXMLStream(final InputStream i_stream) throws Exception {
 		BufferedReader dis = null;
 		final StringBuilder data = new StringBuilder();
 		try {
-			InputStream i_stream;
-			if (FSLoader.isURL(xml_path)) {
-				i_stream = new java.net.URL(xml_path).openStream();
-			} else {
-				File f = new File(xml_path);
-				if (!f.exists()) return null;
-				i_stream = new FileInputStream(xml_path);
-			}
-			if (xml_path.endsWith(".xml.gz")) i_stream = new GZIPInputStream(i_stream);
 			dis = new BufferedReader(new InputStreamReader(i_stream));
 			String tmp;
 			while (null != (tmp = dis.readLine())) {
@@ -1000,6 +1000,17 @@ public final class ProjectThing extends DBObject implements TitledThing {
 	/** Expects a {@code HashMap<Thing,Boolean>} as {@code any}. */
 	@Override
 	public void exportXML(final StringBuilder sb_body, final String indent, final XMLOptions options) {
+		try {
+			exportXML(null, sb_body, indent, options);
+		} catch (final Exception e) {
+			throw new RuntimeException(e); // only a writer can fail
+		}
+	}
+
+	/** Writes to @param writer element by element instead of accumulating the whole hierarchy in memory.
+	 *  @param sb_body must be empty on entry and is left empty, unless @param writer is null:
+	 *  then the whole XML is appended to @param sb_body. */
+	public void exportXML(final java.io.Writer writer, final StringBuilder sb_body, final String indent, final XMLOptions options) throws Exception {
 		// write in opening tag, put in there the attributes, then close, then call the children (indented), then closing tag.
 		final String in = indent + "\t";
 		// 1 - opening tag with attributes:
@@ -1021,15 +1032,17 @@ public final class ProjectThing extends DBObject implements TitledThing {
 		// 2 - list of children:
 		if (null != al_children) {
 			sb_body.append(">\n");
+			Utils.writeAndClear(writer, sb_body);
 			synchronized (al_children) {
 				for (ProjectThing child : al_children) {
-					child.exportXML(sb_body, in, options);
+					child.exportXML(writer, sb_body, in, options);
 				}
 			}
 			sb_body.append(indent).append("</").append(tag).append(">\n");
 		} else {
 			sb_body.append("/>\n");
 		}
+		Utils.writeAndClear(writer, sb_body);
 	}
 
 	public void debug(String indent) {
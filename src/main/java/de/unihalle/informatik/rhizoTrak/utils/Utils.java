@@ -105,6 +105,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -798,6 +799,20 @@ public class Utils implements ij.plugin.PlugIn {
 		sb.append(b);
 	}
 
+	/** Write the contents of @param sb to @param writer in chunks, without making a String copy of it,
+	 *  and then empty @param sb so that it can be reused. Does nothing if @param writer is null. */
+	static public final void writeAndClear(final Writer writer, final StringBuilder sb) throws IOException {
+		final int len = sb.length();
+		if (0 == len || null == writer) return;
+		final char[] buf = new char[Math.min(len, 16384)];
+		for (int start = 0; start < len; start += buf.length) {
+			final int end = Math.min(len, start + buf.length);
+			sb.getChars(start, end, buf, 0);
+			writer.write(buf, 0, end - start);
+		}
+		sb.setLength(0);
+	}
+
 	static public final Color getRGBColorFromHex(final String hex) {
 		if (hex.length() < 6) return null;
 		return new Color(Integer.parseInt(hex.substring(0, 2), 16), // parse in hexadecimal radix